@@ -0,0 +1,214 @@
+// Copyright © Microsoft Corporation
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//      http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.concurrency;
+
+import org.opengroup.osdu.indexerqueue.azure.exceptions.IndexerRetryException;
+import org.opengroup.osdu.indexerqueue.azure.scope.message.MessageContext;
+import org.opengroup.osdu.indexerqueue.azure.scope.message.MessageContextHolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/***
+ * Limits the number of concurrent indexer calls of a single subscription.
+ * The limit is adjusted every sample window: it is decreased multiplicatively when the indexer gets slower than the
+ * target latency or the error rate goes over the threshold, and increased by one when calls are waiting for a permit
+ * and the shared budget has permits left. The limit never exceeds the max concurrent calls of the message pump, which
+ * bounds the messages a subscription handles at once.
+ * Callers that cannot get a permit are queued without blocking a thread. Queued calls run on the dispatcher in the
+ * message context of their caller, not on the thread releasing the permit, which is typically an HTTP client thread.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class.getName());
+    private static final double DECREASE_FACTOR = 0.75;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatencyMillis;
+    private final double errorRateThreshold;
+    private final int sampleWindow;
+    private final ConcurrencyBudget budget;
+    private final Executor dispatcher;
+
+    private final Deque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+    private int limit;
+    private int inFlight;
+    private int samples;
+    private int errors;
+    private long totalLatencyMillis;
+    private boolean closed;
+
+    public AdaptiveConcurrencyLimiter(String name, int minLimit, int maxLimit, long targetLatencyMillis,
+                                      double errorRateThreshold, int sampleWindow, ConcurrencyBudget budget,
+                                      Executor dispatcher) {
+        this.name = name;
+        this.maxLimit = Math.max(1, maxLimit);
+        this.minLimit = Math.min(Math.max(1, minLimit), this.maxLimit);
+        this.targetLatencyMillis = targetLatencyMillis;
+        this.errorRateThreshold = errorRateThreshold;
+        this.sampleWindow = Math.max(1, sampleWindow);
+        this.budget = budget;
+        this.dispatcher = dispatcher;
+        this.limit = this.maxLimit;
+        budget.register(this);
+    }
+
+    /***
+     * Runs the call once a permit is available and reports its latency and outcome back to the limiter.
+     * @param call the indexer call.
+     * @return the result of the call, failed with an IndexerRetryException if the limiter is closed before it runs.
+     */
+    public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<Void> permit = acquire();
+        if (permit.isDone()) {
+            return permit.thenCompose(ignored -> run(call));
+        }
+        MessageContext context = MessageContextHolder.current();
+        Function<Void, CompletableFuture<T>> queued = MessageContextHolder.wrap(context, ignored -> run(call));
+        return permit.thenComposeAsync(queued, dispatcher);
+    }
+
+    private <T> CompletableFuture<T> run(Supplier<CompletableFuture<T>> call) {
+        long start = System.currentTimeMillis();
+        CompletableFuture<T> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        return result.whenComplete((value, throwable) ->
+            release(System.currentTimeMillis() - start, throwable == null || !isCapacityError(throwable)));
+    }
+
+    CompletableFuture<Void> acquire() {
+        synchronized (this) {
+            if (closed) {
+                return CompletableFuture.failedFuture(closedException());
+            }
+            if (waiters.isEmpty() && inFlight < limit && budget.tryAcquire()) {
+                inFlight++;
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> waiter = new CompletableFuture<>();
+            waiters.addLast(waiter);
+            return waiter;
+        }
+    }
+
+    void release(long latencyMillis, boolean success) {
+        synchronized (this) {
+            inFlight--;
+            samples++;
+            totalLatencyMillis += latencyMillis;
+            if (!success) {
+                errors++;
+            }
+            if (samples >= sampleWindow) {
+                adjustLimit();
+            }
+        }
+        budget.release();
+        drain();
+    }
+
+    /*
+     * Hands free permits to queued callers. The futures are completed outside the lock, completing them hands the
+     * indexer calls to the dispatcher.
+     */
+    void drain() {
+        List<CompletableFuture<Void>> granted = new ArrayList<>();
+        synchronized (this) {
+            while (!waiters.isEmpty() && inFlight < limit && budget.tryAcquire()) {
+                inFlight++;
+                granted.add(waiters.pollFirst());
+            }
+        }
+        granted.forEach(waiter -> waiter.complete(null));
+    }
+
+    /***
+     * Unregisters the limiter from the shared budget. Queued calls fail with an IndexerRetryException, so their
+     * messages are retried rather than left waiting for permits that are never released.
+     */
+    public void close() {
+        List<CompletableFuture<Void>> abandoned;
+        synchronized (this) {
+            closed = true;
+            abandoned = new ArrayList<>(waiters);
+            waiters.clear();
+        }
+        budget.unregister(this);
+        IndexerRetryException exception = closedException();
+        abandoned.forEach(waiter -> waiter.completeExceptionally(exception));
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getBacklog() {
+        return waiters.size();
+    }
+
+    private void adjustLimit() {
+        long averageLatency = totalLatencyMillis / samples;
+        double errorRate = (double) errors / samples;
+        int previous = limit;
+        if (errorRate > errorRateThreshold || averageLatency > targetLatencyMillis) {
+            limit = Math.max(minLimit, (int) (limit * DECREASE_FACTOR));
+        } else if (!waiters.isEmpty() || inFlight >= limit) {
+            limit = Math.min(ceiling(), limit + 1);
+        }
+        if (limit != previous) {
+            LOGGER.debug("Concurrency limit of {} changed from {} to {} (average latency {} ms, error rate {})",
+                name, previous, limit, averageLatency, errorRate);
+        }
+        samples = 0;
+        errors = 0;
+        totalLatencyMillis = 0;
+    }
+
+    /*
+     * The limit only grows into permits the shared budget still has, up to the max concurrent calls of the pump, so
+     * calls waiting on the budget rather than on this limiter do not inflate it.
+     */
+    private int ceiling() {
+        return Math.max(limit, Math.min(maxLimit, inFlight + budget.getAvailable()));
+    }
+
+    private IndexerRetryException closedException() {
+        return new IndexerRetryException("Concurrency limiter of " + name + " was closed before the indexer call could run");
+    }
+
+    private static boolean isCapacityError(Throwable throwable) {
+        Throwable cause = throwable;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof IndexerRetryException;
+    }
+}
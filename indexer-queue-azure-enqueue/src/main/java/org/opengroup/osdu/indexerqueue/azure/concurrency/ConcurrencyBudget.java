@@ -0,0 +1,96 @@
+// Copyright © Microsoft Corporation
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//      http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.concurrency;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/***
+ * Process wide cap on the number of indexer calls in flight across all subscriptions.
+ * Permits are only held while a call is running, so capacity an idle partition is not using
+ * is immediately available to the limiters of busier partitions, each up to the max concurrent calls of its
+ * message pump. The limiters only grow into permits that are still available.
+ */
+public class ConcurrencyBudget {
+
+    private final int maxInFlight;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final List<AdaptiveConcurrencyLimiter> limiters = new CopyOnWriteArrayList<>();
+    private final AtomicInteger nextLimiter = new AtomicInteger();
+
+    public ConcurrencyBudget(int maxInFlight) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    boolean tryAcquire() {
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= maxInFlight) {
+                return false;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /*
+     * Returns a permit and offers free capacity to the limiters in round robin order, so a call waiting
+     * on another subscription is not stuck behind the one that just finished.
+     */
+    void release() {
+        inFlight.decrementAndGet();
+        int size = limiters.size();
+        if (size == 0) {
+            return;
+        }
+        int start = Math.floorMod(nextLimiter.getAndIncrement(), size);
+        for (int i = 0; i < size && inFlight.get() < maxInFlight; i++) {
+            limiters.get((start + i) % size).drain();
+        }
+    }
+
+    void register(AdaptiveConcurrencyLimiter limiter) {
+        limiters.add(limiter);
+    }
+
+    void unregister(AdaptiveConcurrencyLimiter limiter) {
+        limiters.remove(limiter);
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    int getAvailable() {
+        return Math.max(0, maxInFlight - inFlight.get());
+    }
+
+    /***
+     * @return true while the whole budget is in use or calls are waiting on one of the limiters.
+     */
+    public boolean isSaturated() {
+        if (inFlight.get() >= maxInFlight) {
+            return true;
+        }
+        for (AdaptiveConcurrencyLimiter limiter : limiters) {
+            if (limiter.getBacklog() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
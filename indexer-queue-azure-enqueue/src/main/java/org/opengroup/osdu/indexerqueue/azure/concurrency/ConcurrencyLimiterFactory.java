@@ -0,0 +1,68 @@
+// Copyright © Microsoft Corporation
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//      http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.concurrency;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/***
+ * Creates the per subscription concurrency limiters, all sharing one process wide {@link ConcurrencyBudget} and one
+ * dispatcher starting the calls that had to wait for a permit. The requests of those calls are prepared before they
+ * are queued, so the dispatcher threads only hand them to the HTTP client.
+ */
+@Component
+public class ConcurrencyLimiterFactory {
+
+    private final int minConcurrentCalls;
+    private final long targetLatencyMillis;
+    private final double errorRateThreshold;
+    private final int sampleWindow;
+    private final ConcurrencyBudget budget;
+    private final ExecutorService dispatcher = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "indexer-call-dispatcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ConcurrencyLimiterFactory(@Value("${concurrency.min-concurrent-calls:1}") int minConcurrentCalls,
+                                     @Value("${concurrency.global-max-concurrent-calls:256}") int globalMaxConcurrentCalls,
+                                     @Value("${concurrency.target-latency-millis:2000}") long targetLatencyMillis,
+                                     @Value("${concurrency.error-rate-threshold:0.2}") double errorRateThreshold,
+                                     @Value("${concurrency.sample-window:20}") int sampleWindow) {
+        this.minConcurrentCalls = minConcurrentCalls;
+        this.targetLatencyMillis = targetLatencyMillis;
+        this.errorRateThreshold = errorRateThreshold;
+        this.sampleWindow = sampleWindow;
+        this.budget = new ConcurrencyBudget(globalMaxConcurrentCalls);
+    }
+
+    /***
+     * @param name name used when logging limit changes, typically partition and topic.
+     * @param maxConcurrentCalls upper bound of the limiter, the max concurrent calls of the message pump, which bounds
+     *                           the calls of the subscription anyway; below it the limit follows the shared budget.
+     * @return a limiter registered with the shared budget.
+     */
+    public AdaptiveConcurrencyLimiter create(String name, int maxConcurrentCalls) {
+        return new AdaptiveConcurrencyLimiter(name, minConcurrentCalls, maxConcurrentCalls, targetLatencyMillis,
+            errorRateThreshold, sampleWindow, budget, dispatcher);
+    }
+
+    /***
+     * @return true while the indexer calls of all subscriptions use the whole budget or have to wait for a permit.
+     */
+    public boolean isSaturated() {
+        return budget.isSaturated();
+    }
+}
@@ -0,0 +1,154 @@
+// Copyright © Microsoft Corporation
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//      http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.concurrency;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.opengroup.osdu.indexerqueue.azure.di.AzureBootstrapConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/***
+ * Gives every data partition its own bounded thread pool for the message pumps of its subscriptions.
+ * When a partition pool and its queue are full, work spills over to a pool shared by all partitions, so a spike
+ * in one partition cannot take the threads the other partitions are running on.
+ */
+@Component
+public class PartitionExecutorRegistry implements DisposableBean {
+
+    static final String EXECUTOR_METRIC_NAME = "indexer.queue.partition.executor";
+    static final String OVERFLOW_METRIC_NAME = "indexer.queue.partition.executor.overflow";
+    private static final String PARTITION_TAG = "partition";
+    private static final String NAME_TAG = "name";
+    private static final String OVERFLOW_PARTITION = "overflow";
+
+    private final Logger logger = LoggerFactory.getLogger(PartitionExecutorRegistry.class.getName());
+    private final Map<String, ThreadPoolExecutor> executors = new ConcurrentHashMap<>();
+    private final Map<String, List<Meter>> partitionMeters = new ConcurrentHashMap<>();
+    private volatile ThreadPoolExecutor overflowExecutor;
+
+    @Autowired
+    private AzureBootstrapConfig azureBootstrapConfig;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /***
+     * @param partition data partition id.
+     * @return the executor of the partition, created on first use.
+     */
+    public ExecutorService getExecutor(String partition) {
+        return executors.computeIfAbsent(partition, this::createPartitionExecutor);
+    }
+
+    /***
+     * Stops the executor of a partition that is no longer served and removes its meters. Tasks already submitted
+     * are allowed to finish.
+     * @param partition data partition id.
+     */
+    public void shutdown(String partition) {
+        ThreadPoolExecutor executor = executors.remove(partition);
+        if (executor != null) {
+            executor.shutdown();
+        }
+        List<Meter> meters = partitionMeters.remove(partition);
+        if (meters != null) {
+            meters.forEach(meterRegistry::remove);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executors.values().forEach(ThreadPoolExecutor::shutdown);
+        executors.clear();
+        if (overflowExecutor != null) {
+            overflowExecutor.shutdown();
+        }
+    }
+
+    private ThreadPoolExecutor createPartitionExecutor(String partition) {
+        int threads = Math.max(1, azureBootstrapConfig.getPartitionNThreads());
+        Counter overflowCounter = meterRegistry.counter(OVERFLOW_METRIC_NAME, PARTITION_TAG, partition);
+        ThreadPoolExecutor overflow = getOverflowExecutor();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, azureBootstrapConfig.getPartitionExecutorQueueCapacity())),
+            namedThreadFactory("sb-" + partition),
+            (task, rejectedBy) -> {
+                if (rejectedBy.isShutdown()) {
+                    // the pump has not settled the message, it is delivered again once its lock expires
+                    logger.warn("Executor of partition {} is shut down, dropping task {}", partition, task);
+                    return;
+                }
+                overflowCounter.increment();
+                overflow.execute(task);
+            });
+        executor.allowCoreThreadTimeOut(true);
+        new ExecutorServiceMetrics(executor, EXECUTOR_METRIC_NAME, Tags.of(PARTITION_TAG, partition)).bindTo(meterRegistry);
+        partitionMeters.put(partition, findPartitionMeters(partition));
+        logger.info("Created executor with {} threads for partition {}", threads, partition);
+        return executor;
+    }
+
+    /*
+     * ExecutorServiceMetrics registers its meters under its own names, tagged with the executor name.
+     */
+    private List<Meter> findPartitionMeters(String partition) {
+        return meterRegistry.getMeters().stream()
+            .filter(meter -> partition.equals(meter.getId().getTag(PARTITION_TAG)))
+            .filter(meter -> EXECUTOR_METRIC_NAME.equals(meter.getId().getTag(NAME_TAG))
+                || OVERFLOW_METRIC_NAME.equals(meter.getId().getName()))
+            .collect(Collectors.toList());
+    }
+
+    /*
+     * The shared pool keeps the size of the former process wide pool. If it is saturated too, the submitting pump
+     * thread runs the task itself, which slows down receiving instead of dropping messages.
+     */
+    private ThreadPoolExecutor getOverflowExecutor() {
+        if (overflowExecutor == null) {
+            synchronized (this) {
+                if (overflowExecutor == null) {
+                    int threads = Math.max(1, Integer.parseUnsignedInt(azureBootstrapConfig.getNThreads()));
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<>(Math.max(1, azureBootstrapConfig.getPartitionExecutorQueueCapacity())),
+                        namedThreadFactory("sb-overflow"),
+                        new ThreadPoolExecutor.CallerRunsPolicy());
+                    executor.allowCoreThreadTimeOut(true);
+                    new ExecutorServiceMetrics(executor, EXECUTOR_METRIC_NAME, Tags.of(PARTITION_TAG, OVERFLOW_PARTITION)).bindTo(meterRegistry);
+                    overflowExecutor = executor;
+                }
+            }
+        }
+        return overflowExecutor;
+    }
+
+    private static ThreadFactory namedThreadFactory(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> new Thread(runnable, prefix + "-" + count.incrementAndGet());
+    }
+}
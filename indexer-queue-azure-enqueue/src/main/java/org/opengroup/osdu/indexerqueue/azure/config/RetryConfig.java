@@ -14,14 +14,20 @@
 
 package org.opengroup.osdu.indexerqueue.azure.config;
 
+import org.opengroup.osdu.indexerqueue.azure.util.DecorrelatedJitterRetryUtil;
 import org.opengroup.osdu.indexerqueue.azure.util.ExponentialRetryUtil;
+import org.opengroup.osdu.indexerqueue.azure.util.FullJitterRetryUtil;
+import org.opengroup.osdu.indexerqueue.azure.util.IndexerErrorRateTracker;
+import org.opengroup.osdu.indexerqueue.azure.util.LatencyAwareRetryUtil;
+import org.opengroup.osdu.indexerqueue.azure.util.RetryStrategies;
+import org.opengroup.osdu.indexerqueue.azure.util.RetryStrategies.Strategy;
 import org.opengroup.osdu.indexerqueue.azure.util.RetryUtil;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.retry.backoff.ExponentialBackOffPolicy;
-import org.springframework.retry.policy.SimpleRetryPolicy;
-import org.springframework.retry.support.RetryTemplate;
+
+import java.util.EnumMap;
+import java.util.Map;
 
 @Configuration
 public class RetryConfig {
@@ -32,22 +38,12 @@ public class RetryConfig {
   private int standardMultiplier;
   @Value("${retry.maxRetryDuration}")
   private int maxRetryDuration;
-
-  @Bean
-  public RetryTemplate retryTemplate() {
-    RetryTemplate retryTemplate = new RetryTemplate();
-
-    ExponentialBackOffPolicy exponentialBackOffPolicy = new ExponentialBackOffPolicy();
-    exponentialBackOffPolicy.setInitialInterval(1000L);
-    exponentialBackOffPolicy.setMultiplier(2);
-    retryTemplate.setBackOffPolicy(exponentialBackOffPolicy);
-
-    SimpleRetryPolicy retryPolicy = new SimpleRetryPolicy();
-    retryPolicy.setMaxAttempts(6);
-    retryTemplate.setRetryPolicy(retryPolicy);
-
-    return retryTemplate;
-  }
+  @Value("${retry.strategy:exponential}")
+  private String defaultStrategy;
+  @Value("${retry.topic-strategies:}")
+  private String topicStrategies;
+  @Value("${retry.latency-aware.max-multiplier:4}")
+  private double latencyAwareMaxMultiplier;
 
   @Bean
   public RetryUtil exponentialRetryUtil(){
@@ -57,4 +53,24 @@ public class RetryConfig {
       .maxRetryDuration(maxRetryDuration)
       .build();
   }
+
+  @Bean
+  public RetryStrategies retryStrategies(RetryUtil exponentialRetryUtil, IndexerErrorRateTracker indexerErrorRateTracker) {
+    Map<Strategy, RetryUtil> retryUtils = new EnumMap<>(Strategy.class);
+    retryUtils.put(Strategy.EXPONENTIAL, exponentialRetryUtil);
+    retryUtils.put(Strategy.FULL_JITTER, FullJitterRetryUtil.builder()
+      .delegate(exponentialRetryUtil)
+      .build());
+    retryUtils.put(Strategy.DECORRELATED_JITTER, DecorrelatedJitterRetryUtil.builder()
+      .baseRetryTerm(exponentialRetryUtil.generateNextRetryTerm(1))
+      .maxRetryDuration(maxRetryDuration)
+      .build());
+    retryUtils.put(Strategy.LATENCY_AWARE, LatencyAwareRetryUtil.builder()
+      .delegate(retryUtils.get(Strategy.FULL_JITTER))
+      .errorRateTracker(indexerErrorRateTracker)
+      .maxMultiplier(latencyAwareMaxMultiplier)
+      .maxRetryDuration(maxRetryDuration)
+      .build());
+    return new RetryStrategies(retryUtils, Strategy.of(defaultStrategy), RetryStrategies.parseTopicStrategies(topicStrategies));
+  }
 }
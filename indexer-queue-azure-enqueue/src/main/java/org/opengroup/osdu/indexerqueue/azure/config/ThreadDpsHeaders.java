@@ -1,22 +1,38 @@
 package org.opengroup.osdu.indexerqueue.azure.config;
 
 import org.opengroup.osdu.core.common.model.http.DpsHeaders;
+import org.opengroup.osdu.indexerqueue.azure.scope.message.MessageContext;
+import org.opengroup.osdu.indexerqueue.azure.scope.message.MessageContextHolder;
 import org.springframework.context.annotation.Primary;
 import org.springframework.context.annotation.Scope;
 import org.springframework.context.annotation.ScopedProxyMode;
 import org.springframework.stereotype.Component;
 
-import java.util.HashMap;
-import java.util.Map;
-
 @Component
 @Primary
 @Scope(value = "ThreadScope", proxyMode = ScopedProxyMode.TARGET_CLASS)
 public class ThreadDpsHeaders extends DpsHeaders {
+
+    /**
+     * The headers of a thread are created on first use after the thread scope was cleared, starting from the message
+     * context bound to the thread, if any.
+     */
+    public ThreadDpsHeaders() {
+        MessageContext context = MessageContextHolder.current();
+        if (context != null) {
+            this.addFromMap(context.getContextMap());
+        }
+    }
+
     public void setThreadContext(String dataPartitionId, String correlationId) {
-        Map<String, String> headers = new HashMap<>();
-        headers.put(DpsHeaders.DATA_PARTITION_ID, dataPartitionId);
-        headers.put(DpsHeaders.CORRELATION_ID, correlationId);
-        this.addFromMap(headers);
+        setThreadContext(MessageContext.of(dataPartitionId, correlationId));
+    }
+
+    /**
+     * Sets the partition and correlation id headers of the thread from the message, reusing its prebuilt map.
+     * Other headers are only dropped when the thread scope is cleared, which binding a message context does.
+     */
+    public void setThreadContext(MessageContext context) {
+        this.addFromMap(context.getContextMap());
     }
 }
@@ -25,6 +25,12 @@ public class AzureBootstrapConfig {
     @Value("${executor-n-threads}")
     private String nThreads;
 
+    @Value("#{new Integer('${partition-executor-n-threads:4}')}")
+    private Integer partitionNThreads;
+
+    @Value("#{new Integer('${partition-executor-queue-capacity:100}')}")
+    private Integer partitionExecutorQueueCapacity;
+
     @Value("${max-concurrent-calls}")
     private String maxConcurrentCalls;
 
@@ -61,6 +67,12 @@ public class AzureBootstrapConfig {
     @Value("#{new Integer('${sleep.duration.main.thread.seconds}')}")
     private Integer sleepDurationForMainThreadInSeconds;
 
+    @Value("#{new Integer('${subscription.parallelism:16}')}")
+    private Integer subscriptionParallelism;
+
+    @Value("#{new Integer('${indexer.request.timeout.seconds:60}')}")
+    private Integer indexerRequestTimeoutInSeconds;
+
     @Value("${spring.application.name}")
     private String appName;
 
@@ -18,5 +18,10 @@ public interface IMetricService {
 
     String getLatencyMetricName();
 
-    void sendIndexLatencyMetric(double value, String topicName, String dataPartitionId, String correlationId, boolean success);
+    /***
+     * Records the indexing latency of the records of one message. Samples are aggregated locally and published periodically.
+     * @param value latency in milliseconds, from enqueue time to the end of processing.
+     * @param recordCount number of records in the message, each counted as one sample.
+     */
+    void sendIndexLatencyMetric(double value, int recordCount, String topicName, String dataPartitionId, boolean success);
 }
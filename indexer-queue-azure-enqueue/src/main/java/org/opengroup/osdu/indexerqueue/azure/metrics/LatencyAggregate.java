@@ -0,0 +1,106 @@
+// Copyright © Schlumberger
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.metrics;
+
+import java.util.Arrays;
+
+/***
+ * Count, sum, min, max and sum of squares of the samples recorded since the last drain, along with a histogram of
+ * fixed latency buckets from which the percentiles are estimated.
+ */
+class LatencyAggregate {
+
+    // upper bounds of the buckets in milliseconds, the last bucket takes everything above
+    static final long[] BUCKET_BOUNDS_MILLIS = {
+        100, 250, 500, 1_000, 2_500, 5_000, 10_000, 30_000, 60_000, 120_000, 300_000, 600_000, 1_800_000, 3_600_000
+    };
+
+    private int count;
+    private double sum;
+    private double sumOfSquares;
+    private double min = Double.MAX_VALUE;
+    private double max = -Double.MAX_VALUE;
+    private long[] buckets = new long[BUCKET_BOUNDS_MILLIS.length + 1];
+
+    synchronized void record(double value, int samples) {
+        count += samples;
+        sum += value * samples;
+        sumOfSquares += value * value * samples;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        buckets[bucketOf(value)] += samples;
+    }
+
+    /***
+     * @return the samples recorded since the previous call, or null if there were none.
+     */
+    synchronized Snapshot drain() {
+        if (count == 0) {
+            return null;
+        }
+        Snapshot snapshot = new Snapshot(count, sum, sumOfSquares, min, max, buckets);
+        count = 0;
+        sum = 0;
+        sumOfSquares = 0;
+        min = Double.MAX_VALUE;
+        max = -Double.MAX_VALUE;
+        buckets = new long[BUCKET_BOUNDS_MILLIS.length + 1];
+        return snapshot;
+    }
+
+    private static int bucketOf(double value) {
+        int index = Arrays.binarySearch(BUCKET_BOUNDS_MILLIS, (long) Math.ceil(value));
+        return index >= 0 ? index : -index - 1;
+    }
+
+    static final class Snapshot {
+        final int count;
+        final double sum;
+        final double sumOfSquares;
+        final double min;
+        final double max;
+        final long[] buckets;
+
+        private Snapshot(int count, double sum, double sumOfSquares, double min, double max, long[] buckets) {
+            this.count = count;
+            this.sum = sum;
+            this.sumOfSquares = sumOfSquares;
+            this.min = min;
+            this.max = max;
+            this.buckets = buckets;
+        }
+
+        double standardDeviation() {
+            double mean = sum / count;
+            return Math.sqrt(Math.max(0, sumOfSquares / count - mean * mean));
+        }
+
+        /***
+         * @param quantile between 0 and 1.
+         * @return upper bound of the bucket holding the quantile, capped by the largest sample.
+         */
+        double percentile(double quantile) {
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return i < BUCKET_BOUNDS_MILLIS.length ? Math.min(BUCKET_BOUNDS_MILLIS[i], max) : max;
+                }
+            }
+            return max;
+        }
+    }
+}
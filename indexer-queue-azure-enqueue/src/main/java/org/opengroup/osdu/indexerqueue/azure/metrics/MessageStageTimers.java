@@ -0,0 +1,90 @@
+// Copyright © Schlumberger
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Splits the time between enqueue and settlement of a message into stages, each recorded as a Micrometer timer
+ * per topic. The timers publish p50, p95 and p99 and a percentile histogram, so it can be told whether the tail
+ * latency is spent waiting on the broker or on the indexer. The timers are not tagged with the partition: every
+ * histogram adds dozens of buckets per tag combination, which multiplied by the partitions of a large deployment
+ * is more than the metrics backend should ingest.
+ */
+@Component
+public class MessageStageTimers {
+
+    static final String METRIC_NAME = "indexer.queue.message.stage.latency";
+    static final String UNKNOWN_TAG_VALUE = "unknown";
+    private static final Duration MIN_EXPECTED_LATENCY = Duration.ofMillis(1);
+    // Scheduled retries can keep a message on the broker for up to retry.maxRetryDuration.
+    private static final Duration MAX_EXPECTED_LATENCY = Duration.ofHours(12);
+
+    public enum Stage {
+        /** From enqueue on the topic until the message is handed to the handler. */
+        DWELL("dwell"),
+        /** Parsing of the message body into the message sent to the indexer, after the envelope was validated. */
+        PARSE("parse"),
+        /** Call to the indexer worker, including the wait for a concurrency permit. */
+        INDEXER("indexer"),
+        /** Complete, dead-letter or retry publication on the broker. */
+        ACK("ack");
+
+        private final String tagValue;
+
+        Stage(String tagValue) {
+            this.tagValue = tagValue;
+        }
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    @Autowired
+    public MessageStageTimers(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /***
+     * @param stage stage of the message handling.
+     * @param topicName topic the message was received from.
+     * @param duration time spent in the stage, negative values (clock skew with the broker) are recorded as zero.
+     * @param unit unit of the duration.
+     */
+    public void record(Stage stage, String topicName, long duration, TimeUnit unit) {
+        String topic = topicName == null ? UNKNOWN_TAG_VALUE : topicName;
+        timers.computeIfAbsent(stage.tagValue + '|' + topic, key -> createTimer(stage, topic))
+            .record(Math.max(0, duration), unit);
+    }
+
+    private Timer createTimer(Stage stage, String topic) {
+        return Timer.builder(METRIC_NAME)
+            .description("Latency of a stage of the message handling, from enqueue to settlement")
+            .tags("stage", stage.tagValue, "topic", topic)
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .publishPercentileHistogram()
+            .minimumExpectedValue(MIN_EXPECTED_LATENCY)
+            .maximumExpectedValue(MAX_EXPECTED_LATENCY)
+            .register(meterRegistry);
+    }
+}
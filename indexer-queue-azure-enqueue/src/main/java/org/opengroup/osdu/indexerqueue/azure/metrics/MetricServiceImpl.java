@@ -16,41 +16,161 @@ package org.opengroup.osdu.indexerqueue.azure.metrics;
 
 import com.microsoft.applicationinsights.TelemetryClient;
 import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.util.Date;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+/***
+ * Aggregates latency samples per metric, topic, partition and outcome, and publishes one pre-aggregated
+ * metric per combination at a fixed interval from a background thread, so message handling never waits on telemetry.
+ * Besides count, sum, min, max and standard deviation, each metric carries the percentiles estimated from a histogram
+ * of fixed latency buckets and the counts of those buckets, as properties.
+ */
 @Component
-public class MetricServiceImpl implements IMetricService {
+public class MetricServiceImpl implements IMetricService, InitializingBean, DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricServiceImpl.class.getName());
 
     @Autowired
     private TelemetryClient telemetryClient;
 
+    @Value("${metrics.publish-interval-seconds:60}")
+    private int publishIntervalSeconds;
+
     private static final String LATENCY_METRIC_NAME = "[Indexer service] Record indexing latency";
 
+    private final Map<MetricKey, LatencyAggregate> aggregates = new ConcurrentHashMap<>();
+    private ScheduledExecutorService publisher;
+
     @Override
     public String getLatencyMetricName() {
         return LATENCY_METRIC_NAME;
     }
 
     @Override
-    public void sendIndexLatencyMetric(double value, String topicName, String dataPartitionId, String correlationId, boolean success) {
-        this.sendMetric(LATENCY_METRIC_NAME, value, topicName, dataPartitionId, correlationId, success);
+    public void sendIndexLatencyMetric(double value, int recordCount, String topicName, String dataPartitionId, boolean success) {
+        if (recordCount <= 0) {
+            return;
+        }
+        aggregates.computeIfAbsent(new MetricKey(LATENCY_METRIC_NAME, topicName, dataPartitionId, success), key -> new LatencyAggregate())
+            .record(value, recordCount);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        int interval = Math.max(1, publishIntervalSeconds);
+        publisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metric-publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        publisher.scheduleAtFixedRate(this::publishSafely, interval, interval, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (publisher != null) {
+            publisher.shutdown();
+        }
+        publishSafely();
+    }
+
+    /*
+     * Sends one metric per combination that got samples since the last call, followed by a single flush.
+     */
+    void publish() {
+        boolean tracked = false;
+        for (Map.Entry<MetricKey, LatencyAggregate> entry : aggregates.entrySet()) {
+            LatencyAggregate.Snapshot snapshot = entry.getValue().drain();
+            if (snapshot == null) {
+                continue;
+            }
+            telemetryClient.trackMetric(toTelemetry(entry.getKey(), snapshot));
+            tracked = true;
+        }
+        if (tracked) {
+            telemetryClient.flush();
+        }
     }
 
-    private void sendMetric(String name, double value, String topicName, String dataPartitionId, String correlationId, boolean success) {
-        Date date = new Date(System.currentTimeMillis());
+    private void publishSafely() {
+        try {
+            publish();
+        } catch (Exception e) {
+            LOGGER.error("Error publishing metrics", e);
+        }
+    }
+
+    private static MetricTelemetry toTelemetry(MetricKey key, LatencyAggregate.Snapshot snapshot) {
         MetricTelemetry metric = new MetricTelemetry();
-        metric.setName(name);
-        metric.setValue(value);
-        metric.setTimestamp(date);
-        metric.getProperties().putIfAbsent("success", Boolean.toString(success));
-        metric.getProperties().putIfAbsent("correlation-id", correlationId);
-        metric.getProperties().putIfAbsent("data-partition-id", dataPartitionId);
-        metric.getProperties().putIfAbsent("topic", topicName);
-        telemetryClient.trackMetric(metric);
-        telemetryClient.flush();
+        metric.setName(key.name);
+        metric.setValue(snapshot.sum);
+        metric.setCount(snapshot.count);
+        metric.setMin(snapshot.min);
+        metric.setMax(snapshot.max);
+        metric.setStandardDeviation(snapshot.standardDeviation());
+        metric.setTimestamp(new Date(System.currentTimeMillis()));
+        metric.getProperties().putIfAbsent("success", Boolean.toString(key.success));
+        metric.getProperties().putIfAbsent("data-partition-id", key.dataPartitionId);
+        metric.getProperties().putIfAbsent("topic", key.topicName);
+        metric.getProperties().put("p50", Double.toString(snapshot.percentile(0.50)));
+        metric.getProperties().put("p95", Double.toString(snapshot.percentile(0.95)));
+        metric.getProperties().put("p99", Double.toString(snapshot.percentile(0.99)));
+        for (int i = 0; i < snapshot.buckets.length; i++) {
+            if (snapshot.buckets[i] > 0) {
+                metric.getProperties().put(bucketName(i), Long.toString(snapshot.buckets[i]));
+            }
+        }
+        return metric;
+    }
+
+    static String bucketName(int index) {
+        return index < LatencyAggregate.BUCKET_BOUNDS_MILLIS.length
+            ? "bucket-le-" + LatencyAggregate.BUCKET_BOUNDS_MILLIS[index] + "ms"
+            : "bucket-inf";
     }
-}
 
+    private static final class MetricKey {
+        private final String name;
+        private final String topicName;
+        private final String dataPartitionId;
+        private final boolean success;
+
+        private MetricKey(String name, String topicName, String dataPartitionId, boolean success) {
+            this.name = name;
+            this.topicName = topicName;
+            this.dataPartitionId = dataPartitionId;
+            this.success = success;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof MetricKey)) {
+                return false;
+            }
+            MetricKey other = (MetricKey) o;
+            return success == other.success && name.equals(other.name)
+                && Objects.equals(topicName, other.topicName) && Objects.equals(dataPartitionId, other.dataPartitionId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, topicName, dataPartitionId, success);
+        }
+    }
+}
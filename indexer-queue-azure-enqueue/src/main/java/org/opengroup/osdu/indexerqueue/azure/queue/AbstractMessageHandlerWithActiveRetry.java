@@ -14,32 +14,35 @@
 
 package org.opengroup.osdu.indexerqueue.azure.queue;
 
-import com.google.common.reflect.TypeToken;
-import com.google.gson.Gson;
+import com.google.gson.JsonElement;
 import com.microsoft.azure.servicebus.IMessage;
 import com.microsoft.azure.servicebus.SubscriptionClient;
 import org.opengroup.osdu.azure.servicebus.AbstractMessageHandler;
-import org.opengroup.osdu.core.common.model.indexer.RecordInfo;
 import org.opengroup.osdu.core.common.model.search.RecordChangedMessages;
 import org.opengroup.osdu.indexerqueue.azure.config.ThreadDpsHeaders;
 import org.opengroup.osdu.indexerqueue.azure.metrics.IMetricService;
-import org.opengroup.osdu.indexerqueue.azure.scope.thread.ThreadScopeContextHolder;
-import org.opengroup.osdu.indexerqueue.azure.util.MdcContextMap;
+import org.opengroup.osdu.indexerqueue.azure.metrics.MessageStageTimers;
+import org.opengroup.osdu.indexerqueue.azure.metrics.MessageStageTimers.Stage;
+import org.opengroup.osdu.indexerqueue.azure.retry.LocalRetryScheduler;
+import org.opengroup.osdu.indexerqueue.azure.scope.message.MessageContext;
+import org.opengroup.osdu.indexerqueue.azure.scope.message.MessageContextHolder;
 import org.opengroup.osdu.indexerqueue.azure.util.MessageAttributesExtractor;
+import org.opengroup.osdu.indexerqueue.azure.util.MessageValidator;
+import org.opengroup.osdu.indexerqueue.azure.util.MessageValidator.InvalidMessageReason;
 import org.opengroup.osdu.indexerqueue.azure.util.RecordChangedAttributes;
 import org.opengroup.osdu.indexerqueue.azure.exceptions.ValidStorageRecordNotFoundException;
 import org.opengroup.osdu.indexerqueue.azure.exceptions.IndexerNoRetryException;
-import org.opengroup.osdu.indexerqueue.azure.util.RetryUtil;
+import org.opengroup.osdu.indexerqueue.azure.util.RetryStrategies;
 import org.opengroup.osdu.indexerqueue.azure.util.RecordsChangedSbMessageBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.slf4j.MDC;
 
-import java.lang.reflect.Type;
 import java.time.Clock;
 import java.time.Instant;
-import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -51,18 +54,22 @@ import static java.time.temporal.ChronoUnit.SECONDS;
 public abstract class AbstractMessageHandlerWithActiveRetry extends AbstractMessageHandler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractMessageHandlerWithActiveRetry.class.getName());
-    private static final String PROPERTY_RETRY = "RETRY";
+    public static final String PROPERTY_RETRY = "RETRY";
+    public static final String PROPERTY_RETRY_TERM = "RETRY_TERM";
+    public static final String PROPERTY_RETRY_TOPIC = "RETRY_TOPIC";
     private static final String RETRY_LOG_MESSAGE_TEMPLATE = "Exception occurred while sending message %s to indexer service: %s - %s.";
     private final String workerName;
     private final SubscriptionClient receiveClient;
     private final MessagePublisher messagePublisher;
     private final Integer maxDeliveryCount;
-    private final RetryUtil retryUtil;
+    private final RetryStrategies retryStrategies;
     private final ThreadDpsHeaders dpsHeaders;
-    private final MdcContextMap mdcContextMap;
     private final MessageAttributesExtractor messageAttributesExtractor;
     private RecordsChangedSbMessageBuilder recordsChangedSbMessageBuilder;
     private IMetricService metricService;
+    private final LocalRetryScheduler localRetryScheduler;
+    private final MessageStageTimers stageTimers;
+    private final MessageValidator messageValidator;
 
     /***
      * Constructor.
@@ -70,32 +77,42 @@ public abstract class AbstractMessageHandlerWithActiveRetry extends AbstractMess
      * @param client subscription client.
      * @param publisher publisher for sending messages to topic
      * @param maximumDeliveryCount retries threshold
+     * @param retryStrategies retry strategy per topic, chosen by the topic a message was first received from
+     * @param localRetryScheduler in-process tier for short retries
+     * @param stageTimers latency of the stages of the message handling
+     * @param messageValidator pre-dispatch check of the message envelope
      */
     public AbstractMessageHandlerWithActiveRetry(final SubscriptionClient client,
                                                  final MessagePublisher publisher,
-                                                 final RetryUtil retryUtil,
+                                                 final RetryStrategies retryStrategies,
                                                  final ThreadDpsHeaders dpsHeaders,
-                                                 final MdcContextMap mdcContextMap,
                                                  final MessageAttributesExtractor messageAttributesExtractor,
                                                  final String workerServiceName,
                                                  final Integer maximumDeliveryCount,
                                                  final RecordsChangedSbMessageBuilder recordsChangedSbMessageBuilder,
-                                                 final IMetricService metricService) {
+                                                 final IMetricService metricService,
+                                                 final LocalRetryScheduler localRetryScheduler,
+                                                 final MessageStageTimers stageTimers,
+                                                 final MessageValidator messageValidator) {
         super(workerServiceName, client);
         this.receiveClient = client;
         this.messagePublisher = publisher;
         this.workerName = workerServiceName;
         this.maxDeliveryCount = maximumDeliveryCount;
-        this.retryUtil = retryUtil;
+        this.retryStrategies = retryStrategies;
         this.dpsHeaders = dpsHeaders;
-        this.mdcContextMap = mdcContextMap;
         this.messageAttributesExtractor = messageAttributesExtractor;
         this.recordsChangedSbMessageBuilder = recordsChangedSbMessageBuilder;
         this.metricService = metricService;
+        this.localRetryScheduler = localRetryScheduler;
+        this.stageTimers = stageTimers;
+        this.messageValidator = messageValidator;
     }
 
     /***
      * Receives a message from service bus and processes it.
+     * The indexer call, the retry publication and the complete/dead-letter calls are chained without blocking
+     * the calling thread, so the returned future only completes once the message has been settled.
      * @param message service bus message.
      * @return a CompletableFuture representing the pending complete.
      */
@@ -106,83 +123,224 @@ public abstract class AbstractMessageHandlerWithActiveRetry extends AbstractMess
         long enqueueTime = message.getEnqueuedTimeUtc().toEpochMilli();
         String messageId = message.getMessageId();
         RecordChangedMessages recordChangedMessage = null;
-      try {
+        int recordCount = 0;
+        MessageContext context = null;
+        CompletableFuture<Void> processing;
+        MessageContextHolder.Scope scope = null;
+        try {
             messageBody = new String(message.getMessageBody().getBinaryData().get(0), UTF_8);
-            setupLoggerContext(message);
+            recordStage(Stage.DWELL, startTime - enqueueTime, TimeUnit.MILLISECONDS);
+            long parseStartTime = System.nanoTime();
+            JsonElement root = MessageValidator.parse(messageBody);
+            long parseNanos = System.nanoTime() - parseStartTime;
+            InvalidMessageReason invalidReason = messageValidator == null ? null : messageValidator.validate(root);
+            if (invalidReason != null) {
+                return deadLetterInvalidMessage(message, invalidReason);
+            }
+            context = messageContext(message, root);
+            scope = openContext(context);
             logWorkerStart(messageId, this.workerName, "Received message from service bus");
-            recordChangedMessage = recordsChangedSbMessageBuilder.getServiceBusMessage(messageBody, messageId);
-            processMessage(message);
-            long stopTime = System.currentTimeMillis();
-            this.captureMetrics(recordChangedMessage, this.receiveClient.getTopicName(), enqueueTime, stopTime, true);
-            logWorkerEnd(messageId, this.workerName, String.format("Successfully processed message. End to end time from enqueue : %d", stopTime - enqueueTime), stopTime - startTime, true);
-            if (message.getProperties().get(PROPERTY_RETRY) != null) {
-                Integer retryValue = (Integer) message.getProperties().get(PROPERTY_RETRY);
-                LOGGER.debug("Successfully sent message {} after {} retries", messageBody, retryValue);
+            long buildStartTime = System.nanoTime();
+            recordCount = RecordsChangedSbMessageBuilder.countRecords(root);
+            recordChangedMessage = root != null
+                ? recordsChangedSbMessageBuilder.getServiceBusMessage(root, messageBody, messageId)
+                : recordsChangedSbMessageBuilder.getServiceBusMessage(messageBody, messageId);
+            recordStage(Stage.PARSE, parseNanos + System.nanoTime() - buildStartTime, TimeUnit.NANOSECONDS);
+            processing = dispatch(message, recordChangedMessage);
+        } catch (Exception e) {
+            processing = CompletableFuture.failedFuture(e);
+        } finally {
+            if (scope != null) {
+                scope.close();
             }
-            return this.receiveClient.completeAsync(message.getLockToken());
+        }
+
+        return settle(processing, context, message, recordChangedMessage, recordCount, messageBody, messageId, enqueueTime, startTime);
+    }
+
+    /*
+     * Retrying a message with a broken envelope cannot help, it is dead-lettered on the first attempt.
+     */
+    private CompletableFuture<Void> deadLetterInvalidMessage(IMessage message, InvalidMessageReason invalidReason) {
+        LOGGER.warn("Invalid message {} sent to dead letter queue: {}", message.getMessageId(), invalidReason.getDescription());
+        messageValidator.recordRejection(invalidReason, this.receiveClient.getTopicName());
+        return timedAck(() -> receiveClient.deadLetterAsync(message.getLockToken(), invalidReason.name(), invalidReason.getDescription()));
+    }
+
+    /*
+     * The outcome is handled on whichever thread completed the processing, in the context of the message.
+     */
+    private CompletableFuture<Void> settle(CompletableFuture<Void> processing, MessageContext context, IMessage message,
+                                           RecordChangedMessages recordChangedMessage, int recordCount, String messageBody,
+                                           String messageId, long enqueueTime, long startTime) {
+        return processing
+            .handle((result, throwable) -> throwable)
+            .thenCompose(MessageContextHolder.wrap(context, throwable -> throwable == null
+                ? onProcessingSucceeded(message, recordChangedMessage, recordCount, messageBody, messageId, enqueueTime, startTime)
+                : onProcessingFailed(message, recordChangedMessage, recordCount, messageBody, messageId, enqueueTime, startTime, unwrap(throwable))));
+    }
+
+    /*
+     * Runs the processing hook and records how long it took to complete, i.e. the indexer stage.
+     */
+    private CompletableFuture<Void> dispatch(IMessage message, RecordChangedMessages recordChangedMessage) {
+        long dispatchTime = System.nanoTime();
+        return processMessageAsync(message, recordChangedMessage)
+            .whenComplete((result, throwable) -> recordStage(Stage.INDEXER, System.nanoTime() - dispatchTime, TimeUnit.NANOSECONDS));
+    }
+
+    /***
+     * Hook for subclasses that can process the message without blocking the calling thread.
+     * Defaults to running {@link #processMessage(IMessage)} synchronously.
+     * @param message service bus message.
+     * @param recordChangedMessage the message body already parsed by {@link RecordsChangedSbMessageBuilder}.
+     * @return a CompletableFuture that completes once the message has been processed.
+     */
+    protected CompletableFuture<Void> processMessageAsync(final IMessage message, final RecordChangedMessages recordChangedMessage) {
+        try {
+            processMessage(message);
+            return CompletableFuture.completedFuture(null);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 
-        } catch (IndexerNoRetryException e) {
+    private CompletableFuture<Void> onProcessingSucceeded(IMessage message, RecordChangedMessages recordChangedMessage, int recordCount,
+                                                          String messageBody, String messageId, long enqueueTime, long startTime) {
+        long stopTime = System.currentTimeMillis();
+        this.captureMetrics(recordChangedMessage, recordCount, this.receiveClient.getTopicName(), enqueueTime, stopTime, true);
+        logWorkerEnd(messageId, this.workerName, String.format("Successfully processed message. End to end time from enqueue : %d", stopTime - enqueueTime), stopTime - startTime, true);
+        if (message.getProperties().get(PROPERTY_RETRY) != null) {
+            Integer retryValue = (Integer) message.getProperties().get(PROPERTY_RETRY);
+            LOGGER.debug("Successfully sent message {} after {} retries", messageBody, retryValue);
+        }
+        return timedAck(() -> this.receiveClient.completeAsync(message.getLockToken()));
+    }
+
+    private CompletableFuture<Void> onProcessingFailed(IMessage message, RecordChangedMessages recordChangedMessage, int recordCount,
+                                                       String messageBody, String messageId, long enqueueTime, long startTime,
+                                                       Throwable e) {
+        if (e instanceof IndexerNoRetryException) {
             LOGGER.warn(String.format("No retry exception occurred while sending message %s to indexer service: %s",
                 messageBody, e.getMessage()));
             long stopTime = System.currentTimeMillis();
-            this.captureMetrics(recordChangedMessage, this.receiveClient.getTopicName(), enqueueTime, stopTime, false);
-            return receiveClient.deadLetterAsync(message.getLockToken());
-        } catch (ValidStorageRecordNotFoundException e) {
-          LOGGER.debug(e.getMessage() + ". Record not found. No retry on message: {}", messageBody);
-          long stopTime = System.currentTimeMillis();
-          this.captureMetrics(recordChangedMessage, this.receiveClient.getTopicName(), enqueueTime, stopTime, true);
-          return this.receiveClient.completeAsync(message.getLockToken());
+            this.captureMetrics(recordChangedMessage, recordCount, this.receiveClient.getTopicName(), enqueueTime, stopTime, false);
+            return timedAck(() -> receiveClient.deadLetterAsync(message.getLockToken()));
+        }
+        if (e instanceof ValidStorageRecordNotFoundException) {
+            LOGGER.debug(e.getMessage() + ". Record not found. No retry on message: {}", messageBody);
+            long stopTime = System.currentTimeMillis();
+            this.captureMetrics(recordChangedMessage, recordCount, this.receiveClient.getTopicName(), enqueueTime, stopTime, true);
+            return timedAck(() -> this.receiveClient.completeAsync(message.getLockToken()));
+        }
+        if (message.getProperties().get(PROPERTY_RETRY) == null) {
+            int retryDuration = nextRetryTerm(message, 1);
+            message.getProperties().put(PROPERTY_RETRY, 1);
+            logMessageForRetry(messageBody, e, 1, false);
+            return retry(message, recordChangedMessage, recordCount, messageBody, messageId, enqueueTime, startTime, retryDuration);
+        }
+        Integer retryValue = (Integer) message.getProperties().get(PROPERTY_RETRY);
+        if (retryValue > maxDeliveryCount) {
+            logMessageForRetry(messageBody, e, retryValue, true);
+            long stopTime = System.currentTimeMillis();
+            this.captureMetrics(recordChangedMessage, recordCount, this.receiveClient.getTopicName(), enqueueTime, stopTime, false);
+            return timedAck(() -> receiveClient.deadLetterAsync(message.getLockToken()));
+        }
+        retryValue++;
+        message.getProperties().put(PROPERTY_RETRY, retryValue);
+        int retryDuration = nextRetryTerm(message, retryValue);
+        logMessageForRetry(messageBody, e, retryValue, false);
+        return retry(message, recordChangedMessage, recordCount, messageBody, messageId, enqueueTime, startTime, retryDuration);
+    }
+
+    /*
+     * The term is kept on the message, for strategies that derive the next term from the previous one. Retries are
+     * published to the reindex topic, so the topic the message was first received from is kept on it as well and
+     * selects the strategy of every retry.
+     */
+    private int nextRetryTerm(IMessage message, int retryNumber) {
+        Object originTopic = message.getProperties().get(PROPERTY_RETRY_TOPIC);
+        String topicName = originTopic instanceof String ? (String) originTopic : this.receiveClient.getTopicName();
+        message.getProperties().put(PROPERTY_RETRY_TOPIC, topicName);
+        Object previousTerm = message.getProperties().get(PROPERTY_RETRY_TERM);
+        int retryTerm = retryStrategies.forTopic(topicName).generateNextRetryTerm(retryNumber, previousTerm instanceof Integer ? (Integer) previousTerm : 0);
+        message.getProperties().put(PROPERTY_RETRY_TERM, retryTerm);
+        return retryTerm;
+    }
+
+    /*
+     * Short backoffs are waited out in process while the message stays locked, longer ones are scheduled on the broker.
+     * If the local wait is cancelled, e.g. on shutdown, the retry falls back to the broker.
+     */
+    private CompletableFuture<Void> retry(IMessage message, RecordChangedMessages recordChangedMessage, int recordCount,
+                                          String messageBody, String messageId, long enqueueTime, long startTime,
+                                          int retryDuration) {
+        if (localRetryScheduler == null || !localRetryScheduler.canRetryLocally(retryDuration)) {
+            return timedAck(() -> ackMessageWithRetry(message, Clock.systemUTC().instant().plus(retryDuration, SECONDS)));
+        }
+        MessageContext context = MessageContextHolder.current();
+        return localRetryScheduler.delay(retryDuration)
+            .handle((result, throwable) -> throwable)
+            .thenCompose(MessageContextHolder.wrap(context, throwable -> throwable == null
+                ? settle(reprocess(message, recordChangedMessage, context), context, message, recordChangedMessage, recordCount, messageBody, messageId, enqueueTime, startTime)
+                : timedAck(() -> ackMessageWithRetry(message, Clock.systemUTC().instant()))));
+    }
+
+    private CompletableFuture<Void> reprocess(IMessage message, RecordChangedMessages recordChangedMessage, MessageContext context) {
+        try (MessageContextHolder.Scope ignored = openContext(context != null ? context : messageContext(message))) {
+            return dispatch(message, recordChangedMessage);
         } catch (Exception e) {
-            if (message.getProperties().get(PROPERTY_RETRY) == null) {
-                int retryDuration = retryUtil.generateNextRetryTerm(1);
-                message.getProperties().put(PROPERTY_RETRY, 1);
-                Instant utcEnqueueTime = Clock.systemUTC().instant().plus(retryDuration, SECONDS);
-                logMessageForRetry(messageBody, e, 1, false);
-                return ackMessageWithRetry(() -> receiveClient.completeAsync(message.getLockToken()), message, utcEnqueueTime);
-            } else {
-                Integer retryValue = (Integer) message.getProperties().get(PROPERTY_RETRY);
-                if (retryValue > maxDeliveryCount) {
-                    logMessageForRetry(messageBody, e, retryValue, true);
-                    long stopTime = System.currentTimeMillis();
-                    this.captureMetrics(recordChangedMessage, this.receiveClient.getTopicName(), enqueueTime, stopTime, false);
-                    return receiveClient.deadLetterAsync(message.getLockToken());
-                } else {
-                    retryValue++;
-                    message.getProperties().put(PROPERTY_RETRY, retryValue);
-                    int retryDuration = retryUtil.generateNextRetryTerm(retryValue);
-                    Instant utcEnqueueTime = Clock.systemUTC().instant().plus(retryDuration, SECONDS);
-                    logMessageForRetry(messageBody, e, retryValue, false);
-                    return ackMessageWithRetry(() -> receiveClient.completeAsync(message.getLockToken()), message, utcEnqueueTime);
-                }
-            }
-        } finally {
-            cleanUpLoggerContext();
+            return CompletableFuture.failedFuture(e);
         }
     }
 
+    private CompletableFuture<Void> timedAck(Supplier<CompletableFuture<Void>> settlement) {
+        long ackStartTime = System.nanoTime();
+        return settlement.get()
+            .whenComplete((result, throwable) -> recordStage(Stage.ACK, System.nanoTime() - ackStartTime, TimeUnit.NANOSECONDS));
+    }
+
+    private void recordStage(Stage stage, long duration, TimeUnit unit) {
+        if (stageTimers == null) {
+            return;
+        }
+        try {
+            stageTimers.record(stage, this.receiveClient.getTopicName(), duration, unit);
+        } catch (Exception e) {
+            LOGGER.error("Error recording message stage latency", e);
+        }
+    }
+
+    private static Throwable unwrap(Throwable throwable) {
+        Throwable cause = throwable;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
   private void logWorkerStart(String messageId, String workerName, String received_message_from_service_bus) {
   }
 
-    private void captureMetrics(RecordChangedMessages recordChangedMessage, String topicName, long enqueueTime, long stopTime, boolean success) {
+    /*
+     * The records were counted on the parsed message body, the data is not deserialized again for the metric.
+     */
+    private void captureMetrics(RecordChangedMessages recordChangedMessage, int recordCount, String topicName, long enqueueTime,
+                                long stopTime, boolean success) {
         if (recordChangedMessage == null) {
             LOGGER.error("Error recording indexing SLI metrics", "RecordChangedMessages is null");
         } else {
             try {
-                Type listType = new TypeToken<List<RecordInfo>>() {
-                }.getType();
-                List<RecordInfo> recordInfos = new Gson().fromJson(recordChangedMessage.getData(), listType);
                 long latency = stopTime - enqueueTime;
 
-                for (RecordInfo record : recordInfos) {
-                    this.metricService.sendIndexLatencyMetric(latency, topicName, recordChangedMessage.getDataPartitionId(), recordChangedMessage.getCorrelationId(), success);
-                }
+                this.metricService.sendIndexLatencyMetric(latency, recordCount, topicName, recordChangedMessage.getDataPartitionId(), success);
             } catch (Exception e) {
                 LOGGER.error("Error recording indexing SLI metrics", e.getMessage(), e);
             }
         }
     }
 
-  private void logMessageForRetry(String messageBody, Exception e, int retryNumber, boolean isLastRetry) {
+  private void logMessageForRetry(String messageBody, Throwable e, int retryNumber, boolean isLastRetry) {
         if (isLastRetry) {
             LOGGER.error(String.format(RETRY_LOG_MESSAGE_TEMPLATE + " Retries limit exceed and message will be sent to dead letter queue", e.getClass().getName(), e.getMessage(), e.getMessage()));
         } else {
@@ -193,35 +351,57 @@ public abstract class AbstractMessageHandlerWithActiveRetry extends AbstractMess
 
 
     /**
-     * @param supplier                the supplier which should be invoked
+     * Schedules a copy of the message for redelivery and only then completes the original, so a failed
+     * publication never loses the message: it is dead-lettered instead.
      * @param message                 servicebus topic message
      * @param scheduledEnqueueTimeUTC enqueue time for new message
      * @return CompletableFuture<Void>
      */
-    private CompletableFuture<Void> ackMessageWithRetry(final Supplier<CompletableFuture<Void>> supplier,
-                                                        final IMessage message,
+    private CompletableFuture<Void> ackMessageWithRetry(final IMessage message,
                                                         final Instant scheduledEnqueueTimeUTC) {
+        CompletableFuture<Void> publication;
         try {
-            return supplier.get();
-        } finally {
-            try {
-                messagePublisher.sendMessageToTopic(message, scheduledEnqueueTimeUTC);
-            } catch (Exception e) {
-                receiveClient.deadLetterAsync(message.getLockToken());
-            }
+            publication = messagePublisher.sendMessageToTopicAsync(message, scheduledEnqueueTimeUTC);
+        } catch (Exception e) {
+            publication = CompletableFuture.failedFuture(e);
         }
+        return publication
+            .handle((result, throwable) -> throwable)
+            .thenCompose(throwable -> {
+                if (throwable == null) {
+                    return receiveClient.completeAsync(message.getLockToken());
+                }
+                LOGGER.error("Unable to schedule retry for message, sending it to dead letter queue", unwrap(throwable));
+                return receiveClient.deadLetterAsync(message.getLockToken());
+            });
+    }
+
+    private MessageContext messageContext(IMessage message, JsonElement root) {
+        MessageContext context = MessageValidator.contextOf(root);
+        return context != null ? context : messageContext(message);
     }
 
-    private void setupLoggerContext(IMessage message) {
+    private MessageContext messageContext(IMessage message) {
         RecordChangedAttributes recordChangedAttributes = messageAttributesExtractor.extracRecordChangedtAttributesFromMessageBody(message);
-        String correlationId = recordChangedAttributes.getCorrelationId();
-        String dataPartitionId = recordChangedAttributes.getDataPartitionId();
-        MDC.setContextMap(mdcContextMap.getContextMap(correlationId, dataPartitionId));
-        dpsHeaders.setThreadContext(dataPartitionId, correlationId);
+        return MessageContext.of(recordChangedAttributes.getDataPartitionId(), recordChangedAttributes.getCorrelationId());
     }
 
-    private void cleanUpLoggerContext() {
-        ThreadScopeContextHolder.getContext().clear();
-        MDC.clear();
+    /***
+     * Binds the context of the message to the current thread, for entry points other than {@link #onMessageAsync(IMessage)}.
+     * @param message service bus message.
+     * @return scope restoring the previous context when closed.
+     */
+    protected MessageContextHolder.Scope openContext(IMessage message) {
+        return openContext(messageContext(message));
+    }
+
+    /*
+     * Opening the scope for another message clears the thread scope, the headers are then rebuilt from the context of
+     * the message alone. The scopes of the same message reuse them.
+     */
+    private MessageContextHolder.Scope openContext(MessageContext context) {
+        MessageContextHolder.Scope scope = MessageContextHolder.open(context);
+        dpsHeaders.setThreadContext(context);
+        return scope;
     }
 }
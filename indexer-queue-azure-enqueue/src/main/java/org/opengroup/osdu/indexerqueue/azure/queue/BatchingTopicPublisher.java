@@ -0,0 +1,320 @@
+// Copyright © Schlumberger
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.queue;
+
+import com.microsoft.azure.servicebus.IMessage;
+import com.microsoft.azure.servicebus.TopicClient;
+import com.microsoft.azure.servicebus.primitives.ServiceBusException;
+import org.opengroup.osdu.azure.servicebus.ITopicClientFactory;
+import org.opengroup.osdu.core.common.model.http.AppException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Publishes scheduled messages for all subscriptions. Topic clients are cached per partition and topic, and messages
+ * scheduled for the same topic and the same enqueue time slot within a short window are sent as one batch, so a burst
+ * of retries costs a few broker round trips instead of one per message.
+ */
+@Component
+public class BatchingTopicPublisher implements DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchingTopicPublisher.class.getName());
+
+    private final ITopicClientFactory topicClientFactory;
+    private final int maxBatchSize;
+    private final long lingerMillis;
+    private final long enqueueTimeGranularityMillis;
+    private final Map<String, TopicClient> clients = new ConcurrentHashMap<>();
+    private final Map<BatchKey, PendingBatch> batches = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "topic-publisher-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /***
+     * @param topicClientFactory factory of the topic clients.
+     * @param maxBatchSize number of messages after which a batch is sent right away.
+     * @param lingerMillis how long a batch waits for more messages before it is sent.
+     * @param enqueueTimeGranularityMillis enqueue times are rounded up to this granularity, so that close ones share a batch.
+     */
+    @Autowired
+    public BatchingTopicPublisher(ITopicClientFactory topicClientFactory,
+                                  @Value("${publisher.batch-max-size:20}") int maxBatchSize,
+                                  @Value("${publisher.batch-linger-millis:50}") long lingerMillis,
+                                  @Value("${publisher.enqueue-time-granularity-millis:1000}") long enqueueTimeGranularityMillis) {
+        this.topicClientFactory = topicClientFactory;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.lingerMillis = Math.max(0, lingerMillis);
+        this.enqueueTimeGranularityMillis = Math.max(1, enqueueTimeGranularityMillis);
+    }
+
+    /***
+     * @param partitionId data partition id.
+     * @param topicName topic name.
+     * @return the cached client of the topic, created on first use.
+     */
+    public TopicClient getClient(String partitionId, String topicName) {
+        String key = partitionId + "/" + topicName;
+        TopicClient client = clients.get(key);
+        if (client != null) {
+            return client;
+        }
+        try {
+            client = topicClientFactory.getClient(partitionId, topicName);
+        } catch (ServiceBusException | InterruptedException e) {
+            throw new AppException(500, "Server Error", "Unexpected error creating Topic Client", e);
+        }
+        TopicClient existing = clients.putIfAbsent(key, client);
+        return existing != null ? existing : client;
+    }
+
+    /***
+     * @param partitionId data partition id.
+     * @param topicName topic name.
+     * @param message service bus message.
+     * @param enqueueTimeUtc earliest enqueue time of the message, rounded up to the enqueue time granularity.
+     * @return a CompletableFuture that completes once the message has been scheduled.
+     */
+    public CompletableFuture<Void> schedule(String partitionId, String topicName, IMessage message, Instant enqueueTimeUtc) {
+        long slot = Math.floorDiv(enqueueTimeUtc.toEpochMilli() + enqueueTimeGranularityMillis - 1, enqueueTimeGranularityMillis)
+            * enqueueTimeGranularityMillis;
+        BatchKey key = new BatchKey(partitionId, topicName, slot);
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        while (true) {
+            PendingBatch batch = batches.computeIfAbsent(key, k -> new PendingBatch());
+            int size = batch.add(message, result);
+            if (size < 0) {
+                // the batch was sent meanwhile, start a new one
+                batches.remove(key, batch);
+                continue;
+            }
+            if (size >= maxBatchSize) {
+                flush(key, batch);
+            } else if (size == 1) {
+                scheduleFlush(key, batch);
+            }
+            return result;
+        }
+    }
+
+    /***
+     * Forgets the clients of a partition that is no longer served. Its pending batches are sent first and the clients
+     * are closed once those sends have completed.
+     * @param partitionId data partition id.
+     */
+    public void evict(String partitionId) {
+        List<CompletableFuture<Void>> sends = new ArrayList<>();
+        batches.forEach((key, batch) -> {
+            if (key.partitionId.equals(partitionId)) {
+                sends.add(flush(key, batch));
+            }
+        });
+        List<TopicClient> evicted = new ArrayList<>();
+        clients.entrySet().removeIf(entry -> {
+            if (entry.getKey().startsWith(partitionId + "/")) {
+                evicted.add(entry.getValue());
+                return true;
+            }
+            return false;
+        });
+        closeAfter(sends, evicted);
+    }
+
+    @Override
+    public void destroy() {
+        flusher.shutdown();
+        List<CompletableFuture<Void>> sends = new ArrayList<>();
+        batches.forEach((key, batch) -> sends.add(flush(key, batch)));
+        List<TopicClient> evicted = new ArrayList<>(clients.values());
+        clients.clear();
+        closeAfter(sends, evicted);
+    }
+
+    private static void closeAfter(List<CompletableFuture<Void>> sends, List<TopicClient> evicted) {
+        if (evicted.isEmpty()) {
+            return;
+        }
+        CompletableFuture.allOf(sends.toArray(new CompletableFuture<?>[0]))
+            .handle((result, throwable) -> null)
+            .thenRun(() -> evicted.forEach(BatchingTopicPublisher::close));
+    }
+
+    private static void close(TopicClient client) {
+        CompletableFuture<Void> closing;
+        try {
+            closing = client.closeAsync();
+        } catch (Exception e) {
+            closing = CompletableFuture.failedFuture(e);
+        }
+        closing.whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                LOGGER.warn("Unable to close topic client of {}", client.getEntityPath(), throwable);
+            }
+        });
+    }
+
+    private void scheduleFlush(BatchKey key, PendingBatch batch) {
+        try {
+            flusher.schedule(() -> flush(key, batch), lingerMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            flush(key, batch);
+        }
+    }
+
+    /*
+     * @return a CompletableFuture that completes once every message of the batch has been sent or has failed.
+     */
+    private CompletableFuture<Void> flush(BatchKey key, PendingBatch batch) {
+        batches.remove(key, batch);
+        List<PendingMessage> messages = batch.close();
+        if (messages.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> done = CompletableFuture.allOf(messages.stream()
+            .map(pending -> pending.result)
+            .toArray(CompletableFuture<?>[]::new));
+        Instant enqueueTimeUtc = Instant.ofEpochMilli(key.slot);
+        TopicClient client;
+        try {
+            client = getClient(key.partitionId, key.topicName);
+        } catch (Exception e) {
+            messages.forEach(pending -> pending.result.completeExceptionally(e));
+            return done;
+        }
+        if (messages.size() == 1) {
+            scheduleOne(client, messages.get(0), enqueueTimeUtc);
+            return done;
+        }
+        List<IMessage> batchMessages = new ArrayList<>(messages.size());
+        for (PendingMessage pending : messages) {
+            pending.message.setScheduledEnqueueTimeUtc(enqueueTimeUtc);
+            batchMessages.add(pending.message);
+        }
+        sendBatch(client, batchMessages).whenComplete((result, throwable) -> {
+            if (throwable == null) {
+                messages.forEach(pending -> pending.result.complete(null));
+                return;
+            }
+            // most likely the batch is over the size limit of the broker, send the messages one by one
+            LOGGER.warn("Unable to send batch of {} messages to topic {} of partition {}, scheduling them one by one",
+                messages.size(), key.topicName, key.partitionId, throwable);
+            messages.forEach(pending -> scheduleOne(client, pending, enqueueTimeUtc));
+        });
+        return done;
+    }
+
+    private static CompletableFuture<Void> sendBatch(TopicClient client, List<IMessage> messages) {
+        try {
+            return client.sendBatchAsync(messages);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static void scheduleOne(TopicClient client, PendingMessage pending, Instant enqueueTimeUtc) {
+        CompletableFuture<Long> scheduled;
+        try {
+            scheduled = client.scheduleMessageAsync(pending.message, enqueueTimeUtc);
+        } catch (Exception e) {
+            scheduled = CompletableFuture.failedFuture(e);
+        }
+        scheduled.whenComplete((sequenceNumber, throwable) -> {
+            if (throwable == null) {
+                pending.result.complete(null);
+            } else {
+                pending.result.completeExceptionally(throwable);
+            }
+        });
+    }
+
+    private static final class PendingBatch {
+        private final List<PendingMessage> messages = new ArrayList<>();
+        private boolean closed;
+
+        /*
+         * @return the size of the batch after adding the message, or -1 if the batch has already been sent.
+         */
+        synchronized int add(IMessage message, CompletableFuture<Void> result) {
+            if (closed) {
+                return -1;
+            }
+            messages.add(new PendingMessage(message, result));
+            return messages.size();
+        }
+
+        synchronized List<PendingMessage> close() {
+            if (closed) {
+                return List.of();
+            }
+            closed = true;
+            return messages;
+        }
+    }
+
+    private static final class PendingMessage {
+        private final IMessage message;
+        private final CompletableFuture<Void> result;
+
+        private PendingMessage(IMessage message, CompletableFuture<Void> result) {
+            this.message = message;
+            this.result = result;
+        }
+    }
+
+    private static final class BatchKey {
+        private final String partitionId;
+        private final String topicName;
+        private final long slot;
+
+        private BatchKey(String partitionId, String topicName, long slot) {
+            this.partitionId = partitionId;
+            this.topicName = topicName;
+            this.slot = slot;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BatchKey)) {
+                return false;
+            }
+            BatchKey other = (BatchKey) o;
+            return slot == other.slot && partitionId.equals(other.partitionId) && topicName.equals(other.topicName);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * partitionId.hashCode() + topicName.hashCode()) + Long.hashCode(slot);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+// Copyright © Schlumberger
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.queue;
+
+import org.opengroup.osdu.core.common.model.indexer.SchemaChangedMessages;
+import org.opengroup.osdu.core.common.model.search.RecordChangedMessages;
+
+import java.util.concurrent.CompletableFuture;
+
+/***
+ * Routes the asynchronous schema changes of one subscription through the {@link SchemaChangeCoalescer}.
+ * Record changes are passed through unchanged.
+ */
+public class CoalescingIndexUpdateMessageHandler implements IIndexUpdateMessageHandler {
+
+    private final IIndexUpdateMessageHandler delegate;
+    private final SchemaChangeCoalescer coalescer;
+
+    public CoalescingIndexUpdateMessageHandler(IIndexUpdateMessageHandler delegate, SchemaChangeCoalescer coalescer) {
+        this.delegate = delegate;
+        this.coalescer = coalescer;
+    }
+
+    @Override
+    public CompletableFuture<Void> sendRecordChangedMessagesToIndexerAsync(RecordChangedMessages recordChangedMessage) {
+        return delegate.sendRecordChangedMessagesToIndexerAsync(recordChangedMessage);
+    }
+
+    @Override
+    public CompletableFuture<Void> sendSchemaChangedMessagesToIndexerAsync(SchemaChangedMessages schemaChangedMessages) {
+        return coalescer.submit(schemaChangedMessages, delegate);
+    }
+}
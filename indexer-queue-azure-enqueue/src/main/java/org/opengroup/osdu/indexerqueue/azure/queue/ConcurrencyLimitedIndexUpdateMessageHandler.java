@@ -0,0 +1,44 @@
+// Copyright © Microsoft Corporation
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//      http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.queue;
+
+import org.opengroup.osdu.core.common.model.indexer.SchemaChangedMessages;
+import org.opengroup.osdu.core.common.model.search.RecordChangedMessages;
+import org.opengroup.osdu.indexerqueue.azure.concurrency.AdaptiveConcurrencyLimiter;
+
+import java.util.concurrent.CompletableFuture;
+
+/***
+ * Routes the asynchronous indexer calls of one subscription through its {@link AdaptiveConcurrencyLimiter}.
+ * The requests are prepared on the calling thread, so a call waiting for a permit does not depend on the context of
+ * the thread it eventually runs on.
+ */
+public class ConcurrencyLimitedIndexUpdateMessageHandler implements IIndexUpdateMessageHandler {
+
+    private final IIndexUpdateMessageHandler delegate;
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    public ConcurrencyLimitedIndexUpdateMessageHandler(IIndexUpdateMessageHandler delegate, AdaptiveConcurrencyLimiter limiter) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+    }
+
+    @Override
+    public CompletableFuture<Void> sendRecordChangedMessagesToIndexerAsync(RecordChangedMessages recordChangedMessage) {
+        return limiter.execute(delegate.prepareRecordChangedMessagesToIndexer(recordChangedMessage));
+    }
+
+    @Override
+    public CompletableFuture<Void> sendSchemaChangedMessagesToIndexerAsync(SchemaChangedMessages schemaChangedMessages) {
+        return limiter.execute(delegate.prepareSchemaChangedMessagesToIndexer(schemaChangedMessages));
+    }
+}
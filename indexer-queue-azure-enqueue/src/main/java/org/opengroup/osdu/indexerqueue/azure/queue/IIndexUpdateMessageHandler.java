@@ -17,9 +17,27 @@ package org.opengroup.osdu.indexerqueue.azure.queue;
 import org.opengroup.osdu.core.common.model.indexer.SchemaChangedMessages;
 import org.opengroup.osdu.core.common.model.search.RecordChangedMessages;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
 public interface IIndexUpdateMessageHandler {
 
-    void sendRecordChangedMessagesToIndexer(RecordChangedMessages recordChangedMessage);
+    CompletableFuture<Void> sendRecordChangedMessagesToIndexerAsync(RecordChangedMessages recordChangedMessage);
+
+    CompletableFuture<Void> sendSchemaChangedMessagesToIndexerAsync(SchemaChangedMessages schemaChangedMessages);
+
+    /***
+     * Resolves everything the indexer call needs from the current thread, e.g. the request headers, and defers only
+     * sending it, so the call can run later on another thread.
+     */
+    default Supplier<CompletableFuture<Void>> prepareRecordChangedMessagesToIndexer(RecordChangedMessages recordChangedMessage) {
+        return () -> sendRecordChangedMessagesToIndexerAsync(recordChangedMessage);
+    }
 
-    void sendSchemaChangedMessagesToIndexer(SchemaChangedMessages schemaChangedMessages);
+    /***
+     * @see #prepareRecordChangedMessagesToIndexer(RecordChangedMessages)
+     */
+    default Supplier<CompletableFuture<Void>> prepareSchemaChangedMessagesToIndexer(SchemaChangedMessages schemaChangedMessages) {
+        return () -> sendSchemaChangedMessagesToIndexerAsync(schemaChangedMessages);
+    }
 }
@@ -13,11 +13,6 @@ package org.opengroup.osdu.indexerqueue.azure.queue;
 
 import com.google.gson.Gson;
 import org.apache.http.HttpStatus;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.opengroup.osdu.core.common.model.http.AppException;
 import org.opengroup.osdu.core.common.model.http.DpsHeaders;
 import org.opengroup.osdu.core.common.model.http.RequestStatus;
@@ -28,14 +23,23 @@ import org.opengroup.osdu.indexerqueue.azure.di.AzureBootstrapConfig;
 import org.opengroup.osdu.indexerqueue.azure.exceptions.IndexerNoRetryException;
 import org.opengroup.osdu.indexerqueue.azure.exceptions.IndexerRetryException;
 import org.opengroup.osdu.indexerqueue.azure.exceptions.ValidStorageRecordNotFoundException;
+import org.opengroup.osdu.indexerqueue.azure.util.IndexerErrorRateTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
 
-import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
 
 import static java.lang.String.format;
 
@@ -49,84 +53,134 @@ public class IndexUpdateMessageHandler implements IIndexUpdateMessageHandler {
   private AzureBootstrapConfig azureBootstrapConfig;
   @Autowired
   private IServiceAccountJwtClient serviceAccountJwtClient;
+  @Autowired
+  private IndexerErrorRateTracker indexerErrorRateTracker;
 
   private final Gson gson = new Gson();
-  private HttpClientBuilder httpClientBuilder = HttpClientBuilder.create();
+  // the indexer is called over plain http inside the cluster, an HTTP/2 upgrade attempt would only add a round trip
+  private HttpClient asyncHttpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
   private Logger logger = LoggerFactory.getLogger(IndexUpdateMessageHandler.class.getName());
 
   /***
    * Create an Http Request to index-worker endpoint of indexer service and deliver RecordChangedMessage.
-   * In case of failure, exponential backoff retry is done based on current delivery count by service bus.
+   * The returned future completes exceptionally with {@link IndexerNoRetryException}, {@link ValidStorageRecordNotFoundException}
+   * or {@link IndexerRetryException}, depending on the response of the indexer.
    * @param recordChangedMessage 1 batch of PubSubInfo messages generated by storage service and delivered by service bus.
-   * @return
+   * @return a CompletableFuture that completes once the indexer has accepted the message.
    */
-  public void sendRecordChangedMessagesToIndexer(RecordChangedMessages recordChangedMessage) {
+  public CompletableFuture<Void> sendRecordChangedMessagesToIndexerAsync(RecordChangedMessages recordChangedMessage) {
+    return prepareRecordChangedMessagesToIndexer(recordChangedMessage).get();
+  }
 
-    try (CloseableHttpClient indexWorkerClient = httpClientBuilder.build()) {
+  /***
+   * Builds the request of {@link #sendRecordChangedMessagesToIndexerAsync(RecordChangedMessages)}, including the
+   * service account token, and defers only sending it.
+   * @param recordChangedMessage 1 batch of PubSubInfo messages generated by storage service and delivered by service bus.
+   * @return the call sending the request, it fails if the request could not be built.
+   */
+  @Override
+  public Supplier<CompletableFuture<Void>> prepareRecordChangedMessagesToIndexer(RecordChangedMessages recordChangedMessage) {
+    try {
       logger.debug("Sending recordChangedMessages to indexer service {}: ", this.gson.toJson(recordChangedMessage));
-      HttpPost indexWorkerRequest = new HttpPost(azureBootstrapConfig.getIndexerWorkerURL());
-      indexWorkerRequest.setEntity(new StringEntity(this.gson.toJson(recordChangedMessage)));
-      indexWorkerRequest.setHeader(DpsHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
-
-      Map<String, String> att = recordChangedMessage.getAttributes();
-
-      indexWorkerRequest.setHeader(DpsHeaders.AUTHORIZATION, this.serviceAccountJwtClient.getIdToken(att.get(DpsHeaders.DATA_PARTITION_ID)));
-      indexWorkerRequest.setHeader(DpsHeaders.DATA_PARTITION_ID, att.get(DpsHeaders.DATA_PARTITION_ID));
-      indexWorkerRequest.setHeader(DpsHeaders.CORRELATION_ID, att.get(DpsHeaders.CORRELATION_ID));
-      if (att.containsKey(DpsHeaders.COLLABORATION)) {
-          indexWorkerRequest.setHeader(DpsHeaders.COLLABORATION, att.get(DpsHeaders.COLLABORATION));
+      HttpRequest.Builder requestBuilder = buildIndexerRequest(azureBootstrapConfig.getIndexerWorkerURL(),
+          this.gson.toJson(recordChangedMessage), recordChangedMessage.getAttributes());
+      String collaboration = recordChangedMessage.getAttributes().get(DpsHeaders.COLLABORATION);
+      if (collaboration != null) {
+        requestBuilder.header(DpsHeaders.COLLABORATION, collaboration);
       }
-
-      CloseableHttpResponse response = indexWorkerClient.execute(indexWorkerRequest);
-
-      if (response.getStatusLine().getStatusCode() == RequestStatus.NO_RETRY) {
-        throw new IndexerNoRetryException(format("Failed to send message %s to Indexer. No retry response", recordChangedMessage.getData()));
-      }
-      if (response.getStatusLine().getStatusCode() == 404) {
-        throw new ValidStorageRecordNotFoundException(format("Indexer unable to proceed, valid storage record not found. Response status: %d", response.getStatusLine().getStatusCode()));
-      }
-      if (response.getStatusLine().getStatusCode() > 299) {
-        throw new IndexerRetryException(format("Failed to send message %s to Indexer. Response status: %d", recordChangedMessage.getData(), response.getStatusLine().getStatusCode()));
-      }
-    } catch (IOException e) {
-      String errorMessage = "Exception occurs during sending message to the Indexer:" + e.getMessage();
-      throw new IndexerRetryException(errorMessage);
+      HttpRequest request = requestBuilder.build();
+
+      return () -> sendAsync(request, statusCode -> {
+        if (statusCode == RequestStatus.NO_RETRY) {
+          throw new IndexerNoRetryException(format("Failed to send message %s to Indexer. No retry response", recordChangedMessage.getData()));
+        }
+        if (statusCode == 404) {
+          throw new ValidStorageRecordNotFoundException(format("Indexer unable to proceed, valid storage record not found. Response status: %d", statusCode));
+        }
+        if (statusCode > 299) {
+          throw new IndexerRetryException(format("Failed to send message %s to Indexer. Response status: %d", recordChangedMessage.getData(), statusCode));
+        }
+      }, "Exception occurs during sending message to the Indexer:");
+    } catch (RuntimeException e) {
+      return () -> CompletableFuture.failedFuture(e);
     }
   }
 
-    /***
-     * Create an Http Request to schema-worker endpoint of indexer service and deliver SchemaChangedMessages.
-     * @param schemaChangedMessages 1 batch of SchemaPubSubInfo messages generated by Schema service and delivered by service bus.
-     * @return
-     */
-  public void sendSchemaChangedMessagesToIndexer(SchemaChangedMessages schemaChangedMessages) {
-      try (CloseableHttpClient schemaWorkerClient = httpClientBuilder.build()) {
-          logger.debug("Sending schemaChangedMessages to indexer service {}: ", this.gson.toJson(schemaChangedMessages));
-          HttpPost schemaWorkerRequest = new HttpPost(azureBootstrapConfig.getSchemaWorkerURL());
-          schemaWorkerRequest.setEntity(new StringEntity(this.gson.toJson(schemaChangedMessages)));
-          schemaWorkerRequest.setHeader(DpsHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
-
-          Map<String, String> att = schemaChangedMessages.getAttributes();
+  /***
+   * Create an Http Request to schema-worker endpoint of indexer service and deliver SchemaChangedMessages.
+   * @param schemaChangedMessages 1 batch of SchemaPubSubInfo messages generated by Schema service and delivered by service bus.
+   * @return a CompletableFuture that completes once the indexer has accepted the message.
+   */
+  public CompletableFuture<Void> sendSchemaChangedMessagesToIndexerAsync(SchemaChangedMessages schemaChangedMessages) {
+    return prepareSchemaChangedMessagesToIndexer(schemaChangedMessages).get();
+  }
 
-          schemaWorkerRequest.setHeader(DpsHeaders.AUTHORIZATION, this.serviceAccountJwtClient.getIdToken(att.get(DpsHeaders.DATA_PARTITION_ID)));
-          schemaWorkerRequest.setHeader(DpsHeaders.DATA_PARTITION_ID, att.get(DpsHeaders.DATA_PARTITION_ID));
-          schemaWorkerRequest.setHeader(DpsHeaders.CORRELATION_ID, att.get(DpsHeaders.CORRELATION_ID));
+  /***
+   * Builds the request of {@link #sendSchemaChangedMessagesToIndexerAsync(SchemaChangedMessages)}, including the
+   * service account token, and defers only sending it.
+   * @param schemaChangedMessages 1 batch of SchemaPubSubInfo messages generated by Schema service and delivered by service bus.
+   * @return the call sending the request, it fails if the request could not be built.
+   */
+  @Override
+  public Supplier<CompletableFuture<Void>> prepareSchemaChangedMessagesToIndexer(SchemaChangedMessages schemaChangedMessages) {
+    try {
+      logger.debug("Sending schemaChangedMessages to indexer service {}: ", this.gson.toJson(schemaChangedMessages));
+      HttpRequest request = buildIndexerRequest(azureBootstrapConfig.getSchemaWorkerURL(),
+          this.gson.toJson(schemaChangedMessages), schemaChangedMessages.getAttributes()).build();
+
+      return () -> sendAsync(request, statusCode -> {
+        if (statusCode == HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+          throw new IndexerNoRetryException("Unknown error occurred when sending schema change message to the Indexer: " + statusCode);
+        }
+        if (statusCode > 299) {
+          throw new IndexerRetryException(format("Failed to process schema change message %s to Indexer. Response status: %d", schemaChangedMessages.getData(), statusCode));
+        }
+      }, "IOException occurred during sending schema change message to the Indexer:");
+    } catch (AppException e) {
+      IndexerRetryException failure = new IndexerRetryException("Exception occurred during sending schema change message to the Indexer:" + e.getMessage());
+      return () -> CompletableFuture.failedFuture(failure);
+    } catch (RuntimeException e) {
+      return () -> CompletableFuture.failedFuture(e);
+    }
+  }
 
-          CloseableHttpResponse response = schemaWorkerClient.execute(schemaWorkerRequest);
+  private HttpRequest.Builder buildIndexerRequest(String url, String body, Map<String, String> att) {
+    HttpRequest.Builder requestBuilder = HttpRequest.newBuilder(URI.create(url))
+        .POST(HttpRequest.BodyPublishers.ofString(body))
+        .header(DpsHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
+    Integer timeout = azureBootstrapConfig.getIndexerRequestTimeoutInSeconds();
+    if (timeout != null && timeout > 0) {
+      requestBuilder.timeout(Duration.ofSeconds(timeout));
+    }
+    String partitionId = att.get(DpsHeaders.DATA_PARTITION_ID);
+    setHeaderIfPresent(requestBuilder, DpsHeaders.AUTHORIZATION, this.serviceAccountJwtClient.getIdToken(partitionId));
+    setHeaderIfPresent(requestBuilder, DpsHeaders.DATA_PARTITION_ID, partitionId);
+    setHeaderIfPresent(requestBuilder, DpsHeaders.CORRELATION_ID, att.get(DpsHeaders.CORRELATION_ID));
+    return requestBuilder;
+  }
 
-          if(response.getStatusLine().getStatusCode() == HttpStatus.SC_INTERNAL_SERVER_ERROR) {
-              throw new IndexerNoRetryException("Unknown error occurred when sending schema change message to the Indexer: "+response.getStatusLine().getReasonPhrase());
+  private CompletableFuture<Void> sendAsync(HttpRequest request, IntConsumer statusValidator, String ioErrorMessage) {
+    return asyncHttpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+        .handle((response, throwable) -> {
+          if (throwable != null) {
+            indexerErrorRateTracker.record(true);
+            Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+            throw new IndexerRetryException(ioErrorMessage + cause.getMessage());
           }
-
-          if (response.getStatusLine().getStatusCode() > 299) {
-              throw new IndexerRetryException(format("Failed to process schema change message %s to Indexer. Response status: %d", schemaChangedMessages.getData(), response.getStatusLine().getStatusCode()));
+          try {
+            statusValidator.accept(response.statusCode());
+          } catch (IndexerRetryException e) {
+            indexerErrorRateTracker.record(true);
+            throw e;
           }
-      } catch (AppException e) {
-          String errorMessage = "Exception occurred during sending schema change message to the Indexer:" + e.getMessage();
-          throw new IndexerRetryException(errorMessage);
-      } catch (IOException e) {
-          String errorMessage = "IOException occurred during sending schema change message to the Indexer:" + e.getMessage();
-          throw new IndexerRetryException(errorMessage);
-      }
+          indexerErrorRateTracker.record(false);
+          return null;
+        });
+  }
+
+  private static void setHeaderIfPresent(HttpRequest.Builder requestBuilder, String name, String value) {
+    if (value != null) {
+      requestBuilder.header(name, value);
+    }
   }
 }
@@ -17,6 +17,7 @@ package org.opengroup.osdu.indexerqueue.azure.queue;
 import com.microsoft.azure.servicebus.IMessage;
 
 import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Interface for ServiceBus topic publisher.
@@ -29,4 +30,12 @@ public interface MessagePublisher {
      */
     void sendMessageToTopic(IMessage message, Instant enqueueTimeUtc);
 
+    /**
+     * Non-blocking variant of {@link #sendMessageToTopic(IMessage, Instant)}.
+     * @param message - service bus message
+     * @param enqueueTimeUtc - enqueue time for the message
+     * @return a CompletableFuture that completes once the message has been scheduled
+     */
+    CompletableFuture<Void> sendMessageToTopicAsync(IMessage message, Instant enqueueTimeUtc);
+
 }
@@ -0,0 +1,64 @@
+// Copyright © Microsoft Corporation
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//      http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.queue;
+
+import com.microsoft.azure.servicebus.SubscriptionClient;
+import org.opengroup.osdu.indexerqueue.azure.concurrency.AdaptiveConcurrencyLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/***
+ * Subscription clients and concurrency limiters created for one data partition.
+ */
+class PartitionSubscription {
+
+    private final Logger logger = LoggerFactory.getLogger(PartitionSubscription.class.getName());
+    private final String partition;
+    private final List<SubscriptionClient> clients = new CopyOnWriteArrayList<>();
+    private final List<AdaptiveConcurrencyLimiter> limiters = new CopyOnWriteArrayList<>();
+
+    PartitionSubscription(String partition) {
+        this.partition = partition;
+    }
+
+    String getPartition() {
+        return partition;
+    }
+
+    void addClient(SubscriptionClient client) {
+        clients.add(client);
+    }
+
+    void addLimiter(AdaptiveConcurrencyLimiter limiter) {
+        limiters.add(limiter);
+    }
+
+    /*
+     * Clients are closed asynchronously. Messages still locked by a closed client are redelivered once their lock expires.
+     */
+    void close() {
+        for (SubscriptionClient client : clients) {
+            try {
+                client.closeAsync().exceptionally(e -> {
+                    logger.warn("Error while closing subscription client of partition {}", partition, e);
+                    return null;
+                });
+            } catch (Exception e) {
+                logger.warn("Error while closing subscription client of partition {}", partition, e);
+            }
+        }
+        limiters.forEach(AdaptiveConcurrencyLimiter::close);
+    }
+}
@@ -16,14 +16,18 @@ import com.microsoft.azure.servicebus.SubscriptionClient;
 import org.opengroup.osdu.core.common.model.search.RecordChangedMessages;
 import org.opengroup.osdu.indexerqueue.azure.config.ThreadDpsHeaders;
 import org.opengroup.osdu.indexerqueue.azure.metrics.IMetricService;
-import org.opengroup.osdu.indexerqueue.azure.scope.thread.ThreadScopeContextHolder;
-import org.opengroup.osdu.indexerqueue.azure.util.MdcContextMap;
+import org.opengroup.osdu.indexerqueue.azure.metrics.MessageStageTimers;
+import org.opengroup.osdu.indexerqueue.azure.retry.LocalRetryScheduler;
+import org.opengroup.osdu.indexerqueue.azure.scope.message.MessageContextHolder;
 import org.opengroup.osdu.indexerqueue.azure.util.MessageAttributesExtractor;
-import org.opengroup.osdu.indexerqueue.azure.util.RetryUtil;
+import org.opengroup.osdu.indexerqueue.azure.util.MessageValidator;
+import org.opengroup.osdu.indexerqueue.azure.util.RetryStrategies;
 import org.opengroup.osdu.indexerqueue.azure.util.RecordsChangedSbMessageBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.slf4j.MDC;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -32,23 +36,25 @@ import static java.nio.charset.StandardCharsets.UTF_8;
  */
 public class RecordChangedMessageHandler extends AbstractMessageHandlerWithActiveRetry {
 
-    private IndexUpdateMessageHandler indexUpdateMessageHandler;
+    private IIndexUpdateMessageHandler indexUpdateMessageHandler;
     private RecordsChangedSbMessageBuilder recordsChangedSbMessageBuilder;
     private Logger logger = LoggerFactory.getLogger(RecordChangedMessageHandler.class.getName());
     private IMetricService metricService;
 
     RecordChangedMessageHandler(SubscriptionClient client,
                                 MessagePublisher messagePublisher,
-                                IndexUpdateMessageHandler indexUpdateMessageHandler,
+                                IIndexUpdateMessageHandler indexUpdateMessageHandler,
                                 RecordsChangedSbMessageBuilder recordsChangedSbMessageBuilder,
                                 IMetricService metricService,
-                                RetryUtil retryUtil,
+                                RetryStrategies retryStrategies,
                                 ThreadDpsHeaders dpsHeaders,
-                                MdcContextMap mdcContextMap,
                                 MessageAttributesExtractor messageAttributesExtractor,
                                 Integer maxDeliveryCount,
-                                String appName) {
-        super(client, messagePublisher, retryUtil, dpsHeaders, mdcContextMap, messageAttributesExtractor, appName, maxDeliveryCount, recordsChangedSbMessageBuilder, metricService);
+                                String appName,
+                                LocalRetryScheduler localRetryScheduler,
+                                MessageStageTimers stageTimers,
+                                MessageValidator messageValidator) {
+        super(client, messagePublisher, retryStrategies, dpsHeaders, messageAttributesExtractor, appName, maxDeliveryCount, recordsChangedSbMessageBuilder, metricService, localRetryScheduler, stageTimers, messageValidator);
         this.indexUpdateMessageHandler = indexUpdateMessageHandler;
         this.recordsChangedSbMessageBuilder = recordsChangedSbMessageBuilder;
         this.metricService = metricService;
@@ -57,20 +63,32 @@ public class RecordChangedMessageHandler extends AbstractMessageHandlerWithActiv
     /*
      * Receives a single batch of messages from service bus and sends to builds it as `RecordChangedMessages` for indexer service.
      * One batch of messages from storage service to service bus has upto 50 `PubSubInfo` messages.
+     * Waits for the same indexer call as the non-blocking path, in the context of the message.
      */
     public void processMessage(IMessage message) throws Exception {
         String messageBody = new String(message.getMessageBody().getBinaryData().get(0), UTF_8);
         String messageId = message.getMessageId();
 
-        try {
+        try (MessageContextHolder.Scope ignored = openContext(message)) {
             RecordChangedMessages recordChangedMessage = recordsChangedSbMessageBuilder.getServiceBusMessage(messageBody, messageId);
-            recordChangedMessage.setPublishTime(message.getEnqueuedTimeUtc().toString());
-            recordChangedMessage.setMessageId(messageId);
-
-            indexUpdateMessageHandler.sendRecordChangedMessagesToIndexer(recordChangedMessage);
-        } finally {
-            MDC.clear();
-            ThreadScopeContextHolder.getContext().clear();
+            processMessageAsync(message, recordChangedMessage).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
         }
     }
+
+    /*
+     * Sends the already parsed `RecordChangedMessages` to indexer service without blocking the receiving thread.
+     * The request headers are resolved before this method returns, while the thread context is still populated, also
+     * when the call has to wait for a permit of the concurrency limiter.
+     */
+    @Override
+    protected CompletableFuture<Void> processMessageAsync(IMessage message, RecordChangedMessages recordChangedMessage) {
+        recordChangedMessage.setPublishTime(message.getEnqueuedTimeUtc().toString());
+        recordChangedMessage.setMessageId(message.getMessageId());
+        return indexUpdateMessageHandler.sendRecordChangedMessagesToIndexerAsync(recordChangedMessage);
+    }
 }
@@ -0,0 +1,231 @@
+// Copyright © Schlumberger
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.queue;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.opengroup.osdu.core.common.model.http.DpsHeaders;
+import org.opengroup.osdu.core.common.model.indexer.SchemaChangedMessages;
+import org.opengroup.osdu.indexerqueue.azure.scope.message.MessageContext;
+import org.opengroup.osdu.indexerqueue.azure.scope.message.MessageContextHolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Holds schema changes for a short window and sends one request per partition and kind. A bulk schema publication
+ * touches the same kinds many times, and every request makes the indexer update the mapping of the kind, so a later
+ * change of a kind supersedes the pending one instead of being sent after it. The messages that contributed to a
+ * request are completed with its outcome. The request is sent in the context of the message whose change it carries.
+ */
+@Component
+public class SchemaChangeCoalescer implements DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SchemaChangeCoalescer.class.getName());
+    private static final String KIND = "kind";
+
+    private final long windowMillis;
+    private final Map<SchemaKey, PendingSchemaChange> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "schema-change-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /***
+     * @param windowMillis how long a schema change waits for later changes of the same kind, 0 disables coalescing.
+     */
+    public SchemaChangeCoalescer(@Value("${schema-coalescer.window-millis:500}") long windowMillis) {
+        this.windowMillis = Math.max(0, windowMillis);
+    }
+
+    /***
+     * @param schemaChangedMessages schema changes of a single message.
+     * @param indexer handler the coalesced changes are sent with.
+     * @return a CompletableFuture that completes once the indexer has accepted every change of the message.
+     */
+    public CompletableFuture<Void> submit(SchemaChangedMessages schemaChangedMessages, IIndexUpdateMessageHandler indexer) {
+        List<JsonObject> schemaInfos = windowMillis > 0 ? schemaInfos(schemaChangedMessages) : null;
+        if (schemaInfos == null) {
+            return indexer.sendSchemaChangedMessagesToIndexerAsync(schemaChangedMessages);
+        }
+        Map<String, String> attributes = schemaChangedMessages.getAttributes();
+        String partitionId = attributes == null ? null : attributes.get(DpsHeaders.DATA_PARTITION_ID);
+        MessageContext context = MessageContextHolder.current();
+        CompletableFuture<?>[] results = new CompletableFuture<?>[schemaInfos.size()];
+        for (int i = 0; i < schemaInfos.size(); i++) {
+            JsonObject schemaInfo = schemaInfos.get(i);
+            SchemaKey key = new SchemaKey(partitionId, schemaInfo.get(KIND).getAsString());
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            while (true) {
+                PendingSchemaChange change = pending.computeIfAbsent(key, k -> new PendingSchemaChange());
+                int contributors = change.supersede(schemaInfo, schemaChangedMessages, context, indexer, result);
+                if (contributors < 0) {
+                    // the change was sent meanwhile, start a new one
+                    pending.remove(key, change);
+                    continue;
+                }
+                if (contributors == 1) {
+                    scheduleFlush(key, change);
+                }
+                break;
+            }
+            results[i] = result;
+        }
+        return CompletableFuture.allOf(results);
+    }
+
+    @Override
+    public void destroy() {
+        flusher.shutdown();
+        pending.forEach(this::flush);
+    }
+
+    private void scheduleFlush(SchemaKey key, PendingSchemaChange change) {
+        try {
+            flusher.schedule(() -> flush(key, change), windowMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            flush(key, change);
+        }
+    }
+
+    private void flush(SchemaKey key, PendingSchemaChange change) {
+        pending.remove(key, change);
+        if (!change.close()) {
+            return;
+        }
+        if (change.results.size() > 1) {
+            LOGGER.debug("Coalesced {} schema changes of kind {} in partition {}", change.results.size(), key.kind, key.partitionId);
+        }
+        JsonArray data = new JsonArray();
+        data.add(change.schemaInfo);
+        SchemaChangedMessages coalesced = new SchemaChangedMessages();
+        coalesced.setData(data.toString());
+        coalesced.setAttributes(change.latest.getAttributes());
+        coalesced.setMessageId(change.latest.getMessageId());
+        coalesced.setPublishTime(change.latest.getPublishTime());
+
+        CompletableFuture<Void> sent;
+        try (MessageContextHolder.Scope ignored = MessageContextHolder.open(change.context)) {
+            sent = change.indexer.sendSchemaChangedMessagesToIndexerAsync(coalesced);
+        } catch (Exception e) {
+            sent = CompletableFuture.failedFuture(e);
+        }
+        sent.whenComplete((result, throwable) -> change.results.forEach(contributor -> {
+            if (throwable == null) {
+                contributor.complete(null);
+            } else {
+                contributor.completeExceptionally(throwable);
+            }
+        }));
+    }
+
+    /*
+     * @return the schema infos of the message, or null if any of them has no kind and the message cannot be coalesced.
+     */
+    private static List<JsonObject> schemaInfos(SchemaChangedMessages schemaChangedMessages) {
+        try {
+            JsonElement data = new JsonParser().parse(schemaChangedMessages.getData());
+            if (!data.isJsonArray() || data.getAsJsonArray().size() == 0) {
+                return null;
+            }
+            List<JsonObject> schemaInfos = new ArrayList<>(data.getAsJsonArray().size());
+            for (JsonElement element : data.getAsJsonArray()) {
+                if (!element.isJsonObject() || !element.getAsJsonObject().has(KIND)
+                    || !element.getAsJsonObject().get(KIND).isJsonPrimitive()) {
+                    return null;
+                }
+                schemaInfos.add(element.getAsJsonObject());
+            }
+            return schemaInfos;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static final class PendingSchemaChange {
+        private final List<CompletableFuture<Void>> results = new ArrayList<>();
+        private JsonObject schemaInfo;
+        private SchemaChangedMessages latest;
+        private MessageContext context;
+        private IIndexUpdateMessageHandler indexer;
+        private boolean closed;
+
+        /*
+         * @return the number of messages waiting for this change, or -1 if the change has already been sent.
+         */
+        synchronized int supersede(JsonObject schemaInfo, SchemaChangedMessages message, MessageContext context,
+                                   IIndexUpdateMessageHandler indexer, CompletableFuture<Void> result) {
+            if (closed) {
+                return -1;
+            }
+            this.schemaInfo = schemaInfo;
+            this.latest = message;
+            this.context = context;
+            this.indexer = indexer;
+            results.add(result);
+            return results.size();
+        }
+
+        synchronized boolean close() {
+            if (closed) {
+                return false;
+            }
+            closed = true;
+            return true;
+        }
+    }
+
+    private static final class SchemaKey {
+        private final String partitionId;
+        private final String kind;
+
+        private SchemaKey(String partitionId, String kind) {
+            this.partitionId = partitionId == null ? "" : partitionId;
+            this.kind = kind;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SchemaKey)) {
+                return false;
+            }
+            SchemaKey other = (SchemaKey) o;
+            return partitionId.equals(other.partitionId) && kind.equals(other.kind);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * partitionId.hashCode() + kind.hashCode();
+        }
+    }
+}
@@ -14,70 +14,170 @@
 
 package org.opengroup.osdu.indexerqueue.azure.queue;
 
+import com.google.gson.JsonElement;
 import com.microsoft.azure.servicebus.IMessage;
 import com.microsoft.azure.servicebus.SubscriptionClient;
 import org.opengroup.osdu.azure.servicebus.AbstractMessageHandler;
 import org.opengroup.osdu.core.common.model.indexer.SchemaChangedMessages;
 import org.opengroup.osdu.indexerqueue.azure.config.ThreadDpsHeaders;
-import org.opengroup.osdu.indexerqueue.azure.scope.thread.ThreadScopeContextHolder;
-import org.opengroup.osdu.indexerqueue.azure.util.MdcContextMap;
+import org.opengroup.osdu.indexerqueue.azure.metrics.MessageStageTimers;
+import org.opengroup.osdu.indexerqueue.azure.metrics.MessageStageTimers.Stage;
+import org.opengroup.osdu.indexerqueue.azure.scope.message.MessageContext;
+import org.opengroup.osdu.indexerqueue.azure.scope.message.MessageContextHolder;
 import org.opengroup.osdu.indexerqueue.azure.util.MessageAttributesExtractor;
+import org.opengroup.osdu.indexerqueue.azure.util.MessageValidator;
+import org.opengroup.osdu.indexerqueue.azure.util.MessageValidator.InvalidMessageReason;
 import org.opengroup.osdu.indexerqueue.azure.util.SchemaChangedAttributes;
 import org.opengroup.osdu.indexerqueue.azure.util.SchemaChangedSbMessageBuilder;
-import org.slf4j.MDC;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 public class SchemaChangedMessageHandler extends AbstractMessageHandler {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(SchemaChangedMessageHandler.class.getName());
+
     private SchemaChangedSbMessageBuilder schemaChangedSbMessageBuilder;
-    private IndexUpdateMessageHandler indexUpdateMessageHandler;
+    private IIndexUpdateMessageHandler indexUpdateMessageHandler;
     private MessageAttributesExtractor messageAttributesExtractor;
-    private MdcContextMap mdcContextMap;
     private ThreadDpsHeaders dpsHeaders;
+    private SubscriptionClient receiveClient;
+    private MessageStageTimers stageTimers;
+    private MessageValidator messageValidator;
 
     public SchemaChangedMessageHandler(String workerServiceName,
                                        SubscriptionClient client,
                                        ThreadDpsHeaders dpsHeaders,
-                                       MdcContextMap mdcContextMap,
                                        MessageAttributesExtractor messageAttributesExtractor,
                                        SchemaChangedSbMessageBuilder schemaChangedSbMessageBuilder,
-                                       IndexUpdateMessageHandler indexUpdateMessageHandler) {
+                                       IIndexUpdateMessageHandler indexUpdateMessageHandler,
+                                       MessageStageTimers stageTimers,
+                                       MessageValidator messageValidator) {
         super(workerServiceName, client);
         this.schemaChangedSbMessageBuilder = schemaChangedSbMessageBuilder;
         this.indexUpdateMessageHandler = indexUpdateMessageHandler;
         this.dpsHeaders = dpsHeaders;
-        this.mdcContextMap = mdcContextMap;
         this.messageAttributesExtractor = messageAttributesExtractor;
+        this.receiveClient = client;
+        this.stageTimers = stageTimers;
+        this.messageValidator = messageValidator;
+    }
+
+    /*
+     * Completes the message once indexer service has accepted it and abandons it otherwise,
+     * without blocking the receiving thread on the indexer call. A message with a broken envelope
+     * is dead-lettered right away, redelivering it cannot help. The stages are timed like those of the
+     * record changed messages.
+     */
+    @Override
+    public CompletableFuture<Void> onMessageAsync(IMessage message) {
+        MessageContext context = null;
+        CompletableFuture<Void> processing;
+        try {
+            recordStage(Stage.DWELL, System.currentTimeMillis() - message.getEnqueuedTimeUtc().toEpochMilli(), TimeUnit.MILLISECONDS);
+            String messageBody = new String(message.getMessageBody().getBinaryData().get(0), UTF_8);
+            long parseStartTime = System.nanoTime();
+            JsonElement root = MessageValidator.parse(messageBody);
+            long parseNanos = System.nanoTime() - parseStartTime;
+            InvalidMessageReason invalidReason = messageValidator == null ? null : messageValidator.validate(root);
+            if (invalidReason != null) {
+                LOGGER.warn("Invalid schema changed message {} sent to dead letter queue: {}", message.getMessageId(), invalidReason.getDescription());
+                messageValidator.recordRejection(invalidReason, receiveClient.getTopicName());
+                return timedAck(() -> receiveClient.deadLetterAsync(message.getLockToken(), invalidReason.name(), invalidReason.getDescription()));
+            }
+            context = MessageValidator.contextOf(root);
+            if (context == null) {
+                context = messageContext(message);
+            }
+            processing = processMessageAsync(message, root, messageBody, parseNanos, context);
+        } catch (Exception e) {
+            processing = CompletableFuture.failedFuture(e);
+        }
+        return processing
+            .handle((result, throwable) -> throwable)
+            .thenCompose(MessageContextHolder.wrap(context, throwable -> {
+                if (throwable == null) {
+                    return timedAck(() -> receiveClient.completeAsync(message.getLockToken()));
+                }
+                LOGGER.error("Exception while processing schema changed message {}", message.getMessageId(), throwable);
+                return timedAck(() -> receiveClient.abandonAsync(message.getLockToken()));
+            }));
     }
 
     /*
      * Receives a single batch of messages from service bus and sends to builds it as `SchemaChangedMessages` for indexer service.
-     * Messages are of type 'SchemaPubSubInfo'
+     * Messages are of type 'SchemaPubSubInfo'. Waits for the same indexer call as the non-blocking path, in the
+     * context of the message.
      */
     public void processMessage(IMessage message) {
         String messageBody = new String(message.getMessageBody().getBinaryData().get(0), UTF_8);
         String messageId = message.getMessageId();
 
-        setupLoggerContext(message);
+        MessageContext context = messageContext(message);
 
-        try {
+        try (MessageContextHolder.Scope ignored = MessageContextHolder.open(context)) {
+            dpsHeaders.setThreadContext(context);
             SchemaChangedMessages schemaChangedMessages = schemaChangedSbMessageBuilder.buildSchemaChangedServiceBusMessage(messageBody);
             schemaChangedMessages.setPublishTime(message.getEnqueuedTimeUtc().toString());
             schemaChangedMessages.setMessageId(messageId);
 
-            indexUpdateMessageHandler.sendSchemaChangedMessagesToIndexer(schemaChangedMessages);
-        } finally {
-            MDC.clear();
-            ThreadScopeContextHolder.getContext().clear();
+            indexUpdateMessageHandler.sendSchemaChangedMessagesToIndexerAsync(schemaChangedMessages).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /*
+     * The body was parsed once before validation, the builder works on the same tree.
+     */
+    private CompletableFuture<Void> processMessageAsync(IMessage message, JsonElement root, String messageBody, long parseNanos,
+                                                        MessageContext context) {
+        try (MessageContextHolder.Scope ignored = MessageContextHolder.open(context)) {
+            dpsHeaders.setThreadContext(context);
+            long buildStartTime = System.nanoTime();
+            SchemaChangedMessages schemaChangedMessages = root != null
+                ? schemaChangedSbMessageBuilder.buildSchemaChangedServiceBusMessage(root, messageBody)
+                : schemaChangedSbMessageBuilder.buildSchemaChangedServiceBusMessage(messageBody);
+            recordStage(Stage.PARSE, parseNanos + System.nanoTime() - buildStartTime, TimeUnit.NANOSECONDS);
+            schemaChangedMessages.setPublishTime(message.getEnqueuedTimeUtc().toString());
+            schemaChangedMessages.setMessageId(message.getMessageId());
+
+            long dispatchTime = System.nanoTime();
+            return indexUpdateMessageHandler.sendSchemaChangedMessagesToIndexerAsync(schemaChangedMessages)
+                .whenComplete((result, throwable) -> recordStage(Stage.INDEXER, System.nanoTime() - dispatchTime, TimeUnit.NANOSECONDS));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private CompletableFuture<Void> timedAck(Supplier<CompletableFuture<Void>> settlement) {
+        long ackStartTime = System.nanoTime();
+        return settlement.get()
+            .whenComplete((result, throwable) -> recordStage(Stage.ACK, System.nanoTime() - ackStartTime, TimeUnit.NANOSECONDS));
+    }
+
+    private void recordStage(Stage stage, long duration, TimeUnit unit) {
+        if (stageTimers == null) {
+            return;
+        }
+        try {
+            stageTimers.record(stage, receiveClient.getTopicName(), duration, unit);
+        } catch (Exception e) {
+            LOGGER.error("Error recording message stage latency", e);
         }
     }
 
-    private void setupLoggerContext(IMessage message) {
+    private MessageContext messageContext(IMessage message) {
         SchemaChangedAttributes schemaChangedAttributes = messageAttributesExtractor.extractSchemaChangedAttributesFromMessageBody(message);
-        String correlationId = schemaChangedAttributes.getCorrelationId();
-        String dataPartitionId = schemaChangedAttributes.getDataPartitionId();
-        MDC.setContextMap(mdcContextMap.getContextMap(correlationId, dataPartitionId));
-        dpsHeaders.setThreadContext(dataPartitionId, correlationId);
+        return MessageContext.of(schemaChangedAttributes.getDataPartitionId(), schemaChangedAttributes.getCorrelationId());
     }
 }
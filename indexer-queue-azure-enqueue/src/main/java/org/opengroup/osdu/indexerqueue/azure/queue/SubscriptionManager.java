@@ -3,27 +3,35 @@ package org.opengroup.osdu.indexerqueue.azure.queue;
 import com.microsoft.azure.servicebus.MessageHandlerOptions;
 import com.microsoft.azure.servicebus.SubscriptionClient;
 import com.microsoft.azure.servicebus.primitives.ServiceBusException;
-import org.opengroup.osdu.azure.servicebus.ITopicClientFactory;
 import org.opengroup.osdu.core.common.model.tenant.TenantInfo;
 import org.opengroup.osdu.core.common.provider.interfaces.ITenantFactory;
+import org.opengroup.osdu.indexerqueue.azure.concurrency.AdaptiveConcurrencyLimiter;
+import org.opengroup.osdu.indexerqueue.azure.concurrency.ConcurrencyLimiterFactory;
+import org.opengroup.osdu.indexerqueue.azure.concurrency.PartitionExecutorRegistry;
 import org.opengroup.osdu.indexerqueue.azure.config.ThreadDpsHeaders;
 import org.opengroup.osdu.indexerqueue.azure.di.AzureBootstrapConfig;
 import org.opengroup.osdu.indexerqueue.azure.metrics.IMetricService;
-import org.opengroup.osdu.indexerqueue.azure.util.MdcContextMap;
+import org.opengroup.osdu.indexerqueue.azure.metrics.MessageStageTimers;
+import org.opengroup.osdu.indexerqueue.azure.retry.LocalRetryScheduler;
+import org.opengroup.osdu.indexerqueue.azure.retry.PublishRetryExecutor;
 import org.opengroup.osdu.indexerqueue.azure.util.MessageAttributesExtractor;
-import org.opengroup.osdu.indexerqueue.azure.util.RetryUtil;
+import org.opengroup.osdu.indexerqueue.azure.util.MessageValidator;
+import org.opengroup.osdu.indexerqueue.azure.util.RetryStrategies;
 import org.opengroup.osdu.indexerqueue.azure.util.RecordsChangedSbMessageBuilder;
 import org.opengroup.osdu.indexerqueue.azure.util.SchemaChangedSbMessageBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.retry.support.RetryTemplate;
 import org.springframework.stereotype.Component;
 
 import java.time.Duration;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
@@ -37,9 +45,9 @@ public class SubscriptionManager {
     @Autowired
     private SubscriptionClientFactory clientFactory;
     @Autowired
-    private ITopicClientFactory topicClientFactory;
+    private BatchingTopicPublisher batchingTopicPublisher;
     @Autowired
-    private RetryUtil retryUtil;
+    private RetryStrategies retryStrategies;
     @Autowired
     private RecordsChangedSbMessageBuilder recordsChangedSbMessageBuilder;
     @Autowired
@@ -53,30 +61,39 @@ public class SubscriptionManager {
     @Autowired
     private IMetricService metricService;
     @Autowired
-    private RetryTemplate retryTemplate;
+    private PublishRetryExecutor publishRetryExecutor;
+    @Autowired
+    private ConcurrencyLimiterFactory concurrencyLimiterFactory;
+    @Autowired
+    private PartitionExecutorRegistry partitionExecutorRegistry;
+    @Autowired
+    private LocalRetryScheduler localRetryScheduler;
+    @Autowired
+    private MessageStageTimers messageStageTimers;
+    @Autowired
+    private SchemaChangeCoalescer schemaChangeCoalescer;
+    @Autowired
+    private MessageValidator messageValidator;
 
     @Autowired
     private ThreadDpsHeaders dpsHeaders;
     @Autowired
-    private MdcContextMap mdcContextMap;
-    @Autowired
     private MessageAttributesExtractor messageAttributesExtractor;
     private final Logger logger = LoggerFactory.getLogger(SubscriptionManager.class.getName());
 
+    private final Map<String, PartitionSubscription> subscriptions = new ConcurrentHashMap<>();
+
     /***
      * Create subscription clients for service buses of different partitions to register them with message handling options.
      */
     public void subscribeRecordsTopic() {
 
-        Set<String> partitions = new HashSet<>();
-        ExecutorService executorService = Executors
-                .newFixedThreadPool(Integer.parseUnsignedInt(azureBootstrapConfig.getNThreads()));
         Integer sleepMainThreadDuration = azureBootstrapConfig.getSleepDurationForMainThreadInSeconds();
 
         while(true) {
 
             try {
-                fetchPartitionsAndSubscribe(executorService, partitions);
+                fetchPartitionsAndSubscribe();
             }
             catch (Exception e) {
                 logger.error("Exception encountered while fetching partition information", e);
@@ -94,44 +111,122 @@ public class SubscriptionManager {
 
     }
 
-    public void fetchPartitionsAndSubscribe(ExecutorService executorService, Set<String> partitions) {
-        List<String> tenantList = tenantFactory.listTenantInfo().stream().map(TenantInfo::getDataPartitionId)
-                .collect(Collectors.toList());
+    /***
+     * Reconciles the subscriptions with the current list of partitions: partitions that are new are subscribed in
+     * parallel, partitions that are gone are unsubscribed and their clients and executor closed.
+     * A partition that fails to subscribe is left out and tried again on the next call.
+     */
+    public void fetchPartitionsAndSubscribe() {
+        Set<String> tenantList = tenantFactory.listTenantInfo().stream().map(TenantInfo::getDataPartitionId)
+                .collect(Collectors.toSet());
 
         logger.info("Total number of partitions " + tenantList.size());
 
+        Set<String> removed = new HashSet<>(subscriptions.keySet());
+        removed.removeAll(tenantList);
+        removed.forEach(this::unsubscribe);
+
+        List<String> added = tenantList.stream().filter(partition -> !subscriptions.containsKey(partition))
+                .collect(Collectors.toList());
+        if (added.isEmpty()) {
+            return;
+        }
+
+        int parallelism = Math.max(1, Math.min(added.size(), azureBootstrapConfig.getSubscriptionParallelism()));
+        ExecutorService subscriptionExecutor = Executors.newFixedThreadPool(parallelism);
+        try {
+            CompletableFuture.allOf(added.stream()
+                    .map(partition -> CompletableFuture.runAsync(() -> subscribe(partition), subscriptionExecutor))
+                    .toArray(CompletableFuture[]::new))
+                .join();
+        } finally {
+            subscriptionExecutor.shutdown();
+        }
+        logger.info("Subscribed {} new partitions", added.size());
+    }
+
+    /***
+     * @return partitions currently subscribed.
+     */
+    public Set<String> getSubscribedPartitions() {
+        return Collections.unmodifiableSet(subscriptions.keySet());
+    }
+
+    private void subscribe(String partition) {
         // Please note that for MessagePublisher, publish topic for retry should use reindex topic instead of record change topic
         // to avoid creating duplicate/repeated record change event
         String publishTopicName = azureBootstrapConfig.getReindexTopic();
-        for (String partition : tenantList) {
+        PartitionSubscription subscription = new PartitionSubscription(partition);
+        try {
+            ExecutorService executorService = partitionExecutorRegistry.getExecutor(partition);
+            subscribeRecordsChangedHandler(subscription, executorService, azureBootstrapConfig.getServiceBusTopic(), azureBootstrapConfig.getServiceBusTopicSubscription(), publishTopicName);
+            subscribeRecordsChangedHandler(subscription, executorService, azureBootstrapConfig.getReindexTopic(), azureBootstrapConfig.getReindexTopicSubscription(), publishTopicName);
+            subscribeSchemaChangedHandler(subscription, executorService, azureBootstrapConfig.getSchemachangedTopic(), azureBootstrapConfig.getSchemachangedSubscription(), azureBootstrapConfig.getSchemachangedTopic());
+            subscriptions.put(partition, subscription);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Interrupted while registering message handlers of partition {}", partition, e);
+            abandon(subscription);
+        }
+        catch (Exception e) {
+            logger.error("Error while creating or registering subscription client of partition {}", partition, e);
+            abandon(subscription);
+        }
+    }
 
-            if(partitions.contains(partition)) {
-                continue;
-            }
-            try {
-                subscribeRecordsChangedHandler(executorService, partition, azureBootstrapConfig.getServiceBusTopic(), azureBootstrapConfig.getServiceBusTopicSubscription(), publishTopicName);
-                subscribeRecordsChangedHandler(executorService, partition, azureBootstrapConfig.getReindexTopic(), azureBootstrapConfig.getReindexTopicSubscription(), publishTopicName);
-                subscribeSchemaChangedHandler(executorService, partition, azureBootstrapConfig.getSchemachangedTopic(), azureBootstrapConfig.getSchemachangedSubscription(), azureBootstrapConfig.getSchemachangedTopic());
-                partitions.add(partition);
-            }
-            catch (Exception e) {
-                logger.error("Error while creating or registering subscription client", e);
-            }
+    /*
+     * A partition is only kept once all its handlers are registered, otherwise it is subscribed again on the next call.
+     */
+    private void abandon(PartitionSubscription subscription) {
+        subscription.close();
+        partitionExecutorRegistry.shutdown(subscription.getPartition());
+    }
+
+    private void unsubscribe(String partition) {
+        PartitionSubscription subscription = subscriptions.remove(partition);
+        if (subscription != null) {
+            logger.info("Partition {} is no longer listed, closing its subscriptions", partition);
+            subscription.close();
+            partitionExecutorRegistry.shutdown(partition);
+            batchingTopicPublisher.evict(partition);
         }
     }
 
-    private void subscribeRecordsChangedHandler(ExecutorService executorService, String partition, String topicName, String subscriptionName, String publishTopicName) {
+    private void subscribeRecordsChangedHandler(PartitionSubscription subscription, ExecutorService executorService, String topicName, String subscriptionName, String publishTopicName)
+        throws InterruptedException, ServiceBusException {
+        String partition = subscription.getPartition();
         SubscriptionClient subscriptionClient = this.clientFactory.getSubscriptionClient(partition, topicName, subscriptionName);
-        MessagePublisher messagePublisher = new TopicMessagePublisher(this.topicClientFactory, retryTemplate,
+        subscription.addClient(subscriptionClient);
+        MessagePublisher messagePublisher = new TopicMessagePublisher(batchingTopicPublisher, publishRetryExecutor,
           partition, publishTopicName);
-        registerRecordsChangedMessageHandler(subscriptionClient, messagePublisher, executorService);
+        int maxConcurrentCalls = Integer.parseUnsignedInt(azureBootstrapConfig.getMaxConcurrentCalls());
+        registerRecordsChangedMessageHandler(subscriptionClient, messagePublisher,
+            limitedIndexUpdateMessageHandler(subscription, topicName, maxConcurrentCalls), maxConcurrentCalls, executorService);
     }
 
-    private void subscribeSchemaChangedHandler(ExecutorService executorService, String partition, String topicName, String subscriptionName, String publishTopicName) {
+    private void subscribeSchemaChangedHandler(PartitionSubscription subscription, ExecutorService executorService, String topicName, String subscriptionName, String publishTopicName)
+        throws InterruptedException, ServiceBusException {
+        String partition = subscription.getPartition();
         SubscriptionClient subscriptionClient = this.clientFactory.getSubscriptionClient(partition, topicName, subscriptionName);
-        MessagePublisher messagePublisher = new TopicMessagePublisher(this.topicClientFactory, retryTemplate,
+        subscription.addClient(subscriptionClient);
+        MessagePublisher messagePublisher = new TopicMessagePublisher(batchingTopicPublisher, publishRetryExecutor,
             partition, publishTopicName);
-        registerSchemaChangedMessageHandler(subscriptionClient, messagePublisher, executorService);
+        int maxConcurrentCalls = Integer.parseUnsignedInt(azureBootstrapConfig.getMaxConcurrentCalls());
+        IIndexUpdateMessageHandler coalescingIndexUpdateMessageHandler = new CoalescingIndexUpdateMessageHandler(
+            limitedIndexUpdateMessageHandler(subscription, topicName, maxConcurrentCalls), schemaChangeCoalescer);
+        registerSchemaChangedMessageHandler(subscriptionClient, messagePublisher,
+            coalescingIndexUpdateMessageHandler, maxConcurrentCalls, executorService);
+    }
+
+    /*
+     * Every subscription gets its own adaptive limit on indexer calls, capped by max-concurrent-calls of its message pump
+     * and by the budget shared with all other subscriptions.
+     */
+    private IIndexUpdateMessageHandler limitedIndexUpdateMessageHandler(PartitionSubscription subscription, String topicName, int maxConcurrentCalls) {
+        AdaptiveConcurrencyLimiter limiter = concurrencyLimiterFactory.create(subscription.getPartition() + "/" + topicName, maxConcurrentCalls);
+        subscription.addLimiter(limiter);
+        return new ConcurrencyLimitedIndexUpdateMessageHandler(indexUpdateMessageHandler, limiter);
     }
 
     /*
@@ -141,42 +236,36 @@ public class SubscriptionManager {
      * messageWaitDuration  --> duration to wait for receiving the message.
      * maxConcurrentCalls   --> maximum number of concurrent calls to the onMessage handler. (maximum messages that can be handled at any given point.)
      */
-    private void registerRecordsChangedMessageHandler(SubscriptionClient subscriptionClient, MessagePublisher messageSender, ExecutorService executorService) {
-        try {
-            Integer maxDeliveryCount = Integer.valueOf(azureBootstrapConfig.getMaxDeliveryCount());
-            String appName = azureBootstrapConfig.getAppName();
-            RecordChangedMessageHandler recordChangedMessageHandler = new RecordChangedMessageHandler(subscriptionClient,
-                    messageSender, indexUpdateMessageHandler, recordsChangedSbMessageBuilder,
-                    metricService, retryUtil, dpsHeaders, mdcContextMap, messageAttributesExtractor, maxDeliveryCount, appName);
-            subscriptionClient.registerMessageHandler(
-                recordChangedMessageHandler,
-                    new MessageHandlerOptions(Integer.parseUnsignedInt(azureBootstrapConfig.getMaxConcurrentCalls()),
-                            false,
-                            Duration.ofSeconds(Integer.parseUnsignedInt(azureBootstrapConfig.getMaxLockRenewDurationInSeconds())),
-                            Duration.ofSeconds(1)
-                    ),
-                    executorService);
-
-        } catch (InterruptedException | ServiceBusException e) {
-            logger.debug("Error registering message handler for subscription named - {}\n error - {}", subscriptionClient.getSubscriptionName() ,e);
-        }
-    }
-
-    private void registerSchemaChangedMessageHandler(SubscriptionClient subscriptionClient, MessagePublisher messageSender, ExecutorService executorService) {
-        try {
-            String appName = azureBootstrapConfig.getAppName();
-            SchemaChangedMessageHandler schemaChangedMessageHandler = new SchemaChangedMessageHandler(appName, subscriptionClient, dpsHeaders, mdcContextMap, messageAttributesExtractor, schemaChangedSbMessageBuilder, indexUpdateMessageHandler);
-            subscriptionClient.registerMessageHandler(
-                schemaChangedMessageHandler,
-                new MessageHandlerOptions(Integer.parseUnsignedInt(azureBootstrapConfig.getMaxConcurrentCalls()),
-                    false,
-                    Duration.ofSeconds(Integer.parseUnsignedInt(azureBootstrapConfig.getMaxLockRenewDurationInSeconds())),
-                    Duration.ofSeconds(1)
+    private void registerRecordsChangedMessageHandler(SubscriptionClient subscriptionClient, MessagePublisher messageSender,
+                                                      IIndexUpdateMessageHandler indexUpdateMessageHandler, int maxConcurrentCalls,
+                                                      ExecutorService executorService) throws InterruptedException, ServiceBusException {
+        Integer maxDeliveryCount = Integer.valueOf(azureBootstrapConfig.getMaxDeliveryCount());
+        String appName = azureBootstrapConfig.getAppName();
+        RecordChangedMessageHandler recordChangedMessageHandler = new RecordChangedMessageHandler(subscriptionClient,
+                messageSender, indexUpdateMessageHandler, recordsChangedSbMessageBuilder,
+                metricService, retryStrategies, dpsHeaders, messageAttributesExtractor, maxDeliveryCount, appName, localRetryScheduler, messageStageTimers, messageValidator);
+        subscriptionClient.registerMessageHandler(
+            recordChangedMessageHandler,
+                new MessageHandlerOptions(maxConcurrentCalls,
+                        false,
+                        Duration.ofSeconds(Integer.parseUnsignedInt(azureBootstrapConfig.getMaxLockRenewDurationInSeconds())),
+                        Duration.ofSeconds(1)
                 ),
                 executorService);
+    }
 
-        } catch (InterruptedException | ServiceBusException e) {
-            logger.debug("Error registering message handler for subscription named - {}\n error - {}", subscriptionClient.getSubscriptionName() ,e);
-        }
+    private void registerSchemaChangedMessageHandler(SubscriptionClient subscriptionClient, MessagePublisher messageSender,
+                                                     IIndexUpdateMessageHandler indexUpdateMessageHandler, int maxConcurrentCalls,
+                                                     ExecutorService executorService) throws InterruptedException, ServiceBusException {
+        String appName = azureBootstrapConfig.getAppName();
+        SchemaChangedMessageHandler schemaChangedMessageHandler = new SchemaChangedMessageHandler(appName, subscriptionClient, dpsHeaders, messageAttributesExtractor, schemaChangedSbMessageBuilder, indexUpdateMessageHandler, messageStageTimers, messageValidator);
+        subscriptionClient.registerMessageHandler(
+            schemaChangedMessageHandler,
+            new MessageHandlerOptions(maxConcurrentCalls,
+                false,
+                Duration.ofSeconds(Integer.parseUnsignedInt(azureBootstrapConfig.getMaxLockRenewDurationInSeconds())),
+                Duration.ofSeconds(1)
+            ),
+            executorService);
     }
 }
@@ -15,36 +15,35 @@
 package org.opengroup.osdu.indexerqueue.azure.queue;
 
 import com.microsoft.azure.servicebus.IMessage;
-import com.microsoft.azure.servicebus.TopicClient;
-import com.microsoft.azure.servicebus.primitives.ServiceBusException;
-import org.opengroup.osdu.azure.servicebus.ITopicClientFactory;
-import org.opengroup.osdu.core.common.model.http.AppException;
-import org.springframework.retry.support.RetryTemplate;
+import org.opengroup.osdu.indexerqueue.azure.retry.PublishRetryExecutor;
 
 import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
- * Implementation of the message publisher interface.
+ * Implementation of the message publisher interface for one partition and topic, on top of the
+ * {@link BatchingTopicPublisher} shared by all subscriptions.
  */
 public class TopicMessagePublisher implements MessagePublisher {
 
-    private final ITopicClientFactory topicClientFactory;
-    private final RetryTemplate retryTemplate;
+    private final BatchingTopicPublisher batchingTopicPublisher;
+    private final PublishRetryExecutor retryExecutor;
     private final String partitionId;
     private final String topicName;
 
     /**
-     * @param factory - factory object for topicClient
-     * @param template - retry template for topicClient
+     * @param publisher - shared publisher caching the topic clients
+     * @param retryExecutor - retries failed publications without blocking
      * @param dataPartitionId - data partition id
      * @param topic - topic name
      */
-    public TopicMessagePublisher(final ITopicClientFactory factory,
-                                 final RetryTemplate template,
+    public TopicMessagePublisher(final BatchingTopicPublisher publisher,
+                                 final PublishRetryExecutor retryExecutor,
                                  final String dataPartitionId,
                                  final String topic) {
-        this.topicClientFactory = factory;
-        this.retryTemplate = template;
+        this.batchingTopicPublisher = publisher;
+        this.retryExecutor = retryExecutor;
         this.partitionId = dataPartitionId;
         this.topicName = topic;
     }
@@ -56,15 +55,25 @@ public class TopicMessagePublisher implements MessagePublisher {
      */
     @Override
     public void sendMessageToTopic(final IMessage message, final Instant enqueueTimeUtc) {
-        TopicClient topicClient;
         try {
-            topicClient = topicClientFactory.getClient(partitionId, topicName);
-            retryTemplate.execute(arg -> {
-                topicClient.scheduleMessageAsync(message, enqueueTimeUtc);
-                return null;
-            });
-        } catch (ServiceBusException | InterruptedException e) {
-            throw new AppException(500, "Server Error", "Unexpected error creating Topic Client", e);
+            sendMessageToTopicAsync(message, enqueueTimeUtc).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
         }
     }
+
+    /**
+     * The message is sent together with the other messages scheduled for the same topic and enqueue time.
+     * Failed attempts are retried with backoff on a timer, not on the calling thread.
+     * @param message - service bus message
+     * @param enqueueTimeUtc - enqueue time for the message
+     * @return a CompletableFuture that completes once the message has been scheduled
+     */
+    @Override
+    public CompletableFuture<Void> sendMessageToTopicAsync(final IMessage message, final Instant enqueueTimeUtc) {
+        return retryExecutor.execute(partitionId, () -> batchingTopicPublisher.schedule(partitionId, topicName, message, enqueueTimeUtc));
+    }
 }
@@ -0,0 +1,55 @@
+// Copyright © Microsoft Corporation
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//      http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.replay;
+
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/***
+ * Actuator endpoint of the dead letter queue replay, disabled unless management.endpoint.dlqreplay.enabled is set:
+ * GET shows the progress, POST starts a replay and DELETE cancels it.
+ */
+@Component
+@Endpoint(id = "dlqreplay", enableByDefault = false)
+public class DeadLetterReplayEndpoint {
+
+    private final DeadLetterReplayService replayService;
+
+    public DeadLetterReplayEndpoint(DeadLetterReplayService replayService) {
+        this.replayService = replayService;
+    }
+
+    @ReadOperation
+    public ReplayProgress progress() {
+        return replayService.getProgress();
+    }
+
+    @WriteOperation
+    public ReplayProgress start(@Nullable String dataPartitionId, @Nullable String deadLetterReason,
+                                @Nullable Double ratePerSecond, @Nullable Long maxMessages) {
+        try {
+            return replayService.start(dataPartitionId, deadLetterReason, ratePerSecond, maxMessages);
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            throw new InvalidEndpointRequestException(e.getMessage(), e.getMessage());
+        }
+    }
+
+    @DeleteOperation
+    public ReplayProgress cancel() {
+        return replayService.cancel();
+    }
+}
@@ -0,0 +1,191 @@
+// Copyright © Microsoft Corporation
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//      http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.replay;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.microsoft.azure.servicebus.ExceptionPhase;
+import com.microsoft.azure.servicebus.IMessage;
+import com.microsoft.azure.servicebus.IMessageHandler;
+import com.microsoft.azure.servicebus.SubscriptionClient;
+import org.opengroup.osdu.indexerqueue.azure.queue.AbstractMessageHandlerWithActiveRetry;
+import org.opengroup.osdu.indexerqueue.azure.queue.MessagePublisher;
+import org.opengroup.osdu.indexerqueue.azure.util.MessageValidator.InvalidMessageReason;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+/***
+ * Message handler of one dead letter queue. Matching messages are published again, at the rate of the replay, with
+ * their retry state cleared, and are only removed from the dead letter queue once published. While the indexer calls
+ * are saturated publishing waits, so a recovering indexer is not flooded again. Messages the validator rejected are
+ * skipped whatever the filter.
+ * Messages that do not match are not settled, they become visible again when their lock expires. Their sequence
+ * numbers are remembered, so they are ignored when they come round again and the queue is done once no message that
+ * was not seen before arrived for the idle timeout.
+ */
+class DeadLetterReplayHandler implements IMessageHandler {
+
+    static final String PROPERTY_DEAD_LETTER_REASON = "DeadLetterReason";
+    static final String PROPERTY_DEAD_LETTER_DESCRIPTION = "DeadLetterErrorDescription";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeadLetterReplayHandler.class.getName());
+    private static final Set<String> INVALID_MESSAGE_REASONS = Arrays.stream(InvalidMessageReason.values())
+        .map(Enum::name)
+        .collect(Collectors.toUnmodifiableSet());
+
+    private final SubscriptionClient deadLetterClient;
+    private final MessagePublisher messagePublisher;
+    private final RateLimiter rateLimiter;
+    private final BooleanSupplier saturated;
+    private final Duration saturationPause;
+    private final ReplayProgress progress;
+    private final Set<Long> skipped = ConcurrentHashMap.newKeySet();
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private volatile long lastMessageNanos = System.nanoTime();
+
+    /***
+     * @param deadLetterClient client of the dead letter queue.
+     * @param messagePublisher publisher of the topic the messages are replayed to.
+     * @param rateLimiter rate of the replay, shared by all queues.
+     * @param saturated true while the indexer calls are saturated.
+     * @param saturationPause time between checks while the indexer calls are saturated.
+     * @param progress progress of the replay.
+     */
+    DeadLetterReplayHandler(SubscriptionClient deadLetterClient, MessagePublisher messagePublisher,
+                            RateLimiter rateLimiter, BooleanSupplier saturated, Duration saturationPause,
+                            ReplayProgress progress) {
+        this.deadLetterClient = deadLetterClient;
+        this.messagePublisher = messagePublisher;
+        this.rateLimiter = rateLimiter;
+        this.saturated = saturated;
+        this.saturationPause = saturationPause;
+        this.progress = progress;
+    }
+
+    @Override
+    public CompletableFuture<Void> onMessageAsync(IMessage message) {
+        if (done.isDone()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (!progress.isRunning() || progress.reachedLimit()) {
+            done.complete(null);
+            return CompletableFuture.completedFuture(null);
+        }
+        if (skipped.contains(message.getSequenceNumber())) {
+            return CompletableFuture.completedFuture(null);
+        }
+        lastMessageNanos = System.nanoTime();
+        progress.received();
+        if (!matches(message)) {
+            skipped.add(message.getSequenceNumber());
+            progress.skipped();
+            return CompletableFuture.completedFuture(null);
+        }
+        // the pump runs one call at a time, so waiting here paces the whole queue
+        if (!awaitCapacity()) {
+            done.complete(null);
+            return CompletableFuture.completedFuture(null);
+        }
+        rateLimiter.acquire();
+        clearDeliveryState(message.getProperties());
+        CompletableFuture<Void> replay;
+        try {
+            replay = messagePublisher.sendMessageToTopicAsync(message, Clock.systemUTC().instant())
+                .thenCompose(result -> deadLetterClient.completeAsync(message.getLockToken()));
+        } catch (Exception e) {
+            replay = CompletableFuture.failedFuture(e);
+        }
+        return replay.handle((result, throwable) -> {
+            if (throwable == null) {
+                progress.replayed();
+            } else {
+                LOGGER.warn("Unable to replay message {}, it stays on the dead letter queue", message.getMessageId(), throwable);
+                progress.failed();
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void notifyException(Throwable exception, ExceptionPhase phase) {
+        LOGGER.warn("Error while replaying dead letter queue in phase {}", phase, exception);
+    }
+
+    /***
+     * Waits until the queue is done, the replay stopped or no message arrived for the idle timeout.
+     * @param idleTimeout time without messages after which the queue is considered empty.
+     */
+    void awaitCompletion(Duration idleTimeout) throws InterruptedException {
+        while (progress.isRunning() && System.nanoTime() - lastMessageNanos < idleTimeout.toNanos()) {
+            try {
+                done.get(1, TimeUnit.SECONDS);
+                return;
+            } catch (TimeoutException | ExecutionException e) {
+                // check the replay and the idle time again
+            }
+        }
+    }
+
+    /*
+     * Waits while the indexer calls are saturated, the pump keeps the lock of the message in hand meanwhile.
+     * Returns false if the replay stopped while waiting.
+     */
+    private boolean awaitCapacity() {
+        while (progress.isRunning() && saturated.getAsBoolean()) {
+            try {
+                Thread.sleep(saturationPause.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                progress.cancel();
+            }
+        }
+        return progress.isRunning();
+    }
+
+    boolean isDone() {
+        return done.isDone();
+    }
+
+    /*
+     * Messages rejected by the validator are never replayed, they would be dead-lettered again right away and come
+     * round again on the dead letter queue of the topic they were replayed to.
+     */
+    private boolean matches(IMessage message) {
+        Object reason = message.getProperties().get(PROPERTY_DEAD_LETTER_REASON);
+        if (reason != null && INVALID_MESSAGE_REASONS.contains(reason.toString())) {
+            return false;
+        }
+        return progress.getDeadLetterReason() == null || progress.getDeadLetterReason().equals(reason);
+    }
+
+    /*
+     * The replayed message gets the full number of retries again.
+     */
+    private static void clearDeliveryState(Map<String, Object> properties) {
+        properties.remove(AbstractMessageHandlerWithActiveRetry.PROPERTY_RETRY);
+        properties.remove(AbstractMessageHandlerWithActiveRetry.PROPERTY_RETRY_TERM);
+        properties.remove(PROPERTY_DEAD_LETTER_REASON);
+        properties.remove(PROPERTY_DEAD_LETTER_DESCRIPTION);
+    }
+}
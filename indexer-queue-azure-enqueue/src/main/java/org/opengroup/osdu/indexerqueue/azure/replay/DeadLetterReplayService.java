@@ -0,0 +1,188 @@
+// Copyright © Microsoft Corporation
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//      http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.replay;
+
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.RateLimiter;
+import com.microsoft.azure.servicebus.MessageHandlerOptions;
+import com.microsoft.azure.servicebus.SubscriptionClient;
+import org.opengroup.osdu.indexerqueue.azure.concurrency.ConcurrencyLimiterFactory;
+import org.opengroup.osdu.indexerqueue.azure.di.AzureBootstrapConfig;
+import org.opengroup.osdu.indexerqueue.azure.queue.BatchingTopicPublisher;
+import org.opengroup.osdu.indexerqueue.azure.queue.SubscriptionClientFactory;
+import org.opengroup.osdu.indexerqueue.azure.queue.SubscriptionManager;
+import org.opengroup.osdu.indexerqueue.azure.queue.TopicMessagePublisher;
+import org.opengroup.osdu.indexerqueue.azure.retry.PublishRetryExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/***
+ * Replays the dead letter queues of the record changed and reindex subscriptions. Messages are published to the
+ * reindex topic, like the retries of the message handlers, so they go through the normal handling again. The replay
+ * runs at a fixed rate shared by all queues, waits while the indexer calls are saturated, and can be restricted to a
+ * partition and a dead letter reason.
+ * One replay runs at a time, the queues are replayed one after the other on a thread of their own.
+ */
+@Component
+public class DeadLetterReplayService implements DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeadLetterReplayService.class.getName());
+    private static final String DEAD_LETTER_QUEUE_SUFFIX = "/$DeadLetterQueue";
+    private static final Duration MAX_LOCK_RENEW_DURATION = Duration.ofMinutes(5);
+
+    private final SubscriptionClientFactory clientFactory;
+    private final SubscriptionManager subscriptionManager;
+    private final BatchingTopicPublisher batchingTopicPublisher;
+    private final PublishRetryExecutor publishRetryExecutor;
+    private final AzureBootstrapConfig azureBootstrapConfig;
+    private final ConcurrencyLimiterFactory concurrencyLimiterFactory;
+    private final double defaultRatePerSecond;
+    private final Duration idleTimeout;
+    private final Duration saturationPause;
+    private final ExecutorService replayExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "dead-letter-replay");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService handlerExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "dead-letter-replay-handler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile ReplayProgress current;
+
+    public DeadLetterReplayService(SubscriptionClientFactory clientFactory,
+                                   SubscriptionManager subscriptionManager,
+                                   BatchingTopicPublisher batchingTopicPublisher,
+                                   PublishRetryExecutor publishRetryExecutor,
+                                   AzureBootstrapConfig azureBootstrapConfig,
+                                   ConcurrencyLimiterFactory concurrencyLimiterFactory,
+                                   @Value("${replay.rate-per-second:50}") double defaultRatePerSecond,
+                                   @Value("${replay.idle-timeout-seconds:30}") int idleTimeoutSeconds,
+                                   @Value("${replay.saturation-pause-millis:500}") long saturationPauseMillis) {
+        this.clientFactory = clientFactory;
+        this.subscriptionManager = subscriptionManager;
+        this.batchingTopicPublisher = batchingTopicPublisher;
+        this.publishRetryExecutor = publishRetryExecutor;
+        this.azureBootstrapConfig = azureBootstrapConfig;
+        this.concurrencyLimiterFactory = concurrencyLimiterFactory;
+        this.defaultRatePerSecond = defaultRatePerSecond;
+        this.idleTimeout = Duration.ofSeconds(Math.max(1, idleTimeoutSeconds));
+        this.saturationPause = Duration.ofMillis(Math.max(1, saturationPauseMillis));
+    }
+
+    /***
+     * @param dataPartitionId partition whose dead letter queues are replayed, all subscribed partitions if null.
+     * @param deadLetterReason only messages dead-lettered with this reason are replayed, all if null.
+     * @param ratePerSecond messages replayed per second, the configured rate if null.
+     * @param maxMessages the replay stops after this many messages, no limit if null or 0.
+     * @return progress of the replay that was started.
+     * @throws IllegalStateException if a replay is running.
+     * @throws IllegalArgumentException if the rate or the limit is invalid.
+     */
+    public synchronized ReplayProgress start(String dataPartitionId, String deadLetterReason, Double ratePerSecond, Long maxMessages) {
+        if (current != null && current.isRunning()) {
+            throw new IllegalStateException("A replay of the dead letter queues is already running");
+        }
+        double rate = ratePerSecond == null ? defaultRatePerSecond : ratePerSecond;
+        long limit = maxMessages == null ? 0 : maxMessages;
+        if (rate <= 0 || limit < 0) {
+            throw new IllegalArgumentException("The rate has to be positive and the message limit can not be negative");
+        }
+        ReplayProgress progress = new ReplayProgress(Strings.emptyToNull(dataPartitionId), Strings.emptyToNull(deadLetterReason), rate, limit);
+        List<String> partitions = progress.getDataPartitionId() != null
+            ? Collections.singletonList(progress.getDataPartitionId())
+            : new ArrayList<>(subscriptionManager.getSubscribedPartitions());
+        current = progress;
+        LOGGER.info("Starting replay of the dead letter queues of {} partitions, reason: {}, rate: {}/s, limit: {}",
+            partitions.size(), progress.getDeadLetterReason(), rate, limit);
+        replayExecutor.execute(() -> replay(partitions, progress));
+        return progress;
+    }
+
+    /***
+     * @return progress of the running or last replay, null if none was started.
+     */
+    public ReplayProgress getProgress() {
+        return current;
+    }
+
+    /***
+     * Stops the running replay, messages being published are still removed from the dead letter queue.
+     * @return progress of the replay, null if none was started.
+     */
+    public ReplayProgress cancel() {
+        ReplayProgress progress = current;
+        if (progress != null) {
+            progress.cancel();
+        }
+        return progress;
+    }
+
+    @Override
+    public void destroy() {
+        cancel();
+        replayExecutor.shutdownNow();
+        handlerExecutor.shutdown();
+    }
+
+    private void replay(List<String> partitions, ReplayProgress progress) {
+        RateLimiter rateLimiter = RateLimiter.create(progress.getRatePerSecond());
+        try {
+            for (String partition : partitions) {
+                replay(partition, azureBootstrapConfig.getServiceBusTopic(), azureBootstrapConfig.getServiceBusTopicSubscription(), rateLimiter, progress);
+                replay(partition, azureBootstrapConfig.getReindexTopic(), azureBootstrapConfig.getReindexTopicSubscription(), rateLimiter, progress);
+            }
+            progress.complete();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            progress.cancel();
+        } catch (Exception e) {
+            LOGGER.error("Replay of the dead letter queues failed", e);
+            progress.fail(e.getMessage());
+        }
+        LOGGER.info("Replay of the dead letter queues {}, received: {}, replayed: {}, skipped: {}, failed: {}", progress.getState(),
+            progress.getReceived(), progress.getReplayed(), progress.getSkipped(), progress.getFailed());
+    }
+
+    private void replay(String partition, String topicName, String subscriptionName, RateLimiter rateLimiter,
+                        ReplayProgress progress) throws Exception {
+        if (!progress.isRunning() || progress.reachedLimit()) {
+            return;
+        }
+        progress.setCurrentQueue(partition + "/" + topicName + "/" + subscriptionName);
+        SubscriptionClient deadLetterClient = clientFactory.getSubscriptionClient(partition, topicName, subscriptionName + DEAD_LETTER_QUEUE_SUFFIX);
+        try {
+            // replayed messages go to the reindex topic, like retries, to avoid duplicate record changed events
+            DeadLetterReplayHandler handler = new DeadLetterReplayHandler(deadLetterClient,
+                new TopicMessagePublisher(batchingTopicPublisher, publishRetryExecutor, partition, azureBootstrapConfig.getReindexTopic()),
+                rateLimiter, concurrencyLimiterFactory::isSaturated, saturationPause, progress);
+            // the lock of the message in hand is renewed while the replay waits for the rate or the indexer
+            deadLetterClient.registerMessageHandler(handler,
+                new MessageHandlerOptions(1, false, MAX_LOCK_RENEW_DURATION, Duration.ofSeconds(1)),
+                handlerExecutor);
+            handler.awaitCompletion(idleTimeout);
+        } finally {
+            deadLetterClient.closeAsync();
+        }
+    }
+}
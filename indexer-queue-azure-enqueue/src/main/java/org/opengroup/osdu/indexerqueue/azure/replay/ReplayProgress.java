@@ -0,0 +1,167 @@
+// Copyright © Microsoft Corporation
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//      http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.replay;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/***
+ * Progress of a replay of the dead letter queues. Updated by the replay, read by the actuator endpoint.
+ */
+public class ReplayProgress {
+
+    public enum State {
+        RUNNING, COMPLETED, CANCELLED, FAILED
+    }
+
+    private final String dataPartitionId;
+    private final String deadLetterReason;
+    private final double ratePerSecond;
+    private final long maxMessages;
+    private final Instant startedAt = Instant.now();
+    private final AtomicReference<State> state = new AtomicReference<>(State.RUNNING);
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile String currentQueue;
+    private volatile Instant finishedAt;
+    private volatile String failure;
+
+    /***
+     * @param dataPartitionId partition whose dead letter queues are replayed, all subscribed partitions if null.
+     * @param deadLetterReason only messages dead-lettered with this reason are replayed, all if null.
+     * @param ratePerSecond messages replayed per second.
+     * @param maxMessages the replay stops after this many messages, 0 for no limit.
+     */
+    ReplayProgress(String dataPartitionId, String deadLetterReason, double ratePerSecond, long maxMessages) {
+        this.dataPartitionId = dataPartitionId;
+        this.deadLetterReason = deadLetterReason;
+        this.ratePerSecond = ratePerSecond;
+        this.maxMessages = maxMessages;
+    }
+
+    public String getDataPartitionId() {
+        return dataPartitionId;
+    }
+
+    public String getDeadLetterReason() {
+        return deadLetterReason;
+    }
+
+    public double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    public long getMaxMessages() {
+        return maxMessages;
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    /***
+     * @return partition and subscription of the dead letter queue being replayed.
+     */
+    public String getCurrentQueue() {
+        return currentQueue;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public String getFailure() {
+        return failure;
+    }
+
+    /***
+     * @return messages received from the dead letter queues.
+     */
+    public long getReceived() {
+        return received.get();
+    }
+
+    /***
+     * @return messages published again and removed from the dead letter queues.
+     */
+    public long getReplayed() {
+        return replayed.get();
+    }
+
+    /***
+     * @return messages left on the dead letter queues because they did not match the filter.
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /***
+     * @return messages that could not be published again, they stay on the dead letter queues.
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    boolean isRunning() {
+        return state.get() == State.RUNNING;
+    }
+
+    boolean reachedLimit() {
+        return maxMessages > 0 && replayed.get() >= maxMessages;
+    }
+
+    void setCurrentQueue(String queue) {
+        currentQueue = queue;
+    }
+
+    void received() {
+        received.incrementAndGet();
+    }
+
+    void replayed() {
+        replayed.incrementAndGet();
+    }
+
+    void skipped() {
+        skipped.incrementAndGet();
+    }
+
+    void failed() {
+        failed.incrementAndGet();
+    }
+
+    void cancel() {
+        finish(State.CANCELLED, null);
+    }
+
+    void complete() {
+        finish(State.COMPLETED, null);
+    }
+
+    void fail(String reason) {
+        finish(State.FAILED, reason);
+    }
+
+    private void finish(State finalState, String reason) {
+        if (state.compareAndSet(State.RUNNING, finalState)) {
+            failure = reason;
+            finishedAt = Instant.now();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+// Copyright © Microsoft Corporation
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//      http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.retry;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/***
+ * In-process tier for short retries. Instead of completing the message and publishing a scheduled copy to the topic,
+ * the handler keeps the message locked, waits for the backoff on a {@link TimerWheel} and processes it again.
+ * The lock is renewed by the message pump meanwhile, so if the process dies the broker simply redelivers the message
+ * once the lock expires. Only retries longer than the local threshold go back to the broker.
+ * <p>
+ * Each expired retry is handed to a daemon thread of its own, where the message is processed again up to the
+ * asynchronous indexer call, so retries that fall due together do not queue behind each other and never keep the
+ * process alive.
+ */
+@Component
+public class LocalRetryScheduler implements DisposableBean {
+
+    private static final Duration TICK = Duration.ofMillis(100);
+    private static final int WHEEL_SIZE = 512;
+
+    private final boolean enabled;
+    private final int maxDelaySeconds;
+    private final int maxPending;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ExecutorService dispatcher = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "local-retry-dispatcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile TimerWheel timerWheel;
+
+    public LocalRetryScheduler(@Value("${local-retry.enabled:false}") boolean enabled,
+                               @Value("${local-retry.max-delay-seconds:30}") int maxDelaySeconds,
+                               @Value("${local-retry.max-pending:1000}") int maxPending,
+                               @Value("${max-lock-renew-duration-seconds}") int maxLockRenewDurationSeconds) {
+        this.enabled = enabled;
+        // leave at least half of the lock renewal window for the retry itself
+        this.maxDelaySeconds = Math.min(maxDelaySeconds, maxLockRenewDurationSeconds / 2);
+        this.maxPending = maxPending;
+    }
+
+    /***
+     * @param delaySeconds backoff before the next attempt.
+     * @return true when the retry is short enough, and there is room, to be held in process.
+     */
+    public boolean canRetryLocally(int delaySeconds) {
+        return enabled && delaySeconds <= maxDelaySeconds && pending.get() < maxPending;
+    }
+
+    /***
+     * @param delaySeconds backoff before the next attempt.
+     * @return a future completed once the backoff has elapsed.
+     */
+    public CompletableFuture<Void> delay(int delaySeconds) {
+        pending.incrementAndGet();
+        return getTimerWheel().schedule(Duration.ofSeconds(delaySeconds))
+            .whenComplete((result, throwable) -> pending.decrementAndGet());
+    }
+
+    public int getPending() {
+        return pending.get();
+    }
+
+    @Override
+    public void destroy() {
+        if (timerWheel != null) {
+            timerWheel.close();
+        }
+        dispatcher.shutdown();
+    }
+
+    private TimerWheel getTimerWheel() {
+        if (timerWheel == null) {
+            synchronized (this) {
+                if (timerWheel == null) {
+                    timerWheel = new TimerWheel(TICK, WHEEL_SIZE, dispatcher);
+                }
+            }
+        }
+        return timerWheel;
+    }
+}
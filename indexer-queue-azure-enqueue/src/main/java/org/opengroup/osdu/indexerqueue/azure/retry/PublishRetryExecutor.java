@@ -0,0 +1,145 @@
+// Copyright © Microsoft Corporation
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//      http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.retry;
+
+import com.microsoft.azure.servicebus.primitives.ServiceBusException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/***
+ * Retries failed publications to the broker without holding a thread during the backoff: the next attempt is
+ * scheduled on a timer thread. Backoffs are exponential with full jitter, and every partition has its own retry
+ * budget, so a broker outage in one partition neither floods the broker nor delays the other partitions.
+ */
+@Component
+public class PublishRetryExecutor implements DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PublishRetryExecutor.class.getName());
+
+    private final int maxAttempts;
+    private final long initialIntervalMillis;
+    private final double multiplier;
+    private final long maxIntervalMillis;
+    private final int budgetCapacity;
+    private final double budgetRefillPerSecond;
+    private final Map<String, RetryBudget> budgets = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "publish-retry-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public PublishRetryExecutor(@Value("${publish-retry.max-attempts:6}") int maxAttempts,
+                                @Value("${publish-retry.initial-interval-millis:1000}") long initialIntervalMillis,
+                                @Value("${publish-retry.multiplier:2}") double multiplier,
+                                @Value("${publish-retry.max-interval-millis:16000}") long maxIntervalMillis,
+                                @Value("${publish-retry.budget-capacity:20}") int budgetCapacity,
+                                @Value("${publish-retry.budget-refill-per-second:2}") double budgetRefillPerSecond) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialIntervalMillis = Math.max(0, initialIntervalMillis);
+        this.multiplier = Math.max(1, multiplier);
+        this.maxIntervalMillis = Math.max(this.initialIntervalMillis, maxIntervalMillis);
+        this.budgetCapacity = budgetCapacity;
+        this.budgetRefillPerSecond = budgetRefillPerSecond;
+    }
+
+    /***
+     * @param partitionId data partition whose retry budget the retries are taken from.
+     * @param attempt starts one attempt of the operation.
+     * @return a future with the result of the first successful attempt, or the failure of the last one.
+     */
+    public <T> CompletableFuture<T> execute(String partitionId, Supplier<CompletableFuture<T>> attempt) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        run(partitionId, attempt, 1, result);
+        return result;
+    }
+
+    @Override
+    public void destroy() {
+        timer.shutdownNow();
+    }
+
+    private <T> void run(String partitionId, Supplier<CompletableFuture<T>> attempt, int attemptNumber, CompletableFuture<T> result) {
+        CompletableFuture<T> current;
+        try {
+            current = attempt.get();
+        } catch (Exception e) {
+            current = CompletableFuture.failedFuture(e);
+        }
+        current.whenComplete((value, throwable) -> {
+            if (throwable == null) {
+                result.complete(value);
+                return;
+            }
+            Throwable cause = unwrap(throwable);
+            if (attemptNumber >= maxAttempts || !isRetryable(cause)) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            if (!budgets.computeIfAbsent(partitionId, key -> new RetryBudget(budgetCapacity, budgetRefillPerSecond)).tryAcquire()) {
+                LOGGER.warn("Retry budget of partition {} is exhausted, giving up publication after {} attempts", partitionId, attemptNumber);
+                result.completeExceptionally(cause);
+                return;
+            }
+            long backoff = backoffMillis(attemptNumber);
+            LOGGER.debug("Publication attempt {} for partition {} failed, retrying in {} ms", attemptNumber, partitionId, backoff);
+            try {
+                timer.schedule(() -> run(partitionId, attempt, attemptNumber + 1, result), backoff, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                result.completeExceptionally(cause);
+            }
+        });
+    }
+
+    /*
+     * Full jitter: a random delay between zero and the exponential backoff of the attempt.
+     */
+    long backoffMillis(int attemptNumber) {
+        double exponential = initialIntervalMillis * Math.pow(multiplier, attemptNumber - 1);
+        long bound = (long) Math.min(maxIntervalMillis, exponential);
+        return bound <= 0 ? 0 : ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    private static boolean isRetryable(Throwable throwable) {
+        Throwable cause = throwable;
+        while (cause != null) {
+            if (cause instanceof ServiceBusException) {
+                return ((ServiceBusException) cause).getIsTransient();
+            }
+            cause = cause.getCause();
+        }
+        return true;
+    }
+
+    private static Throwable unwrap(Throwable throwable) {
+        Throwable cause = throwable;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+}
@@ -0,0 +1,45 @@
+// Copyright © Microsoft Corporation
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//      http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.retry;
+
+/***
+ * Token bucket bounding the number of retries. Every retry takes a token and tokens come back at a fixed rate,
+ * so an outage results in a short burst of retries followed by a trickle instead of a retry storm.
+ */
+class RetryBudget {
+
+    private final double capacity;
+    private final double refillPerNano;
+    private double tokens;
+    private long lastRefill;
+
+    RetryBudget(int capacity, double refillPerSecond) {
+        this.capacity = Math.max(0, capacity);
+        this.refillPerNano = Math.max(0, refillPerSecond) / 1_000_000_000d;
+        this.tokens = this.capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /***
+     * @return true if a token was available and has been taken.
+     */
+    synchronized boolean tryAcquire() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * refillPerNano);
+        lastRefill = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+}
@@ -0,0 +1,146 @@
+// Copyright © Microsoft Corporation
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//      http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.retry;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/***
+ * Hashed timer wheel: timeouts are put in one of a fixed number of buckets and a single thread expires one bucket per
+ * tick, so scheduling and expiring are O(1) whatever the number of pending timeouts. The precision is one tick.
+ */
+public class TimerWheel implements AutoCloseable {
+
+    private final long tickNanos;
+    private final int mask;
+    private final Queue<Timeout>[] buckets;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Executor dispatcher;
+    private final long startNanos;
+    private final Thread worker;
+    private volatile boolean running = true;
+    private long tick;
+
+    /***
+     * @param tickDuration precision of the wheel.
+     * @param wheelSize number of buckets, rounded up to a power of two.
+     * @param dispatcher executor the expired futures are completed on, so continuations do not run on the wheel thread.
+     */
+    @SuppressWarnings("unchecked")
+    public TimerWheel(Duration tickDuration, int wheelSize, Executor dispatcher) {
+        this.tickNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(1), tickDuration.toNanos());
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.mask = size - 1;
+        this.buckets = new Queue[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+        this.dispatcher = dispatcher;
+        this.startNanos = System.nanoTime();
+        this.worker = new Thread(this::run, "retry-timer-wheel");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /***
+     * @param delay time to wait.
+     * @return a future completed once the delay has elapsed, or cancelled if the wheel is closed first.
+     */
+    public CompletableFuture<Void> schedule(Duration delay) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (!running) {
+            future.completeExceptionally(new CancellationException("Timer wheel is closed"));
+            return future;
+        }
+        Timeout timeout = new Timeout(System.nanoTime() + delay.toNanos(), future);
+        pending.add(timeout);
+        if (!running && pending.remove(timeout)) {
+            future.completeExceptionally(new CancellationException("Timer wheel is closed"));
+        }
+        return future;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (running) {
+            long deadline = startNanos + (tick + 1) * tickNanos;
+            long sleep;
+            while (running && (sleep = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, sleep);
+            }
+            transferPending();
+            expire(buckets[(int) (tick & mask)]);
+            tick++;
+        }
+        cancelAll();
+    }
+
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            long expiryTick = Math.max(tick, (timeout.deadlineNanos - startNanos) / tickNanos);
+            timeout.remainingRounds = (expiryTick - tick) / buckets.length;
+            buckets[(int) (expiryTick & mask)].add(timeout);
+        }
+    }
+
+    private void expire(Queue<Timeout> bucket) {
+        Iterator<Timeout> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if (timeout.remainingRounds <= 0) {
+                iterator.remove();
+                try {
+                    dispatcher.execute(() -> timeout.future.complete(null));
+                } catch (RejectedExecutionException e) {
+                    timeout.future.completeExceptionally(new CancellationException("Timer wheel is closed"));
+                }
+            } else {
+                timeout.remainingRounds--;
+            }
+        }
+    }
+
+    private void cancelAll() {
+        CancellationException cancelled = new CancellationException("Timer wheel is closed");
+        pending.forEach(timeout -> timeout.future.completeExceptionally(cancelled));
+        for (Queue<Timeout> bucket : buckets) {
+            bucket.forEach(timeout -> timeout.future.completeExceptionally(cancelled));
+            bucket.clear();
+        }
+    }
+
+    private static final class Timeout {
+        private final long deadlineNanos;
+        private final CompletableFuture<Void> future;
+        private long remainingRounds;
+
+        private Timeout(long deadlineNanos, CompletableFuture<Void> future) {
+            this.deadlineNanos = deadlineNanos;
+            this.future = future;
+        }
+    }
+}
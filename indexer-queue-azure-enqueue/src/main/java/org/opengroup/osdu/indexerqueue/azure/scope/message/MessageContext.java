@@ -0,0 +1,51 @@
+package org.opengroup.osdu.indexerqueue.azure.scope.message;
+
+import org.opengroup.osdu.core.common.model.http.DpsHeaders;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Immutable context of the message being handled. The context map is built once per message and serves both as
+ * the MDC of the log statements and as the headers of the thread.
+ */
+public final class MessageContext {
+
+    private final String dataPartitionId;
+    private final String correlationId;
+    private final Map<String, String> contextMap;
+
+    private MessageContext(String dataPartitionId, String correlationId) {
+        this.dataPartitionId = dataPartitionId;
+        this.correlationId = correlationId;
+        Map<String, String> map = new HashMap<>(4);
+        map.put(DpsHeaders.CORRELATION_ID, correlationId);
+        map.put(DpsHeaders.DATA_PARTITION_ID, dataPartitionId);
+        this.contextMap = Collections.unmodifiableMap(map);
+    }
+
+    public static MessageContext of(String dataPartitionId, String correlationId) {
+        return new MessageContext(dataPartitionId, correlationId);
+    }
+
+    public String getDataPartitionId() {
+        return dataPartitionId;
+    }
+
+    public String getCorrelationId() {
+        return correlationId;
+    }
+
+    /**
+     * @return unmodifiable map of the correlation id and data partition id headers.
+     */
+    public Map<String, String> getContextMap() {
+        return contextMap;
+    }
+
+    public boolean matches(String dataPartitionId, String correlationId) {
+        return Objects.equals(this.dataPartitionId, dataPartitionId) && Objects.equals(this.correlationId, correlationId);
+    }
+}
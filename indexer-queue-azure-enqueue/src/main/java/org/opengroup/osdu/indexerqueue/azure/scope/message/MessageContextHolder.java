@@ -0,0 +1,102 @@
+package org.opengroup.osdu.indexerqueue.azure.scope.message;
+
+import org.opengroup.osdu.indexerqueue.azure.scope.thread.ThreadScopeContextHolder;
+import org.slf4j.MDC;
+
+import java.util.function.Function;
+
+/**
+ * Binds a {@link MessageContext} to the current thread for the duration of a {@link Scope}. Opening a scope sets a
+ * thread local and the MDC, closing it restores what was there before. The beans of the thread scope are only cleared
+ * when a context with another partition or correlation id is bound than the one they were created for, so thread scoped
+ * headers never carry the values of another message, while the scopes a message opens and closes on the same thread
+ * reuse them. Cleared headers are recreated from the bound context on their next use. Continuations running on other
+ * threads, e.g. the callbacks of asynchronous calls, are wrapped to run in the context of their message, which also
+ * works for virtual threads.
+ */
+public final class MessageContextHolder {
+
+    private static final ThreadLocal<MessageContext> CURRENT = new ThreadLocal<>();
+    // context the beans of the thread scope were created for, kept after its scope is closed
+    private static final ThreadLocal<MessageContext> SCOPED = new ThreadLocal<>();
+
+    private MessageContextHolder() {
+        // utility object, not allowed to create instances
+    }
+
+    /**
+     * @return context of the message handled by the current thread, or null.
+     */
+    public static MessageContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @param dataPartitionId data partition id.
+     * @param correlationId correlation id.
+     * @return true if the current thread already runs in the context of these ids.
+     */
+    public static boolean isCurrent(String dataPartitionId, String correlationId) {
+        MessageContext context = CURRENT.get();
+        return context != null && context.matches(dataPartitionId, correlationId);
+    }
+
+    /**
+     * Binds the context to the current thread until the returned scope is closed.
+     *
+     * @param context message context
+     * @return scope restoring the previous context when closed
+     */
+    public static Scope open(MessageContext context) {
+        MessageContext previous = CURRENT.get();
+        if (previous == context) {
+            return () -> { };
+        }
+        bind(previous, context);
+        return () -> bind(context, previous);
+    }
+
+    /**
+     * @param context message context, the function is returned as is if null
+     * @param function continuation
+     * @return the continuation running in the given context
+     */
+    public static <T, R> Function<T, R> wrap(MessageContext context, Function<T, R> function) {
+        if (context == null) {
+            return function;
+        }
+        return value -> {
+            try (Scope ignored = open(context)) {
+                return function.apply(value);
+            }
+        };
+    }
+
+    private static void bind(MessageContext bound, MessageContext context) {
+        if (context == null) {
+            CURRENT.remove();
+            MDC.clear();
+            return;
+        }
+        CURRENT.set(context);
+        if (!sameIds(bound, context)) {
+            MDC.setContextMap(context.getContextMap());
+        }
+        if (!sameIds(SCOPED.get(), context)) {
+            ThreadScopeContextHolder.getContext().clear();
+            SCOPED.set(context);
+        }
+    }
+
+    private static boolean sameIds(MessageContext bound, MessageContext context) {
+        return bound != null && bound.matches(context.getDataPartitionId(), context.getCorrelationId());
+    }
+
+    /**
+     * Scope of a message context, closing it restores the previous context of the thread.
+     */
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
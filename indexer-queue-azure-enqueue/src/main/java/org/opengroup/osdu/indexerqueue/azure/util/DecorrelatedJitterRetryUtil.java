@@ -0,0 +1,53 @@
+// Copyright © Schlumberger
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.util;
+
+import lombok.Builder;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/***
+ * Decorrelated jitter: each retry term is drawn between baseRetryTerm and three times the previous term,
+ * capped at maxRetryDuration. Terms grow about as fast as an exponential backoff without lining up.
+ */
+@Builder
+public class DecorrelatedJitterRetryUtil implements RetryUtil {
+
+    private final int baseRetryTerm;
+    /**
+     * Max duration in seconds
+     */
+    private final int maxRetryDuration;
+
+    /**
+     * Without the previous term, the upper bound of every earlier retry is assumed.
+     */
+    @Override
+    public int generateNextRetryTerm(int currentRetry) {
+        long previous = baseRetryTerm;
+        for (int i = 1; i < currentRetry && previous < maxRetryDuration; i++) {
+            previous *= 3;
+        }
+        return generateNextRetryTerm(currentRetry, (int) Math.min(previous, maxRetryDuration));
+    }
+
+    @Override
+    public int generateNextRetryTerm(int currentRetry, int previousRetryTerm) {
+        int base = Math.max(1, baseRetryTerm);
+        long upper = Math.max(base, (long) Math.max(previousRetryTerm, base) * 3);
+        long term = ThreadLocalRandom.current().nextLong(base, upper + 1);
+        return (int) Math.min(term, maxRetryDuration);
+    }
+}
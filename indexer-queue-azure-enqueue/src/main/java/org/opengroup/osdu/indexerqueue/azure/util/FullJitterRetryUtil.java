@@ -0,0 +1,40 @@
+// Copyright © Schlumberger
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.util;
+
+import lombok.Builder;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/***
+ * Draws each retry term at random between minRetryTerm and the term of the delegate, so that messages which failed
+ * together do not come back together.
+ */
+@Builder
+public class FullJitterRetryUtil implements RetryUtil {
+
+    private final RetryUtil delegate;
+    @Builder.Default
+    private final int minRetryTerm = 1;
+
+    @Override
+    public int generateNextRetryTerm(int currentRetry) {
+        int bound = delegate.generateNextRetryTerm(currentRetry);
+        if (bound <= minRetryTerm) {
+            return bound;
+        }
+        return ThreadLocalRandom.current().nextInt(minRetryTerm, bound + 1);
+    }
+}
@@ -0,0 +1,45 @@
+// Copyright © Schlumberger
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.util;
+
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/***
+ * Exponentially weighted error rate of the calls to the indexer, across all partitions and topics.
+ * Each call moves the rate by {@value #ALPHA} towards 0 on success or 1 on failure, so the rate follows
+ * the last hundred or so calls. Every indexer call records its outcome here, so the rate is updated with a
+ * compare-and-set on its bits rather than under a lock.
+ */
+@Component
+public class IndexerErrorRateTracker {
+
+    private static final double ALPHA = 0.02;
+
+    private final AtomicLong errorRateBits = new AtomicLong(Double.doubleToLongBits(0));
+
+    public void record(boolean failed) {
+        double outcome = failed ? 1 : 0;
+        errorRateBits.updateAndGet(bits -> {
+            double errorRate = Double.longBitsToDouble(bits);
+            return Double.doubleToLongBits(errorRate + ALPHA * (outcome - errorRate));
+        });
+    }
+
+    public double getErrorRate() {
+        return Double.longBitsToDouble(errorRateBits.get());
+    }
+}
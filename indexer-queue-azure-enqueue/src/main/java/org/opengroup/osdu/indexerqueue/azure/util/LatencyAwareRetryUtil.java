@@ -0,0 +1,49 @@
+// Copyright © Schlumberger
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.util;
+
+import lombok.Builder;
+
+/***
+ * Stretches the terms of the delegate while the indexer is failing: at an error rate of 0 the term is unchanged,
+ * at an error rate of 1 it is maxMultiplier times longer, capped at maxRetryDuration.
+ */
+@Builder
+public class LatencyAwareRetryUtil implements RetryUtil {
+
+    private final RetryUtil delegate;
+    private final IndexerErrorRateTracker errorRateTracker;
+    @Builder.Default
+    private final double maxMultiplier = 4;
+    /**
+     * Max duration in seconds
+     */
+    private final int maxRetryDuration;
+
+    @Override
+    public int generateNextRetryTerm(int currentRetry) {
+        return stretch(delegate.generateNextRetryTerm(currentRetry));
+    }
+
+    @Override
+    public int generateNextRetryTerm(int currentRetry, int previousRetryTerm) {
+        return stretch(delegate.generateNextRetryTerm(currentRetry, previousRetryTerm));
+    }
+
+    private int stretch(int term) {
+        double multiplier = 1 + (Math.max(1, maxMultiplier) - 1) * errorRateTracker.getErrorRate();
+        return (int) Math.min((long) Math.ceil(term * multiplier), maxRetryDuration);
+    }
+}
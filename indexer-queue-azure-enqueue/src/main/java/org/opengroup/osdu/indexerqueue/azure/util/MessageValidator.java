@@ -0,0 +1,153 @@
+// Copyright © Schlumberger
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.util;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.opengroup.osdu.core.common.Constants;
+import org.opengroup.osdu.core.common.model.http.DpsHeaders;
+import org.opengroup.osdu.indexerqueue.azure.scope.message.MessageContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/***
+ * Checks the envelope of a service bus message before it is dispatched, with the same rules the message builders
+ * apply. A message failing them can never be processed, so the handlers dead-letter it on the first attempt instead
+ * of spending retries on it. Rejections are counted per reason and topic. The handlers parse the body once with
+ * {@link #parse(String)} and hand the same tree to the validator and to the message builders.
+ */
+@Component
+public class MessageValidator {
+
+    static final String METRIC_NAME = "indexer.queue.message.invalid";
+    private static final String MESSAGE_NODE = "message";
+    private static final String UNKNOWN_TAG_VALUE = "unknown";
+
+    public enum InvalidMessageReason {
+        MALFORMED_JSON("Message body is not a JSON object"),
+        MISSING_MESSAGE("'message' object not found in message body"),
+        MISSING_DATA("'message.data' not found in message body"),
+        MISSING_TENANT("'message.account-id' or 'message.data-partition-id' not found in message body"),
+        MISSING_CORRELATION_ID("'message.correlation-id' not found in message body");
+
+        private final String description;
+
+        InvalidMessageReason(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    @Autowired
+    public MessageValidator(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /***
+     * @param messageBody body of the service bus message.
+     * @return the parsed body, or null if it is not valid JSON.
+     */
+    public static JsonElement parse(String messageBody) {
+        try {
+            return JsonParser.parseString(messageBody);
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+
+    /***
+     * @param messageBody body of the service bus message.
+     * @return why the message can never be processed, or null if it is valid.
+     */
+    public InvalidMessageReason validate(String messageBody) {
+        return validate(parse(messageBody));
+    }
+
+    /***
+     * @param root body of the service bus message as parsed by {@link #parse(String)}, null if it is not valid JSON.
+     * @return why the message can never be processed, or null if it is valid.
+     */
+    public InvalidMessageReason validate(JsonElement root) {
+        if (root == null || !root.isJsonObject()) {
+            return InvalidMessageReason.MALFORMED_JSON;
+        }
+        JsonElement messageElement = root.getAsJsonObject().get(MESSAGE_NODE);
+        if (messageElement == null || !messageElement.isJsonObject()) {
+            return InvalidMessageReason.MISSING_MESSAGE;
+        }
+        JsonObject message = messageElement.getAsJsonObject();
+        if (message.get(Constants.DATA) == null) {
+            return InvalidMessageReason.MISSING_DATA;
+        }
+        if (!isString(message.get(DpsHeaders.ACCOUNT_ID)) || !isString(message.get(DpsHeaders.DATA_PARTITION_ID))) {
+            return InvalidMessageReason.MISSING_TENANT;
+        }
+        if (!isString(message.get(DpsHeaders.CORRELATION_ID))) {
+            return InvalidMessageReason.MISSING_CORRELATION_ID;
+        }
+        return null;
+    }
+
+    /***
+     * @param root body of the service bus message as parsed by {@link #parse(String)}.
+     * @return the context of the message, or null if the envelope lacks the partition or the correlation id.
+     */
+    public static MessageContext contextOf(JsonElement root) {
+        if (root == null || !root.isJsonObject()) {
+            return null;
+        }
+        JsonElement messageElement = root.getAsJsonObject().get(MESSAGE_NODE);
+        if (messageElement == null || !messageElement.isJsonObject()) {
+            return null;
+        }
+        JsonObject message = messageElement.getAsJsonObject();
+        if (!isString(message.get(DpsHeaders.DATA_PARTITION_ID)) || !isString(message.get(DpsHeaders.CORRELATION_ID))) {
+            return null;
+        }
+        return MessageContext.of(message.get(DpsHeaders.DATA_PARTITION_ID).getAsString(),
+            message.get(DpsHeaders.CORRELATION_ID).getAsString());
+    }
+
+    /***
+     * Counts a message dead-lettered because it failed validation.
+     * @param reason why the message was rejected.
+     * @param topicName topic the message was received from.
+     */
+    public void recordRejection(InvalidMessageReason reason, String topicName) {
+        String topic = topicName == null ? UNKNOWN_TAG_VALUE : topicName;
+        counters.computeIfAbsent(reason.name() + '|' + topic, key -> Counter.builder(METRIC_NAME)
+            .description("Messages dead-lettered without processing because they can never succeed")
+            .tags("reason", reason.name(), "topic", topic)
+            .register(meterRegistry))
+            .increment();
+    }
+
+    private static boolean isString(JsonElement element) {
+        return element != null && element.isJsonPrimitive();
+    }
+}
@@ -9,6 +9,7 @@ import org.opengroup.osdu.core.common.model.http.AppException;
 import org.opengroup.osdu.core.common.model.http.DpsHeaders;
 import org.opengroup.osdu.core.common.model.search.RecordChangedMessages;
 import org.opengroup.osdu.indexerqueue.azure.config.ThreadDpsHeaders;
+import org.opengroup.osdu.indexerqueue.azure.scope.message.MessageContextHolder;
 import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -31,10 +32,19 @@ public class RecordsChangedSbMessageBuilder {
     private MdcContextMap mdcContextMap;
 
     public RecordChangedMessages getServiceBusMessage(String serviceBusMessage, String messageId) throws IOException {
+        JsonParser jsonParser = new JsonParser();
+        return getServiceBusMessage(jsonParser.parse(serviceBusMessage), serviceBusMessage, messageId);
+    }
+
+    /***
+     * @param jsonRoot the message body already parsed, it is modified while building the message.
+     * @param serviceBusMessage the message body.
+     * @param messageId id of the service bus message.
+     * @return the record changed message.
+     */
+    public RecordChangedMessages getServiceBusMessage(JsonElement jsonRoot, String serviceBusMessage, String messageId) throws IOException {
 
         final Gson gson = new Gson();
-        JsonParser jsonParser = new JsonParser();
-        JsonElement jsonRoot = jsonParser.parse(serviceBusMessage);
         JsonElement message;
 
         try {
@@ -76,8 +86,11 @@ public class RecordsChangedSbMessageBuilder {
         String correlationId = message.getAsJsonObject().get(DpsHeaders.CORRELATION_ID).getAsString();
         String accountId = message.getAsJsonObject().get(DpsHeaders.ACCOUNT_ID).getAsString();
 
-        threadDpsHeaders.setThreadContext(dataPartitionId,correlationId);
-        MDC.setContextMap(mdcContextMap.getContextMap(correlationId, dataPartitionId));
+        // the message handlers have usually set up the context of the message already
+        if (!MessageContextHolder.isCurrent(dataPartitionId, correlationId)) {
+            threadDpsHeaders.setThreadContext(dataPartitionId, correlationId);
+            MDC.setContextMap(mdcContextMap.getContextMap(correlationId, dataPartitionId));
+        }
 
         // Populate attributes map for the recordChangedMessage.
         attributesMap.put(DpsHeaders.DATA_PARTITION_ID, dataPartitionId);
@@ -94,4 +107,20 @@ public class RecordsChangedSbMessageBuilder {
 
         return recordChangedMessage;
     }
+
+    /***
+     * @param jsonRoot the message body already parsed.
+     * @return the number of records in 'message.data', 0 if it is not an array.
+     */
+    public static int countRecords(JsonElement jsonRoot) {
+        if (jsonRoot == null || !jsonRoot.isJsonObject()) {
+            return 0;
+        }
+        JsonElement message = jsonRoot.getAsJsonObject().get("message");
+        if (message == null || !message.isJsonObject()) {
+            return 0;
+        }
+        JsonElement data = message.getAsJsonObject().get(Constants.DATA);
+        return data != null && data.isJsonArray() ? data.getAsJsonArray().size() : 0;
+    }
 }
@@ -0,0 +1,72 @@
+// Copyright © Schlumberger
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.util;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/***
+ * The retry strategies the service can use, and which one each topic uses.
+ */
+public class RetryStrategies {
+
+    public enum Strategy {
+        EXPONENTIAL, FULL_JITTER, DECORRELATED_JITTER, LATENCY_AWARE;
+
+        public static Strategy of(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+    }
+
+    private final Map<Strategy, RetryUtil> retryUtils;
+    private final Strategy defaultStrategy;
+    private final Map<String, Strategy> topicStrategies;
+
+    public RetryStrategies(Map<Strategy, RetryUtil> retryUtils, Strategy defaultStrategy, Map<String, Strategy> topicStrategies) {
+        this.retryUtils = new EnumMap<>(retryUtils);
+        this.defaultStrategy = defaultStrategy;
+        this.topicStrategies = Collections.unmodifiableMap(new HashMap<>(topicStrategies));
+    }
+
+    /***
+     * @param topicName topic the retried message was first received from, not the reindex topic its retries are published to.
+     * @return the retry strategy configured for the topic, or the default one.
+     */
+    public RetryUtil forTopic(String topicName) {
+        return retryUtils.get(topicStrategies.getOrDefault(topicName, defaultStrategy));
+    }
+
+    /***
+     * @param mapping comma separated list of topic=strategy pairs, e.g. "recordstopic=full_jitter,reindextopic=exponential".
+     * @return the strategy per topic.
+     */
+    public static Map<String, Strategy> parseTopicStrategies(String mapping) {
+        Map<String, Strategy> strategies = new HashMap<>();
+        if (mapping == null || mapping.isBlank()) {
+            return strategies;
+        }
+        for (String entry : mapping.split(",")) {
+            String[] pair = entry.split("=", 2);
+            if (pair.length != 2 || pair[0].isBlank()) {
+                throw new IllegalArgumentException("Invalid topic retry strategy: " + entry);
+            }
+            strategies.put(pair[0].trim(), Strategy.of(pair[1]));
+        }
+        return strategies;
+    }
+}
@@ -17,4 +17,14 @@ package org.opengroup.osdu.indexerqueue.azure.util;
 public interface RetryUtil {
 
     int generateNextRetryTerm(int currentRetry);
+
+    /**
+     * Variant for strategies that derive the next term from the previous one.
+     * @param currentRetry number of the retry, starting at 1
+     * @param previousRetryTerm term of the previous retry in seconds, 0 for the first retry
+     * @return the term of the retry in seconds
+     */
+    default int generateNextRetryTerm(int currentRetry, int previousRetryTerm) {
+        return generateNextRetryTerm(currentRetry);
+    }
 }
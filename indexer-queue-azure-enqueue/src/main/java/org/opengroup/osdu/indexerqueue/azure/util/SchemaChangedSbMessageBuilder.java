@@ -23,6 +23,7 @@ import org.opengroup.osdu.core.common.model.http.AppException;
 import org.opengroup.osdu.core.common.model.http.DpsHeaders;
 import org.opengroup.osdu.core.common.model.indexer.SchemaChangedMessages;
 import org.opengroup.osdu.indexerqueue.azure.config.ThreadDpsHeaders;
+import org.opengroup.osdu.indexerqueue.azure.scope.message.MessageContextHolder;
 import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -42,7 +43,15 @@ public class SchemaChangedSbMessageBuilder {
 
     public SchemaChangedMessages buildSchemaChangedServiceBusMessage(String serviceBusMessage) {
         JsonParser jsonParser = new JsonParser();
-        JsonElement jsonRoot = jsonParser.parse(serviceBusMessage);
+        return buildSchemaChangedServiceBusMessage(jsonParser.parse(serviceBusMessage), serviceBusMessage);
+    }
+
+    /**
+     * @param jsonRoot the message body already parsed, it is modified while building the message.
+     * @param serviceBusMessage the message body.
+     * @return the schema changed message.
+     */
+    public SchemaChangedMessages buildSchemaChangedServiceBusMessage(JsonElement jsonRoot, String serviceBusMessage) {
         JsonElement message;
 
         try {
@@ -77,8 +86,11 @@ public class SchemaChangedSbMessageBuilder {
         String dataPartitionId = message.getAsJsonObject().get(DpsHeaders.DATA_PARTITION_ID).getAsString();
         String correlationId = message.getAsJsonObject().get(DpsHeaders.CORRELATION_ID).getAsString();
 
-        threadDpsHeaders.setThreadContext(dataPartitionId,correlationId);
-        MDC.setContextMap(mdcContextMap.getContextMap(correlationId, dataPartitionId));
+        // the message handlers have usually set up the context of the message already
+        if (!MessageContextHolder.isCurrent(dataPartitionId, correlationId)) {
+            threadDpsHeaders.setThreadContext(dataPartitionId, correlationId);
+            MDC.setContextMap(mdcContextMap.getContextMap(correlationId, dataPartitionId));
+        }
 
         // Populate attributes map for the recordChangedMessage.
         Map<String, String> attributesMap = new HashMap<>();
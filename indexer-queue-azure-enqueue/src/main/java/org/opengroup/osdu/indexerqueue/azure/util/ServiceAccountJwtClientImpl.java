@@ -15,24 +15,189 @@
 package org.opengroup.osdu.indexerqueue.azure.util;
 
 import com.google.common.base.Strings;
+import com.nimbusds.jwt.JWTParser;
 import org.opengroup.osdu.azure.util.AzureServicePrincipleTokenService;
 import org.opengroup.osdu.core.common.util.IServiceAccountJwtClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Caches the service token per partition. A token is refreshed in the background ahead of its expiry, so message
+ * handling only waits on the identity endpoint for the first token of a partition. Concurrent callers share a
+ * single refresh per partition.
+ */
 @Component
-public class ServiceAccountJwtClientImpl implements IServiceAccountJwtClient {
+public class ServiceAccountJwtClientImpl implements IServiceAccountJwtClient, DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServiceAccountJwtClientImpl.class.getName());
     private final String BEARER = "Bearer";
 
+    private final AzureServicePrincipleTokenService tokenService;
+    private final Duration refreshAhead;
+    private final Duration defaultTtl;
+    private final Map<String, CachedToken> tokens = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<CachedToken>> refreshes = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "service-token-refresher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /***
+     * @param tokenService source of the service principal token.
+     * @param refreshAheadSeconds how long before its expiry a token is refreshed.
+     * @param defaultTtlSeconds lifetime assumed for a token whose expiry cannot be read.
+     */
     @Autowired
-    private AzureServicePrincipleTokenService tokenService;
+    public ServiceAccountJwtClientImpl(AzureServicePrincipleTokenService tokenService,
+                                       @Value("${service-token.refresh-ahead-seconds:300}") long refreshAheadSeconds,
+                                       @Value("${service-token.default-ttl-seconds:600}") long defaultTtlSeconds) {
+        this.tokenService = tokenService;
+        this.refreshAhead = Duration.ofSeconds(Math.max(0, refreshAheadSeconds));
+        this.defaultTtl = Duration.ofSeconds(Math.max(1, defaultTtlSeconds));
+    }
 
     @Override
     public String getIdToken(String partitionId) {
+        String key = Strings.nullToEmpty(partitionId);
+        CachedToken cached = tokens.get(key);
+        Instant now = Instant.now();
+        if (cached != null && now.isBefore(cached.expiresAt)) {
+            cached.accessed = true;
+            if (!now.isBefore(cached.refreshAt)) {
+                refreshInBackground(key);
+            }
+            return cached.value;
+        }
+        return refreshNow(key).value;
+    }
+
+    @Override
+    public void destroy() {
+        refresher.shutdownNow();
+    }
+
+    /*
+     * No usable token: the caller fetches it, unless another caller already does, in which case it waits for that one.
+     */
+    private CachedToken refreshNow(String key) {
+        CompletableFuture<CachedToken> refresh = new CompletableFuture<>();
+        CompletableFuture<CachedToken> inFlight = refreshes.putIfAbsent(key, refresh);
+        if (inFlight == null) {
+            load(key, refresh);
+            inFlight = refresh;
+        }
+        try {
+            return inFlight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void refreshInBackground(String key) {
+        CompletableFuture<CachedToken> refresh = new CompletableFuture<>();
+        if (refreshes.putIfAbsent(key, refresh) != null) {
+            return;
+        }
+        try {
+            refresher.execute(() -> load(key, refresh));
+        } catch (RejectedExecutionException e) {
+            refreshes.remove(key, refresh);
+            refresh.cancel(false);
+        }
+    }
+
+    private void load(String key, CompletableFuture<CachedToken> refresh) {
+        try {
+            CachedToken token = fetchToken();
+            tokens.put(key, token);
+            scheduleRefresh(key, token);
+            refreshes.remove(key, refresh);
+            refresh.complete(token);
+        } catch (Exception e) {
+            LOGGER.error("Unable to get service token for partition {}", key, e);
+            refreshes.remove(key, refresh);
+            refresh.completeExceptionally(e);
+        }
+    }
+
+    /*
+     * Tokens are refreshed ahead of expiry as long as the partition keeps using them, and dropped otherwise.
+     */
+    private void scheduleRefresh(String key, CachedToken token) {
+        long delay = Math.max(0, Duration.between(Instant.now(), token.refreshAt).toMillis());
+        try {
+            refresher.schedule(() -> {
+                if (tokens.get(key) != token) {
+                    return;
+                }
+                if (token.accessed) {
+                    refreshInBackground(key);
+                } else {
+                    tokens.remove(key, token);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Token refresher is shut down, token of partition {} will be refreshed on use", key);
+        }
+    }
+
+    private CachedToken fetchToken() {
         String token = this.tokenService.getAuthorizationToken();
         if (!Strings.isNullOrEmpty(token) && !token.startsWith(BEARER)) {
             token = BEARER + " " + token;
         }
-        return token;
+        Instant now = Instant.now();
+        Instant expiresAt = readExpiry(token, now);
+        // Never refresh more often than every half lifetime, even if the token lives shorter than refreshAhead.
+        Instant halfLife = now.plus(Duration.between(now, expiresAt).dividedBy(2));
+        Instant refreshAt = expiresAt.minus(refreshAhead);
+        return new CachedToken(token, expiresAt, refreshAt.isBefore(halfLife) ? halfLife : refreshAt);
+    }
+
+    private Instant readExpiry(String token, Instant now) {
+        if (!Strings.isNullOrEmpty(token)) {
+            try {
+                Date expiration = JWTParser.parse(token.substring(token.indexOf(' ') + 1)).getJWTClaimsSet().getExpirationTime();
+                if (expiration != null) {
+                    return expiration.toInstant();
+                }
+            } catch (Exception e) {
+                LOGGER.debug("Unable to read the expiry of the service token, assuming a lifetime of {}", defaultTtl);
+            }
+        }
+        return now.plus(defaultTtl);
+    }
+
+    private static final class CachedToken {
+        private final String value;
+        private final Instant expiresAt;
+        private final Instant refreshAt;
+        private volatile boolean accessed;
+
+        private CachedToken(String value, Instant expiresAt, Instant refreshAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.refreshAt = refreshAt;
+        }
     }
 }
@@ -0,0 +1,186 @@
+package org.opengroup.osdu.indexerqueue.azure.concurrency;
+
+import org.junit.jupiter.api.Test;
+import org.opengroup.osdu.indexerqueue.azure.exceptions.IndexerRetryException;
+import org.opengroup.osdu.indexerqueue.azure.scope.message.MessageContext;
+import org.opengroup.osdu.indexerqueue.azure.scope.message.MessageContextHolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static final long TARGET_LATENCY_MILLIS = 1000;
+    private static final double ERROR_RATE_THRESHOLD = 0.2;
+
+    @Test
+    public void shouldQueueCalls_overTheLimit_andRunThemOnRelease() {
+        AdaptiveConcurrencyLimiter limiter = limiter("p1/records", 1, 1, 10, new ConcurrencyBudget(10));
+        CompletableFuture<Void> first = new CompletableFuture<>();
+        CompletableFuture<Void> second = new CompletableFuture<>();
+
+        CompletableFuture<Void> firstResult = limiter.execute(() -> first);
+        CompletableFuture<Void> secondResult = limiter.execute(() -> second);
+
+        assertEquals(1, limiter.getInFlight());
+        assertEquals(1, limiter.getBacklog());
+
+        first.complete(null);
+
+        assertTrue(firstResult.isDone());
+        assertFalse(secondResult.isDone());
+        assertEquals(1, limiter.getInFlight());
+        assertEquals(0, limiter.getBacklog());
+    }
+
+    @Test
+    public void shouldDecreaseLimit_whenErrorRateIsOverThreshold() {
+        AdaptiveConcurrencyLimiter limiter = limiter("p1/records", 1, 8, 4, new ConcurrencyBudget(10));
+
+        for (int i = 0; i < 4; i++) {
+            limiter.execute(() -> CompletableFuture.failedFuture(new IndexerRetryException("indexer unavailable")));
+        }
+
+        assertEquals(6, limiter.getLimit());
+    }
+
+    @Test
+    public void shouldDecreaseLimit_whenLatencyIsOverTarget_andNotBelowMinimum() {
+        AdaptiveConcurrencyLimiter limiter = limiter("p1/records", 2, 2, 1, new ConcurrencyBudget(10));
+
+        limiter.acquire();
+        limiter.release(TARGET_LATENCY_MILLIS * 2, true);
+        limiter.acquire();
+        limiter.release(TARGET_LATENCY_MILLIS * 2, true);
+
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void shouldIncreaseLimit_whenCallsAreWaiting() {
+        AdaptiveConcurrencyLimiter limiter = limiter("p1/records", 1, 4, 1, new ConcurrencyBudget(10));
+        limiter.acquire();
+        limiter.release(TARGET_LATENCY_MILLIS * 2, false);
+        int reduced = limiter.getLimit();
+
+        for (int i = 0; i <= reduced; i++) {
+            limiter.acquire();
+        }
+        limiter.release(1, true);
+
+        assertEquals(reduced + 1, limiter.getLimit());
+    }
+
+    @Test
+    public void shouldNotIncreaseLimit_whenCallsWaitOnExhaustedBudget() {
+        AdaptiveConcurrencyLimiter limiter = limiter("p1/records", 1, 4, 1, new ConcurrencyBudget(2));
+        limiter.acquire();
+        limiter.release(TARGET_LATENCY_MILLIS * 2, false);
+        int reduced = limiter.getLimit();
+
+        limiter.acquire();
+        limiter.acquire();
+        limiter.acquire();
+        assertEquals(1, limiter.getBacklog());
+        limiter.release(1, true);
+
+        assertEquals(reduced, limiter.getLimit());
+    }
+
+    @Test
+    public void shouldShareGlobalBudget_betweenSubscriptions() {
+        ConcurrencyBudget budget = new ConcurrencyBudget(2);
+        AdaptiveConcurrencyLimiter busy = limiter("p1/records", 1, 4, 10, budget);
+        AdaptiveConcurrencyLimiter idle = limiter("p2/records", 1, 4, 10, budget);
+        CompletableFuture<Void> running = new CompletableFuture<>();
+
+        busy.execute(() -> running);
+        busy.execute(() -> new CompletableFuture<>());
+        CompletableFuture<Void> idleCall = idle.execute(() -> CompletableFuture.completedFuture(null));
+
+        assertEquals(2, budget.getInFlight());
+        assertFalse(idleCall.isDone());
+
+        running.complete(null);
+
+        assertTrue(idleCall.isDone());
+    }
+
+    @Test
+    public void shouldReportSaturation_whenCallsWaitOnALimiter() {
+        ConcurrencyBudget budget = new ConcurrencyBudget(10);
+        AdaptiveConcurrencyLimiter limiter = limiter("p1/records", 1, 1, 10, budget);
+        CompletableFuture<Void> running = new CompletableFuture<>();
+
+        limiter.execute(() -> running);
+        assertFalse(budget.isSaturated());
+
+        limiter.execute(() -> CompletableFuture.completedFuture(null));
+        assertTrue(budget.isSaturated());
+
+        running.complete(null);
+        assertFalse(budget.isSaturated());
+    }
+
+    @Test
+    public void shouldRunQueuedCall_onDispatcher_inContextOfCaller() {
+        List<Runnable> dispatched = new ArrayList<>();
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("p1/records", 1, 1, TARGET_LATENCY_MILLIS,
+            ERROR_RATE_THRESHOLD, 10, new ConcurrencyBudget(10), dispatched::add);
+        CompletableFuture<Void> running = new CompletableFuture<>();
+        AtomicReference<MessageContext> queuedContext = new AtomicReference<>();
+
+        limiter.execute(() -> running);
+        CompletableFuture<Void> queuedResult;
+        try (MessageContextHolder.Scope ignored = MessageContextHolder.open(MessageContext.of("p1", "correlation-id"))) {
+            queuedResult = limiter.execute(() -> {
+                queuedContext.set(MessageContextHolder.current());
+                return CompletableFuture.completedFuture(null);
+            });
+        }
+
+        running.complete(null);
+
+        assertFalse(queuedResult.isDone());
+        assertEquals(1, dispatched.size());
+        dispatched.get(0).run();
+        assertTrue(queuedResult.isDone());
+        assertTrue(queuedContext.get().matches("p1", "correlation-id"));
+        assertNull(MessageContextHolder.current());
+    }
+
+    @Test
+    public void shouldFailQueuedCalls_whenClosed() {
+        ConcurrencyBudget budget = new ConcurrencyBudget(10);
+        AdaptiveConcurrencyLimiter limiter = limiter("p1/records", 1, 1, 10, budget);
+        AtomicBoolean called = new AtomicBoolean();
+
+        limiter.execute(() -> new CompletableFuture<>());
+        CompletableFuture<Void> queuedResult = limiter.execute(() -> {
+            called.set(true);
+            return CompletableFuture.completedFuture(null);
+        });
+        limiter.close();
+
+        ExecutionException exception = assertThrows(ExecutionException.class, queuedResult::get);
+        assertTrue(exception.getCause() instanceof IndexerRetryException);
+        assertFalse(called.get());
+        assertEquals(0, limiter.getBacklog());
+        assertTrue(limiter.execute(() -> CompletableFuture.completedFuture(null)).isCompletedExceptionally());
+    }
+
+    private static AdaptiveConcurrencyLimiter limiter(String name, int min, int max, int sampleWindow, ConcurrencyBudget budget) {
+        return new AdaptiveConcurrencyLimiter(name, min, max, TARGET_LATENCY_MILLIS, ERROR_RATE_THRESHOLD, sampleWindow,
+            budget, Runnable::run);
+    }
+}
@@ -0,0 +1,103 @@
+package org.opengroup.osdu.indexerqueue.azure.concurrency;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.opengroup.osdu.indexerqueue.azure.di.AzureBootstrapConfig;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.lenient;
+
+@ExtendWith(MockitoExtension.class)
+public class PartitionExecutorRegistryTest {
+
+    private static final String PARTITION = "opendes";
+    private static final String OTHER_PARTITION = "tenant1";
+
+    @Mock
+    private AzureBootstrapConfig azureBootstrapConfig;
+    @Spy
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    @InjectMocks
+    private PartitionExecutorRegistry sut;
+
+    @BeforeEach
+    public void setup() {
+        lenient().when(azureBootstrapConfig.getPartitionNThreads()).thenReturn(1);
+        lenient().when(azureBootstrapConfig.getPartitionExecutorQueueCapacity()).thenReturn(1);
+        lenient().when(azureBootstrapConfig.getNThreads()).thenReturn("2");
+    }
+
+    @AfterEach
+    public void close() {
+        sut.destroy();
+    }
+
+    @Test
+    public void shouldReuseExecutor_perPartition() {
+        ExecutorService executor = sut.getExecutor(PARTITION);
+
+        assertSame(executor, sut.getExecutor(PARTITION));
+        assertNotSame(executor, sut.getExecutor(OTHER_PARTITION));
+    }
+
+    @Test
+    public void shouldOverflowToSharedPool_whenPartitionExecutorIsSaturated() throws InterruptedException {
+        ExecutorService executor = sut.getExecutor(PARTITION);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch overflowRan = new CountDownLatch(1);
+
+        executor.execute(() -> awaitQuietly(release));
+        executor.execute(() -> awaitQuietly(release));
+        executor.execute(overflowRan::countDown);
+
+        assertTrue(overflowRan.await(5, TimeUnit.SECONDS));
+        assertEquals(1.0, meterRegistry.get(PartitionExecutorRegistry.OVERFLOW_METRIC_NAME).tag("partition", PARTITION).counter().count());
+        release.countDown();
+    }
+
+    @Test
+    public void shouldCreateNewExecutor_afterPartitionIsShutdown() {
+        ExecutorService executor = sut.getExecutor(PARTITION);
+
+        sut.shutdown(PARTITION);
+
+        assertTrue(executor.isShutdown());
+        assertNotSame(executor, sut.getExecutor(PARTITION));
+    }
+
+    @Test
+    public void shouldRemovePartitionMeters_whenPartitionIsShutdown() {
+        sut.getExecutor(PARTITION);
+        sut.getExecutor(OTHER_PARTITION);
+        assertFalse(meterRegistry.find(PartitionExecutorRegistry.OVERFLOW_METRIC_NAME).tag("partition", PARTITION).meters().isEmpty());
+
+        sut.shutdown(PARTITION);
+
+        assertTrue(meterRegistry.getMeters().stream().noneMatch(meter -> PARTITION.equals(meter.getId().getTag("partition"))));
+        assertFalse(meterRegistry.find(PartitionExecutorRegistry.OVERFLOW_METRIC_NAME).tag("partition", OTHER_PARTITION).meters().isEmpty());
+        assertFalse(meterRegistry.find("executor.pool.size").tag("partition", OTHER_PARTITION).meters().isEmpty());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
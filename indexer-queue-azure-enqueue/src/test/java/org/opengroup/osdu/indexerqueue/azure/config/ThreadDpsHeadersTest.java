@@ -3,6 +3,8 @@ package org.opengroup.osdu.indexerqueue.azure.config;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.opengroup.osdu.core.common.model.http.DpsHeaders;
+import org.opengroup.osdu.indexerqueue.azure.scope.message.MessageContext;
+import org.opengroup.osdu.indexerqueue.azure.scope.message.MessageContextHolder;
 import java.util.HashMap;
 import java.util.Map;
 import static org.junit.jupiter.api.Assertions.*;
@@ -24,4 +26,15 @@ class ThreadDpsHeadersTest {
         assertEquals(dataPartitionId, sut.getPartitionId());
         assertEquals(correlationId, sut.getCorrelationId());
     }
+
+    @Test
+    void should_startFromBoundMessageContext_only() {
+        try (MessageContextHolder.Scope ignored = MessageContextHolder.open(MessageContext.of(dataPartitionId, correlationId))) {
+            ThreadDpsHeaders headers = new ThreadDpsHeaders();
+
+            assertEquals(dataPartitionId, headers.getPartitionId());
+            assertEquals(correlationId, headers.getCorrelationId());
+            assertNull(headers.getAccountId());
+        }
+    }
 }
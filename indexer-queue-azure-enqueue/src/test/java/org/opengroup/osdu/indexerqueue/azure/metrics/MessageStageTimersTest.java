@@ -0,0 +1,77 @@
+// Copyright © Schlumberger
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.metrics;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opengroup.osdu.indexerqueue.azure.metrics.MessageStageTimers.Stage;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+public class MessageStageTimersTest {
+
+    private static final String TOPIC = "recordstopic";
+
+    private SimpleMeterRegistry meterRegistry;
+    private MessageStageTimers sut;
+
+    @BeforeEach
+    public void setup() {
+        meterRegistry = new SimpleMeterRegistry();
+        sut = new MessageStageTimers(meterRegistry);
+    }
+
+    @Test
+    public void shouldRecordStage_perTopic() {
+        sut.record(Stage.INDEXER, TOPIC, 200, TimeUnit.MILLISECONDS);
+        sut.record(Stage.INDEXER, TOPIC, 400, TimeUnit.MILLISECONDS);
+        sut.record(Stage.DWELL, TOPIC, 5, TimeUnit.SECONDS);
+
+        Timer indexer = timer("indexer", TOPIC);
+        assertEquals(2, indexer.count());
+        assertEquals(600, indexer.totalTime(TimeUnit.MILLISECONDS), 0.001);
+        assertEquals(1, timer("dwell", TOPIC).count());
+        assertEquals(2, meterRegistry.find(MessageStageTimers.METRIC_NAME).timers().size());
+    }
+
+    @Test
+    public void shouldRecordNegativeDurationAsZero() {
+        sut.record(Stage.DWELL, TOPIC, -50, TimeUnit.MILLISECONDS);
+
+        Timer dwell = timer("dwell", TOPIC);
+        assertEquals(1, dwell.count());
+        assertEquals(0, dwell.totalTime(TimeUnit.MILLISECONDS), 0.001);
+    }
+
+    @Test
+    public void shouldTagUnknownTopic_whenTopicIsMissing() {
+        sut.record(Stage.ACK, null, 10, TimeUnit.MILLISECONDS);
+
+        assertEquals(1, timer("ack", MessageStageTimers.UNKNOWN_TAG_VALUE).count());
+    }
+
+    private Timer timer(String stage, String topic) {
+        Timer timer = meterRegistry.find(MessageStageTimers.METRIC_NAME)
+            .tags("stage", stage, "topic", topic)
+            .timer();
+        assertNotNull(timer);
+        return timer;
+    }
+}
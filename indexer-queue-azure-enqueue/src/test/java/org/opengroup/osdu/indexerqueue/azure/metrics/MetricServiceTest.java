@@ -23,6 +23,7 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -38,18 +39,63 @@ public class MetricServiceTest {
     private static final String metricName = "[Indexer service] Record indexing latency";
 
     @Test
-    public void shouldSendHitsMetricSuccessfully() {
+    public void shouldPublishAggregatedMetricSuccessfully() {
         ArgumentCaptor<MetricTelemetry> metricCaptor = ArgumentCaptor.forClass(MetricTelemetry.class);
 
-        this.sut.sendIndexLatencyMetric(1l, "records-changed", "opendes", "correlationId-1", true);
+        this.sut.sendIndexLatencyMetric(100, 1, "records-changed", "opendes", true);
+        this.sut.sendIndexLatencyMetric(300, 3, "records-changed", "opendes", true);
+        this.sut.publish();
 
         verify(telemetryClient, times(1)).trackMetric(metricCaptor.capture());
-        assertEquals("[Indexer service] Record indexing latency", metricCaptor.getValue().getName());
-        assertEquals(1, metricCaptor.getValue().getValue(), 1);
-        assertEquals("true", metricCaptor.getValue().getProperties().get("success"));
-        assertEquals("correlationId-1", metricCaptor.getValue().getProperties().get("correlation-id"));
-        assertEquals("opendes", metricCaptor.getValue().getProperties().get("data-partition-id"));
-        assertEquals("records-changed", metricCaptor.getValue().getProperties().get("topic"));
+        MetricTelemetry metric = metricCaptor.getValue();
+        assertEquals("[Indexer service] Record indexing latency", metric.getName());
+        assertEquals(4, metric.getCount());
+        assertEquals(1000, metric.getValue(), 0.001);
+        assertEquals(100, metric.getMin(), 0.001);
+        assertEquals(300, metric.getMax(), 0.001);
+        assertEquals("true", metric.getProperties().get("success"));
+        assertEquals("opendes", metric.getProperties().get("data-partition-id"));
+        assertEquals("records-changed", metric.getProperties().get("topic"));
+        verify(telemetryClient, times(1)).flush();
+    }
+
+    @Test
+    public void shouldPublishPercentiles_fromLatencyBuckets() {
+        ArgumentCaptor<MetricTelemetry> metricCaptor = ArgumentCaptor.forClass(MetricTelemetry.class);
+
+        this.sut.sendIndexLatencyMetric(80, 90, "records-changed", "opendes", true);
+        this.sut.sendIndexLatencyMetric(4000, 9, "records-changed", "opendes", true);
+        this.sut.sendIndexLatencyMetric(45000, 1, "records-changed", "opendes", true);
+        this.sut.publish();
+
+        verify(telemetryClient, times(1)).trackMetric(metricCaptor.capture());
+        MetricTelemetry metric = metricCaptor.getValue();
+        assertEquals("100.0", metric.getProperties().get("p50"));
+        assertEquals("5000.0", metric.getProperties().get("p95"));
+        assertEquals("5000.0", metric.getProperties().get("p99"));
+        assertEquals("90", metric.getProperties().get("bucket-le-100ms"));
+        assertEquals("9", metric.getProperties().get("bucket-le-5000ms"));
+        assertEquals("1", metric.getProperties().get("bucket-le-60000ms"));
+        assertEquals(100, metric.getCount());
+    }
+
+    @Test
+    public void shouldPublishOneMetricPerOutcome() {
+        this.sut.sendIndexLatencyMetric(100, 1, "records-changed", "opendes", true);
+        this.sut.sendIndexLatencyMetric(100, 1, "records-changed", "opendes", false);
+        this.sut.publish();
+
+        verify(telemetryClient, times(2)).trackMetric(any(MetricTelemetry.class));
+        verify(telemetryClient, times(1)).flush();
+    }
+
+    @Test
+    public void shouldNotPublish_whenNoSamplesSinceLastPublish() {
+        this.sut.sendIndexLatencyMetric(100, 1, "records-changed", "opendes", true);
+        this.sut.publish();
+        this.sut.publish();
+
+        verify(telemetryClient, times(1)).trackMetric(any(MetricTelemetry.class));
         verify(telemetryClient, times(1)).flush();
     }
 
@@ -14,6 +14,7 @@
 
 package org.opengroup.osdu.indexerqueue.azure.queue;
 
+import com.google.gson.JsonElement;
 import com.microsoft.azure.servicebus.IMessage;
 import com.microsoft.azure.servicebus.MessageBody;
 import com.microsoft.azure.servicebus.SubscriptionClient;
@@ -27,11 +28,16 @@ import org.mockito.quality.Strictness;
 import org.opengroup.osdu.core.common.model.search.RecordChangedMessages;
 import org.opengroup.osdu.indexerqueue.azure.config.ThreadDpsHeaders;
 import org.opengroup.osdu.indexerqueue.azure.metrics.IMetricService;
-import org.opengroup.osdu.indexerqueue.azure.util.MdcContextMap;
+import org.opengroup.osdu.indexerqueue.azure.metrics.MessageStageTimers;
+import org.opengroup.osdu.indexerqueue.azure.metrics.MessageStageTimers.Stage;
+import org.opengroup.osdu.indexerqueue.azure.retry.LocalRetryScheduler;
 import org.opengroup.osdu.indexerqueue.azure.util.MessageAttributesExtractor;
+import org.opengroup.osdu.indexerqueue.azure.util.MessageValidator;
+import org.opengroup.osdu.indexerqueue.azure.util.MessageValidator.InvalidMessageReason;
 import org.opengroup.osdu.indexerqueue.azure.util.RecordChangedAttributes;
 import org.opengroup.osdu.indexerqueue.azure.exceptions.ValidStorageRecordNotFoundException;
 import org.opengroup.osdu.indexerqueue.azure.exceptions.IndexerNoRetryException;
+import org.opengroup.osdu.indexerqueue.azure.util.RetryStrategies;
 import org.opengroup.osdu.indexerqueue.azure.util.RetryUtil;
 import org.opengroup.osdu.indexerqueue.azure.util.RecordsChangedSbMessageBuilder;
 import java.lang.reflect.Method;
@@ -39,10 +45,15 @@ import java.time.Instant;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.singletonList;
 import static org.junit.Assert.assertNull;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -69,6 +80,9 @@ public class AbstractRecordChangedMessageHandlerWithActiveRetryTest {
     @Mock
     private RetryUtil retryUtil;
 
+    @Mock
+    private RetryStrategies retryStrategies;
+
     @Mock
     private TestMessageProcessor testMessageProcessor;
 
@@ -80,8 +94,6 @@ public class AbstractRecordChangedMessageHandlerWithActiveRetryTest {
     @Mock
     private ThreadDpsHeaders dpsHeaders;
     @Mock
-    private MdcContextMap mdcContextMap;
-    @Mock
     private MessageAttributesExtractor messageAttributesExtractor;
     @Mock
     private RecordsChangedSbMessageBuilder recordsChangedSbMessageBuilder;
@@ -89,15 +101,22 @@ public class AbstractRecordChangedMessageHandlerWithActiveRetryTest {
     private IMetricService metricService;
     @Mock
     private RecordChangedMessages recordChangedMessages;
+    @Mock
+    private LocalRetryScheduler localRetryScheduler;
+    @Mock
+    private MessageStageTimers stageTimers;
+    @Mock
+    private MessageValidator messageValidator;
 
     private AbstractMessageHandlerWithActiveRetry messageHandler;
 
     @BeforeEach
     public void setup() {
         messageProperties = new HashMap<>();
+        when(retryStrategies.forTopic(any())).thenReturn(retryUtil);
         messageHandler = new AbstractMessageHandlerWithActiveRetry(receiveClient,
-                messagePublisher, retryUtil, dpsHeaders, mdcContextMap,
-                messageAttributesExtractor, WORKER_NAME, MAX_DELIVERY_COUNT, recordsChangedSbMessageBuilder, metricService) {
+                messagePublisher, retryStrategies, dpsHeaders,
+                messageAttributesExtractor, WORKER_NAME, MAX_DELIVERY_COUNT, recordsChangedSbMessageBuilder, metricService, localRetryScheduler, stageTimers, messageValidator) {
             @Override
             public void processMessage(IMessage message) {
                 testMessageProcessor.doTheProcessing(message);
@@ -105,6 +124,9 @@ public class AbstractRecordChangedMessageHandlerWithActiveRetryTest {
         };
         when(message.getEnqueuedTimeUtc()).thenReturn(INSTANT);
         when(messageAttributesExtractor.extracRecordChangedtAttributesFromMessageBody(any())).thenReturn(new RecordChangedAttributes());
+        when(receiveClient.completeAsync(any())).thenReturn(CompletableFuture.completedFuture(null));
+        when(receiveClient.deadLetterAsync(any())).thenReturn(CompletableFuture.completedFuture(null));
+        when(messagePublisher.sendMessageToTopicAsync(any(), any())).thenReturn(CompletableFuture.completedFuture(null));
     }
 
     @Test
@@ -112,7 +134,7 @@ public class AbstractRecordChangedMessageHandlerWithActiveRetryTest {
         when(message.getLockToken()).thenReturn(UUID);
         when(message.getMessageBody()).thenReturn(messageBody);
         when(messageBody.getBinaryData()).thenReturn(singletonList(TEST_MESSAGE_BODY.getBytes(UTF_8)));
-        messageHandler.onMessageAsync(message);
+        messageHandler.onMessageAsync(message).join();
 
         verify(testMessageProcessor, only()).doTheProcessing(message);
         verify(receiveClient, times(1)).completeAsync(UUID);
@@ -122,11 +144,44 @@ public class AbstractRecordChangedMessageHandlerWithActiveRetryTest {
         verifyNoInteractions(messagePublisher);
     }
 
+    @Test
+    public void should_recordEveryStage_perTopic() throws Exception {
+        when(message.getLockToken()).thenReturn(UUID);
+        when(message.getMessageBody()).thenReturn(messageBody);
+        when(messageBody.getBinaryData()).thenReturn(singletonList(TEST_MESSAGE_BODY.getBytes(UTF_8)));
+        when(receiveClient.getTopicName()).thenReturn(topic_name);
+        when(recordsChangedSbMessageBuilder.getServiceBusMessage(any(), any(), any())).thenReturn(recordChangedMessages);
+
+        messageHandler.onMessageAsync(message).join();
+
+        for (Stage stage : Stage.values()) {
+            verify(stageTimers, times(1)).record(eq(stage), eq(topic_name), anyLong(), any());
+        }
+    }
+
+    @Test
+    public void should_deadLetterInvalidMessage_onFirstAttempt() {
+        when(message.getLockToken()).thenReturn(UUID);
+        when(message.getMessageBody()).thenReturn(messageBody);
+        when(messageBody.getBinaryData()).thenReturn(singletonList(TEST_MESSAGE_BODY.getBytes(UTF_8)));
+        when(receiveClient.getTopicName()).thenReturn(topic_name);
+        when(messageValidator.validate(nullable(JsonElement.class))).thenReturn(InvalidMessageReason.MISSING_TENANT);
+        when(receiveClient.deadLetterAsync(any(), any(), any())).thenReturn(CompletableFuture.completedFuture(null));
+
+        messageHandler.onMessageAsync(message).join();
+
+        verify(receiveClient, times(1)).deadLetterAsync(UUID, InvalidMessageReason.MISSING_TENANT.name(),
+                InvalidMessageReason.MISSING_TENANT.getDescription());
+        verify(messageValidator, times(1)).recordRejection(InvalidMessageReason.MISSING_TENANT, topic_name);
+        verifyNoInteractions(testMessageProcessor, recordsChangedSbMessageBuilder, messagePublisher, retryUtil);
+        assertNull(messageProperties.get(PROPERTY_RETRY));
+    }
+
     @Test
     public void should_completeMessage_ifExceptionIsThrown_andRetryPropertyIsEmpty() {
         setupMessagesStubsForFailureCases();
         when(message.getLockToken()).thenReturn(UUID);
-        when(retryUtil.generateNextRetryTerm(1)).thenReturn(1);
+        when(retryUtil.generateNextRetryTerm(eq(1), anyInt())).thenReturn(1);
         doThrow(new RuntimeException()).when(testMessageProcessor).doTheProcessing(message);
 
         messageHandler.onMessageAsync(message);
@@ -134,7 +189,7 @@ public class AbstractRecordChangedMessageHandlerWithActiveRetryTest {
         assertEquals(1, messageProperties.get(PROPERTY_RETRY));
 
         verify(receiveClient, only()).completeAsync(UUID);
-        verify(messagePublisher, only()).sendMessageToTopic(eq(message), any());
+        verify(messagePublisher, only()).sendMessageToTopicAsync(eq(message), any());
     }
 
     @Test
@@ -142,7 +197,7 @@ public class AbstractRecordChangedMessageHandlerWithActiveRetryTest {
         setupMessagesStubsForFailureCases();
         when(message.getLockToken()).thenReturn(UUID);
         messageProperties.put(PROPERTY_RETRY, 1);
-        when(retryUtil.generateNextRetryTerm(2)).thenReturn(2);
+        when(retryUtil.generateNextRetryTerm(eq(2), anyInt())).thenReturn(2);
         doThrow(new RuntimeException()).when(testMessageProcessor).doTheProcessing(message);
 
         messageHandler.onMessageAsync(message);
@@ -150,7 +205,55 @@ public class AbstractRecordChangedMessageHandlerWithActiveRetryTest {
         assertEquals(2, messageProperties.get(PROPERTY_RETRY));
 
         verify(receiveClient, only()).completeAsync(UUID);
-        verify(messagePublisher, only()).sendMessageToTopic(eq(message), any());
+        verify(messagePublisher, only()).sendMessageToTopicAsync(eq(message), any());
+    }
+
+    @Test
+    public void should_passPreviousRetryTerm_toRetryStrategy() {
+        setupMessagesStubsForFailureCases();
+        when(message.getLockToken()).thenReturn(UUID);
+        messageProperties.put(PROPERTY_RETRY, 1);
+        messageProperties.put("RETRY_TERM", 5);
+        when(retryUtil.generateNextRetryTerm(2, 5)).thenReturn(11);
+        doThrow(new RuntimeException()).when(testMessageProcessor).doTheProcessing(message);
+
+        messageHandler.onMessageAsync(message);
+
+        verify(retryUtil, times(1)).generateNextRetryTerm(2, 5);
+        assertEquals(11, messageProperties.get("RETRY_TERM"));
+    }
+
+    @Test
+    public void should_chooseRetryStrategy_byTopicTheMessageWasFirstReceivedFrom() {
+        setupMessagesStubsForFailureCases();
+        when(message.getLockToken()).thenReturn(UUID);
+        when(receiveClient.getTopicName()).thenReturn("reindextopic");
+        messageProperties.put(PROPERTY_RETRY, 1);
+        messageProperties.put(AbstractMessageHandlerWithActiveRetry.PROPERTY_RETRY_TOPIC, topic_name);
+        RetryUtil originRetryUtil = mock(RetryUtil.class);
+        when(retryStrategies.forTopic(topic_name)).thenReturn(originRetryUtil);
+        when(originRetryUtil.generateNextRetryTerm(eq(2), anyInt())).thenReturn(2);
+        doThrow(new RuntimeException()).when(testMessageProcessor).doTheProcessing(message);
+
+        messageHandler.onMessageAsync(message);
+
+        verify(originRetryUtil, times(1)).generateNextRetryTerm(eq(2), anyInt());
+        verifyNoInteractions(retryUtil);
+        assertEquals(topic_name, messageProperties.get(AbstractMessageHandlerWithActiveRetry.PROPERTY_RETRY_TOPIC));
+    }
+
+    @Test
+    public void should_keepReceivingTopic_onFirstRetry() {
+        setupMessagesStubsForFailureCases();
+        when(message.getLockToken()).thenReturn(UUID);
+        when(receiveClient.getTopicName()).thenReturn(topic_name);
+        when(retryUtil.generateNextRetryTerm(eq(1), anyInt())).thenReturn(1);
+        doThrow(new RuntimeException()).when(testMessageProcessor).doTheProcessing(message);
+
+        messageHandler.onMessageAsync(message);
+
+        verify(retryStrategies, times(1)).forTopic(topic_name);
+        assertEquals(topic_name, messageProperties.get(AbstractMessageHandlerWithActiveRetry.PROPERTY_RETRY_TOPIC));
     }
 
     @Test
@@ -182,19 +285,65 @@ public class AbstractRecordChangedMessageHandlerWithActiveRetryTest {
     }
 
     @Test
-    public void should_completeMessageAndDeadLetter_ifMessageProcessorFailed_andMessagePublisherThrowsException() {
+    public void should_deadLetterWithoutCompleting_ifMessageProcessorFailed_andMessagePublisherFails() {
         setupMessagesStubsForFailureCases();
         when(message.getLockToken()).thenReturn(UUID);
         doThrow(new RuntimeException()).when(testMessageProcessor).doTheProcessing(message);
-        doThrow(new RuntimeException()).when(messagePublisher).sendMessageToTopic(eq(message), any());
+        when(messagePublisher.sendMessageToTopicAsync(eq(message), any()))
+            .thenReturn(CompletableFuture.failedFuture(new RuntimeException()));
 
-        messageHandler.onMessageAsync(message);
+        messageHandler.onMessageAsync(message).join();
 
         assertEquals(1, messageProperties.get(PROPERTY_RETRY));
 
+        verify(receiveClient, never()).completeAsync(UUID);
+        verify(receiveClient, times(1)).deadLetterAsync(UUID);
+        verify(messagePublisher, only()).sendMessageToTopicAsync(eq(message), any());
+    }
+
+    @Test
+    public void should_completeOnlyAfterRetryIsScheduled() {
+        setupMessagesStubsForFailureCases();
+        when(message.getLockToken()).thenReturn(UUID);
+        doThrow(new RuntimeException()).when(testMessageProcessor).doTheProcessing(message);
+        CompletableFuture<Void> publication = new CompletableFuture<>();
+        when(messagePublisher.sendMessageToTopicAsync(eq(message), any())).thenReturn(publication);
+
+        CompletableFuture<Void> result = messageHandler.onMessageAsync(message);
+
+        assertFalse(result.isDone());
+        verify(receiveClient, never()).completeAsync(UUID);
+
+        publication.complete(null);
+
+        assertTrue(result.isDone());
         verify(receiveClient, times(1)).completeAsync(UUID);
+        verify(receiveClient, never()).deadLetterAsync(UUID);
+    }
+
+    @Test
+    public void should_unwrapAsyncFailures_beforeChoosingSettlement() {
+        when(message.getLockToken()).thenReturn(UUID);
+        when(messageBody.getBinaryData()).thenReturn(singletonList(TEST_MESSAGE_BODY.getBytes(UTF_8)));
+        when(message.getMessageBody()).thenReturn(messageBody);
+        AbstractMessageHandlerWithActiveRetry asyncHandler = new AbstractMessageHandlerWithActiveRetry(receiveClient,
+                messagePublisher, retryStrategies, dpsHeaders,
+                messageAttributesExtractor, WORKER_NAME, MAX_DELIVERY_COUNT, recordsChangedSbMessageBuilder, metricService, localRetryScheduler, stageTimers, messageValidator) {
+            @Override
+            public void processMessage(IMessage message) {
+            }
+
+            @Override
+            protected CompletableFuture<Void> processMessageAsync(IMessage message, RecordChangedMessages recordChangedMessage) {
+                return CompletableFuture.failedFuture(new CompletionException(new IndexerNoRetryException("test msg")));
+            }
+        };
+
+        asyncHandler.onMessageAsync(message).join();
+
         verify(receiveClient, times(1)).deadLetterAsync(UUID);
-        verify(messagePublisher, only()).sendMessageToTopic(eq(message), any());
+        verify(receiveClient, never()).completeAsync(UUID);
+        verifyNoInteractions(messagePublisher);
     }
 
   @Test
@@ -213,30 +362,91 @@ public class AbstractRecordChangedMessageHandlerWithActiveRetryTest {
 
   }
 
+    @Test
+    public void should_retryLocally_andComplete_whenRetryIsShortEnough() {
+        setupMessagesStubsForFailureCases();
+        when(message.getLockToken()).thenReturn(UUID);
+        when(retryUtil.generateNextRetryTerm(eq(1), anyInt())).thenReturn(1);
+        when(localRetryScheduler.canRetryLocally(1)).thenReturn(true);
+        when(localRetryScheduler.delay(1)).thenReturn(CompletableFuture.completedFuture(null));
+        doThrow(new RuntimeException()).doNothing().when(testMessageProcessor).doTheProcessing(message);
+
+        messageHandler.onMessageAsync(message).join();
+
+        assertEquals(1, messageProperties.get(PROPERTY_RETRY));
+        verify(testMessageProcessor, times(2)).doTheProcessing(message);
+        verify(receiveClient, times(1)).completeAsync(UUID);
+        verify(receiveClient, never()).deadLetterAsync(UUID);
+        verifyNoInteractions(messagePublisher);
+    }
+
+    @Test
+    public void should_fallBackToBroker_whenLocalRetryIsCancelled() {
+        setupMessagesStubsForFailureCases();
+        when(message.getLockToken()).thenReturn(UUID);
+        when(retryUtil.generateNextRetryTerm(eq(1), anyInt())).thenReturn(1);
+        when(localRetryScheduler.canRetryLocally(1)).thenReturn(true);
+        when(localRetryScheduler.delay(1)).thenReturn(CompletableFuture.failedFuture(new CancellationException()));
+        doThrow(new RuntimeException()).when(testMessageProcessor).doTheProcessing(message);
+
+        messageHandler.onMessageAsync(message).join();
+
+        verify(testMessageProcessor, times(1)).doTheProcessing(message);
+        verify(messagePublisher, only()).sendMessageToTopicAsync(eq(message), any());
+        verify(receiveClient, only()).completeAsync(UUID);
+    }
+
     @Test
     public void shouldNot_captureMetrics_forNullRecordChangedMessage() throws Exception {
-        Method captureMetrics = AbstractMessageHandlerWithActiveRetry.class.getDeclaredMethod("captureMetrics", RecordChangedMessages.class, String.class, long.class, long.class, boolean.class);
+        Method captureMetrics = AbstractMessageHandlerWithActiveRetry.class.getDeclaredMethod("captureMetrics", RecordChangedMessages.class, int.class, String.class, long.class, long.class, boolean.class);
         captureMetrics.setAccessible(true);
 
-        captureMetrics.invoke(messageHandler, null, topic_name, INSTANT.toEpochMilli(), INSTANT.plusSeconds(1).toEpochMilli(), true);
+        captureMetrics.invoke(messageHandler, null, 1, topic_name, INSTANT.toEpochMilli(), INSTANT.plusSeconds(1).toEpochMilli(), true);
 
         verifyNoInteractions(metricService);
     }
 
     @Test
     public void should_handleException_duringCaptureMetrics() throws Exception {
-        Method captureMetrics = AbstractMessageHandlerWithActiveRetry.class.getDeclaredMethod("captureMetrics", RecordChangedMessages.class, String.class, long.class, long.class, boolean.class);
+        Method captureMetrics = AbstractMessageHandlerWithActiveRetry.class.getDeclaredMethod("captureMetrics", RecordChangedMessages.class, int.class, String.class, long.class, long.class, boolean.class);
         captureMetrics.setAccessible(true);
-        when(recordChangedMessages.getData()).thenReturn("[{\"recordId\": \"123\"}]");
         when(recordChangedMessages.getDataPartitionId()).thenReturn(data_partition_id);
-        when(recordChangedMessages.getCorrelationId()).thenReturn(correlation_id);
         doThrow(new RuntimeException("test exception"))
             .when(metricService)
-            .sendIndexLatencyMetric(anyDouble(), anyString(), anyString(), anyString(), anyBoolean());
+            .sendIndexLatencyMetric(anyDouble(), anyInt(), anyString(), anyString(), anyBoolean());
+
+        captureMetrics.invoke(messageHandler, recordChangedMessages, 1, topic_name, INSTANT.toEpochMilli(), INSTANT.plusSeconds(1).toEpochMilli(), true);
+
+        verify(metricService, times(1)).sendIndexLatencyMetric(anyDouble(), eq(1), eq(topic_name), eq(data_partition_id), eq(true));
+    }
+
+    @Test
+    public void should_captureOneMetric_perMessage_withRecordCount() throws Exception {
+        Method captureMetrics = AbstractMessageHandlerWithActiveRetry.class.getDeclaredMethod("captureMetrics", RecordChangedMessages.class, int.class, String.class, long.class, long.class, boolean.class);
+        captureMetrics.setAccessible(true);
+        when(recordChangedMessages.getDataPartitionId()).thenReturn(data_partition_id);
+
+        captureMetrics.invoke(messageHandler, recordChangedMessages, 3, topic_name, INSTANT.toEpochMilli(), INSTANT.plusSeconds(1).toEpochMilli(), false);
+
+        verify(metricService, only()).sendIndexLatencyMetric(eq(1000.0), eq(3), eq(topic_name), eq(data_partition_id), eq(false));
+    }
+
+    @Test
+    public void should_countRecords_onParsedMessageBody() throws Exception {
+        String body = "{\"message\":{\"data\":[{\"id\":\"1\"},{\"id\":\"2\"}],\"account-id\":\"opendes\","
+            + "\"data-partition-id\":\"opendes\",\"correlation-id\":\"id\"}}";
+        when(message.getLockToken()).thenReturn(UUID);
+        when(message.getMessageBody()).thenReturn(messageBody);
+        when(message.getProperties()).thenReturn(messageProperties);
+        when(messageBody.getBinaryData()).thenReturn(singletonList(body.getBytes(UTF_8)));
+        when(receiveClient.getTopicName()).thenReturn(topic_name);
+        when(recordChangedMessages.getDataPartitionId()).thenReturn(data_partition_id);
+        when(recordsChangedSbMessageBuilder.getServiceBusMessage(any(), any(), any())).thenReturn(recordChangedMessages);
 
-        captureMetrics.invoke(messageHandler, recordChangedMessages, topic_name, INSTANT.toEpochMilli(), INSTANT.plusSeconds(1).toEpochMilli(), true);
+        messageHandler.onMessageAsync(message).join();
 
-        verify(metricService, times(1)).sendIndexLatencyMetric(anyDouble(), eq(topic_name), eq(data_partition_id), eq(correlation_id), eq(true));
+        verify(metricService, only()).sendIndexLatencyMetric(anyDouble(), eq(2), eq(topic_name), eq(data_partition_id), eq(true));
+        verify(recordChangedMessages, never()).getData();
     }
 
     private void setupMessagesStubsForFailureCases() {
@@ -0,0 +1,150 @@
+// Copyright © Schlumberger
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.queue;
+
+import com.microsoft.azure.servicebus.IMessage;
+import com.microsoft.azure.servicebus.TopicClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.opengroup.osdu.azure.servicebus.ITopicClientFactory;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class BatchingTopicPublisherTest {
+
+    private static final String PARTITION_ID = "opendes";
+    private static final String TOPIC_NAME = "reindextopic";
+    private static final Instant SLOT = Instant.ofEpochSecond(Instant.now().getEpochSecond() + 10);
+
+    @Mock
+    private ITopicClientFactory topicClientFactory;
+    @Mock
+    private TopicClient topicClient;
+    @Mock
+    private IMessage first;
+    @Mock
+    private IMessage second;
+
+    private BatchingTopicPublisher sut;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        sut = new BatchingTopicPublisher(topicClientFactory, 2, 5000, 1000);
+        lenient().when(topicClientFactory.getClient(PARTITION_ID, TOPIC_NAME)).thenReturn(topicClient);
+        lenient().when(topicClient.sendBatchAsync(anyCollection())).thenReturn(CompletableFuture.completedFuture(null));
+        lenient().when(topicClient.scheduleMessageAsync(any(), any())).thenReturn(CompletableFuture.completedFuture(1L));
+        lenient().when(topicClient.closeAsync()).thenReturn(CompletableFuture.completedFuture(null));
+    }
+
+    @AfterEach
+    public void close() {
+        sut.destroy();
+    }
+
+    @Test
+    public void shouldSendMessagesOfSameSlotAsOneBatch() throws Exception {
+        CompletableFuture<Void> firstResult = sut.schedule(PARTITION_ID, TOPIC_NAME, first, SLOT.minusMillis(400));
+        CompletableFuture<Void> secondResult = sut.schedule(PARTITION_ID, TOPIC_NAME, second, SLOT);
+
+        firstResult.get(5, TimeUnit.SECONDS);
+        secondResult.get(5, TimeUnit.SECONDS);
+        verify(topicClient, times(1)).sendBatchAsync(List.of(first, second));
+        verify(first).setScheduledEnqueueTimeUtc(SLOT);
+        verify(second).setScheduledEnqueueTimeUtc(SLOT);
+        verify(topicClient, never()).scheduleMessageAsync(any(), any());
+    }
+
+    @Test
+    public void shouldScheduleSingleMessage_whenLingerElapses() throws Exception {
+        sut.destroy();
+        sut = new BatchingTopicPublisher(topicClientFactory, 2, 10, 1000);
+
+        sut.schedule(PARTITION_ID, TOPIC_NAME, first, SLOT).get(5, TimeUnit.SECONDS);
+
+        verify(topicClient, times(1)).scheduleMessageAsync(first, SLOT);
+        verify(topicClient, never()).sendBatchAsync(anyCollection());
+    }
+
+    @Test
+    public void shouldNotMixMessagesOfDifferentSlots() throws Exception {
+        sut.destroy();
+        sut = new BatchingTopicPublisher(topicClientFactory, 2, 10, 1000);
+
+        CompletableFuture<Void> firstResult = sut.schedule(PARTITION_ID, TOPIC_NAME, first, SLOT);
+        CompletableFuture<Void> secondResult = sut.schedule(PARTITION_ID, TOPIC_NAME, second, SLOT.plusSeconds(5));
+
+        firstResult.get(5, TimeUnit.SECONDS);
+        secondResult.get(5, TimeUnit.SECONDS);
+        verify(topicClient, times(1)).scheduleMessageAsync(first, SLOT);
+        verify(topicClient, times(1)).scheduleMessageAsync(second, SLOT.plusSeconds(5));
+    }
+
+    @Test
+    public void shouldScheduleOneByOne_whenBatchIsRejected() throws Exception {
+        when(topicClient.sendBatchAsync(anyCollection())).thenReturn(CompletableFuture.failedFuture(new IllegalArgumentException("batch too large")));
+
+        CompletableFuture<Void> firstResult = sut.schedule(PARTITION_ID, TOPIC_NAME, first, SLOT);
+        CompletableFuture<Void> secondResult = sut.schedule(PARTITION_ID, TOPIC_NAME, second, SLOT);
+
+        firstResult.get(5, TimeUnit.SECONDS);
+        secondResult.get(5, TimeUnit.SECONDS);
+        verify(topicClient, times(1)).scheduleMessageAsync(first, SLOT);
+        verify(topicClient, times(1)).scheduleMessageAsync(second, SLOT);
+    }
+
+    @Test
+    public void shouldCacheTopicClient_perPartitionAndTopic() throws Exception {
+        assertSame(topicClient, sut.getClient(PARTITION_ID, TOPIC_NAME));
+        assertSame(topicClient, sut.getClient(PARTITION_ID, TOPIC_NAME));
+        verify(topicClientFactory, times(1)).getClient(PARTITION_ID, TOPIC_NAME);
+
+        sut.evict(PARTITION_ID);
+        sut.getClient(PARTITION_ID, TOPIC_NAME);
+        verify(topicClientFactory, times(2)).getClient(PARTITION_ID, TOPIC_NAME);
+    }
+
+    @Test
+    public void shouldSendPendingBatch_andCloseClient_whenPartitionIsEvicted() throws Exception {
+        CompletableFuture<Void> sending = new CompletableFuture<>();
+        when(topicClient.scheduleMessageAsync(first, SLOT)).thenReturn(sending.thenApply(ignored -> 1L));
+
+        CompletableFuture<Void> result = sut.schedule(PARTITION_ID, TOPIC_NAME, first, SLOT);
+        sut.evict(PARTITION_ID);
+
+        verify(topicClient, times(1)).scheduleMessageAsync(first, SLOT);
+        verify(topicClient, never()).closeAsync();
+
+        sending.complete(null);
+        result.get(5, TimeUnit.SECONDS);
+        verify(topicClient, times(1)).closeAsync();
+    }
+}
@@ -1,53 +1,49 @@
 package org.opengroup.osdu.indexerqueue.azure.queue;
 
 import com.google.gson.Gson;
-import org.apache.http.HttpEntity;
-import org.apache.http.ProtocolVersion;
-import org.apache.http.StatusLine;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.message.BasicStatusLine;
-import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
-import org.mockito.MockedConstruction;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.opengroup.osdu.core.common.model.http.DpsHeaders;
 import org.opengroup.osdu.core.common.model.http.RequestStatus;
 import org.opengroup.osdu.core.common.model.indexer.SchemaChangedMessages;
 import org.opengroup.osdu.core.common.model.search.RecordChangedMessages;
 import org.opengroup.osdu.core.common.util.IServiceAccountJwtClient;
+import org.opengroup.osdu.indexerqueue.azure.util.IndexerErrorRateTracker;
 import org.opengroup.osdu.indexerqueue.azure.di.AzureBootstrapConfig;
 import org.opengroup.osdu.indexerqueue.azure.exceptions.IndexerNoRetryException;
 import org.opengroup.osdu.indexerqueue.azure.exceptions.IndexerRetryException;
+import org.springframework.test.util.ReflectionTestUtils;
 
-import java.util.Date;
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
-import static org.junit.Assert.fail;
 import static org.mockito.Mockito.any;
-import static org.mockito.Mockito.doNothing;
-import static org.mockito.Mockito.mockConstruction;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 public class IndexUpdateMessageHandlerTest {
-    private static final String indexerWorkerUrl = "indexer-worker-url";
-    private static final String schemaWorkerUrl = "schema-worker-url";
-    private static final int maxTry = 5;
-    private static MockedConstruction<HttpPost> httpMock;
+    private static final String asyncIndexerWorkerUrl = "http://indexer/index-worker";
+    private static final String asyncSchemaWorkerUrl = "http://indexer/schema-worker";
 
     @Mock
     private AzureBootstrapConfig azureBootstrapConfig;
@@ -58,13 +54,13 @@ public class IndexUpdateMessageHandlerTest {
     @Mock
     private SchemaChangedMessages schemaChangedMessages;
     @Mock
-    private CloseableHttpResponse httpResponse;
+    private IServiceAccountJwtClient serviceAccountJwtClient;
     @Mock
-    private CloseableHttpClient httpClient;
+    private IndexerErrorRateTracker indexerErrorRateTracker;
     @Mock
-    private HttpClientBuilder httpClientBuilder;
+    private HttpClient asyncHttpClient;
     @Mock
-    private IServiceAccountJwtClient serviceAccountJwtClient;
+    private HttpResponse<Void> asyncHttpResponse;
     @InjectMocks
     private IndexUpdateMessageHandler sut;
 
@@ -76,192 +72,167 @@ public class IndexUpdateMessageHandlerTest {
         headers.put(DpsHeaders.AUTHORIZATION, "Authorization");
         recordChangedMessages = RecordChangedMessages.builder()
                 .attributes(headers).build();
-
-        httpMock = mockConstruction(
-                HttpPost.class, (mock, context) -> {
-                    doNothing().when(mock).setEntity(any(HttpEntity.class));
-                    doNothing().when(mock).setHeader(any());
-                });
-    }
-
-    @AfterEach
-    public void close() {
-        httpMock.close();
     }
 
     @Test
-    public void shouldThrow_whenHttpClientThrowsException() throws Exception {
-        RuntimeException exp = new RuntimeException("httpClientBuilder build failed");
-        when(httpClientBuilder.build()).thenThrow(exp);
-        try {
-            sut.sendRecordChangedMessagesToIndexer(recordChangedMessages);
-        } catch (Exception e) {
-            assertEquals("httpClientBuilder build failed", e.getMessage());
-        }
-
-        try {
-            sut.sendSchemaChangedMessagesToIndexer(schemaChangedMessages);
-        } catch (Exception e) {
-            assertEquals("httpClientBuilder build failed", e.getMessage());
-        }
+    public void shouldUseHttp11_forIndexerCalls() {
+        HttpClient client = (HttpClient) ReflectionTestUtils.getField(new IndexUpdateMessageHandler(), "asyncHttpClient");
+
+        assertEquals(HttpClient.Version.HTTP_1_1, client.version());
     }
 
     @Test
-    public void shouldNot_BackoffExponentially_whenHttpClientThrows_andCurrentTryEqualToMaxTry() throws Exception {
-        RuntimeException exp = new RuntimeException("httpClientBuilder build failed");
-        when(httpClientBuilder.build()).thenThrow(exp);
-        java.sql.Timestamp before = null;
-        long backOffWaitTime = ((long) Math.pow(2, maxTry) * 10L);
-
-        try {
-            before = new java.sql.Timestamp(new Date().getTime());
-            sut.sendRecordChangedMessagesToIndexer(recordChangedMessages);
-        } catch (Exception e) {
-            java.sql.Timestamp after = new java.sql.Timestamp(new Date().getTime());
-            long actualWaitTime = after.getTime() - before.getTime();
-            assertTrue(actualWaitTime < backOffWaitTime);
-        }
-
-        try {
-            before = new java.sql.Timestamp(new Date().getTime());
-            sut.sendSchemaChangedMessagesToIndexer(schemaChangedMessages);
-        } catch (Exception e) {
-            java.sql.Timestamp after = new java.sql.Timestamp(new Date().getTime());
-            long actualWaitTime = after.getTime() - before.getTime();
-            assertTrue(actualWaitTime < backOffWaitTime);
-        }
+    public void shouldFailAsync_whenTokenCannotBeResolved() {
+        when(azureBootstrapConfig.getIndexerWorkerURL()).thenReturn(asyncIndexerWorkerUrl);
+        when(serviceAccountJwtClient.getIdToken(any())).thenThrow(new RuntimeException("token request failed"));
+
+        ExecutionException e = assertThrows(ExecutionException.class,
+            () -> sut.sendRecordChangedMessagesToIndexerAsync(recordChangedMessages).get());
+        assertEquals("token request failed", e.getCause().getMessage());
+        verifyNoInteractions(asyncHttpClient);
     }
 
     @Test
-    public void shouldInvoke_httpPostMethod_whenHttpResponseCodeIsSuccess() throws Exception {
-        when(httpClientBuilder.build()).thenReturn(httpClient);
-        when(azureBootstrapConfig.getIndexerWorkerURL()).thenReturn(indexerWorkerUrl);
-        when(azureBootstrapConfig.getSchemaWorkerURL()).thenReturn(schemaWorkerUrl);
-        when(httpClient.execute(any(HttpPost.class))).thenReturn(httpResponse);
-        StatusLine status = new BasicStatusLine(new ProtocolVersion("http", 1, 1), 200, "success");
-        when(httpResponse.getStatusLine()).thenReturn(status);
-
-        sut.sendRecordChangedMessagesToIndexer(recordChangedMessages);
-        sut.sendSchemaChangedMessagesToIndexer(schemaChangedMessages);
-
-        assertEquals(httpMock.constructed().size(), 2);
-        verify(httpClient, times(2)).execute(any());
+    public void shouldSendBothMessages_whenIndexerAccepts() {
+        when(azureBootstrapConfig.getIndexerWorkerURL()).thenReturn(asyncIndexerWorkerUrl);
+        when(azureBootstrapConfig.getSchemaWorkerURL()).thenReturn(asyncSchemaWorkerUrl);
+        when(schemaChangedMessages.getAttributes()).thenReturn(recordChangedMessages.getAttributes());
+        respondWith(200);
+
+        sut.sendRecordChangedMessagesToIndexerAsync(recordChangedMessages).join();
+        sut.sendSchemaChangedMessagesToIndexerAsync(schemaChangedMessages).join();
+
+        verify(asyncHttpClient, times(2)).sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class));
         verify(azureBootstrapConfig, times(1)).getIndexerWorkerURL();
-        verify(serviceAccountJwtClient, times(2)).getIdToken(any());
         verify(azureBootstrapConfig, times(1)).getSchemaWorkerURL();
         verify(serviceAccountJwtClient, times(2)).getIdToken(any());
+        verify(indexerErrorRateTracker, times(2)).record(false);
     }
 
     @Test
-    public void shouldThrow_whenHttpPostMethod_ReturnsErrorResponseCode() throws Exception {
-        when(httpClientBuilder.build()).thenReturn(httpClient);
-        when(azureBootstrapConfig.getIndexerWorkerURL()).thenReturn(indexerWorkerUrl);
-        when(azureBootstrapConfig.getSchemaWorkerURL()).thenReturn(schemaWorkerUrl);
-        when(httpClient.execute(any(HttpPost.class))).thenReturn(httpResponse);
-        StatusLine status = new BasicStatusLine(new ProtocolVersion("http", 1, 1), 400, "error");
-        when(httpResponse.getStatusLine()).thenReturn(status);
-
-        try {
-            sut.sendRecordChangedMessagesToIndexer(recordChangedMessages);
-        } catch (Exception e) {
-            assertEquals(httpMock.constructed().size(), 1);
-            verify(httpClient, times(1)).execute(any());
-            verify(azureBootstrapConfig, times(1)).getIndexerWorkerURL();
-            verify(serviceAccountJwtClient, times(1)).getIdToken(any());
-        }
-
-        try {
-            sut.sendSchemaChangedMessagesToIndexer(schemaChangedMessages);
-        } catch (IndexerRetryException e) {
-            assertEquals(httpMock.constructed().size(), 2);
-            verify(httpClient, times(2)).execute(any());
-            verify(azureBootstrapConfig, times(1)).getSchemaWorkerURL();
-        } catch (Exception e) {
-            fail("Should only throw IndexerRetryException");
-        }
+    public void shouldFailAsyncWithRetry_whenIndexerReturnsErrorResponseCode() {
+        when(azureBootstrapConfig.getIndexerWorkerURL()).thenReturn(asyncIndexerWorkerUrl);
+        when(azureBootstrapConfig.getSchemaWorkerURL()).thenReturn(asyncSchemaWorkerUrl);
+        when(schemaChangedMessages.getAttributes()).thenReturn(recordChangedMessages.getAttributes());
+        respondWith(400);
+
+        ExecutionException recordFailure = assertThrows(ExecutionException.class,
+            () -> sut.sendRecordChangedMessagesToIndexerAsync(recordChangedMessages).get());
+        assertTrue(recordFailure.getCause() instanceof IndexerRetryException);
+        ExecutionException schemaFailure = assertThrows(ExecutionException.class,
+            () -> sut.sendSchemaChangedMessagesToIndexerAsync(schemaChangedMessages).get());
+        assertTrue(schemaFailure.getCause() instanceof IndexerRetryException);
+        verify(indexerErrorRateTracker, times(2)).record(true);
     }
 
     @Test
-    public void shouldThrow_whenHttpPostMethod_ReturnsNoRetryResponseCode() throws Exception {
-        when(httpClientBuilder.build()).thenReturn(httpClient);
-        when(azureBootstrapConfig.getIndexerWorkerURL()).thenReturn(indexerWorkerUrl);
-        when(httpClient.execute(any(HttpPost.class))).thenReturn(httpResponse);
-        StatusLine status = new BasicStatusLine(new ProtocolVersion("http", 1, 1), RequestStatus.NO_RETRY, "error");
-        when(httpResponse.getStatusLine()).thenReturn(status);
-
-        assertThrows(IndexerNoRetryException.class, () -> sut.sendRecordChangedMessagesToIndexer(recordChangedMessages));
+    public void shouldFailAsyncWithNoRetry_whenSchemaWorkerReturns500() {
+        when(azureBootstrapConfig.getSchemaWorkerURL()).thenReturn(asyncSchemaWorkerUrl);
+        when(schemaChangedMessages.getAttributes()).thenReturn(recordChangedMessages.getAttributes());
+        respondWith(500);
+
+        ExecutionException e = assertThrows(ExecutionException.class,
+            () -> sut.sendSchemaChangedMessagesToIndexerAsync(schemaChangedMessages).get());
+        assertTrue(e.getCause() instanceof IndexerNoRetryException);
         verify(serviceAccountJwtClient, times(1)).getIdToken(any());
     }
 
     @Test
-    public void shouldThrowIndexerNoRetryException_whenSchemaWorker_Returns500() throws Exception {
-        when(httpClientBuilder.build()).thenReturn(httpClient);
-        when(azureBootstrapConfig.getSchemaWorkerURL()).thenReturn(schemaWorkerUrl);
-        when(httpClient.execute(any(HttpPost.class))).thenReturn(httpResponse);
-        StatusLine status = new BasicStatusLine(new ProtocolVersion("http", 1, 1), 500, "error");
-        when(httpResponse.getStatusLine()).thenReturn(status);
-        try {
-            sut.sendSchemaChangedMessagesToIndexer(schemaChangedMessages);
-        } catch (IndexerNoRetryException e) {
-            assertEquals(httpMock.constructed().size(), 1);
-            verify(httpClient, times(1)).execute(any());
-            verify(azureBootstrapConfig, times(1)).getSchemaWorkerURL();
-            verify(serviceAccountJwtClient, times(1)).getIdToken(any());
-        } catch (Exception e) {
-            fail("Should only throw IndexerNoRetryException");
-        }
-    }
-
-    @Test
-    public void shouldAddCollaborationHeader_WhenPresent() throws Exception {
-        // Arrange
+    public void shouldAddCollaborationHeader_WhenPresent() {
         Map<String, String> headers = new HashMap<>();
         headers.put(DpsHeaders.DATA_PARTITION_ID, "test-tenant");
         headers.put(DpsHeaders.CORRELATION_ID, "xxxxxx");
         headers.put(DpsHeaders.COLLABORATION, "collaboration_value");
         recordChangedMessages = RecordChangedMessages.builder()
             .attributes(headers).build();
+        when(azureBootstrapConfig.getIndexerWorkerURL()).thenReturn(asyncIndexerWorkerUrl);
+        respondWith(200);
 
-        when(httpClientBuilder.build()).thenReturn(httpClient);
-        when(azureBootstrapConfig.getIndexerWorkerURL()).thenReturn(indexerWorkerUrl);
-        when(httpClient.execute(any(HttpPost.class))).thenReturn(httpResponse);
-        StatusLine status = new BasicStatusLine(new ProtocolVersion("http", 1, 1), 200, "success");
-        when(httpResponse.getStatusLine()).thenReturn(status);
+        sut.sendRecordChangedMessagesToIndexerAsync(recordChangedMessages).join();
 
-        ArgumentCaptor<HttpPost> captor = ArgumentCaptor.forClass(HttpPost.class);
+        assertEquals("collaboration_value", sentRequest().headers().firstValue(DpsHeaders.COLLABORATION).orElse(null));
+    }
 
-        // Act
-        sut.sendRecordChangedMessagesToIndexer(recordChangedMessages);
+    @Test
+    public void shouldNotAddCollaborationHeader_WhenMissing() {
+        when(azureBootstrapConfig.getIndexerWorkerURL()).thenReturn(asyncIndexerWorkerUrl);
+        respondWith(200);
 
-        // Assert
-        verify(httpClient, times(1)).execute(captor.capture());
-        HttpPost capturedPost = captor.getValue();
+        sut.sendRecordChangedMessagesToIndexerAsync(recordChangedMessages).join();
 
-        // Verify that setHeader was called with the correct arguments
-        verify(capturedPost).setHeader(DpsHeaders.COLLABORATION, "collaboration_value");
+        assertFalse(sentRequest().headers().firstValue(DpsHeaders.COLLABORATION).isPresent());
     }
 
     @Test
-    public void shouldNotAddCollaborationHeader_WhenMissing() throws Exception {
-        Map<String, String> headers = new HashMap<>();
-        headers.put(DpsHeaders.DATA_PARTITION_ID, "test-tenant");
-        headers.put(DpsHeaders.CORRELATION_ID, "xxxxxx");
-        recordChangedMessages = RecordChangedMessages.builder()
-            .attributes(headers).build();
+    public void shouldCompleteAsync_whenIndexerAcceptsRecordChangedMessage() {
+        when(azureBootstrapConfig.getIndexerWorkerURL()).thenReturn(asyncIndexerWorkerUrl);
+        when(azureBootstrapConfig.getIndexerRequestTimeoutInSeconds()).thenReturn(60);
+        when(asyncHttpResponse.statusCode()).thenReturn(200);
+        when(asyncHttpClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+            .thenReturn(CompletableFuture.completedFuture(asyncHttpResponse));
+
+        sut.sendRecordChangedMessagesToIndexerAsync(recordChangedMessages).join();
+
+        ArgumentCaptor<HttpRequest> captor = ArgumentCaptor.forClass(HttpRequest.class);
+        verify(asyncHttpClient, times(1)).sendAsync(captor.capture(), any(HttpResponse.BodyHandler.class));
+        assertEquals("test-tenant", captor.getValue().headers().firstValue(DpsHeaders.DATA_PARTITION_ID).orElse(null));
+        assertEquals(Duration.ofSeconds(60), captor.getValue().timeout().orElse(null));
+        verify(serviceAccountJwtClient, times(1)).getIdToken(any());
+    }
 
-        when(httpClientBuilder.build()).thenReturn(httpClient);
-        when(azureBootstrapConfig.getIndexerWorkerURL()).thenReturn(indexerWorkerUrl);
-        when(httpClient.execute(any(HttpPost.class))).thenReturn(httpResponse);
-        StatusLine status = new BasicStatusLine(new ProtocolVersion("http", 1, 1), 200, "success");
-        when(httpResponse.getStatusLine()).thenReturn(status);
+    @Test
+    public void shouldResolveToken_whenCallIsPrepared_andSendOnlyWhenItRuns() {
+        when(azureBootstrapConfig.getIndexerWorkerURL()).thenReturn(asyncIndexerWorkerUrl);
+        when(serviceAccountJwtClient.getIdToken("test-tenant")).thenReturn("Bearer token");
+        when(asyncHttpResponse.statusCode()).thenReturn(200);
+        when(asyncHttpClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+            .thenReturn(CompletableFuture.completedFuture(asyncHttpResponse));
 
-        sut.sendRecordChangedMessagesToIndexer(recordChangedMessages);
+        Supplier<CompletableFuture<Void>> call = sut.prepareRecordChangedMessagesToIndexer(recordChangedMessages);
 
-        assertEquals(httpMock.constructed().size(), 1);
-        HttpPost constructedPost = httpMock.constructed().get(0);
-        verify(httpClient, times(1)).execute(any());
-        verify(azureBootstrapConfig, times(1)).getIndexerWorkerURL();
-        verify(serviceAccountJwtClient, times(1)).getIdToken(any());
-        assertTrue(constructedPost.getFirstHeader(DpsHeaders.COLLABORATION) == null);
+        verify(serviceAccountJwtClient, times(1)).getIdToken("test-tenant");
+        verifyNoInteractions(asyncHttpClient);
+
+        call.get().join();
+
+        ArgumentCaptor<HttpRequest> captor = ArgumentCaptor.forClass(HttpRequest.class);
+        verify(asyncHttpClient, times(1)).sendAsync(captor.capture(), any(HttpResponse.BodyHandler.class));
+        assertEquals("Bearer token", captor.getValue().headers().firstValue(DpsHeaders.AUTHORIZATION).orElse(null));
+    }
+
+    @Test
+    public void shouldFailAsyncWithNoRetry_whenIndexerReturnsNoRetryResponseCode() {
+        when(azureBootstrapConfig.getIndexerWorkerURL()).thenReturn(asyncIndexerWorkerUrl);
+        when(asyncHttpResponse.statusCode()).thenReturn(RequestStatus.NO_RETRY);
+        when(asyncHttpClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+            .thenReturn(CompletableFuture.completedFuture(asyncHttpResponse));
+
+        ExecutionException e = assertThrows(ExecutionException.class,
+            () -> sut.sendRecordChangedMessagesToIndexerAsync(recordChangedMessages).get());
+        assertTrue(e.getCause() instanceof IndexerNoRetryException);
+    }
+
+    @Test
+    public void shouldFailAsyncWithRetry_whenIndexerCallFails() {
+        when(azureBootstrapConfig.getSchemaWorkerURL()).thenReturn(asyncSchemaWorkerUrl);
+        when(schemaChangedMessages.getAttributes()).thenReturn(recordChangedMessages.getAttributes());
+        when(asyncHttpClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+            .thenReturn(CompletableFuture.failedFuture(new IOException("connection reset")));
+
+        ExecutionException e = assertThrows(ExecutionException.class,
+            () -> sut.sendSchemaChangedMessagesToIndexerAsync(schemaChangedMessages).get());
+        assertTrue(e.getCause() instanceof IndexerRetryException);
+    }
+
+    private void respondWith(int statusCode) {
+        when(asyncHttpResponse.statusCode()).thenReturn(statusCode);
+        when(asyncHttpClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+            .thenReturn(CompletableFuture.completedFuture(asyncHttpResponse));
+    }
+
+    private HttpRequest sentRequest() {
+        ArgumentCaptor<HttpRequest> captor = ArgumentCaptor.forClass(HttpRequest.class);
+        verify(asyncHttpClient, times(1)).sendAsync(captor.capture(), any(HttpResponse.BodyHandler.class));
+        return captor.getValue();
     }
 }
@@ -10,13 +10,20 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.opengroup.osdu.core.common.model.search.RecordChangedMessages;
+import org.opengroup.osdu.indexerqueue.azure.config.ThreadDpsHeaders;
+import org.opengroup.osdu.indexerqueue.azure.scope.message.MessageContext;
+import org.opengroup.osdu.indexerqueue.azure.scope.message.MessageContextHolder;
+import org.opengroup.osdu.indexerqueue.azure.util.MessageAttributesExtractor;
+import org.opengroup.osdu.indexerqueue.azure.util.RecordChangedAttributes;
 import org.opengroup.osdu.indexerqueue.azure.util.RecordsChangedSbMessageBuilder;
 
 import java.io.IOException;
 import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
 
 import static org.apache.commons.lang3.StringUtils.EMPTY;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
@@ -32,6 +39,10 @@ public class RecordChangedMessageHandlerTest {
     @Mock
     private RecordsChangedSbMessageBuilder recordsChangedSbMessageBuilder;
     @Mock
+    private ThreadDpsHeaders dpsHeaders;
+    @Mock
+    private MessageAttributesExtractor messageAttributesExtractor;
+    @Mock
     private Message message;
 
     private RecordChangedMessages recordChangedMessages = new RecordChangedMessages();
@@ -44,25 +55,30 @@ public class RecordChangedMessageHandlerTest {
         when(message.getEnqueuedTimeUtc()).thenReturn(Instant.now());
         when(message.getMessageId()).thenReturn(EMPTY);
         when(message.getMessageBody()).thenReturn(messageBody);
+        when(messageAttributesExtractor.extracRecordChangedtAttributesFromMessageBody(any())).thenReturn(new RecordChangedAttributes());
     }
 
     @Test
     public void should_Invoke_SendMessagesToIndexer() throws Exception {
+        when(indexUpdateMessageHandler.sendRecordChangedMessagesToIndexerAsync(recordChangedMessages)).thenReturn(CompletableFuture.completedFuture(null));
+
         // Execute
         sut.processMessage(message);
 
         // Verify
-        verify(indexUpdateMessageHandler, times(1)).sendRecordChangedMessagesToIndexer(recordChangedMessages);
-        verify(message, times(1)).getMessageId();
+        verify(indexUpdateMessageHandler, times(1)).sendRecordChangedMessagesToIndexerAsync(recordChangedMessages);
+        verify(message, times(2)).getMessageId();
         verify(message, times(1)).getMessageBody();
         verify(message, times(1)).getEnqueuedTimeUtc();
+        verify(dpsHeaders, times(1)).setThreadContext(any(MessageContext.class));
+        assertNull(MessageContextHolder.current());
     }
 
     @Test
     public void shouldThrow_whenSendMessagesToIndexerThrows() throws Exception{
         //Setup
         RuntimeException exp = new RuntimeException("httpClientBuilder build failed");
-        doThrow(exp).when(indexUpdateMessageHandler).sendRecordChangedMessagesToIndexer(recordChangedMessages);
+        when(indexUpdateMessageHandler.sendRecordChangedMessagesToIndexerAsync(recordChangedMessages)).thenReturn(CompletableFuture.failedFuture(exp));
 
         // Execute
         try {
@@ -0,0 +1,154 @@
+// Copyright © Schlumberger
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.queue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.opengroup.osdu.core.common.model.http.DpsHeaders;
+import org.opengroup.osdu.core.common.model.indexer.SchemaChangedMessages;
+import org.opengroup.osdu.indexerqueue.azure.exceptions.IndexerRetryException;
+import org.opengroup.osdu.indexerqueue.azure.scope.message.MessageContext;
+import org.opengroup.osdu.indexerqueue.azure.scope.message.MessageContextHolder;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class SchemaChangeCoalescerTest {
+
+    private static final String KIND_A = "osdu:wks:master-data--Well:1.0.0";
+    private static final String KIND_B = "osdu:wks:master-data--Wellbore:1.0.0";
+
+    @Mock
+    private IIndexUpdateMessageHandler indexer;
+
+    private SchemaChangeCoalescer sut;
+
+    @AfterEach
+    public void close() {
+        sut.destroy();
+    }
+
+    @Test
+    public void shouldSendLatestChangeOnce_perPartitionAndKind() throws Exception {
+        sut = new SchemaChangeCoalescer(200);
+        when(indexer.sendSchemaChangedMessagesToIndexerAsync(any())).thenReturn(CompletableFuture.completedFuture(null));
+
+        CompletableFuture<Void> first = sut.submit(schemaChange("opendes", "1", KIND_A, "create"), indexer);
+        CompletableFuture<Void> second = sut.submit(schemaChange("opendes", "2", KIND_A, "update"), indexer);
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+
+        ArgumentCaptor<SchemaChangedMessages> sent = ArgumentCaptor.forClass(SchemaChangedMessages.class);
+        verify(indexer, times(1)).sendSchemaChangedMessagesToIndexerAsync(sent.capture());
+        assertEquals("[{\"kind\":\"" + KIND_A + "\",\"op\":\"update\"}]", sent.getValue().getData());
+        assertEquals("2", sent.getValue().getMessageId());
+    }
+
+    @Test
+    public void shouldSendOneRequestPerKind_andCompleteMessageOnceAllAreAccepted() throws Exception {
+        sut = new SchemaChangeCoalescer(50);
+        when(indexer.sendSchemaChangedMessagesToIndexerAsync(any())).thenReturn(CompletableFuture.completedFuture(null));
+        SchemaChangedMessages message = schemaChange("opendes", "1",
+            "[{\"kind\":\"" + KIND_A + "\",\"op\":\"create\"},{\"kind\":\"" + KIND_B + "\",\"op\":\"create\"}]");
+
+        sut.submit(message, indexer).get(5, TimeUnit.SECONDS);
+        sut.submit(schemaChange("tenant1", "2", KIND_A, "create"), indexer).get(5, TimeUnit.SECONDS);
+
+        verify(indexer, times(3)).sendSchemaChangedMessagesToIndexerAsync(any());
+    }
+
+    @Test
+    public void shouldSendChange_inContextOfLatestMessage() throws Exception {
+        sut = new SchemaChangeCoalescer(50);
+        AtomicReference<MessageContext> sentIn = new AtomicReference<>();
+        when(indexer.sendSchemaChangedMessagesToIndexerAsync(any())).thenAnswer(invocation -> {
+            sentIn.set(MessageContextHolder.current());
+            return CompletableFuture.completedFuture(null);
+        });
+        MessageContext context = MessageContext.of("opendes", "correlation-1");
+
+        CompletableFuture<Void> result;
+        try (MessageContextHolder.Scope ignored = MessageContextHolder.open(context)) {
+            result = sut.submit(schemaChange("opendes", "1", KIND_A, "create"), indexer);
+        }
+        result.get(5, TimeUnit.SECONDS);
+
+        assertSame(context, sentIn.get());
+    }
+
+    @Test
+    public void shouldFailEveryContributor_whenIndexerRejectsChange() {
+        sut = new SchemaChangeCoalescer(200);
+        when(indexer.sendSchemaChangedMessagesToIndexerAsync(any()))
+            .thenReturn(CompletableFuture.failedFuture(new IndexerRetryException("indexer unavailable")));
+
+        CompletableFuture<Void> first = sut.submit(schemaChange("opendes", "1", KIND_A, "create"), indexer);
+        CompletableFuture<Void> second = sut.submit(schemaChange("opendes", "2", KIND_A, "update"), indexer);
+
+        ExecutionException firstFailure = assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+        ExecutionException secondFailure = assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS));
+        assertTrue(firstFailure.getCause() instanceof IndexerRetryException);
+        assertTrue(secondFailure.getCause() instanceof IndexerRetryException);
+    }
+
+    @Test
+    public void shouldSendMessageAsIs_whenItCannotBeCoalesced() {
+        sut = new SchemaChangeCoalescer(200);
+        SchemaChangedMessages message = schemaChange("opendes", "1", "[{\"op\":\"create\"}]");
+        CompletableFuture<Void> accepted = CompletableFuture.completedFuture(null);
+        when(indexer.sendSchemaChangedMessagesToIndexerAsync(message)).thenReturn(accepted);
+
+        assertSame(accepted, sut.submit(message, indexer));
+    }
+
+    @Test
+    public void shouldSendMessageAsIs_whenWindowIsDisabled() {
+        sut = new SchemaChangeCoalescer(0);
+        SchemaChangedMessages message = schemaChange("opendes", "1", KIND_A, "create");
+        CompletableFuture<Void> accepted = CompletableFuture.completedFuture(null);
+        when(indexer.sendSchemaChangedMessagesToIndexerAsync(message)).thenReturn(accepted);
+
+        assertSame(accepted, sut.submit(message, indexer));
+    }
+
+    private static SchemaChangedMessages schemaChange(String partitionId, String messageId, String kind, String op) {
+        return schemaChange(partitionId, messageId, "[{\"kind\":\"" + kind + "\",\"op\":\"" + op + "\"}]");
+    }
+
+    private static SchemaChangedMessages schemaChange(String partitionId, String messageId, String data) {
+        SchemaChangedMessages schemaChangedMessages = new SchemaChangedMessages();
+        schemaChangedMessages.setData(data);
+        schemaChangedMessages.setMessageId(messageId);
+        schemaChangedMessages.setAttributes(Map.of(DpsHeaders.DATA_PARTITION_ID, partitionId, DpsHeaders.CORRELATION_ID, "correlation-" + messageId));
+        return schemaChangedMessages;
+    }
+}
@@ -14,8 +14,10 @@
 
 package org.opengroup.osdu.indexerqueue.azure.queue;
 
+import com.google.gson.JsonElement;
 import com.microsoft.azure.servicebus.Message;
 import com.microsoft.azure.servicebus.MessageBody;
+import com.microsoft.azure.servicebus.SubscriptionClient;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -24,18 +26,26 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.opengroup.osdu.core.common.model.indexer.SchemaChangedMessages;
 import org.opengroup.osdu.indexerqueue.azure.config.ThreadDpsHeaders;
-import org.opengroup.osdu.indexerqueue.azure.util.MdcContextMap;
+import org.opengroup.osdu.indexerqueue.azure.exceptions.IndexerRetryException;
+import org.opengroup.osdu.indexerqueue.azure.metrics.MessageStageTimers;
+import org.opengroup.osdu.indexerqueue.azure.metrics.MessageStageTimers.Stage;
 import org.opengroup.osdu.indexerqueue.azure.util.MessageAttributesExtractor;
 import org.opengroup.osdu.indexerqueue.azure.util.SchemaChangedAttributes;
 import org.opengroup.osdu.indexerqueue.azure.util.SchemaChangedSbMessageBuilder;
 
 import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static org.apache.commons.lang3.StringUtils.EMPTY;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
-import static org.mockito.Mockito.doThrow;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -54,11 +64,13 @@ public class SchemaChangedMessageHandlerTest {
     @Mock
     private ThreadDpsHeaders dpsHeaders;
     @Mock
-    private MdcContextMap mdcContextMap;
-    @Mock
     private MessageAttributesExtractor messageAttributesExtractor;
     @Mock
+    private SubscriptionClient receiveClient;
+    @Mock
     private Message message;
+    @Mock
+    private MessageStageTimers stageTimers;
 
     private SchemaChangedMessages schemaChangedMessages = new SchemaChangedMessages();
     private MessageBody messageBody = new Message().getMessageBody();
@@ -66,7 +78,9 @@ public class SchemaChangedMessageHandlerTest {
     @BeforeEach
     public void init() {
         schemaChangedMessages.setData(SCHEMA_INFO_PAYLOAD);
-        when(schemaChangedSbMessageBuilder.buildSchemaChangedServiceBusMessage(anyString())).thenReturn(schemaChangedMessages);
+        // the sync path builds from the body, the async path from the tree parsed before validation
+        lenient().when(schemaChangedSbMessageBuilder.buildSchemaChangedServiceBusMessage(anyString())).thenReturn(schemaChangedMessages);
+        lenient().when(schemaChangedSbMessageBuilder.buildSchemaChangedServiceBusMessage(any(JsonElement.class), anyString())).thenReturn(schemaChangedMessages);
         when(messageAttributesExtractor.extractSchemaChangedAttributesFromMessageBody(any())).thenReturn(new SchemaChangedAttributes());
         when(message.getEnqueuedTimeUtc()).thenReturn(Instant.now());
         when(message.getMessageId()).thenReturn(EMPTY);
@@ -75,11 +89,13 @@ public class SchemaChangedMessageHandlerTest {
 
     @Test
     public void should_Invoke_SendMessagesToIndexer() {
+        when(indexUpdateMessageHandler.sendSchemaChangedMessagesToIndexerAsync(schemaChangedMessages)).thenReturn(CompletableFuture.completedFuture(null));
+
         // Execute
         sut.processMessage(message);
 
         // Verify
-        verify(indexUpdateMessageHandler, times(1)).sendSchemaChangedMessagesToIndexer(schemaChangedMessages);
+        verify(indexUpdateMessageHandler, times(1)).sendSchemaChangedMessagesToIndexerAsync(schemaChangedMessages);
         verify(message, times(1)).getMessageId();
         verify(message, times(1)).getMessageBody();
         verify(message, times(1)).getEnqueuedTimeUtc();
@@ -89,7 +105,7 @@ public class SchemaChangedMessageHandlerTest {
     public void shouldThrow_whenSendMessagesToIndexerThrows() {
         //Setup
         RuntimeException exp = new RuntimeException("httpClientBuilder build failed");
-        doThrow(exp).when(indexUpdateMessageHandler).sendSchemaChangedMessagesToIndexer(schemaChangedMessages);
+        when(indexUpdateMessageHandler.sendSchemaChangedMessagesToIndexerAsync(schemaChangedMessages)).thenReturn(CompletableFuture.failedFuture(exp));
 
         // Execute
         try {
@@ -100,4 +116,48 @@ public class SchemaChangedMessageHandlerTest {
             assertEquals("httpClientBuilder build failed", e.getMessage());
         }
     }
+
+    @Test
+    public void should_completeMessage_whenAsyncSendSucceeds() {
+        UUID lockToken = UUID.randomUUID();
+        when(message.getLockToken()).thenReturn(lockToken);
+        when(indexUpdateMessageHandler.sendSchemaChangedMessagesToIndexerAsync(schemaChangedMessages))
+            .thenReturn(CompletableFuture.completedFuture(null));
+        when(receiveClient.completeAsync(lockToken)).thenReturn(CompletableFuture.completedFuture(null));
+
+        sut.onMessageAsync(message).join();
+
+        verify(receiveClient, times(1)).completeAsync(lockToken);
+        verify(receiveClient, never()).abandonAsync(lockToken);
+    }
+
+    @Test
+    public void should_abandonMessage_whenAsyncSendFails() {
+        UUID lockToken = UUID.randomUUID();
+        when(message.getLockToken()).thenReturn(lockToken);
+        when(indexUpdateMessageHandler.sendSchemaChangedMessagesToIndexerAsync(schemaChangedMessages))
+            .thenReturn(CompletableFuture.failedFuture(new IndexerRetryException("indexer unavailable")));
+        when(receiveClient.abandonAsync(lockToken)).thenReturn(CompletableFuture.completedFuture(null));
+
+        sut.onMessageAsync(message).join();
+
+        verify(receiveClient, times(1)).abandonAsync(lockToken);
+        verify(receiveClient, never()).completeAsync(lockToken);
+    }
+
+    @Test
+    public void should_recordEveryStage_whenAsyncSendSucceeds() {
+        UUID lockToken = UUID.randomUUID();
+        when(message.getLockToken()).thenReturn(lockToken);
+        when(receiveClient.getTopicName()).thenReturn("schemachangedtopic");
+        when(indexUpdateMessageHandler.sendSchemaChangedMessagesToIndexerAsync(schemaChangedMessages))
+            .thenReturn(CompletableFuture.completedFuture(null));
+        when(receiveClient.completeAsync(lockToken)).thenReturn(CompletableFuture.completedFuture(null));
+
+        sut.onMessageAsync(message).join();
+
+        for (Stage stage : Stage.values()) {
+            verify(stageTimers, times(1)).record(eq(stage), eq("schemachangedtopic"), anyLong(), any(TimeUnit.class));
+        }
+    }
 }
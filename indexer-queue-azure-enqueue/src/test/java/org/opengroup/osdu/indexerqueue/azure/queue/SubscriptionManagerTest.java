@@ -8,15 +8,23 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.opengroup.osdu.core.common.model.http.AppException;
 import org.opengroup.osdu.core.common.model.tenant.TenantInfo;
 import org.opengroup.osdu.core.common.provider.interfaces.ITenantFactory;
+import org.opengroup.osdu.indexerqueue.azure.concurrency.AdaptiveConcurrencyLimiter;
+import org.opengroup.osdu.indexerqueue.azure.concurrency.ConcurrencyLimiterFactory;
+import org.opengroup.osdu.indexerqueue.azure.concurrency.PartitionExecutorRegistry;
 import org.opengroup.osdu.indexerqueue.azure.di.AzureBootstrapConfig;
+import org.opengroup.osdu.indexerqueue.azure.util.RetryStrategies;
 
 import java.util.Collections;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
@@ -46,9 +54,18 @@ public class SubscriptionManagerTest {
     private SubscriptionClient subscriptionClient;
     @Mock
     private ExecutorService executorService;
-
     @Mock
-    private Set<String> partitions;
+    private ConcurrencyLimiterFactory concurrencyLimiterFactory;
+    @Mock
+    private PartitionExecutorRegistry partitionExecutorRegistry;
+    @Mock
+    private AdaptiveConcurrencyLimiter limiter;
+    @Mock
+    private BatchingTopicPublisher batchingTopicPublisher;
+    @Mock
+    private RetryStrategies retryStrategies;
+    @Mock
+    private SchemaChangeCoalescer schemaChangeCoalescer;
 
     private static final String dataPartition = "testTenant";
 
@@ -61,6 +78,8 @@ public class SubscriptionManagerTest {
         lenient().when(azureBootstrapConfig.getNThreads()).thenReturn(nThreads);
         lenient().when(azureBootstrapConfig.getMaxLockRenewDurationInSeconds()).thenReturn(maxLockRenewDuration);
         lenient().when(tenantFactory.listTenantInfo()).thenReturn(Collections.singletonList(tenantInfo));
+        lenient().when(partitionExecutorRegistry.getExecutor(dataPartition)).thenReturn(executorService);
+        lenient().when(concurrencyLimiterFactory.create(any(), anyInt())).thenReturn(limiter);
     }
 
     @Test
@@ -70,22 +89,85 @@ public class SubscriptionManagerTest {
         when(clientFactory.getSubscriptionClient(eq(dataPartition), any(), any())).thenReturn(subscriptionClient);
         when(azureBootstrapConfig.getMaxDeliveryCount()).thenReturn(maxDeliveryCount);
 
-        sut.fetchPartitionsAndSubscribe(executorService, partitions);
+        sut.fetchPartitionsAndSubscribe();
 
         verify(azureBootstrapConfig, times(3)).getMaxConcurrentCalls();
         verify(azureBootstrapConfig, times(3)).getMaxLockRenewDurationInSeconds();
+        verify(subscriptionClient, times(3)).registerMessageHandler(any(), any(), eq(executorService));
+        verify(concurrencyLimiterFactory, times(3)).create(any(), eq(Integer.parseInt(maxConcurrentCalls)));
     }
 
     @Test
-    public void shouldCatchExceptionIfErrorWhileRegisteringMessageHandler() throws ServiceBusException, InterruptedException {
+    public void shouldNotKeepPartition_whenRegisteringMessageHandlerFails() throws ServiceBusException, InterruptedException {
+
+        doThrow(new ServiceBusException(false)).when(subscriptionClient).registerMessageHandler(any(), any(), any());
+        when(clientFactory.getSubscriptionClient(eq(dataPartition), any(), any())).thenReturn(subscriptionClient);
+        when(azureBootstrapConfig.getMaxDeliveryCount()).thenReturn(maxDeliveryCount);
+        when(subscriptionClient.closeAsync()).thenReturn(CompletableFuture.completedFuture(null));
+
+        sut.fetchPartitionsAndSubscribe();
+
+        assertTrue(sut.getSubscribedPartitions().isEmpty());
+        verify(subscriptionClient, times(1)).registerMessageHandler(any(), any(), any());
+        verify(subscriptionClient, times(1)).closeAsync();
+        verify(limiter, times(1)).close();
+        verify(partitionExecutorRegistry, times(1)).shutdown(dataPartition);
+    }
+
+    @Test
+    public void shouldNotKeepPartition_whenRegisteringMessageHandlerIsInterrupted() throws ServiceBusException, InterruptedException {
 
         doThrow(new InterruptedException(errorMessage)).when(subscriptionClient).registerMessageHandler(any(), any(), any());
         when(clientFactory.getSubscriptionClient(eq(dataPartition), any(), any())).thenReturn(subscriptionClient);
         when(azureBootstrapConfig.getMaxDeliveryCount()).thenReturn(maxDeliveryCount);
+        when(subscriptionClient.closeAsync()).thenReturn(CompletableFuture.completedFuture(null));
 
-        sut.fetchPartitionsAndSubscribe(executorService, partitions);
+        sut.fetchPartitionsAndSubscribe();
 
-        verify(azureBootstrapConfig, times(3)).getMaxConcurrentCalls();
-        verify(azureBootstrapConfig, times(3)).getMaxLockRenewDurationInSeconds();
+        assertTrue(sut.getSubscribedPartitions().isEmpty());
+        verify(subscriptionClient, times(1)).closeAsync();
+    }
+
+    @Test
+    public void shouldUnsubscribeAndCloseClients_whenPartitionIsRemoved() {
+        when(clientFactory.getSubscriptionClient(eq(dataPartition), any(), any())).thenReturn(subscriptionClient);
+        when(azureBootstrapConfig.getMaxDeliveryCount()).thenReturn(maxDeliveryCount);
+        when(subscriptionClient.closeAsync()).thenReturn(CompletableFuture.completedFuture(null));
+        sut.fetchPartitionsAndSubscribe();
+        assertEquals(Collections.singleton(dataPartition), sut.getSubscribedPartitions());
+
+        when(tenantFactory.listTenantInfo()).thenReturn(Collections.emptyList());
+        sut.fetchPartitionsAndSubscribe();
+
+        assertTrue(sut.getSubscribedPartitions().isEmpty());
+        verify(subscriptionClient, times(3)).closeAsync();
+        verify(limiter, times(3)).close();
+        verify(partitionExecutorRegistry, times(1)).shutdown(dataPartition);
+        verify(batchingTopicPublisher, times(1)).evict(dataPartition);
+    }
+
+    @Test
+    public void shouldNotSubscribeSamePartitionTwice() {
+        when(clientFactory.getSubscriptionClient(eq(dataPartition), any(), any())).thenReturn(subscriptionClient);
+        when(azureBootstrapConfig.getMaxDeliveryCount()).thenReturn(maxDeliveryCount);
+
+        sut.fetchPartitionsAndSubscribe();
+        sut.fetchPartitionsAndSubscribe();
+
+        verify(clientFactory, times(3)).getSubscriptionClient(eq(dataPartition), any(), any());
+    }
+
+    @Test
+    public void shouldRetryPartition_whenClientCreationFails() {
+        when(clientFactory.getSubscriptionClient(eq(dataPartition), any(), any()))
+            .thenThrow(new AppException(500, "Server Error", errorMessage))
+            .thenReturn(subscriptionClient);
+        when(azureBootstrapConfig.getMaxDeliveryCount()).thenReturn(maxDeliveryCount);
+
+        sut.fetchPartitionsAndSubscribe();
+        assertTrue(sut.getSubscribedPartitions().isEmpty());
+
+        sut.fetchPartitionsAndSubscribe();
+        assertEquals(Collections.singleton(dataPartition), sut.getSubscribedPartitions());
     }
 }
@@ -17,6 +17,7 @@ package org.opengroup.osdu.indexerqueue.azure.queue;
 import com.microsoft.azure.servicebus.IMessage;
 import com.microsoft.azure.servicebus.TopicClient;
 import com.microsoft.azure.servicebus.primitives.ServiceBusException;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -24,11 +25,15 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.opengroup.osdu.azure.servicebus.ITopicClientFactory;
 import org.opengroup.osdu.core.common.model.http.AppException;
-import org.springframework.retry.support.RetryTemplate;
+import org.opengroup.osdu.indexerqueue.azure.retry.PublishRetryExecutor;
 
 import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -39,24 +44,34 @@ public class TopicMessagePublisherTest {
     @Mock
     private ITopicClientFactory topicClientFactory;
 
-    private RetryTemplate retryTemplate = new RetryTemplate();
+    private PublishRetryExecutor retryExecutor;
 
+    private BatchingTopicPublisher batchingTopicPublisher;
     private MessagePublisher messagePublisher;
 
     @Mock
     private TopicClient topicClient;
     @Mock
     private IMessage message;
-    private Instant instant = Instant.now();
+    private Instant instant = Instant.ofEpochSecond(Instant.now().getEpochSecond());
 
     @BeforeEach
     public void setup() {
-        messagePublisher = new TopicMessagePublisher(topicClientFactory, retryTemplate, PARTITION_ID, TOPIC_NAME);
+        batchingTopicPublisher = new BatchingTopicPublisher(topicClientFactory, 20, 10, 1000);
+        retryExecutor = new PublishRetryExecutor(3, 1, 2, 10, 20, 2);
+        messagePublisher = new TopicMessagePublisher(batchingTopicPublisher, retryExecutor, PARTITION_ID, TOPIC_NAME);
+    }
+
+    @AfterEach
+    public void close() {
+        batchingTopicPublisher.destroy();
+        retryExecutor.destroy();
     }
 
     @Test
     public void shouldSendMessageToTopic() throws ServiceBusException, InterruptedException {
         when(topicClientFactory.getClient(PARTITION_ID, TOPIC_NAME)).thenReturn(topicClient);
+        when(topicClient.scheduleMessageAsync(message, instant)).thenReturn(CompletableFuture.completedFuture(1L));
 
         messagePublisher.sendMessageToTopic(message, instant);
 
@@ -76,4 +91,49 @@ public class TopicMessagePublisherTest {
 
         assertThrows(AppException.class, () -> messagePublisher.sendMessageToTopic(message, instant));
     }
+
+    @Test
+    public void shouldScheduleMessageToTopicAsync() throws Exception {
+        when(topicClientFactory.getClient(PARTITION_ID, TOPIC_NAME)).thenReturn(topicClient);
+        when(topicClient.scheduleMessageAsync(message, instant)).thenReturn(CompletableFuture.completedFuture(1L));
+
+        CompletableFuture<Void> result = messagePublisher.sendMessageToTopicAsync(message, instant);
+
+        result.get(5, TimeUnit.SECONDS);
+        verify(topicClient, only()).scheduleMessageAsync(message, instant);
+    }
+
+    @Test
+    public void shouldFailAsyncPublicationOnServiceBusException() throws ServiceBusException, InterruptedException {
+        when(topicClientFactory.getClient(PARTITION_ID, TOPIC_NAME)).thenThrow(new ServiceBusException(false));
+
+        CompletableFuture<Void> result = messagePublisher.sendMessageToTopicAsync(message, instant);
+
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertTrue(exception.getCause() instanceof AppException);
+    }
+
+    @Test
+    public void shouldRetryTransientFailure_withoutBlockingCaller() throws Exception {
+        when(topicClientFactory.getClient(PARTITION_ID, TOPIC_NAME)).thenReturn(topicClient);
+        when(topicClient.scheduleMessageAsync(message, instant))
+            .thenReturn(CompletableFuture.failedFuture(new ServiceBusException(true)))
+            .thenReturn(CompletableFuture.completedFuture(1L));
+
+        messagePublisher.sendMessageToTopicAsync(message, instant).get(5, TimeUnit.SECONDS);
+
+        verify(topicClient, times(2)).scheduleMessageAsync(message, instant);
+    }
+
+    @Test
+    public void shouldNotRetryPermanentFailure() throws Exception {
+        when(topicClientFactory.getClient(PARTITION_ID, TOPIC_NAME)).thenReturn(topicClient);
+        when(topicClient.scheduleMessageAsync(message, instant)).thenReturn(CompletableFuture.failedFuture(new ServiceBusException(false)));
+
+        CompletableFuture<Void> result = messagePublisher.sendMessageToTopicAsync(message, instant);
+
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertTrue(exception.getCause() instanceof ServiceBusException);
+        verify(topicClient, times(1)).scheduleMessageAsync(message, instant);
+    }
 }
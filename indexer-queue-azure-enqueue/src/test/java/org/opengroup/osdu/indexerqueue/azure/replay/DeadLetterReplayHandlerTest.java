@@ -0,0 +1,206 @@
+// Copyright © Microsoft Corporation
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//      http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.replay;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.microsoft.azure.servicebus.IMessage;
+import com.microsoft.azure.servicebus.SubscriptionClient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.opengroup.osdu.indexerqueue.azure.queue.AbstractMessageHandlerWithActiveRetry;
+import org.opengroup.osdu.indexerqueue.azure.queue.MessagePublisher;
+import org.opengroup.osdu.indexerqueue.azure.util.MessageValidator.InvalidMessageReason;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class DeadLetterReplayHandlerTest {
+
+    private static final UUID LOCK_TOKEN = UUID.randomUUID();
+
+    @Mock
+    private SubscriptionClient deadLetterClient;
+    @Mock
+    private MessagePublisher messagePublisher;
+    @Mock
+    private IMessage message;
+
+    private final RateLimiter rateLimiter = RateLimiter.create(1000);
+
+    @Test
+    public void shouldPublishMessageAndRemoveItFromDeadLetterQueue() {
+        ReplayProgress progress = new ReplayProgress(null, null, 1000, 0);
+        Map<String, Object> properties = properties("MaxDeliveryCountExceeded");
+        properties.put(AbstractMessageHandlerWithActiveRetry.PROPERTY_RETRY, 5);
+        properties.put(AbstractMessageHandlerWithActiveRetry.PROPERTY_RETRY_TERM, 300);
+        when(message.getProperties()).thenReturn(properties);
+        when(message.getLockToken()).thenReturn(LOCK_TOKEN);
+        when(messagePublisher.sendMessageToTopicAsync(eq(message), any(Instant.class))).thenReturn(CompletableFuture.completedFuture(null));
+        when(deadLetterClient.completeAsync(LOCK_TOKEN)).thenReturn(CompletableFuture.completedFuture(null));
+
+        handler(progress).onMessageAsync(message).join();
+
+        verify(deadLetterClient).completeAsync(LOCK_TOKEN);
+        assertTrue(properties.isEmpty());
+        assertEquals(1, progress.getReceived());
+        assertEquals(1, progress.getReplayed());
+    }
+
+    @Test
+    public void shouldLeaveMessageOnDeadLetterQueueWhenPublicationFails() {
+        ReplayProgress progress = new ReplayProgress(null, null, 1000, 0);
+        when(message.getProperties()).thenReturn(properties(null));
+        when(messagePublisher.sendMessageToTopicAsync(eq(message), any(Instant.class)))
+            .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("broker unavailable")));
+
+        handler(progress).onMessageAsync(message).join();
+
+        verify(deadLetterClient, never()).completeAsync(any());
+        assertEquals(0, progress.getReplayed());
+        assertEquals(1, progress.getFailed());
+    }
+
+    @Test
+    public void shouldIgnoreSkippedMessageComingRoundAgain() {
+        ReplayProgress progress = new ReplayProgress(null, "INVALID_JSON", 1000, 0);
+        when(message.getProperties()).thenReturn(properties("MaxDeliveryCountExceeded"));
+        when(message.getSequenceNumber()).thenReturn(7L);
+        DeadLetterReplayHandler handler = handler(progress);
+
+        handler.onMessageAsync(message).join();
+        handler.onMessageAsync(message).join();
+
+        assertFalse(handler.isDone());
+        assertEquals(1, progress.getReceived());
+        assertEquals(1, progress.getSkipped());
+        verifyNoInteractions(messagePublisher);
+        verify(deadLetterClient, never()).completeAsync(any());
+    }
+
+    @Test
+    public void shouldSkipValidatorRejectedMessage_whenDrainingReindexDeadLetterQueue() {
+        ReplayProgress progress = new ReplayProgress(null, null, 1000, 0);
+        IMessage rejected = mock(IMessage.class);
+        when(rejected.getProperties()).thenReturn(properties(InvalidMessageReason.MISSING_TENANT.name()));
+        when(rejected.getSequenceNumber()).thenReturn(3L);
+        when(message.getProperties()).thenReturn(properties("MaxDeliveryCountExceeded"));
+        when(message.getSequenceNumber()).thenReturn(4L);
+        when(message.getLockToken()).thenReturn(LOCK_TOKEN);
+        when(messagePublisher.sendMessageToTopicAsync(eq(message), any(Instant.class))).thenReturn(CompletableFuture.completedFuture(null));
+        when(deadLetterClient.completeAsync(LOCK_TOKEN)).thenReturn(CompletableFuture.completedFuture(null));
+        DeadLetterReplayHandler handler = handler(progress);
+
+        // the rejected message becomes visible again once its lock expires
+        handler.onMessageAsync(rejected).join();
+        handler.onMessageAsync(message).join();
+        handler.onMessageAsync(rejected).join();
+
+        verify(messagePublisher, never()).sendMessageToTopicAsync(eq(rejected), any(Instant.class));
+        verify(deadLetterClient, times(1)).completeAsync(any());
+        assertEquals(2, progress.getReceived());
+        assertEquals(1, progress.getReplayed());
+        assertEquals(1, progress.getSkipped());
+    }
+
+    @Test
+    public void shouldSkipValidatorRejectedMessage_evenWhenFilteredOnItsReason() {
+        ReplayProgress progress = new ReplayProgress(null, InvalidMessageReason.MALFORMED_JSON.name(), 1000, 0);
+        when(message.getProperties()).thenReturn(properties(InvalidMessageReason.MALFORMED_JSON.name()));
+        when(message.getSequenceNumber()).thenReturn(5L);
+
+        handler(progress).onMessageAsync(message).join();
+
+        assertEquals(1, progress.getSkipped());
+        verifyNoInteractions(messagePublisher, deadLetterClient);
+    }
+
+    @Test
+    public void shouldWaitWhileIndexerIsSaturated() {
+        ReplayProgress progress = new ReplayProgress(null, null, 1000, 0);
+        AtomicInteger checks = new AtomicInteger();
+        when(message.getProperties()).thenReturn(properties(null));
+        when(message.getLockToken()).thenReturn(LOCK_TOKEN);
+        when(messagePublisher.sendMessageToTopicAsync(eq(message), any(Instant.class))).thenReturn(CompletableFuture.completedFuture(null));
+        when(deadLetterClient.completeAsync(LOCK_TOKEN)).thenReturn(CompletableFuture.completedFuture(null));
+
+        new DeadLetterReplayHandler(deadLetterClient, messagePublisher, rateLimiter,
+            () -> checks.incrementAndGet() < 3, Duration.ofMillis(1), progress).onMessageAsync(message).join();
+
+        assertEquals(3, checks.get());
+        assertEquals(1, progress.getReplayed());
+    }
+
+    @Test
+    public void shouldNotPublishWhenReplayIsCancelledWhileSaturated() {
+        ReplayProgress progress = new ReplayProgress(null, null, 1000, 0);
+        when(message.getProperties()).thenReturn(properties(null));
+        DeadLetterReplayHandler handler = new DeadLetterReplayHandler(deadLetterClient, messagePublisher, rateLimiter,
+            () -> {
+                progress.cancel();
+                return true;
+            }, Duration.ofMillis(1), progress);
+
+        handler.onMessageAsync(message).join();
+
+        assertTrue(handler.isDone());
+        verifyNoInteractions(messagePublisher, deadLetterClient);
+    }
+
+    @Test
+    public void shouldStopOnceLimitIsReached() {
+        ReplayProgress progress = new ReplayProgress(null, null, 1000, 1);
+        progress.replayed();
+        DeadLetterReplayHandler handler = handler(progress);
+
+        handler.onMessageAsync(message).join();
+
+        assertTrue(handler.isDone());
+        assertEquals(0, progress.getReceived());
+        verifyNoInteractions(messagePublisher, deadLetterClient);
+    }
+
+    @Test
+    public void shouldReturnWhenReplayIsCancelled() throws InterruptedException {
+        ReplayProgress progress = new ReplayProgress(null, null, 1000, 0);
+        progress.cancel();
+
+        handler(progress).awaitCompletion(Duration.ofMinutes(1));
+
+        assertEquals(ReplayProgress.State.CANCELLED, progress.getState());
+    }
+
+    private DeadLetterReplayHandler handler(ReplayProgress progress) {
+        return new DeadLetterReplayHandler(deadLetterClient, messagePublisher, rateLimiter, () -> false,
+            Duration.ofMillis(1), progress);
+    }
+
+    private static Map<String, Object> properties(String deadLetterReason) {
+        Map<String, Object> properties = new HashMap<>();
+        if (deadLetterReason != null) {
+            properties.put(DeadLetterReplayHandler.PROPERTY_DEAD_LETTER_REASON, deadLetterReason);
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,54 @@
+package org.opengroup.osdu.indexerqueue.azure.retry;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LocalRetrySchedulerTest {
+
+    private final LocalRetryScheduler scheduler = new LocalRetryScheduler(true, 30, 1000, 300);
+
+    @AfterEach
+    public void close() {
+        scheduler.destroy();
+    }
+
+    @Test
+    public void shouldContinueRetries_onDaemonThreads() throws Exception {
+        CompletableFuture<Boolean> daemon = scheduler.delay(0).thenApply(ignored -> Thread.currentThread().isDaemon());
+
+        assertTrue(daemon.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldNotQueueRetries_thatFallDueTogether() throws Exception {
+        // every continuation waits for all the others, which only ends if they run at the same time
+        int retries = 4;
+        CountDownLatch running = new CountDownLatch(retries);
+        CompletableFuture<?>[] continuations = new CompletableFuture<?>[retries];
+        for (int i = 0; i < retries; i++) {
+            continuations[i] = scheduler.delay(0).thenApply(ignored -> {
+                running.countDown();
+                try {
+                    return running.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            });
+        }
+
+        CompletableFuture.allOf(continuations).get(10, TimeUnit.SECONDS);
+
+        for (CompletableFuture<?> continuation : continuations) {
+            assertEquals(Boolean.TRUE, continuation.get());
+        }
+        assertEquals(0, scheduler.getPending());
+    }
+}
@@ -0,0 +1,89 @@
+// Copyright © Microsoft Corporation
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//      http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure.retry;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PublishRetryExecutorTest {
+
+    private static final String PARTITION = "opendes";
+
+    private PublishRetryExecutor sut;
+
+    @AfterEach
+    public void close() {
+        sut.destroy();
+    }
+
+    @Test
+    public void shouldRetryUntilSuccess() throws Exception {
+        sut = new PublishRetryExecutor(5, 1, 2, 10, 20, 0);
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = sut.execute(PARTITION, () -> attempts.incrementAndGet() < 3
+            ? CompletableFuture.failedFuture(new IllegalStateException("broker busy"))
+            : CompletableFuture.completedFuture("scheduled")).get(5, TimeUnit.SECONDS);
+
+        assertEquals("scheduled", result);
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void shouldGiveUp_afterMaxAttempts() {
+        sut = new PublishRetryExecutor(3, 1, 2, 10, 20, 0);
+        AtomicInteger attempts = new AtomicInteger();
+
+        CompletableFuture<Object> result = sut.execute(PARTITION, () -> {
+            attempts.incrementAndGet();
+            return CompletableFuture.failedFuture(new IllegalStateException("broker down"));
+        });
+
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertTrue(exception.getCause() instanceof IllegalStateException);
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void shouldStopRetrying_whenPartitionBudgetIsExhausted() {
+        sut = new PublishRetryExecutor(10, 1, 2, 10, 2, 0);
+        AtomicInteger attempts = new AtomicInteger();
+
+        CompletableFuture<Object> result = sut.execute(PARTITION, () -> {
+            attempts.incrementAndGet();
+            return CompletableFuture.failedFuture(new IllegalStateException("broker down"));
+        });
+
+        assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void shouldKeepBackoffWithinExponentialBound() {
+        sut = new PublishRetryExecutor(6, 1000, 2, 16000, 20, 2);
+
+        for (int attempt = 1; attempt <= 6; attempt++) {
+            long bound = Math.min(16000, 1000L << (attempt - 1));
+            long backoff = sut.backoffMillis(attempt);
+            assertTrue(backoff >= 0 && backoff <= bound, "backoff " + backoff + " out of [0, " + bound + "]");
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.opengroup.osdu.indexerqueue.azure.retry;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TimerWheelTest {
+
+    private final TimerWheel timerWheel = new TimerWheel(Duration.ofMillis(10), 8, Runnable::run);
+
+    @AfterEach
+    public void close() {
+        timerWheel.close();
+    }
+
+    @Test
+    public void shouldCompleteAfterDelay_evenWhenDelaySpansSeveralRounds() throws Exception {
+        long start = System.nanoTime();
+
+        timerWheel.schedule(Duration.ofMillis(200)).get(5, TimeUnit.SECONDS);
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(190));
+    }
+
+    @Test
+    public void shouldNotCompleteBeforeDelay() throws Exception {
+        CompletableFuture<Void> late = timerWheel.schedule(Duration.ofSeconds(10));
+        timerWheel.schedule(Duration.ofMillis(20)).get(5, TimeUnit.SECONDS);
+
+        assertFalse(late.isDone());
+    }
+
+    @Test
+    public void shouldCancelPendingTimeouts_whenClosed() {
+        CompletableFuture<Void> pending = timerWheel.schedule(Duration.ofSeconds(10));
+
+        timerWheel.close();
+
+        assertThrows(CancellationException.class, () -> pending.get(5, TimeUnit.SECONDS));
+    }
+}
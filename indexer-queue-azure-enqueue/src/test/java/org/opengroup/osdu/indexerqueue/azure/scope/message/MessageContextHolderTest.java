@@ -0,0 +1,124 @@
+package org.opengroup.osdu.indexerqueue.azure.scope.message;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.opengroup.osdu.core.common.model.http.DpsHeaders;
+import org.opengroup.osdu.indexerqueue.azure.scope.thread.ThreadScopeContextHolder;
+import org.slf4j.MDC;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageContextHolderTest {
+
+    private static final String DATA_PARTITION_ID = "opendes";
+    private static final String CORRELATION_ID = "correlation-id";
+
+    @AfterEach
+    void cleanUp() {
+        MDC.clear();
+    }
+
+    @Test
+    void should_buildContextMapOnce_forHeadersAndMdc() {
+        MessageContext context = MessageContext.of(DATA_PARTITION_ID, CORRELATION_ID);
+
+        assertEquals(DATA_PARTITION_ID, context.getContextMap().get(DpsHeaders.DATA_PARTITION_ID));
+        assertEquals(CORRELATION_ID, context.getContextMap().get(DpsHeaders.CORRELATION_ID));
+        assertSame(context.getContextMap(), context.getContextMap());
+        assertThrows(UnsupportedOperationException.class, () -> context.getContextMap().put("key", "value"));
+    }
+
+    @Test
+    void should_bindContext_untilScopeIsClosed() {
+        MessageContext context = MessageContext.of(DATA_PARTITION_ID, CORRELATION_ID);
+
+        try (MessageContextHolder.Scope ignored = MessageContextHolder.open(context)) {
+            assertSame(context, MessageContextHolder.current());
+            assertTrue(MessageContextHolder.isCurrent(DATA_PARTITION_ID, CORRELATION_ID));
+            assertEquals(CORRELATION_ID, MDC.get(DpsHeaders.CORRELATION_ID));
+        }
+
+        assertNull(MessageContextHolder.current());
+        assertNull(MDC.get(DpsHeaders.CORRELATION_ID));
+    }
+
+    @Test
+    void should_restorePreviousContext_whenNestedScopeIsClosed() {
+        MessageContext outer = MessageContext.of(DATA_PARTITION_ID, CORRELATION_ID);
+        MessageContext inner = MessageContext.of("tenant1", "other-correlation-id");
+
+        try (MessageContextHolder.Scope ignored = MessageContextHolder.open(outer)) {
+            try (MessageContextHolder.Scope nested = MessageContextHolder.open(inner)) {
+                assertEquals("tenant1", MDC.get(DpsHeaders.DATA_PARTITION_ID));
+                assertFalse(MessageContextHolder.isCurrent(DATA_PARTITION_ID, CORRELATION_ID));
+            }
+            assertSame(outer, MessageContextHolder.current());
+            assertEquals(DATA_PARTITION_ID, MDC.get(DpsHeaders.DATA_PARTITION_ID));
+        }
+    }
+
+    @Test
+    void should_runContinuation_inContextOfMessage_onAnotherThread() throws Exception {
+        MessageContext context = MessageContext.of(DATA_PARTITION_ID, CORRELATION_ID);
+        Function<Void, String> continuation = MessageContextHolder.wrap(context,
+            ignored -> MessageContextHolder.current().getCorrelationId() + "/" + MDC.get(DpsHeaders.DATA_PARTITION_ID));
+
+        String result = CompletableFuture.runAsync(() -> { })
+            .thenApplyAsync(continuation)
+            .get(5, TimeUnit.SECONDS);
+
+        assertEquals(CORRELATION_ID + "/" + DATA_PARTITION_ID, result);
+        assertNull(MessageContextHolder.current());
+    }
+
+    @Test
+    void should_returnContinuationAsIs_whenThereIsNoContext() {
+        Function<Object, Object> continuation = Function.identity();
+
+        assertSame(continuation, MessageContextHolder.wrap(null, continuation));
+    }
+
+    @Test
+    void should_clearThreadScope_wheneverBoundContextChanges() {
+        MessageContext first = MessageContext.of(DATA_PARTITION_ID, CORRELATION_ID);
+        MessageContext second = MessageContext.of("tenant1", "other-correlation-id");
+
+        try (MessageContextHolder.Scope ignored = MessageContextHolder.open(first)) {
+            ThreadScopeContextHolder.getContext().setBean("headers", first);
+            try (MessageContextHolder.Scope same = MessageContextHolder.open(first)) {
+                assertSame(first, ThreadScopeContextHolder.getContext().getBean("headers"));
+            }
+            try (MessageContextHolder.Scope nested = MessageContextHolder.open(second)) {
+                assertNull(ThreadScopeContextHolder.getContext().getBean("headers"));
+                ThreadScopeContextHolder.getContext().setBean("headers", second);
+            }
+            assertNull(ThreadScopeContextHolder.getContext().getBean("headers"));
+        }
+    }
+
+    @Test
+    void should_reuseThreadScope_whenContextOfSameMessageIsBoundAgain() {
+        String partition = "tenant2";
+        try (MessageContextHolder.Scope ignored = MessageContextHolder.open(MessageContext.of(partition, CORRELATION_ID))) {
+            ThreadScopeContextHolder.getContext().setBean("headers", partition);
+        }
+        assertNull(MDC.get(DpsHeaders.DATA_PARTITION_ID));
+
+        try (MessageContextHolder.Scope ignored = MessageContextHolder.open(MessageContext.of(partition, CORRELATION_ID))) {
+            assertEquals(partition, ThreadScopeContextHolder.getContext().getBean("headers"));
+            assertEquals(partition, MDC.get(DpsHeaders.DATA_PARTITION_ID));
+        }
+        try (MessageContextHolder.Scope ignored = MessageContextHolder.open(MessageContext.of(partition, "next-message"))) {
+            assertNull(ThreadScopeContextHolder.getContext().getBean("headers"));
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.opengroup.osdu.indexerqueue.azure.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DecorrelatedJitterRetryUtilTest {
+
+    private static final int BASE = 3;
+    private static final int MAX_RETRY_DURATION = 32400;
+
+    private final DecorrelatedJitterRetryUtil service = DecorrelatedJitterRetryUtil.builder()
+            .baseRetryTerm(BASE)
+            .maxRetryDuration(MAX_RETRY_DURATION)
+            .build();
+
+    @Test
+    public void shouldDrawFirstTermBetweenBaseAndThreeTimesBase() {
+        for (int i = 0; i < 100; i++) {
+            int term = service.generateNextRetryTerm(1, 0);
+            assertTrue(term >= BASE && term <= 3 * BASE, "term " + term);
+        }
+    }
+
+    @Test
+    public void shouldDrawTermBetweenBaseAndThreeTimesPreviousTerm() {
+        for (int i = 0; i < 100; i++) {
+            int term = service.generateNextRetryTerm(4, 100);
+            assertTrue(term >= BASE && term <= 300, "term " + term);
+        }
+    }
+
+    @Test
+    public void shouldNotExceedMaxRetryDuration() {
+        for (int i = 0; i < 100; i++) {
+            assertTrue(service.generateNextRetryTerm(9, MAX_RETRY_DURATION) <= MAX_RETRY_DURATION);
+            assertTrue(service.generateNextRetryTerm(30) <= MAX_RETRY_DURATION);
+        }
+    }
+}
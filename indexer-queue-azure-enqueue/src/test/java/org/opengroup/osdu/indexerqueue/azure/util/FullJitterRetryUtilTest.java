@@ -0,0 +1,52 @@
+package org.opengroup.osdu.indexerqueue.azure.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FullJitterRetryUtilTest {
+
+    private final RetryUtil exponential = ExponentialRetryUtil.builder()
+            .elongationPoint(3)
+            .multiplier(3)
+            .maxRetryDuration(32400)
+            .build();
+
+    private final FullJitterRetryUtil service = FullJitterRetryUtil.builder()
+            .delegate(exponential)
+            .build();
+
+    @Test
+    public void shouldStayBetweenMinimumAndDelegateTerm() {
+        for (int retry = 1; retry < 9; retry++) {
+            int bound = exponential.generateNextRetryTerm(retry);
+            for (int i = 0; i < 100; i++) {
+                int term = service.generateNextRetryTerm(retry);
+                assertTrue(term >= 1 && term <= bound, "term " + term + " out of [1, " + bound + "]");
+            }
+        }
+    }
+
+    @Test
+    public void shouldSpreadTermsOfSameRetry() {
+        Set<Integer> terms = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            terms.add(service.generateNextRetryTerm(5));
+        }
+        assertTrue(terms.size() > 10);
+    }
+
+    @Test
+    public void shouldNotGoBelowMinimum_whenDelegateTermIsShorter() {
+        FullJitterRetryUtil withMinimum = FullJitterRetryUtil.builder()
+                .delegate(exponential)
+                .minRetryTerm(10)
+                .build();
+
+        assertEquals(3, withMinimum.generateNextRetryTerm(1));
+    }
+}
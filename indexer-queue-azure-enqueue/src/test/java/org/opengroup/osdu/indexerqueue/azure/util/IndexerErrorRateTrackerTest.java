@@ -0,0 +1,45 @@
+package org.opengroup.osdu.indexerqueue.azure.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class IndexerErrorRateTrackerTest {
+
+    @Test
+    public void shouldMoveRateTowardsOutcome() {
+        IndexerErrorRateTracker tracker = new IndexerErrorRateTracker();
+
+        tracker.record(true);
+        assertEquals(0.02, tracker.getErrorRate(), 1e-9);
+
+        tracker.record(false);
+        assertEquals(0.0196, tracker.getErrorRate(), 1e-9);
+    }
+
+    @Test
+    public void shouldNotLoseUpdates_whenRecordedConcurrently() {
+        IndexerErrorRateTracker tracker = new IndexerErrorRateTracker();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            CompletableFuture<?>[] recordings = new CompletableFuture<?>[4];
+            for (int i = 0; i < recordings.length; i++) {
+                recordings[i] = CompletableFuture.runAsync(() -> {
+                    for (int j = 0; j < 25; j++) {
+                        tracker.record(true);
+                    }
+                }, executor);
+            }
+            CompletableFuture.allOf(recordings).join();
+        } finally {
+            executor.shutdown();
+        }
+
+        // the outcomes are all the same, so the order does not matter and a lost update would leave the rate lower
+        assertEquals(1 - Math.pow(0.98, 100), tracker.getErrorRate(), 1e-9);
+    }
+}
@@ -0,0 +1,50 @@
+package org.opengroup.osdu.indexerqueue.azure.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LatencyAwareRetryUtilTest {
+
+    private final RetryUtil constant = currentRetry -> 100;
+    private final IndexerErrorRateTracker errorRateTracker = new IndexerErrorRateTracker();
+
+    private final LatencyAwareRetryUtil service = LatencyAwareRetryUtil.builder()
+            .delegate(constant)
+            .errorRateTracker(errorRateTracker)
+            .maxMultiplier(4)
+            .maxRetryDuration(350)
+            .build();
+
+    @Test
+    public void shouldKeepDelegateTerm_whenIndexerIsHealthy() {
+        for (int i = 0; i < 500; i++) {
+            errorRateTracker.record(false);
+        }
+
+        assertEquals(100, service.generateNextRetryTerm(1));
+    }
+
+    @Test
+    public void shouldStretchTerm_withIndexerErrorRate() {
+        for (int i = 0; i < 35; i++) {
+            errorRateTracker.record(true);
+        }
+        double errorRate = errorRateTracker.getErrorRate();
+        assertTrue(errorRate > 0.4 && errorRate < 0.6, "error rate " + errorRate);
+
+        int term = service.generateNextRetryTerm(1);
+
+        assertEquals((int) Math.ceil(100 * (1 + 3 * errorRate)), term);
+    }
+
+    @Test
+    public void shouldCapTerm_atMaxRetryDuration() {
+        for (int i = 0; i < 1000; i++) {
+            errorRateTracker.record(true);
+        }
+
+        assertEquals(350, service.generateNextRetryTerm(1));
+    }
+}
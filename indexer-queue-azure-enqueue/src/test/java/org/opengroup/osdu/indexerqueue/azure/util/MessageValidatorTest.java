@@ -0,0 +1,68 @@
+package org.opengroup.osdu.indexerqueue.azure.util;
+
+import com.google.gson.JsonElement;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.opengroup.osdu.indexerqueue.azure.scope.message.MessageContext;
+import org.opengroup.osdu.indexerqueue.azure.util.MessageValidator.InvalidMessageReason;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class MessageValidatorTest {
+
+    private static final String VALID_MESSAGE = "{\"message\":{\"data\":[{\"id\":\"opendes:doc:1\",\"kind\":\"opendes:wks:well:1.0.0\",\"op\":\"create\"}],"
+            + "\"account-id\":\"opendes\",\"data-partition-id\":\"opendes\",\"correlation-id\":\"b5a281bd\"}}";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final MessageValidator sut = new MessageValidator(meterRegistry);
+
+    @Test
+    public void shouldAcceptValidMessage() {
+        assertNull(sut.validate(VALID_MESSAGE));
+    }
+
+    @Test
+    public void shouldClassifyInvalidMessages() {
+        assertEquals(InvalidMessageReason.MALFORMED_JSON, sut.validate("{\"message\":"));
+        assertEquals(InvalidMessageReason.MALFORMED_JSON, sut.validate("[]"));
+        assertEquals(InvalidMessageReason.MISSING_MESSAGE, sut.validate("{\"data\":[]}"));
+        assertEquals(InvalidMessageReason.MISSING_DATA,
+                sut.validate("{\"message\":{\"account-id\":\"opendes\",\"data-partition-id\":\"opendes\",\"correlation-id\":\"b5a281bd\"}}"));
+        assertEquals(InvalidMessageReason.MISSING_TENANT,
+                sut.validate("{\"message\":{\"data\":[],\"account-id\":\"opendes\",\"correlation-id\":\"b5a281bd\"}}"));
+        assertEquals(InvalidMessageReason.MISSING_CORRELATION_ID,
+                sut.validate("{\"message\":{\"data\":[],\"account-id\":\"opendes\",\"data-partition-id\":\"opendes\"}}"));
+    }
+
+    @Test
+    public void shouldValidateParsedBody_andDeriveContextFromIt() {
+        JsonElement root = MessageValidator.parse(VALID_MESSAGE);
+
+        assertNull(sut.validate(root));
+        MessageContext context = MessageValidator.contextOf(root);
+        assertEquals("opendes", context.getDataPartitionId());
+        assertEquals("b5a281bd", context.getCorrelationId());
+    }
+
+    @Test
+    public void shouldReportMalformedJson_whenBodyCannotBeParsed() {
+        JsonElement root = MessageValidator.parse("{\"message\":");
+
+        assertNull(root);
+        assertEquals(InvalidMessageReason.MALFORMED_JSON, sut.validate(root));
+        assertNull(MessageValidator.contextOf(root));
+    }
+
+    @Test
+    public void shouldCountRejections_perReasonAndTopic() {
+        sut.recordRejection(InvalidMessageReason.MISSING_TENANT, "recordstopic");
+        sut.recordRejection(InvalidMessageReason.MISSING_TENANT, "recordstopic");
+        sut.recordRejection(InvalidMessageReason.MALFORMED_JSON, null);
+
+        assertEquals(2, meterRegistry.get(MessageValidator.METRIC_NAME)
+                .tags("reason", "MISSING_TENANT", "topic", "recordstopic").counter().count());
+        assertEquals(1, meterRegistry.get(MessageValidator.METRIC_NAME)
+                .tags("reason", "MALFORMED_JSON", "topic", "unknown").counter().count());
+    }
+}
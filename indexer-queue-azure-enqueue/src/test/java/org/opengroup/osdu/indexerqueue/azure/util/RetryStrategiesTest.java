@@ -0,0 +1,43 @@
+package org.opengroup.osdu.indexerqueue.azure.util;
+
+import org.junit.jupiter.api.Test;
+import org.opengroup.osdu.indexerqueue.azure.util.RetryStrategies.Strategy;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RetryStrategiesTest {
+
+    private final RetryUtil exponential = currentRetry -> 1;
+    private final RetryUtil fullJitter = currentRetry -> 2;
+
+    @Test
+    public void shouldUseTopicStrategy_andFallBackToDefault() {
+        RetryStrategies strategies = new RetryStrategies(
+                Map.of(Strategy.EXPONENTIAL, exponential, Strategy.FULL_JITTER, fullJitter),
+                Strategy.EXPONENTIAL,
+                RetryStrategies.parseTopicStrategies("recordstopic=full-jitter"));
+
+        assertSame(fullJitter, strategies.forTopic("recordstopic"));
+        assertSame(exponential, strategies.forTopic("reindextopic"));
+    }
+
+    @Test
+    public void shouldParseTopicStrategies() {
+        Map<String, Strategy> parsed = RetryStrategies.parseTopicStrategies(" recordstopic = decorrelated_jitter , reindextopic=LATENCY_AWARE");
+
+        assertEquals(Strategy.DECORRELATED_JITTER, parsed.get("recordstopic"));
+        assertEquals(Strategy.LATENCY_AWARE, parsed.get("reindextopic"));
+        assertTrue(RetryStrategies.parseTopicStrategies("").isEmpty());
+    }
+
+    @Test
+    public void shouldRejectUnknownStrategy() {
+        assertThrows(IllegalArgumentException.class, () -> RetryStrategies.parseTopicStrategies("recordstopic=linear"));
+        assertThrows(IllegalArgumentException.class, () -> RetryStrategies.parseTopicStrategies("recordstopic"));
+    }
+}
@@ -14,13 +14,26 @@
 
 package org.opengroup.osdu.indexerqueue.azure.util;
 
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.PlainJWT;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.opengroup.osdu.azure.util.AzureServicePrincipleTokenService;
+
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import static junit.framework.TestCase.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -35,9 +48,18 @@ public class ServiceAccountJwtClientImplTest {
     @Mock
     private AzureServicePrincipleTokenService tokenService;
 
-    @InjectMocks
     private ServiceAccountJwtClientImpl sut;
 
+    @BeforeEach
+    public void setup() {
+        sut = new ServiceAccountJwtClientImpl(tokenService, 300, 600);
+    }
+
+    @AfterEach
+    public void close() {
+        sut.destroy();
+    }
+
     @Test
     public void should_invoke_methodsWithRightArguments_andReturnAuthToken_when_getIdToken_isCalled() {
         when(tokenService.getAuthorizationToken()).thenReturn(authorizationToken);
@@ -58,4 +80,74 @@ public class ServiceAccountJwtClientImplTest {
         assertEquals("Bearer " + token, authToken);
     }
 
+    @Test
+    public void should_returnCachedToken_untilItIsDueForRefresh() {
+        when(tokenService.getAuthorizationToken()).thenReturn(jwtExpiringIn(3600));
+
+        String first = sut.getIdToken(partitionId);
+        String second = sut.getIdToken(partitionId);
+
+        verify(tokenService, times(1)).getAuthorizationToken();
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void should_fetchNewToken_whenCachedTokenHasExpired() {
+        when(tokenService.getAuthorizationToken()).thenReturn(jwtExpiringIn(-60));
+
+        sut.getIdToken(partitionId);
+        sut.getIdToken(partitionId);
+
+        verify(tokenService, times(2)).getAuthorizationToken();
+    }
+
+    @Test
+    public void should_refreshInBackground_aheadOfExpiry() {
+        String expiring = jwtExpiringIn(2);
+        when(tokenService.getAuthorizationToken()).thenReturn(expiring, jwtExpiringIn(3600));
+
+        assertEquals("Bearer " + expiring, sut.getIdToken(partitionId));
+        assertEquals("Bearer " + expiring, sut.getIdToken(partitionId));
+
+        verify(tokenService, timeout(5000).times(2)).getAuthorizationToken();
+    }
+
+    @Test
+    public void should_fetchOnce_whenCallersRaceForFirstToken() throws Exception {
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(tokenService.getAuthorizationToken()).thenAnswer(invocation -> {
+            fetching.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return authorizationToken;
+        });
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = callers.submit(() -> sut.getIdToken(partitionId));
+            fetching.await(5, TimeUnit.SECONDS);
+            Future<String> second = callers.submit(() -> sut.getIdToken(partitionId));
+            release.countDown();
+
+            assertEquals(authorizationToken, first.get(5, TimeUnit.SECONDS));
+            assertEquals(authorizationToken, second.get(5, TimeUnit.SECONDS));
+            verify(tokenService, times(1)).getAuthorizationToken();
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void should_throw_whenTokenCannotBeFetched() {
+        when(tokenService.getAuthorizationToken()).thenThrow(new IllegalStateException("identity endpoint down"));
+
+        assertThrows(IllegalStateException.class, () -> sut.getIdToken(partitionId));
+    }
+
+    private static String jwtExpiringIn(long seconds) {
+        JWTClaimsSet claims = new JWTClaimsSet.Builder()
+            .subject("indexer-queue")
+            .expirationTime(new Date(System.currentTimeMillis() + seconds * 1000))
+            .build();
+        return new PlainJWT(claims).serialize();
+    }
 }
@@ -0,0 +1,145 @@
+// Copyright © Microsoft Corporation
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//      http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure;
+
+import com.microsoft.azure.servicebus.IMessage;
+import com.microsoft.azure.servicebus.Message;
+import com.microsoft.azure.servicebus.TopicClient;
+import com.microsoft.azure.servicebus.primitives.ServiceBusException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Sends messages to a topic in as few Service Bus batches as the size limits allow.
+ * The size of a message is estimated from its body, its properties and a fixed allowance for the AMQP framing and
+ * the system properties the broker adds. Every message gets a random id, so identical payloads re-enqueued on purpose
+ * are never dropped by duplicate detection; a failed request is resumed from the number of messages that were sent.
+ */
+class BatchedTopicSender {
+
+    // Message size limit of the standard tier
+    static final int MAX_MESSAGE_BYTES = 256 * 1024;
+    // Below the batch size limit of the standard tier, leaving room for the batch envelope
+    static final int MAX_BATCH_BYTES = 192 * 1024;
+    // AMQP header, message annotations and broker properties such as the sequence number and enqueued time
+    static final int MESSAGE_OVERHEAD_BYTES = 512;
+
+    private static final String CONTENT_TYPE = "application/json";
+
+    private final TopicClient client;
+    private final int maxBatchBytes;
+
+    BatchedTopicSender(TopicClient client, int maxBatchBytes) {
+        this.client = client;
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * @param body payload of the message
+     * @return the message, with a random id
+     */
+    static Message createMessage(String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        Message message = new Message(bytes);
+        message.setContentType(CONTENT_TYPE);
+        message.setMessageId(UUID.randomUUID().toString());
+        return message;
+    }
+
+    /**
+     * @param message message to send
+     * @return estimated size of the message on the wire, in bytes
+     */
+    static int estimateSize(IMessage message) {
+        int size = MESSAGE_OVERHEAD_BYTES + message.getBody().length + utf8Length(message.getMessageId())
+            + utf8Length(message.getContentType());
+        Map<String, Object> properties = message.getProperties();
+        if (properties != null) {
+            for (Map.Entry<String, Object> property : properties.entrySet()) {
+                size += utf8Length(property.getKey()) + utf8Length(String.valueOf(property.getValue()));
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Sends the messages in order. Messages too large to share a batch are sent on their own.
+     *
+     * @param messages messages to send, none of them larger than {@link #MAX_MESSAGE_BYTES}
+     * @return the number of batches sent
+     * @throws PartialSendException if sending failed, carrying the number of messages that were sent before
+     */
+    int send(List<? extends IMessage> messages) throws PartialSendException {
+        int sent = 0;
+        int batches = 0;
+        List<IMessage> batch = new ArrayList<>();
+        int batchBytes = 0;
+        try {
+            for (IMessage message : messages) {
+                int bytes = estimateSize(message);
+                if (!batch.isEmpty() && batchBytes + bytes > maxBatchBytes) {
+                    flush(batch, batchBytes);
+                    batches++;
+                    sent += batch.size();
+                    batch = new ArrayList<>();
+                    batchBytes = 0;
+                }
+                batch.add(message);
+                batchBytes += bytes;
+            }
+            if (!batch.isEmpty()) {
+                flush(batch, batchBytes);
+                batches++;
+            }
+            return batches;
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            throw new PartialSendException(sent, e);
+        }
+    }
+
+    // a batch only exceeds the limit when it holds a single message, which then does not need a batch
+    private void flush(List<IMessage> batch, int batchBytes) throws InterruptedException, ServiceBusException {
+        if (batchBytes > maxBatchBytes) {
+            client.send(batch.get(0));
+        } else {
+            client.sendBatch(batch);
+        }
+    }
+
+    private static int utf8Length(String value) {
+        return value == null ? 0 : value.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * Sending a batch failed, the messages of the previous batches were sent.
+     */
+    static class PartialSendException extends Exception {
+
+        private final int sent;
+
+        PartialSendException(int sent, Exception cause) {
+            super(cause.getMessage(), cause);
+            this.sent = sent;
+        }
+
+        int getSent() {
+            return sent;
+        }
+    }
+}
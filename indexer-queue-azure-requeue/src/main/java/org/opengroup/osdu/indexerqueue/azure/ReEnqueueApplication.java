@@ -11,6 +11,10 @@
 
 package org.opengroup.osdu.indexerqueue.azure;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 import com.microsoft.azure.functions.ExecutionContext;
 import com.microsoft.azure.functions.HttpMethod;
 import com.microsoft.azure.functions.HttpRequestMessage;
@@ -27,6 +31,8 @@ import org.opengroup.osdu.core.common.model.http.DpsHeaders;
 import org.opengroup.osdu.core.common.model.http.AppException;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -35,6 +41,11 @@ import java.util.Map;
  */
 public class ReEnqueueApplication {
 
+    private static final String CONTENT_TYPE = "application/json";
+
+    // Shared by all invocations of the function host, creating a client opens a new AMQP connection
+    private static volatile TopicClient sharedTopicClient;
+
     @Autowired
     TopicClient topicClient;
     @Autowired
@@ -46,9 +57,82 @@ public class ReEnqueueApplication {
                     authLevel = AuthorizationLevel.ANONYMOUS) HttpRequestMessage request,
             ExecutionContext context) throws ServiceBusException, InterruptedException {
 
+        validateRequest(request, context, "re-enqueue");
+        context.getLogger().info("ReEnqueue Request: " + request.getBody().toString());
+
+        topicClient = getTopicClient();
+        message = new Message(request.getBody().toString());
+        message.setContentType(CONTENT_TYPE);
+
+        try {
+            topicClient.send(message);
+        } catch (AppException e) {
+            throw new AppException(HttpStatus.SC_INTERNAL_SERVER_ERROR, "Could not send to SB.", "/nProblem sending request to SB: \" + e.getMessage()");
+        }
+
+        return request.createResponseBuilder(com.microsoft.azure.functions.HttpStatus.OK)
+                .header("Content-Type", "application/json")
+                .build();
+    }
+
+    /**
+     * Bulk variant of re-enqueue: the body is a JSON array of payloads, each one sent as its own message.
+     * The messages are sent in as few Service Bus batches as the size limits allow. A request holding a payload
+     * above the message size limit is rejected before anything is sent. If sending fails part way, the response
+     * holds the number of payloads that were sent, in the order of the request, so a retry can skip them.
+     */
+    @FunctionName("re-enqueue-bulk")
+    public HttpResponseMessage runBulk(
+            @HttpTrigger(name = "req", methods = {HttpMethod.POST},
+                    authLevel = AuthorizationLevel.ANONYMOUS) HttpRequestMessage request,
+            ExecutionContext context) throws ServiceBusException, InterruptedException {
+
+        validateRequest(request, context, "re-enqueue-bulk");
+
+        JsonArray payloads;
+        try {
+            JsonElement body = JsonParser.parseString(request.getBody().toString());
+            if (!body.isJsonArray() || body.getAsJsonArray().size() == 0) {
+                throw new AppException(HttpStatus.SC_BAD_REQUEST, "Invalid request", "request body must be a non empty JSON array");
+            }
+            payloads = body.getAsJsonArray();
+        } catch (JsonParseException e) {
+            throw new AppException(HttpStatus.SC_BAD_REQUEST, "Invalid request", "request body must be a non empty JSON array", e);
+        }
+        context.getLogger().info(String.format("ReEnqueue Bulk Request: %d payloads", payloads.size()));
+
+        List<Message> messages = new ArrayList<>(payloads.size());
+        for (JsonElement payload : payloads) {
+            // payloads may be sent as JSON objects or as already serialized strings
+            Message bulkMessage = BatchedTopicSender.createMessage(payload.isJsonPrimitive() ? payload.getAsString() : payload.toString());
+            if (BatchedTopicSender.estimateSize(bulkMessage) > BatchedTopicSender.MAX_MESSAGE_BYTES) {
+                throw new AppException(HttpStatus.SC_REQUEST_TOO_LONG, "Payload too large",
+                    String.format("payload %d exceeds the message size limit of %d bytes", messages.size(), BatchedTopicSender.MAX_MESSAGE_BYTES));
+            }
+            messages.add(bulkMessage);
+        }
+
+        BatchedTopicSender sender = new BatchedTopicSender(getTopicClient(), BatchedTopicSender.MAX_BATCH_BYTES);
+        try {
+            int batches = sender.send(messages);
+            context.getLogger().info(String.format("ReEnqueue sent %d messages in %d batches", messages.size(), batches));
+        } catch (BatchedTopicSender.PartialSendException e) {
+            context.getLogger().severe(String.format("ReEnqueue sent %d of %d messages: %s", e.getSent(), messages.size(), e.getMessage()));
+            return request.createResponseBuilder(com.microsoft.azure.functions.HttpStatus.INTERNAL_SERVER_ERROR)
+                    .header("Content-Type", "application/json")
+                    .body(String.format("{\"count\":%d}", e.getSent()))
+                    .build();
+        }
+
+        return request.createResponseBuilder(com.microsoft.azure.functions.HttpStatus.OK)
+                .header("Content-Type", "application/json")
+                .body(String.format("{\"count\":%d}", messages.size()))
+                .build();
+    }
+
+    private void validateRequest(HttpRequestMessage request, ExecutionContext context, String taskHandlerPath) {
         //TODO: this should be moved to Azure client-lib
         final String INDEXER_QUEUE_KEY = "x-functions-key";
-        final String PATH_TASK_HANDLERS = "re-enqueue";
 
         if (request == null || request.getBody() == null || request.getHeaders() == null){
             throw new AppException(HttpStatus.SC_BAD_REQUEST, "Invalid request", "request object not found");
@@ -59,34 +143,30 @@ public class ReEnqueueApplication {
             throw new AppException(HttpStatus.SC_UNAUTHORIZED, "UnAuthorized", "Cannot call this endpoint");
         }
 
-        context.getLogger().info("ReEnqueue Request: " + request.getBody().toString());
         context.getLogger().info("ReEnqueue Headers: " + request.getHeaders().toString());
 
         String uri = request.getUri().toString().toLowerCase();
 
         if (request.getHttpMethod().equals(HttpMethod.POST)) {
 
-            if (uri.contains(PATH_TASK_HANDLERS)) {
+            if (uri.contains(taskHandlerPath)) {
                 checkApiAccess(request);
             }
         }
-        final String CONTENT_TYPE = "application/json";
-        final String topicName = System.getenv("TOPIC_NAME");
-        final String connectionString = System.getenv("SERVICE_BUS");
-
-        topicClient = new TopicClient(new ConnectionStringBuilder(connectionString, topicName));
-        message = new Message(request.getBody().toString());
-        message.setContentType(CONTENT_TYPE);
+    }
 
-        try {
-            topicClient.send(message);
-        } catch (AppException e) {
-            throw new AppException(HttpStatus.SC_INTERNAL_SERVER_ERROR, "Could not send to SB.", "/nProblem sending request to SB: \" + e.getMessage()");
+    private static TopicClient getTopicClient() throws ServiceBusException, InterruptedException {
+        TopicClient client = sharedTopicClient;
+        if (client == null) {
+            synchronized (ReEnqueueApplication.class) {
+                client = sharedTopicClient;
+                if (client == null) {
+                    client = new TopicClient(new ConnectionStringBuilder(System.getenv("SERVICE_BUS"), System.getenv("TOPIC_NAME")));
+                    sharedTopicClient = client;
+                }
+            }
         }
-
-        return request.createResponseBuilder(com.microsoft.azure.functions.HttpStatus.OK)
-                .header("Content-Type", "application/json")
-                .build();
+        return client;
     }
 
     private void checkApiAccess(HttpRequestMessage request) {
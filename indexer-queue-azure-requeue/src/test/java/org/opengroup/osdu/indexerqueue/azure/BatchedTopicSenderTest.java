@@ -0,0 +1,127 @@
+// Copyright © Microsoft Corporation
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//      http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.azure;
+
+import com.microsoft.azure.servicebus.IMessage;
+import com.microsoft.azure.servicebus.Message;
+import com.microsoft.azure.servicebus.TopicClient;
+import com.microsoft.azure.servicebus.primitives.ServiceBusException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class BatchedTopicSenderTest {
+
+    private static final int MAX_BATCH_BYTES = 4 * 1024;
+
+    private TopicClient client;
+    private List<Integer> batchSizes;
+
+    @Before
+    public void setup() throws Exception {
+        client = mock(TopicClient.class);
+        batchSizes = new ArrayList<>();
+        doAnswer(invocation -> {
+            Collection<?> batch = (Collection<?>) invocation.getArguments()[0];
+            batchSizes.add(batch.size());
+            return null;
+        }).when(client).sendBatch(any());
+    }
+
+    @Test
+    public void should_splitBatches_byEstimatedSize_includingOverhead() throws Exception {
+        // each message takes 1 KB of body plus the overhead, three of them do not fit in 4 KB
+        List<Message> messages = messages(5, 1024);
+
+        int batches = new BatchedTopicSender(client, MAX_BATCH_BYTES).send(messages);
+
+        assertEquals(3, batches);
+        assertEquals(Arrays.asList(2, 2, 1), batchSizes);
+    }
+
+    @Test
+    public void should_countProperties_inEstimatedSize() {
+        Message message = BatchedTopicSender.createMessage("{}");
+        int withoutProperties = BatchedTopicSender.estimateSize(message);
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("RETRY", "1");
+        message.setProperties(properties);
+
+        assertEquals(withoutProperties + "RETRY".length() + 1, BatchedTopicSender.estimateSize(message));
+    }
+
+    @Test
+    public void should_sendMessage_tooLargeForBatch_onItsOwn() throws Exception {
+        List<Message> messages = new ArrayList<>(messages(1, 512));
+        messages.addAll(messages(1, MAX_BATCH_BYTES));
+        messages.addAll(messages(1, 512));
+
+        int batches = new BatchedTopicSender(client, MAX_BATCH_BYTES).send(messages);
+
+        assertEquals(3, batches);
+        assertEquals(Arrays.asList(1, 1), batchSizes);
+        verify(client).send(messages.get(1));
+    }
+
+    @Test
+    public void should_reportSentMessages_whenBatchFails() throws Exception {
+        doAnswer(invocation -> {
+            Collection<?> batch = (Collection<?>) invocation.getArguments()[0];
+            if (!batchSizes.isEmpty()) {
+                throw new ServiceBusException(true, "server busy");
+            }
+            batchSizes.add(batch.size());
+            return null;
+        }).when(client).sendBatch(any());
+
+        try {
+            new BatchedTopicSender(client, MAX_BATCH_BYTES).send(messages(5, 1024));
+            fail("expected PartialSendException");
+        } catch (BatchedTopicSender.PartialSendException e) {
+            assertEquals(2, e.getSent());
+        }
+        verify(client, never()).send(any(IMessage.class));
+    }
+
+    @Test
+    public void should_giveIdenticalPayloads_differentMessageIds() {
+        // a payload re-enqueued twice on purpose must not be dropped by duplicate detection
+        assertNotEquals(BatchedTopicSender.createMessage("{\"id\":1}").getMessageId(),
+            BatchedTopicSender.createMessage("{\"id\":1}").getMessageId());
+    }
+
+    private static List<Message> messages(int count, int bodyBytes) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            char[] body = new char[bodyBytes];
+            Arrays.fill(body, (char) ('a' + i));
+            messages.add(BatchedTopicSender.createMessage(new String(body)));
+        }
+        return messages;
+    }
+}
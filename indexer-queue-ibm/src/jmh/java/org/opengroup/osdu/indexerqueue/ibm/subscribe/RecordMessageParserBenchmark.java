@@ -0,0 +1,92 @@
+// Copyright 2020 IBM Corp. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.ibm.subscribe;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import org.opengroup.osdu.core.common.model.search.RecordChangedMessages;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the single pass {@link RecordMessageParser} with the parsing the subscribers did before: parse to a JSON
+ * tree, serialize the tree, parse the string again, copy the attributes to a lower cased map and serialize the
+ * message for the log.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordMessageParserBenchmark {
+
+    @Param({"1", "50"})
+    private int records;
+
+    private final Gson gson = new Gson();
+    private final RecordMessageParser parser = new RecordMessageParser(gson);
+    private String message;
+
+    @Setup
+    public void setUp() {
+        StringBuilder data = new StringBuilder("[");
+        for (int i = 0; i < records; i++) {
+            if (i > 0) {
+                data.append(',');
+            }
+            data.append("{\"id\":\"opendes:doc:").append(i)
+                .append("\",\"kind\":\"opendes:wks:well:1.0.0\",\"op\":\"create\"}");
+        }
+        data.append(']');
+        Map<String, Object> body = new HashMap<>();
+        body.put("data", data.toString());
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("data-partition-id", "opendes");
+        attributes.put("correlation-id", "b5a281bd-f59d-4db2-9939-b2d85036fc7e");
+        attributes.put("account-id", "opendes");
+        body.put("attributes", attributes);
+        message = gson.toJson(body);
+    }
+
+    @Benchmark
+    public RecordChangedMessages singlePass() {
+        return parser.parse(message);
+    }
+
+    @Benchmark
+    public String twoPassWithEagerLog() {
+        JsonElement jsonMessage = new JsonParser().parse(message);
+        RecordChangedMessages recordChangedMessages = gson.fromJson(jsonMessage.toString(), RecordChangedMessages.class);
+        Map<String, String> lowerCase = new HashMap<>();
+        recordChangedMessages.getAttributes().forEach((key, value) -> lowerCase.put(key.toLowerCase(), value));
+        recordChangedMessages.setAttributes(lowerCase);
+        return gson.toJson(recordChangedMessages);
+    }
+}
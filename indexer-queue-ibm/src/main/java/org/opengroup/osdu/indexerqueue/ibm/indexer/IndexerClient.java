@@ -0,0 +1,126 @@
+// Copyright 2020 IBM Corp. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.ibm.indexer;
+
+import org.apache.commons.lang3.StringUtils;
+import org.opengroup.osdu.core.common.Constants;
+import org.opengroup.osdu.core.common.http.HttpResponse;
+import org.opengroup.osdu.core.common.model.http.DpsHeaders;
+import org.opengroup.osdu.indexerqueue.ibm.metrics.SubscriberMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Shared client of the indexer worker endpoint. Connections are kept alive and reused across messages, the number of
+ * calls in flight is bounded by the {@link IndexerConcurrencyLimiter} and every call has a connect and a request
+ * timeout. The endpoint and the headers that are the same for every message are built once.
+ */
+@Component
+public class IndexerClient {
+
+    public static final String INDEXER_API_KEY_HEADER = "x-api-key";
+    private static final String CONTENT_TYPE = "application/json";
+    // set by the client itself, java.net.http rejects them
+    private static final Set<String> RESTRICTED_HEADERS = Set.of("connection", "content-length", "expect", "host", "upgrade");
+
+    private final URI workerUri;
+    private final String[] staticHeaders;
+    private final Duration requestTimeout;
+    private final IndexerConcurrencyLimiter limiter;
+    private final HttpClient httpClient;
+    private final SubscriberMetrics metrics;
+
+    public IndexerClient(SubscriberMetrics metrics,
+                         IndexerConcurrencyLimiter limiter,
+                         @Value("${INDEXER_URL}") String indexerUrl,
+                         @Value("${INDEXER_API_KEY}") String indexerApiKey,
+                         @Value("${ibm.indexer.connect-timeout-millis:5000}") long connectTimeoutMillis,
+                         @Value("${ibm.indexer.request-timeout-millis:60000}") long requestTimeoutMillis) {
+        this.metrics = metrics;
+        this.workerUri = URI.create(StringUtils.join(indexerUrl, Constants.WORKER_RELATIVE_URL));
+        this.staticHeaders = new String[]{"Content-Type", CONTENT_TYPE, INDEXER_API_KEY_HEADER, indexerApiKey};
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMillis);
+        this.limiter = limiter;
+        this.httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+            .build();
+    }
+
+    public URI getWorkerUri() {
+        return workerUri;
+    }
+
+    /**
+     * Posts a message to the indexer worker endpoint. Failures are reported in the response, never thrown.
+     *
+     * @param body serialized record changed message
+     * @param headers headers of the message, the api key and content type are added to them
+     * @return response of the indexer
+     */
+    public HttpResponse send(String body, Map<String, String> headers) {
+        HttpResponse response = new HttpResponse();
+        long start = System.nanoTime();
+        String dataPartitionId = headers.get(DpsHeaders.DATA_PARTITION_ID);
+        try {
+            if (!limiter.acquire(dataPartitionId, requestTimeout.toMillis())) {
+                response.setException(new IllegalStateException("Timed out waiting for a permit to call the indexer"));
+            } else {
+                long callStart = System.nanoTime();
+                try {
+                    java.net.http.HttpResponse<String> result = httpClient.send(buildRequest(body, headers),
+                        java.net.http.HttpResponse.BodyHandlers.ofString());
+                    response.setResponseCode(result.statusCode());
+                    response.setBody(result.body());
+                } finally {
+                    limiter.release(dataPartitionId, System.nanoTime() - callStart, !isCapacityError(response));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response.setException(e);
+        } catch (Exception e) {
+            response.setException(e);
+        }
+        metrics.recordIndexerCall(response.getResponseCode(), System.nanoTime() - start);
+        return response;
+    }
+
+    // the indexer is unavailable or overloaded, other errors say nothing about its capacity
+    private static boolean isCapacityError(HttpResponse response) {
+        int status = response.getResponseCode();
+        return status == 0 || status == 429 || status >= 500;
+    }
+
+    private HttpRequest buildRequest(String body, Map<String, String> headers) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(workerUri)
+            .timeout(requestTimeout)
+            .POST(HttpRequest.BodyPublishers.ofString(body));
+        headers.forEach((name, value) -> {
+            if (value != null && !RESTRICTED_HEADERS.contains(name.toLowerCase())
+                && !INDEXER_API_KEY_HEADER.equalsIgnoreCase(name) && !"content-type".equalsIgnoreCase(name)) {
+                builder.header(name, value);
+            }
+        });
+        return builder.headers(staticHeaders).build();
+    }
+}
@@ -0,0 +1,234 @@
+// Copyright 2020 IBM Corp. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.ibm.indexer;
+
+import org.opengroup.osdu.indexerqueue.ibm.metrics.SubscriberMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the indexer calls in flight, in total and per data partition. The total limit follows the latency of the
+ * indexer with a gradient: every sample window it is scaled by the ratio of the lowest latency seen to the current
+ * one, so the limit shrinks as soon as calls queue up in the indexer and grows back while latency stays at its floor.
+ * Failed calls make it back off. While more than one partition has calls in flight, a partition may use at most a
+ * share of the limit, so one busy tenant does not take all of it; a single partition may use the whole limit.
+ * <p>
+ * Listeners are told when the limiter is saturated, i.e. the limit or the share of a partition is reached or a call
+ * has to wait for a permit, and again once the calls in flight have dropped below the resume threshold, so
+ * consumption can be paused instead of blocking consumer threads.
+ */
+@Component
+public class IndexerConcurrencyLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexerConcurrencyLimiter.class);
+    private static final double SMOOTHING = 0.2;
+    // the lowest latency is forgotten after this many windows, in case the indexer got permanently slower
+    private static final int MIN_LATENCY_RESET_WINDOWS = 50;
+
+    /**
+     * Called in order with the limiter locked, implementations have to hand the work off without blocking.
+     */
+    public interface SaturationListener {
+        void onSaturated();
+
+        void onRelieved();
+    }
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double partitionShare;
+    private final double resumeRatio;
+    private final int sampleWindow;
+    private final List<SaturationListener> listeners = new CopyOnWriteArrayList<>();
+    private final Map<String, Integer> partitionInFlight = new HashMap<>();
+
+    private double limit;
+    private int inFlight;
+    private int waiters;
+    private boolean saturated;
+    private long minLatencyNanos = Long.MAX_VALUE;
+    private int windowsSinceMinLatency;
+    private int samples;
+    private int failures;
+    private long totalLatencyNanos;
+
+    public IndexerConcurrencyLimiter(SubscriberMetrics metrics,
+                                     @Value("${ibm.indexer.concurrency.min-limit:4}") int minLimit,
+                                     @Value("${ibm.indexer.max-concurrent-requests:32}") int maxLimit,
+                                     @Value("${ibm.indexer.concurrency.partition-share:0.5}") double partitionShare,
+                                     @Value("${ibm.indexer.concurrency.resume-ratio:0.75}") double resumeRatio,
+                                     @Value("${ibm.indexer.concurrency.sample-window:20}") int sampleWindow) {
+        this.maxLimit = Math.max(1, maxLimit);
+        this.minLimit = Math.min(Math.max(1, minLimit), this.maxLimit);
+        this.partitionShare = Math.min(1.0, Math.max(0.0, partitionShare));
+        this.resumeRatio = Math.min(1.0, Math.max(0.0, resumeRatio));
+        this.sampleWindow = Math.max(1, sampleWindow);
+        this.limit = this.minLimit + (this.maxLimit - this.minLimit) / 2.0;
+        metrics.bindConcurrencyLimiter(this::getLimit, this::getInFlight);
+    }
+
+    public void addListener(SaturationListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Waits for a permit of the partition.
+     *
+     * @param dataPartitionId partition of the call, may be null
+     * @param timeoutMillis maximum time to wait
+     * @return true if the permit was acquired and has to be released
+     */
+    public synchronized boolean acquire(String dataPartitionId, long timeoutMillis) throws InterruptedException {
+        String partition = String.valueOf(dataPartitionId);
+        if (!hasPermit(partition)) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            boolean permitted = false;
+            // a call that has to wait saturates the limiter, so consumption pauses instead of more threads waiting
+            waiters++;
+            updateSaturation();
+            try {
+                while (!hasPermit(partition)) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+                permitted = true;
+            } finally {
+                waiters--;
+                if (!permitted) {
+                    updateSaturation();
+                }
+            }
+        }
+        inFlight++;
+        partitionInFlight.merge(partition, 1, Integer::sum);
+        updateSaturation();
+        return true;
+    }
+
+    /**
+     * @param dataPartitionId partition the permit was acquired for
+     * @param latencyNanos duration of the call
+     * @param success false if the call failed because the indexer is unavailable or overloaded
+     */
+    public synchronized void release(String dataPartitionId, long latencyNanos, boolean success) {
+        String partition = String.valueOf(dataPartitionId);
+        inFlight--;
+        partitionInFlight.computeIfPresent(partition, (key, count) -> count > 1 ? count - 1 : null);
+        samples++;
+        totalLatencyNanos += latencyNanos;
+        if (!success) {
+            failures++;
+        }
+        if (samples >= sampleWindow) {
+            adjustLimit();
+        }
+        updateSaturation();
+        notifyAll();
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return true from the moment the limiter is saturated until the calls in flight dropped below the resume threshold
+     */
+    public synchronized boolean isSaturated() {
+        return saturated;
+    }
+
+    private boolean hasPermit(String partition) {
+        int current = getLimit();
+        if (inFlight >= current) {
+            return false;
+        }
+        return !isShared(partition) || partitionInFlight.getOrDefault(partition, 0) < partitionLimit(current);
+    }
+
+    // the share only applies while another partition has calls in flight too
+    private boolean isShared(String partition) {
+        int active = partitionInFlight.size();
+        return active > 1 || (active == 1 && !partitionInFlight.containsKey(partition));
+    }
+
+    private int partitionLimit(int current) {
+        return Math.max(1, (int) Math.ceil(current * partitionShare));
+    }
+
+    private boolean isPartitionSaturated(double ratio) {
+        if (partitionInFlight.size() < 2) {
+            return false;
+        }
+        double threshold = partitionLimit(getLimit()) * ratio;
+        for (int count : partitionInFlight.values()) {
+            if (count >= threshold) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void updateSaturation() {
+        if (!saturated && (waiters > 0 || inFlight >= getLimit() || isPartitionSaturated(1.0))) {
+            saturated = true;
+            logger.info("Indexer concurrency limit of {} reached, pausing consumption", getLimit());
+            listeners.forEach(SaturationListener::onSaturated);
+        } else if (saturated && waiters == 0 && inFlight < getLimit() * resumeRatio && !isPartitionSaturated(resumeRatio)) {
+            saturated = false;
+            logger.info("Indexer calls in flight below the resume threshold, resuming consumption");
+            listeners.forEach(SaturationListener::onRelieved);
+        }
+    }
+
+    private void adjustLimit() {
+        long averageLatency = totalLatencyNanos / samples;
+        if (averageLatency < minLatencyNanos || ++windowsSinceMinLatency >= MIN_LATENCY_RESET_WINDOWS) {
+            minLatencyNanos = Math.max(1, averageLatency);
+            windowsSinceMinLatency = 0;
+        }
+        int previous = getLimit();
+        double target;
+        if (failures > 0) {
+            target = limit / 2;
+        } else {
+            // gradient of 1 while latency is at its floor, the square root lets the limit probe for more capacity
+            double gradient = Math.max(0.5, Math.min(1.0, (double) minLatencyNanos / averageLatency));
+            target = limit * gradient + Math.sqrt(limit);
+        }
+        limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + target * SMOOTHING));
+        if (getLimit() != previous) {
+            logger.debug("Indexer concurrency limit changed from {} to {} (average latency {} ms, failures {})",
+                previous, getLimit(), TimeUnit.NANOSECONDS.toMillis(averageLatency), failures);
+        }
+        samples = 0;
+        failures = 0;
+        totalLatencyNanos = 0;
+    }
+}
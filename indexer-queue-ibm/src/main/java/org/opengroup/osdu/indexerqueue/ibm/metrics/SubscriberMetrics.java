@@ -0,0 +1,175 @@
+// Copyright 2020 IBM Corp. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.ibm.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jms.config.JmsListenerEndpointRegistry;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Micrometer meters of the IBM subscribers, scraped through the actuator prometheus endpoint: how long a message is
+ * handled, how long the indexer takes to answer, how often calls are retried or messages dead-lettered, how many
+ * indexer calls are in flight and how many consumers each listener container runs.
+ */
+@Component
+public class SubscriberMetrics {
+
+    public static final String CONSUME_LATENCY = "indexer.queue.consume.latency";
+    public static final String INDEXER_LATENCY = "indexer.queue.indexer.latency";
+    public static final String RETRIES = "indexer.queue.retries";
+    public static final String DLQ_SENDS = "indexer.queue.dlq.sends";
+    public static final String IN_FLIGHT = "indexer.queue.indexer.in.flight";
+    public static final String CONCURRENCY_LIMIT = "indexer.queue.indexer.concurrency.limit";
+    public static final String ACTIVE_CONSUMERS = "indexer.queue.listener.active.consumers";
+
+    public static final String OUTCOME_INDEXED = "indexed";
+    public static final String OUTCOME_RETRIED = "retried";
+    public static final String OUTCOME_DLQ = "dlq";
+
+    public static final String DLQ_EXHAUSTED = "exhausted";
+    public static final String DLQ_INVALID = "invalid";
+    public static final String DLQ_SHUTDOWN = "shutdown";
+    public static final String DLQ_OVERFLOW = "overflow";
+
+    private static final Duration MIN_EXPECTED_LATENCY = Duration.ofMillis(1);
+    private static final Duration MAX_EXPECTED_LATENCY = Duration.ofMinutes(5);
+
+    private final MeterRegistry meterRegistry;
+    private final ObjectProvider<RabbitListenerEndpointRegistry> rabbitListenerRegistry;
+    private final ObjectProvider<JmsListenerEndpointRegistry> jmsListenerRegistry;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    public SubscriberMetrics(MeterRegistry meterRegistry,
+                             ObjectProvider<RabbitListenerEndpointRegistry> rabbitListenerRegistry,
+                             ObjectProvider<JmsListenerEndpointRegistry> jmsListenerRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.rabbitListenerRegistry = rabbitListenerRegistry;
+        this.jmsListenerRegistry = jmsListenerRegistry;
+    }
+
+    /**
+     * @param listener listener that handled the message
+     * @param outcome processed, retried or dlq
+     * @param nanos time from receipt until the message was handed off
+     */
+    public void recordConsume(String listener, String outcome, long nanos) {
+        timers.computeIfAbsent(CONSUME_LATENCY + '|' + listener + '|' + outcome, key -> histogram(CONSUME_LATENCY)
+                .description("Time a listener spends on a message or batch")
+                .tags("listener", listener, "outcome", outcome)
+                .register(meterRegistry))
+            .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param status status code of the indexer response, 0 if the call failed without one
+     * @param nanos duration of the call, including the wait for a connection
+     */
+    public void recordIndexerCall(int status, long nanos) {
+        String statusClass = status == 0 ? "error" : (status / 100) + "xx";
+        timers.computeIfAbsent(INDEXER_LATENCY + '|' + statusClass, key -> histogram(INDEXER_LATENCY)
+                .description("Latency of the calls to the indexer worker")
+                .tags("status", statusClass)
+                .register(meterRegistry))
+            .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param limit current limit of the indexer calls in flight
+     * @param inFlight indexer calls in flight
+     */
+    public void bindConcurrencyLimiter(Supplier<Number> limit, Supplier<Number> inFlight) {
+        Gauge.builder(CONCURRENCY_LIMIT, limit)
+            .description("Limit of the indexer calls in flight")
+            .register(meterRegistry);
+        Gauge.builder(IN_FLIGHT, inFlight)
+            .description("Indexer calls in flight")
+            .register(meterRegistry);
+    }
+
+    /**
+     * @param listener listener retrying the message
+     */
+    public void recordRetry(String listener) {
+        count(RETRIES, "Indexer calls scheduled for a retry", "listener", listener);
+    }
+
+    /**
+     * @param reason exhausted, invalid, shutdown or overflow
+     */
+    public void recordDlqSend(String reason) {
+        count(DLQ_SENDS, "Messages sent to the dead letter queue", "reason", reason);
+    }
+
+    private void count(String name, String description, String tagKey, String tagValue) {
+        counters.computeIfAbsent(name + '|' + tagValue, key -> Counter.builder(name)
+                .description(description)
+                .tags(tagKey, tagValue)
+                .register(meterRegistry))
+            .increment();
+    }
+
+    private static Timer.Builder histogram(String name) {
+        return Timer.builder(name)
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .publishPercentileHistogram()
+            .minimumExpectedValue(MIN_EXPECTED_LATENCY)
+            .maximumExpectedValue(MAX_EXPECTED_LATENCY);
+    }
+
+    /**
+     * The listener containers are started with the context, their consumer counts are bound once it is ready.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void bindListenerContainers() {
+        rabbitListenerRegistry.ifAvailable(registry -> {
+            for (String id : registry.getListenerContainerIds()) {
+                if (registry.getListenerContainer(id) instanceof SimpleMessageListenerContainer container) {
+                    activeConsumers("rabbitmq", id, container, SimpleMessageListenerContainer::getActiveConsumerCount);
+                }
+            }
+        });
+        jmsListenerRegistry.ifAvailable(registry -> {
+            for (String id : registry.getListenerContainerIds()) {
+                if (registry.getListenerContainer(id) instanceof DefaultMessageListenerContainer container) {
+                    activeConsumers("activemq", id, container, DefaultMessageListenerContainer::getActiveConsumerCount);
+                }
+            }
+        });
+    }
+
+    private <T> void activeConsumers(String broker, String listenerId, T container, ToDoubleFunction<T> count) {
+        Gauge.builder(ACTIVE_CONSUMERS, container, count)
+            .description("Consumers running in a listener container")
+            .tags("broker", broker, "listener", listenerId)
+            .register(meterRegistry);
+    }
+}
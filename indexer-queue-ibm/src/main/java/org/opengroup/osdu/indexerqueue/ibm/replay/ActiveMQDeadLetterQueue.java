@@ -0,0 +1,66 @@
+// Copyright 2020 IBM Corp. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.ibm.replay;
+
+import jakarta.jms.ConnectionFactory;
+import jakarta.jms.JMSConsumer;
+import jakarta.jms.JMSContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Reads the DLQ in a transacted session, which is committed after every message once it has been handled. The queue
+ * is considered empty when no message arrives within the receive timeout.
+ */
+@Component
+@ConditionalOnProperty(prefix = "ibm.queue", name = "manager", havingValue = "activemq")
+public class ActiveMQDeadLetterQueue implements DeadLetterQueue {
+
+    private final ConnectionFactory connectionFactory;
+    private final String queueName;
+    private final long receiveTimeoutMillis;
+
+    public ActiveMQDeadLetterQueue(ConnectionFactory connectionFactory,
+                                   @Value(NAME) String queueName,
+                                   @Value("${ibm.replay.receive-timeout-millis:1000}") long receiveTimeoutMillis) {
+        this.connectionFactory = connectionFactory;
+        this.queueName = queueName;
+        this.receiveTimeoutMillis = receiveTimeoutMillis;
+    }
+
+    @Override
+    public void drain(BooleanSupplier proceed, Consumer<String> handler) {
+        try (JMSContext context = connectionFactory.createContext(JMSContext.SESSION_TRANSACTED);
+             JMSConsumer consumer = context.createConsumer(context.createQueue(queueName))) {
+            while (proceed.getAsBoolean()) {
+                String msg = consumer.receiveBody(String.class, receiveTimeoutMillis);
+                if (msg == null) {
+                    break;
+                }
+                try {
+                    handler.accept(msg);
+                } catch (RuntimeException e) {
+                    context.rollback();
+                    throw e;
+                }
+                context.commit();
+            }
+        }
+    }
+}
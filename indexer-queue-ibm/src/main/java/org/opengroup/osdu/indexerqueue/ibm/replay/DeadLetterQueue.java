@@ -0,0 +1,38 @@
+// Copyright 2020 IBM Corp. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.ibm.replay;
+
+import org.opengroup.osdu.core.ibm.messagebus.IMessageFactory;
+
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Dead letter queue of the indexer queue, read by the {@link DlqReplayService}.
+ */
+public interface DeadLetterQueue {
+
+    String NAME = "${ibm.replay.dlq-name:${ibm.env.prefix}-" + IMessageFactory.DEFAULT_QUEUE_NAME + "-dlq}";
+
+    /**
+     * Takes the messages off the queue one at a time, until it is empty or {@code proceed} returns false. A message is
+     * only removed once the handler returned, if the handler throws it stays on the queue and the exception is
+     * rethrown.
+     *
+     * @param proceed asked before every message, may block to pace the drain
+     * @param handler handler of the message body
+     */
+    void drain(BooleanSupplier proceed, Consumer<String> handler);
+}
@@ -0,0 +1,227 @@
+// Copyright 2020 IBM Corp. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.ibm.replay;
+
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.RateLimiter;
+import org.opengroup.osdu.core.common.model.search.RecordChangedMessages;
+import org.opengroup.osdu.core.ibm.messagebus.IMessageFactory;
+import org.opengroup.osdu.indexerqueue.ibm.indexer.IndexerConcurrencyLimiter;
+import org.opengroup.osdu.indexerqueue.ibm.subscribe.RecordMessageParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Replays the DLQ: the messages are sent back to the indexer queue at a fixed rate, where the listeners handle them
+ * like any other message. Replayed messages can be restricted to a data partition and an error code, the others are
+ * put back at the end of the DLQ tagged with the id of the replay, which ends once a tagged message comes round again.
+ * Messages that can not be tagged, having no attributes object or not being valid JSON, are recognized by their body
+ * instead. While the indexer calls are saturated the replay waits, so a recovering indexer is not flooded again.
+ * <p>
+ * One replay runs at a time, on a thread of its own.
+ */
+@Component
+public class DlqReplayService implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(DlqReplayService.class);
+    private static final String ERROR_CODE_ATTRIBUTE = RecordMessageParser.ERROR_CODE_ATTRIBUTE.toLowerCase(Locale.ROOT);
+    private static final String REPLAY_ID_ATTRIBUTE = RecordMessageParser.REPLAY_ID_ATTRIBUTE.toLowerCase(Locale.ROOT);
+
+    private final ObjectProvider<DeadLetterQueue> deadLetterQueue;
+    private final IMessageFactory mq;
+    private final IndexerConcurrencyLimiter limiter;
+    private final RecordMessageParser parser = new RecordMessageParser();
+    private final double defaultRatePerSecond;
+    private final long saturationPauseMillis;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "dlq-replay");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile ReplayProgress current;
+
+    public DlqReplayService(ObjectProvider<DeadLetterQueue> deadLetterQueue,
+                            IMessageFactory mq,
+                            IndexerConcurrencyLimiter limiter,
+                            @Value("${ibm.replay.rate-per-second:50}") double defaultRatePerSecond,
+                            @Value("${ibm.replay.saturation-pause-millis:500}") long saturationPauseMillis) {
+        this.deadLetterQueue = deadLetterQueue;
+        this.mq = mq;
+        this.limiter = limiter;
+        this.defaultRatePerSecond = defaultRatePerSecond;
+        this.saturationPauseMillis = Math.max(1, saturationPauseMillis);
+    }
+
+    /**
+     * @param dataPartitionId only messages of this partition are replayed, all if null
+     * @param errorCode only messages dead-lettered with this error code are replayed, all if null
+     * @param ratePerSecond messages replayed per second, the configured rate if null
+     * @param maxMessages the replay stops after this many messages, no limit if null or 0
+     * @return progress of the replay that was started
+     * @throws IllegalStateException if a replay is running or there is no DLQ to read
+     * @throws IllegalArgumentException if the rate or the limit is invalid
+     */
+    public synchronized ReplayProgress start(String dataPartitionId, String errorCode, Double ratePerSecond, Long maxMessages) {
+        if (current != null && current.isRunning()) {
+            throw new IllegalStateException("A replay of the DLQ is already running");
+        }
+        DeadLetterQueue dlq = deadLetterQueue.getIfAvailable();
+        if (dlq == null) {
+            throw new IllegalStateException("No DLQ is configured for the queue manager");
+        }
+        double rate = ratePerSecond == null ? defaultRatePerSecond : ratePerSecond;
+        long limit = maxMessages == null ? 0 : maxMessages;
+        if (rate <= 0 || limit < 0) {
+            throw new IllegalArgumentException("The rate has to be positive and the message limit can not be negative");
+        }
+        ReplayProgress progress = new ReplayProgress(Strings.emptyToNull(dataPartitionId), Strings.emptyToNull(errorCode), rate, limit);
+        current = progress;
+        logger.info("Starting replay of the DLQ, partition: {}, error code: {}, rate: {}/s, limit: {}",
+            progress.getDataPartitionId(), progress.getErrorCode(), rate, limit);
+        executor.execute(new Replay(dlq, progress)::run);
+        return progress;
+    }
+
+    /**
+     * @return progress of the running or last replay, null if none was started
+     */
+    public ReplayProgress getProgress() {
+        return current;
+    }
+
+    /**
+     * Stops the running replay after the message in hand.
+     *
+     * @return progress of the replay, null if none was started
+     */
+    public ReplayProgress cancel() {
+        ReplayProgress progress = current;
+        if (progress != null) {
+            progress.cancel();
+        }
+        return progress;
+    }
+
+    @Override
+    public void destroy() {
+        cancel();
+        executor.shutdownNow();
+    }
+
+    private class Replay {
+
+        private final DeadLetterQueue dlq;
+        private final ReplayProgress progress;
+        private final RateLimiter rateLimiter;
+        private final String replayId = UUID.randomUUID().toString();
+        private String firstUntagged;
+        private boolean cycled;
+
+        Replay(DeadLetterQueue dlq, ReplayProgress progress) {
+            this.dlq = dlq;
+            this.progress = progress;
+            this.rateLimiter = RateLimiter.create(progress.getRatePerSecond());
+        }
+
+        void run() {
+            try {
+                dlq.drain(this::proceed, this::handle);
+                progress.complete();
+            } catch (RuntimeException e) {
+                logger.error("Replay of the DLQ failed: {}", e.getMessage(), e);
+                progress.fail(e.getMessage());
+            }
+            logger.info("Replay of the DLQ {}, received: {}, replayed: {}, skipped: {}", progress.getState(),
+                progress.getReceived(), progress.getReplayed(), progress.getSkipped());
+        }
+
+        private boolean proceed() {
+            // the listeners are paused while the indexer is saturated, replayed messages would only wait on the queue
+            while (progress.isRunning() && limiter.isSaturated()) {
+                try {
+                    Thread.sleep(saturationPauseMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    progress.cancel();
+                }
+            }
+            return progress.isRunning() && !progress.reachedLimit() && !cycled;
+        }
+
+        private void handle(String msg) {
+            RecordChangedMessages recordMessage = parse(msg);
+            if (recordMessage != null && replayId.equals(recordMessage.getAttributes().get(REPLAY_ID_ATTRIBUTE))) {
+                endCycle(msg);
+                return;
+            }
+            if (matches(recordMessage)) {
+                progress.received();
+                rateLimiter.acquire();
+                mq.sendMessage(parser.withoutAttribute(msg, RecordMessageParser.REPLAY_ID_ATTRIBUTE));
+                progress.replayed();
+                return;
+            }
+            String tagged = parser.withAttribute(msg, RecordMessageParser.REPLAY_ID_ATTRIBUTE, replayId);
+            if (tagged.equals(msg)) {
+                if (msg.equals(firstUntagged)) {
+                    endCycle(msg);
+                    return;
+                }
+                if (firstUntagged == null) {
+                    firstUntagged = msg;
+                }
+            }
+            progress.received();
+            mq.sendMessageDLQ(tagged);
+            progress.skipped();
+        }
+
+        // the message was put back by this replay, every message that was on the DLQ before it has been seen
+        private void endCycle(String msg) {
+            cycled = true;
+            mq.sendMessageDLQ(msg);
+        }
+
+        private RecordChangedMessages parse(String msg) {
+            try {
+                return parser.parse(msg);
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+
+        // invalid messages are never replayed, they would be dead-lettered again
+        private boolean matches(RecordChangedMessages recordMessage) {
+            if (recordMessage == null) {
+                return false;
+            }
+            if (progress.getDataPartitionId() != null
+                && !progress.getDataPartitionId().equals(recordMessage.getDataPartitionId())) {
+                return false;
+            }
+            return progress.getErrorCode() == null
+                || progress.getErrorCode().equals(recordMessage.getAttributes().get(ERROR_CODE_ATTRIBUTE));
+        }
+    }
+}
@@ -0,0 +1,63 @@
+// Copyright 2020 IBM Corp. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.ibm.replay;
+
+import com.rabbitmq.client.GetResponse;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Reads the DLQ with basic get on a single channel and acknowledges every message once it has been handled.
+ */
+@Component
+@ConditionalOnProperty(prefix = "ibm.queue", name = "manager", havingValue = "rabbitmq")
+public class RabbitMQDeadLetterQueue implements DeadLetterQueue {
+
+    private final RabbitTemplate rabbitTemplate;
+    private final String queueName;
+
+    public RabbitMQDeadLetterQueue(RabbitTemplate rabbitTemplate, @Value(NAME) String queueName) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.queueName = queueName;
+    }
+
+    @Override
+    public void drain(BooleanSupplier proceed, Consumer<String> handler) {
+        rabbitTemplate.execute(channel -> {
+            while (proceed.getAsBoolean()) {
+                GetResponse response = channel.basicGet(queueName, false);
+                if (response == null) {
+                    break;
+                }
+                long deliveryTag = response.getEnvelope().getDeliveryTag();
+                try {
+                    handler.accept(new String(response.getBody(), UTF_8));
+                } catch (RuntimeException e) {
+                    channel.basicNack(deliveryTag, false, true);
+                    throw e;
+                }
+                channel.basicAck(deliveryTag, false);
+            }
+            return null;
+        });
+    }
+}
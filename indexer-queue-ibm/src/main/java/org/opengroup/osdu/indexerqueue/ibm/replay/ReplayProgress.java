@@ -0,0 +1,146 @@
+// Copyright 2020 IBM Corp. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.ibm.replay;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Progress of a replay of the DLQ. Updated by the replay thread, read by the actuator endpoint.
+ */
+public class ReplayProgress {
+
+    public enum State {
+        RUNNING, COMPLETED, CANCELLED, FAILED
+    }
+
+    private final String dataPartitionId;
+    private final String errorCode;
+    private final double ratePerSecond;
+    private final long maxMessages;
+    private final Instant startedAt = Instant.now();
+    private final AtomicReference<State> state = new AtomicReference<>(State.RUNNING);
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private volatile Instant finishedAt;
+    private volatile String failure;
+
+    /**
+     * @param dataPartitionId only messages of this partition are replayed, all if null
+     * @param errorCode only messages dead-lettered with this error code are replayed, all if null
+     * @param ratePerSecond messages replayed per second
+     * @param maxMessages the replay stops after this many messages, 0 for no limit
+     */
+    ReplayProgress(String dataPartitionId, String errorCode, double ratePerSecond, long maxMessages) {
+        this.dataPartitionId = dataPartitionId;
+        this.errorCode = errorCode;
+        this.ratePerSecond = ratePerSecond;
+        this.maxMessages = maxMessages;
+    }
+
+    public String getDataPartitionId() {
+        return dataPartitionId;
+    }
+
+    public String getErrorCode() {
+        return errorCode;
+    }
+
+    public double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    public long getMaxMessages() {
+        return maxMessages;
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public String getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return messages taken off the DLQ
+     */
+    public long getReceived() {
+        return received.get();
+    }
+
+    /**
+     * @return messages sent back to the indexer queue
+     */
+    public long getReplayed() {
+        return replayed.get();
+    }
+
+    /**
+     * @return messages put back on the DLQ because they did not match the filter
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    boolean isRunning() {
+        return state.get() == State.RUNNING;
+    }
+
+    boolean reachedLimit() {
+        return maxMessages > 0 && replayed.get() >= maxMessages;
+    }
+
+    void received() {
+        received.incrementAndGet();
+    }
+
+    void replayed() {
+        replayed.incrementAndGet();
+    }
+
+    void skipped() {
+        skipped.incrementAndGet();
+    }
+
+    void cancel() {
+        finish(State.CANCELLED, null);
+    }
+
+    void complete() {
+        finish(State.COMPLETED, null);
+    }
+
+    void fail(String reason) {
+        finish(State.FAILED, reason);
+    }
+
+    private void finish(State finalState, String reason) {
+        if (state.compareAndSet(State.RUNNING, finalState)) {
+            failure = reason;
+            finishedAt = Instant.now();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+// Copyright 2020 IBM Corp. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.ibm.subscribe;
+
+import org.opengroup.osdu.indexerqueue.ibm.indexer.IndexerConcurrencyLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jms.config.JmsListenerEndpointRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops the running listener containers while the indexer concurrency limiter is saturated and starts them again once
+ * the calls in flight have dropped, so messages stay on the broker instead of piling up in blocked consumer threads.
+ * Containers stay stopped, or running, for at least the minimum pause, so a limiter hovering at its threshold does not
+ * make them stop and start all the time. Containers are stopped and started on a thread of their own, a container can
+ * not wait for its own consumers.
+ */
+@Component
+public class ListenerBackpressure implements IndexerConcurrencyLimiter.SaturationListener, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ListenerBackpressure.class);
+
+    private final ObjectProvider<RabbitListenerEndpointRegistry> rabbitListenerRegistry;
+    private final ObjectProvider<JmsListenerEndpointRegistry> jmsListenerRegistry;
+    private final long minPauseNanos;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "listener-backpressure");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean saturated;
+    // only accessed from the executor thread
+    private final List<SmartLifecycle> paused = new ArrayList<>();
+    private boolean pausing;
+    private boolean reconcileScheduled;
+    // far enough in the past for the first pause to take effect at once
+    private long lastChangeNanos = System.nanoTime() - Long.MAX_VALUE / 2;
+
+    public ListenerBackpressure(IndexerConcurrencyLimiter limiter,
+                                ObjectProvider<RabbitListenerEndpointRegistry> rabbitListenerRegistry,
+                                ObjectProvider<JmsListenerEndpointRegistry> jmsListenerRegistry,
+                                @Value("${ibm.indexer.concurrency.pause-listeners:true}") boolean enabled,
+                                @Value("${ibm.indexer.concurrency.min-pause-millis:1000}") long minPauseMillis) {
+        this.rabbitListenerRegistry = rabbitListenerRegistry;
+        this.jmsListenerRegistry = jmsListenerRegistry;
+        this.minPauseNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, minPauseMillis));
+        if (enabled) {
+            limiter.addListener(this);
+        }
+    }
+
+    @Override
+    public void onSaturated() {
+        saturated = true;
+        executor.execute(this::reconcile);
+    }
+
+    @Override
+    public void onRelieved() {
+        saturated = false;
+        executor.execute(this::reconcile);
+    }
+
+    /*
+     * Brings the containers in line with the latest state of the limiter, once the minimum pause since the last
+     * change has passed.
+     */
+    private void reconcile() {
+        boolean pause = saturated;
+        if (pause == pausing) {
+            return;
+        }
+        long wait = lastChangeNanos + minPauseNanos - System.nanoTime();
+        if (wait > 0) {
+            if (!reconcileScheduled) {
+                reconcileScheduled = true;
+                executor.schedule(() -> {
+                    reconcileScheduled = false;
+                    reconcile();
+                }, wait, TimeUnit.NANOSECONDS);
+            }
+            return;
+        }
+        pausing = pause;
+        lastChangeNanos = System.nanoTime();
+        if (pause) {
+            rabbitListenerRegistry.ifAvailable(registry -> registry.getListenerContainers().forEach(this::pause));
+            jmsListenerRegistry.ifAvailable(registry -> registry.getListenerContainers().forEach(this::pause));
+        } else {
+            resume();
+        }
+    }
+
+    private void resume() {
+        for (SmartLifecycle container : paused) {
+            try {
+                container.start();
+            } catch (Exception e) {
+                logger.error("Failed to resume listener container: {}", e.getMessage());
+            }
+        }
+        paused.clear();
+    }
+
+    private void pause(SmartLifecycle container) {
+        if (!container.isRunning() || paused.contains(container)) {
+            return;
+        }
+        try {
+            container.stop();
+            paused.add(container);
+        } catch (Exception e) {
+            logger.error("Failed to pause listener container: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
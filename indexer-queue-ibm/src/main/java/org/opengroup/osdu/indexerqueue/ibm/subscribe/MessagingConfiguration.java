@@ -14,16 +14,45 @@
 
 package org.opengroup.osdu.indexerqueue.ibm.subscribe;
 
+import jakarta.jms.ConnectionFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.jms.annotation.EnableJms;
+import org.springframework.jms.config.DefaultJmsListenerContainerFactory;
 import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
 
 @Configuration
 @EnableJms
 public class MessagingConfiguration {
 
+	public static final String CONTAINER_FACTORY = "indexerJmsListenerContainerFactory";
+
 	@Autowired
 	public JmsTemplate jmsTemplate;
 
+	// lower and upper bound of the consumers, e.g. "4-16"
+	@Value("${ibm.activemq.listener.concurrency:4-16}")
+	private String concurrency;
+
+	/**
+	 * Listener container of the indexer queue. Consumers are added up to the upper bound of the concurrency while
+	 * messages are waiting, and each consumer keeps its session and message consumer instead of opening them per
+	 * receive. The container manages the connection itself, a caching connection factory would only get in the way of
+	 * the consumers it adds and removes.
+	 */
+	@Bean(name = CONTAINER_FACTORY)
+	@ConditionalOnProperty(prefix = "ibm.queue", name = "manager", havingValue = "activemq")
+	public DefaultJmsListenerContainerFactory indexerJmsListenerContainerFactory(ConnectionFactory connectionFactory) {
+		DefaultJmsListenerContainerFactory factory = new DefaultJmsListenerContainerFactory();
+		factory.setConnectionFactory(connectionFactory);
+		factory.setConcurrency(concurrency);
+		factory.setCacheLevel(DefaultMessageListenerContainer.CACHE_CONSUMER);
+		factory.setSessionTransacted(true);
+		return factory;
+	}
+
 }
@@ -0,0 +1,175 @@
+// Copyright 2020 IBM Corp. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.ibm.subscribe;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.rabbitmq.client.Channel;
+import org.opengroup.osdu.core.common.model.search.RecordChangedMessages;
+import org.opengroup.osdu.core.ibm.messagebus.IMessageFactory;
+import org.opengroup.osdu.indexerqueue.ibm.metrics.SubscriberMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Consumes the indexer queue in batches: the record changes of a batch are merged per set of indexer headers and each
+ * set is indexed with one call, instead of one call per message. The deliveries of a batch are acknowledged together
+ * once the calls are made, failed calls are retried and dead-lettered as in {@link RabbitMQSubscriber}. Messages of a
+ * group that could not be dispatched at all are requeued, the rest of the batch is still acknowledged.
+ */
+@Component
+@ConditionalOnExpression("'${ibm.queue.manager:}' == 'rabbitmq' && ${ibm.rabbitmq.listener.batch.enabled:false}")
+public class RabbitMQBatchSubscriber {
+
+    private static final Logger logger = LoggerFactory.getLogger(RabbitMQBatchSubscriber.class);
+    private static final String LISTENER = "rabbitmq-batch";
+
+    @Autowired
+    RabbitMQSubscriber subscriber;
+
+    @Autowired
+    SubscriberMetrics metrics;
+
+    /*
+     * false : Messages will be indexed from Queue
+     * true : Messages will be indexed from TOPIC
+     */
+    @Value("${ibm.topic.enable:false}")
+    private String topicFlag;
+
+    private final Gson gson = new Gson();
+    private final RecordMessageParser parser = new RecordMessageParser(gson);
+
+    @RabbitListener(queues = "${ibm.env.prefix}" + "-" + IMessageFactory.DEFAULT_QUEUE_NAME,
+        containerFactory = RabbitMQListenerConfiguration.BATCH_CONTAINER_FACTORY)
+    public void receivedRabbitMessages(List<Message> messages, Channel channel) throws IOException {
+        if (messages.isEmpty()) {
+            return;
+        }
+        long lastDeliveryTag = messages.get(messages.size() - 1).getMessageProperties().getDeliveryTag();
+        logger.info("received {} messages", messages.size());
+        long start = System.nanoTime();
+
+        if (topicFlag.equalsIgnoreCase("true")) {
+            logger.info(
+                "Indexing api will not be called or disable flag 'ibm.topic.enable'. Indexing will be happen on messages from Topic");
+            channel.basicAck(lastDeliveryTag, true);
+            return;
+        }
+
+        Set<Long> failed = new HashSet<>();
+        for (HeaderBatch batch : groupByHeaders(messages, failed).values()) {
+            try {
+                String outcome = subscriber.callIndexer(batch.msgs, gson.toJson(batch.merged()), batch.headers, 1);
+                metrics.recordConsume(LISTENER, outcome, System.nanoTime() - start);
+            } catch (Exception ex) {
+                // nothing was dead-lettered or scheduled for this group, let the broker deliver its messages again
+                logger.error("Failed to dispatch {} messages, requeuing them: {}", batch.msgs.size(), ex.getMessage());
+                failed.addAll(batch.deliveryTags);
+            }
+        }
+        if (failed.isEmpty()) {
+            channel.basicAck(lastDeliveryTag, true);
+            return;
+        }
+        for (Message message : messages) {
+            long deliveryTag = message.getMessageProperties().getDeliveryTag();
+            if (failed.contains(deliveryTag)) {
+                channel.basicNack(deliveryTag, false, true);
+            } else {
+                channel.basicAck(deliveryTag, false);
+            }
+        }
+    }
+
+    /*
+     * Messages are merged only when the indexer would get the same headers for each of them, so the partition, the
+     * collaboration and the correlation id of every message reach the indexer. Delivery tags of messages that could
+     * neither be parsed nor dead-lettered are added to the failed ones.
+     */
+    private Map<Map<String, String>, HeaderBatch> groupByHeaders(List<Message> messages, Set<Long> failed) {
+        Map<Map<String, String>, HeaderBatch> batches = new LinkedHashMap<>();
+        for (Message message : messages) {
+            long deliveryTag = message.getMessageProperties().getDeliveryTag();
+            String msg = new String(message.getBody(), StandardCharsets.UTF_8);
+            RecordChangedMessages recordMessage;
+            JsonElement records;
+            Map<String, String> headers;
+            try {
+                recordMessage = parser.parse(msg);
+                records = JsonParser.parseString(recordMessage.getData());
+                headers = new HashMap<>(subscriber.getIndexerHeaders(recordMessage).getHeaders());
+            } catch (Exception ex) {
+                logger.error("Sending message to DLQ, as there is error processing request with exception: {}", ex.getMessage());
+                try {
+                    subscriber.sendToDLQ(Collections.singletonList(msg), SubscriberMetrics.DLQ_INVALID);
+                } catch (Exception dlqEx) {
+                    logger.error("Failed to send message to DLQ, requeuing it: {}", dlqEx.getMessage());
+                    failed.add(deliveryTag);
+                }
+                continue;
+            }
+            batches.computeIfAbsent(headers, key -> new HeaderBatch(recordMessage, key)).add(deliveryTag, msg, records);
+        }
+        return batches;
+    }
+
+    private static class HeaderBatch {
+        private final List<Long> deliveryTags = new ArrayList<>();
+        private final List<String> msgs = new ArrayList<>();
+        private final RecordChangedMessages recordMessage;
+        private final Map<String, String> headers;
+        private final JsonArray data = new JsonArray();
+
+        HeaderBatch(RecordChangedMessages recordMessage, Map<String, String> headers) {
+            this.recordMessage = recordMessage;
+            this.headers = headers;
+        }
+
+        void add(long deliveryTag, String msg, JsonElement records) {
+            deliveryTags.add(deliveryTag);
+            msgs.add(msg);
+            if (records.isJsonArray()) {
+                data.addAll(records.getAsJsonArray());
+            } else {
+                data.add(records);
+            }
+        }
+
+        RecordChangedMessages merged() {
+            recordMessage.setData(data.toString());
+            return recordMessage;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+// Copyright 2020 IBM Corp. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.ibm.subscribe;
+
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Listener container of the indexer queue. Consumers are added while messages keep arriving, up to the maximum, and
+ * removed again once they are idle, so the number of consumers follows the depth of the queue. The prefetch bounds
+ * how many unacknowledged messages each consumer holds.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "ibm.queue", name = "manager", havingValue = "rabbitmq")
+public class RabbitMQListenerConfiguration {
+
+    public static final String CONTAINER_FACTORY = "indexerListenerContainerFactory";
+    public static final String BATCH_CONTAINER_FACTORY = "indexerBatchListenerContainerFactory";
+
+    @Value("${ibm.rabbitmq.listener.concurrent-consumers:4}")
+    private int concurrentConsumers;
+
+    @Value("${ibm.rabbitmq.listener.max-concurrent-consumers:16}")
+    private int maxConcurrentConsumers;
+
+    @Value("${ibm.rabbitmq.listener.prefetch:10}")
+    private int prefetch;
+
+    // consecutive deliveries to a consumer before another consumer is started
+    @Value("${ibm.rabbitmq.listener.consecutive-active-trigger:10}")
+    private int consecutiveActiveTrigger;
+
+    // consecutive empty polls of a consumer before it is stopped
+    @Value("${ibm.rabbitmq.listener.consecutive-idle-trigger:10}")
+    private int consecutiveIdleTrigger;
+
+    @Value("${ibm.rabbitmq.listener.start-consumer-min-interval-millis:10000}")
+    private long startConsumerMinInterval;
+
+    @Value("${ibm.rabbitmq.listener.stop-consumer-min-interval-millis:60000}")
+    private long stopConsumerMinInterval;
+
+    @Value("${ibm.rabbitmq.listener.batch.size:50}")
+    private int batchSize;
+
+    @Value("${ibm.rabbitmq.listener.batch.receive-timeout-millis:500}")
+    private long batchReceiveTimeout;
+
+    @Bean(name = CONTAINER_FACTORY)
+    public SimpleRabbitListenerContainerFactory indexerListenerContainerFactory(
+        SimpleRabbitListenerContainerFactoryConfigurer configurer, ConnectionFactory connectionFactory) {
+        return createFactory(configurer, connectionFactory);
+    }
+
+    /**
+     * Container of the batch listener: a consumer hands over up to batch size deliveries at once, or what it received
+     * when the receive timeout elapses. The deliveries are acknowledged by the listener.
+     */
+    @Bean(name = BATCH_CONTAINER_FACTORY)
+    @ConditionalOnProperty(prefix = "ibm.rabbitmq.listener.batch", name = "enabled", havingValue = "true")
+    public SimpleRabbitListenerContainerFactory indexerBatchListenerContainerFactory(
+        SimpleRabbitListenerContainerFactoryConfigurer configurer, ConnectionFactory connectionFactory) {
+        SimpleRabbitListenerContainerFactory factory = createFactory(configurer, connectionFactory);
+        int size = Math.max(1, batchSize);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(size);
+        factory.setReceiveTimeout(batchReceiveTimeout);
+        factory.setPrefetchCount(Math.max(size, prefetch));
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        return factory;
+    }
+
+    private SimpleRabbitListenerContainerFactory createFactory(
+        SimpleRabbitListenerContainerFactoryConfigurer configurer, ConnectionFactory connectionFactory) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        int consumers = Math.max(1, concurrentConsumers);
+        factory.setConcurrentConsumers(consumers);
+        factory.setMaxConcurrentConsumers(Math.max(consumers, maxConcurrentConsumers));
+        factory.setPrefetchCount(Math.max(1, prefetch));
+        factory.setConsecutiveActiveTrigger(Math.max(1, consecutiveActiveTrigger));
+        factory.setConsecutiveIdleTrigger(Math.max(1, consecutiveIdleTrigger));
+        factory.setStartConsumerMinInterval(startConsumerMinInterval);
+        factory.setStopConsumerMinInterval(stopConsumerMinInterval);
+        return factory;
+    }
+}
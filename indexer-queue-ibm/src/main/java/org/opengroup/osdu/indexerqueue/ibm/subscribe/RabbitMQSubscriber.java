@@ -14,21 +14,16 @@
 
 package org.opengroup.osdu.indexerqueue.ibm.subscribe;
 
-import com.google.common.base.Strings;
-import com.google.gson.*;
+import com.google.gson.Gson;
 import jakarta.inject.Inject;
 import jakarta.validation.constraints.NotNull;
-import org.apache.commons.lang3.StringUtils;
-import org.apache.http.HttpStatus;
-import org.opengroup.osdu.core.common.Constants;
-import org.opengroup.osdu.core.common.http.HttpClient;
-import org.opengroup.osdu.core.common.http.HttpRequest;
 import org.opengroup.osdu.core.common.http.HttpResponse;
 import org.opengroup.osdu.core.common.model.http.AppError;
-import org.opengroup.osdu.core.common.model.http.AppException;
 import org.opengroup.osdu.core.common.model.http.DpsHeaders;
 import org.opengroup.osdu.core.common.model.search.RecordChangedMessages;
 import org.opengroup.osdu.core.ibm.messagebus.IMessageFactory;
+import org.opengroup.osdu.indexerqueue.ibm.indexer.IndexerClient;
+import org.opengroup.osdu.indexerqueue.ibm.metrics.SubscriberMetrics;
 import org.opengroup.osdu.indexerqueue.ibm.scope.ThreadDpsHeaders;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,7 +33,8 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 @Component
@@ -48,18 +44,21 @@ public class RabbitMQSubscriber {
     @Inject
     IMessageFactory mq;
 
-    @Value("${INDEXER_URL}")
-    private String INDEXER_URL;
-
     @Value("${RETRY_COUNT}")
     private int RETRY_COUNT;
 
-    @Value("${INDEXER_API_KEY}")
-    private String INDEXER_API_KEY;
-
     @Autowired
     ThreadDpsHeaders threadDpsHeaders;
 
+    @Autowired
+    RetryScheduler retryScheduler;
+
+    @Autowired
+    IndexerClient indexerClient;
+
+    @Autowired
+    SubscriberMetrics metrics;
+
     /*
      * false : Messages will be indexed from Queue
      * true : Messages will be indexed from TOPIC
@@ -68,14 +67,17 @@ public class RabbitMQSubscriber {
     private String topicFlag;
 
     private final Gson gson = new Gson();
+    private final RecordMessageParser parser = new RecordMessageParser(gson);
     private static final Logger logger = LoggerFactory.getLogger(RabbitMQSubscriber.class);
+    private static final String LISTENER = "rabbitmq";
 
-    final String INDEXER_API_KEY_HEADER = "x-api-key";
-
-    @RabbitListener(queues = "${ibm.env.prefix}" +"-"+IMessageFactory.DEFAULT_QUEUE_NAME)
+    @RabbitListener(queues = "${ibm.env.prefix}" +"-"+IMessageFactory.DEFAULT_QUEUE_NAME,
+        containerFactory = RabbitMQListenerConfiguration.CONTAINER_FACTORY,
+        autoStartup = "#{!${ibm.rabbitmq.listener.batch.enabled:false}}")
     public void receivedRabbitMessage(String msg) {
 
-        logger.info("received Message: " + msg);
+        logger.info("received Message: {}", msg);
+        long start = System.nanoTime();
 
         if (topicFlag.equalsIgnoreCase("true")) {
             logger.info(
@@ -85,109 +87,119 @@ public class RabbitMQSubscriber {
 
         try {
             // handles fresh messages from os-storage service - ibm-prefix-record queue
-            RecordChangedMessages recordMessage = this.getTaskQueueMessage(msg);
-            logger.info("Parsed message: {}", gson.toJson(recordMessage));
-            DpsHeaders dpsHeaders = getThreadDpsHeader(recordMessage);
-            threadDpsHeaders.setThreadContext(dpsHeaders.getHeaders());
-            dpsHeaders.getHeaders().put(DpsHeaders.ACCOUNT_ID, recordMessage.getDataPartitionId());
-            if (recordMessage.hasCorrelationId()) {
-                dpsHeaders.getHeaders().put(DpsHeaders.CORRELATION_ID, recordMessage.getCorrelationId());
-            }
-            logger.info(String.format("message headers: %s", dpsHeaders.getHeaders().toString()));
-
-            String url = StringUtils.join(INDEXER_URL, Constants.WORKER_RELATIVE_URL);
-            HttpClient httpClient = new HttpClient();
-            dpsHeaders.put(INDEXER_API_KEY_HEADER, INDEXER_API_KEY);
-            HttpRequest rq = HttpRequest.post(recordMessage).url(url).headers(dpsHeaders.getHeaders()).build();
-
-            int retriesLeft = RETRY_COUNT;
-            while (retriesLeft > 0) {
-                HttpResponse result = null;
-                try {
-                    logger.info("Calling indexer API - {}", url);
-                    result = httpClient.send(rq);
-                    logger.info("Indexer returned with status code: {}", result.getResponseCode());
-                    if (result.getResponseCode() == 200 ) {
-                        logger.info("Record processed successfully!!");
-                        break;
-                    } else if (result.hasException() || (result.getBody() != null && !result.getBody().isEmpty())) {
-                        AppError error = gson.fromJson(result.getBody(), AppError.class);
-                        logger.error("Retrying to index records, indexer-service error: {}", error.getMessage());
-                    } else {
-                        logger.error("Retrying to index records, indexer-service returned response: {}", result.toString());
-                    }
-                } catch (Exception e) {
-                    logger.info("Exception occurred in indexer-service : {}", e.getMessage());
-//                    do not re-throw, retry until retriesLeft becomes 0
-//                    throw new AppException(HttpStatus.SC_INTERNAL_SERVER_ERROR, e.getCause().getMessage(), "Failed to call Indexer service", e);
-                }
-                retriesLeft--;
-            }
+            RecordChangedMessages recordMessage = parser.parse(msg);
+            DpsHeaders dpsHeaders = getIndexerHeaders(recordMessage);
+            logger.info("message headers: {}", dpsHeaders.getHeaders());
 
-            if(retriesLeft == 0) {
-                logger.info("Retry attempt exhausted, sending message to DLQ");
-                mq.sendMessageDLQ(msg);
-            }
+            String body = gson.toJson(recordMessage);
+
+            // the message is acknowledged when this method returns, failed calls are retried by the scheduler
+            String outcome = callIndexer(Collections.singletonList(msg), body, dpsHeaders.getHeaders(), 1);
+            metrics.recordConsume(LISTENER, outcome, System.nanoTime() - start);
         } catch (Exception ex) {
             logger.error("Sending message to DLQ, as there is error processing request with exception: {}", ex.getMessage());
-            mq.sendMessageDLQ(msg);
+            sendToDLQ(Collections.singletonList(msg), SubscriberMetrics.DLQ_INVALID);
+            metrics.recordConsume(LISTENER, SubscriberMetrics.OUTCOME_DLQ, System.nanoTime() - start);
         }
     }
 
-    private DpsHeaders getThreadDpsHeader(RecordChangedMessages recordMessage) {
-        DpsHeaders headers = getHeaders(recordMessage);
-        threadDpsHeaders.setThreadContext(headers.getHeaders());
-        return headers;
+    /**
+     * Calls the indexer, failed calls are retried by the scheduler until the attempts are exhausted.
+     *
+     * @param msgs original messages merged in the body, sent to the DLQ if the call never succeeds
+     * @param body serialized record changed message
+     * @param headers headers of the call
+     * @param attempt number of this attempt, starting at 1
+     * @return outcome of this attempt
+     */
+    String callIndexer(List<String> msgs, String body, Map<String, String> headers, int attempt) {
+        int status = sendToIndexer(body, headers);
+        if (status == 200) {
+            return SubscriberMetrics.OUTCOME_INDEXED;
+        }
+        String errorCode = String.valueOf(status);
+        if (attempt >= RETRY_COUNT) {
+            logger.info("Retry attempt exhausted, sending message to DLQ");
+            sendToDLQ(msgs, SubscriberMetrics.DLQ_EXHAUSTED, errorCode);
+            return SubscriberMetrics.OUTCOME_DLQ;
+        }
+        long delay = retryScheduler.schedule(() -> {
+            threadDpsHeaders.setThreadContext(headers);
+            try {
+                callIndexer(msgs, body, headers, attempt + 1);
+            } catch (Exception ex) {
+                logger.error("Sending message to DLQ, as there is error retrying request with exception: {}", ex.getMessage());
+                sendToDLQ(msgs, SubscriberMetrics.DLQ_EXHAUSTED, errorCode);
+            }
+        }, () -> {
+            logger.info("Retry discarded on shutdown, sending message to DLQ");
+            sendToDLQ(msgs, SubscriberMetrics.DLQ_SHUTDOWN, errorCode);
+        }, attempt);
+        if (delay == RetryScheduler.NOT_SCHEDULED) {
+            logger.warn("Too many retries pending, sending message to DLQ");
+            sendToDLQ(msgs, SubscriberMetrics.DLQ_OVERFLOW, errorCode);
+            return SubscriberMetrics.OUTCOME_DLQ;
+        }
+        metrics.recordRetry(LISTENER);
+        logger.info("Retrying to index records in {} ms, attempt {} of {}", delay, attempt + 1, RETRY_COUNT);
+        return SubscriberMetrics.OUTCOME_RETRIED;
     }
 
-    private RecordChangedMessages getTaskQueueMessage(String msg) {
-        try {
-            JsonParser jsonParser = new JsonParser();
-            JsonElement jsonMessage = jsonParser.parse(msg);
-
-            RecordChangedMessages recordChangedMessages = this.gson.fromJson(jsonMessage.toString(),
-                RecordChangedMessages.class);
-            String payload = recordChangedMessages.getData();
-            if (Strings.isNullOrEmpty(payload)) {
-                logger.error("message data not found");
-                throw new AppException(HttpStatus.SC_BAD_REQUEST, "Invalid record change message",
-                    "message data not found", "'message.data' not found in PubSub message");
-            }
+    void sendToDLQ(List<String> msgs, String reason) {
+        sendToDLQ(msgs, reason, null);
+    }
 
-            // TODO alanbraz our messages are not encoded
-            // String decodedPayload = new String(Base64.getDecoder().decode(payload));
-            // recordChangedMessages.setData(decodedPayload);
-
-            Map<String, String> attributes = recordChangedMessages.getAttributes();
-            if (attributes == null || attributes.size() == 0) {
-                // logger.warn("attribute map not found");
-                // throw new AppException(HttpStatus.SC_BAD_REQUEST, "Invalid record change
-                // message", "attribute map not found", String.format("PubSub message: %s",
-                // recordChangedMessages));
-                attributes = new HashMap<String, String>();
-                JsonObject jsonObjectMessage = jsonMessage.getAsJsonObject();
-                attributes.put(DpsHeaders.DATA_PARTITION_ID,
-                    jsonObjectMessage.get(DpsHeaders.DATA_PARTITION_ID).getAsString());
-                attributes.put(DpsHeaders.CORRELATION_ID,
-                    jsonObjectMessage.get(DpsHeaders.CORRELATION_ID).getAsString());
-                recordChangedMessages.setAttributes(attributes);
-            }
-            Map<String, String> lowerCase = new HashMap<>();
-            attributes.forEach((key, value) -> lowerCase.put(key.toLowerCase(), value));
-            recordChangedMessages.setAttributes(lowerCase);
-            if (recordChangedMessages.missingAccountId()) {
-                logger.warn("tenant-id missing");
-                throw new AppException(HttpStatus.SC_BAD_REQUEST, "Invalid tenant", "tenant-id missing",
-                    String.format("PubSub message: %s", recordChangedMessages));
-            }
+    /**
+     * @param msgs messages to send to the DLQ
+     * @param reason reason for the metrics
+     * @param errorCode status code of the last indexer call, kept with the message so a replay can be filtered on it
+     */
+    void sendToDLQ(List<String> msgs, String reason, String errorCode) {
+        for (String msg : msgs) {
+            mq.sendMessageDLQ(errorCode == null ? msg
+                : parser.withAttribute(msg, RecordMessageParser.ERROR_CODE_ATTRIBUTE, errorCode));
+            metrics.recordDlqSend(reason);
+        }
+    }
 
-            return recordChangedMessages;
+    /**
+     * @return status code of the indexer response, 0 if the call failed without one
+     */
+    private int sendToIndexer(String body, Map<String, String> headers) {
+        int status = 0;
+        try {
+            logger.info("Calling indexer API - {}", indexerClient.getWorkerUri());
+            HttpResponse result = indexerClient.send(body, headers);
+            status = result.getResponseCode();
+            logger.info("Indexer returned with status code: {}", status);
+            if (status == 200) {
+                logger.info("Record processed successfully!!");
+            } else if (result.hasException() || (result.getBody() != null && !result.getBody().isEmpty())) {
+                AppError error = gson.fromJson(result.getBody(), AppError.class);
+                logger.error("Failed to index records, indexer-service error: {}", error.getMessage());
+            } else {
+                logger.error("Failed to index records, indexer-service returned response: {}", result.toString());
+            }
+        } catch (Exception e) {
+            logger.info("Exception occurred in indexer-service : {}", e.getMessage());
+//            do not re-throw, the call is retried until the attempts are exhausted
+        }
+        return status;
+    }
 
-        } catch (JsonParseException e) {
-            logger.warn("Unable to parse request payload.", e);
-            throw new AppException(HttpStatus.SC_BAD_REQUEST, "Request payload parsing error",
-                "Unable to parse request payload.", e);
+    DpsHeaders getIndexerHeaders(RecordChangedMessages recordMessage) {
+        DpsHeaders dpsHeaders = getThreadDpsHeader(recordMessage);
+        dpsHeaders.getHeaders().put(DpsHeaders.ACCOUNT_ID, recordMessage.getDataPartitionId());
+        if (recordMessage.hasCorrelationId()) {
+            dpsHeaders.getHeaders().put(DpsHeaders.CORRELATION_ID, recordMessage.getCorrelationId());
         }
+        return dpsHeaders;
+    }
+
+    private DpsHeaders getThreadDpsHeader(RecordChangedMessages recordMessage) {
+        DpsHeaders headers = getHeaders(recordMessage);
+        threadDpsHeaders.setThreadContext(headers.getHeaders());
+        return headers;
     }
 
     @NotNull
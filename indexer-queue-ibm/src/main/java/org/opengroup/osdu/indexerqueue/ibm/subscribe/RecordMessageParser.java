@@ -0,0 +1,174 @@
+// Copyright 2020 IBM Corp. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.ibm.subscribe;
+
+import com.google.common.base.Strings;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.apache.http.HttpStatus;
+import org.opengroup.osdu.core.common.model.http.AppException;
+import org.opengroup.osdu.core.common.model.http.DpsHeaders;
+import org.opengroup.osdu.core.common.model.search.RecordChangedMessages;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Parses the record changed messages of the IBM queues. The body is parsed once into a JSON tree, which is bound to
+ * the message without being serialized again, and the attribute names are lower cased in place. Thread safe.
+ */
+public class RecordMessageParser {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecordMessageParser.class);
+    // attribute of the messages sent to the DLQ, the status code of the last indexer call
+    public static final String ERROR_CODE_ATTRIBUTE = "errorCode";
+    // attribute of the messages a DLQ replay put back, the id of that replay
+    public static final String REPLAY_ID_ATTRIBUTE = "replayId";
+    private static final String ATTRIBUTES = "attributes";
+
+    private final Gson gson;
+
+    public RecordMessageParser() {
+        this(new Gson());
+    }
+
+    public RecordMessageParser(Gson gson) {
+        this.gson = gson;
+    }
+
+    /**
+     * @param msg body of the queue message
+     * @return the record changed message, with lower case attribute names
+     * @throws AppException if the message can not be parsed, has no data or no tenant
+     */
+    public RecordChangedMessages parse(String msg) {
+        try {
+            JsonElement jsonMessage = JsonParser.parseString(msg);
+            RecordChangedMessages recordChangedMessages = this.gson.fromJson(jsonMessage, RecordChangedMessages.class);
+            if (recordChangedMessages == null || Strings.isNullOrEmpty(recordChangedMessages.getData())) {
+                logger.error("message data not found");
+                throw new AppException(HttpStatus.SC_BAD_REQUEST, "Invalid record change message",
+                    "message data not found", "'message.data' not found in PubSub message");
+            }
+
+            Map<String, String> attributes = recordChangedMessages.getAttributes();
+            if (attributes == null || attributes.isEmpty()) {
+                // attributes are sent at the top level of the message
+                attributes = new HashMap<>(4);
+                JsonObject jsonObjectMessage = jsonMessage.getAsJsonObject();
+                putIfPresent(attributes, jsonObjectMessage, DpsHeaders.DATA_PARTITION_ID);
+                putIfPresent(attributes, jsonObjectMessage, DpsHeaders.CORRELATION_ID);
+                recordChangedMessages.setAttributes(attributes);
+            } else {
+                lowerCaseKeys(attributes);
+            }
+            if (recordChangedMessages.missingAccountId()) {
+                logger.warn("tenant-id missing");
+                throw new AppException(HttpStatus.SC_BAD_REQUEST, "Invalid tenant", "tenant-id missing",
+                    String.format("PubSub message: %s", recordChangedMessages));
+            }
+
+            return recordChangedMessages;
+
+        } catch (JsonParseException | IllegalStateException e) {
+            logger.warn("Unable to parse request payload.", e);
+            throw new AppException(HttpStatus.SC_BAD_REQUEST, "Request payload parsing error",
+                "Unable to parse request payload.", e);
+        }
+    }
+
+    /**
+     * @param msg body of the queue message
+     * @param name name of the attribute
+     * @param value value of the attribute
+     * @return the message with the attribute added, or unchanged if it has no attributes object or can not be parsed
+     */
+    public String withAttribute(String msg, String name, String value) {
+        try {
+            JsonElement jsonMessage = JsonParser.parseString(msg);
+            if (!jsonMessage.isJsonObject() || !jsonMessage.getAsJsonObject().has(ATTRIBUTES)
+                || !jsonMessage.getAsJsonObject().get(ATTRIBUTES).isJsonObject()) {
+                return msg;
+            }
+            jsonMessage.getAsJsonObject().getAsJsonObject(ATTRIBUTES).addProperty(name, value);
+            return jsonMessage.toString();
+        } catch (JsonParseException e) {
+            return msg;
+        }
+    }
+
+    /**
+     * @param msg body of the queue message
+     * @param name name of the attribute
+     * @return the message without the attribute, or unchanged if it does not have it or can not be parsed
+     */
+    public String withoutAttribute(String msg, String name) {
+        try {
+            JsonElement jsonMessage = JsonParser.parseString(msg);
+            if (!jsonMessage.isJsonObject() || !jsonMessage.getAsJsonObject().has(ATTRIBUTES)
+                || !jsonMessage.getAsJsonObject().get(ATTRIBUTES).isJsonObject()
+                || jsonMessage.getAsJsonObject().getAsJsonObject(ATTRIBUTES).remove(name) == null) {
+                return msg;
+            }
+            return jsonMessage.toString();
+        } catch (JsonParseException e) {
+            return msg;
+        }
+    }
+
+    // a missing partition is reported as a missing tenant below
+    private static void putIfPresent(Map<String, String> attributes, JsonObject jsonObjectMessage, String name) {
+        JsonElement value = jsonObjectMessage.get(name);
+        if (value != null && !value.isJsonNull()) {
+            attributes.put(name, value.getAsString());
+        }
+    }
+
+    // attribute names are nearly always lower case already, only the others are moved
+    private static void lowerCaseKeys(Map<String, String> attributes) {
+        List<String> mixedCaseKeys = null;
+        for (String key : attributes.keySet()) {
+            if (!isLowerCase(key)) {
+                if (mixedCaseKeys == null) {
+                    mixedCaseKeys = new ArrayList<>(2);
+                }
+                mixedCaseKeys.add(key);
+            }
+        }
+        if (mixedCaseKeys == null) {
+            return;
+        }
+        for (String key : mixedCaseKeys) {
+            attributes.put(key.toLowerCase(Locale.ROOT), attributes.remove(key));
+        }
+    }
+
+    private static boolean isLowerCase(String key) {
+        for (int i = 0; i < key.length(); i++) {
+            if (Character.isUpperCase(key.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,143 @@
+// Copyright 2020 IBM Corp. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.ibm.subscribe;
+
+import org.opengroup.osdu.indexerqueue.ibm.thread.ThreadScopeAttributes;
+import org.opengroup.osdu.indexerqueue.ibm.thread.ThreadScopeContextHolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the retries of failed indexer calls after an exponential backoff with jitter, on its own threads, so the
+ * listener threads do not wait for the indexer to recover. Retries still pending on shutdown are handed to their
+ * discard action, which sends the message to the DLQ instead of losing it.
+ * <p>
+ * Pending retries only live in memory and the message is already acknowledged, so their number is capped: a process
+ * that crashes loses at most that many, and once the cap is reached further retries are refused and the caller sends
+ * the message to the DLQ, where a replay can pick it up.
+ */
+@Component
+public class RetryScheduler implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetryScheduler.class);
+
+    /**
+     * Returned by {@link #schedule} when the retry was refused because too many are pending.
+     */
+    public static final long NOT_SCHEDULED = -1;
+
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final int maxPending;
+    private final ScheduledThreadPoolExecutor executor;
+    private final Map<Long, Runnable> pendingDiscardActions = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    public RetryScheduler(@Value("${ibm.retry.initial-delay-millis:1000}") long initialDelayMillis,
+                          @Value("${ibm.retry.max-delay-millis:60000}") long maxDelayMillis,
+                          @Value("${ibm.retry.threads:2}") int threads,
+                          @Value("${ibm.retry.max-pending:1000}") int maxPending) {
+        this.initialDelayMillis = Math.max(1, initialDelayMillis);
+        this.maxDelayMillis = Math.max(this.initialDelayMillis, maxDelayMillis);
+        this.maxPending = Math.max(1, maxPending);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ScheduledThreadPoolExecutor(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(() -> {
+                // the thread scope is inheritable, do not share the attributes of the thread that started this one
+                ThreadScopeContextHolder.setThreadScopeAttributes(new ThreadScopeAttributes());
+                runnable.run();
+            }, "indexer-retry-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * @param retry action retrying the indexer call
+     * @param onDiscard action run instead of the retry if the scheduler shuts down first
+     * @param attempt number of the attempt being scheduled, starting at 1 for the first retry
+     * @return delay of the retry in milliseconds, {@link #NOT_SCHEDULED} if too many retries are pending, in which case
+     * neither action is run
+     */
+    public long schedule(Runnable retry, Runnable onDiscard, int attempt) {
+        // the count may overshoot by the number of concurrent callers, which is fine for a safety cap
+        if (pendingDiscardActions.size() >= maxPending) {
+            logger.warn("{} retries are pending, refusing to schedule another one", pendingDiscardActions.size());
+            return NOT_SCHEDULED;
+        }
+        long id = sequence.incrementAndGet();
+        long delay = nextDelayMillis(attempt);
+        pendingDiscardActions.put(id, onDiscard);
+        try {
+            executor.schedule(() -> {
+                if (pendingDiscardActions.remove(id) != null) {
+                    retry.run();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            if (pendingDiscardActions.remove(id) != null) {
+                onDiscard.run();
+            }
+        }
+        return delay;
+    }
+
+    /**
+     * @return number of retries waiting to run
+     */
+    public int getPending() {
+        return pendingDiscardActions.size();
+    }
+
+    /**
+     * Equal jitter: half of the exponential delay is kept, the other half is random, so retries of messages failing
+     * together spread out while still backing off.
+     */
+    long nextDelayMillis(int attempt) {
+        int exponent = Math.min(Math.max(attempt - 1, 0), 30);
+        long delay = initialDelayMillis > (maxDelayMillis >> exponent) ? maxDelayMillis : initialDelayMillis << exponent;
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+        for (Long id : pendingDiscardActions.keySet()) {
+            Runnable onDiscard = pendingDiscardActions.remove(id);
+            if (onDiscard == null) {
+                continue;
+            }
+            try {
+                onDiscard.run();
+            } catch (Exception e) {
+                logger.error("Failed to discard pending retry: {}", e.getMessage());
+            }
+        }
+    }
+}
@@ -14,23 +14,18 @@
 
 package org.opengroup.osdu.indexerqueue.ibm.subscribe;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import jakarta.inject.Inject;
+import jakarta.jms.JMSException;
+import jakarta.jms.TextMessage;
 
 import jakarta.validation.constraints.NotNull;
-import org.apache.commons.lang3.StringUtils;
-import org.apache.http.HttpStatus;
-import org.opengroup.osdu.core.common.Constants;
-import org.opengroup.osdu.core.common.http.HttpClient;
-import org.opengroup.osdu.core.common.http.HttpRequest;
 import org.opengroup.osdu.core.common.http.HttpResponse;
 import org.opengroup.osdu.core.common.model.http.AppError;
-import org.opengroup.osdu.core.common.model.http.AppException;
 import org.opengroup.osdu.core.common.model.http.DpsHeaders;
 import org.opengroup.osdu.core.common.model.search.RecordChangedMessages;
 import org.opengroup.osdu.core.ibm.messagebus.IMessageFactory;
+import org.opengroup.osdu.indexerqueue.ibm.indexer.IndexerClient;
+import org.opengroup.osdu.indexerqueue.ibm.metrics.SubscriberMetrics;
 import org.opengroup.osdu.indexerqueue.ibm.scope.ThreadDpsHeaders;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,14 +33,13 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.jms.annotation.JmsListener;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Component;
 
 import com.google.common.base.Strings;
 import com.google.gson.Gson;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParseException;
-import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
 
 @Component
@@ -55,18 +49,27 @@ public class Subscriber {
     @Inject
     IMessageFactory mq;
 
-    @Value("${INDEXER_URL}")
-    private String INDEXER_URL;
-
     @Value("${RETRY_COUNT}")
     private int RETRY_COUNT;
 
-    @Value("${INDEXER_API_KEY}")
-    private String INDEXER_API_KEY;
-
     @Autowired
     ThreadDpsHeaders threadDpsHeaders;
 
+    @Autowired
+    IndexerClient indexerClient;
+
+    @Autowired
+    RetryScheduler retryScheduler;
+
+    @Autowired
+    JmsTemplate jmsTemplate;
+
+    @Autowired
+    SubscriberMetrics metrics;
+
+    @Value(QUEUE_NAME)
+    private String queueName;
+
     /*
      * false : Messages will be indexed from Queue
      * true : Messages will be indexed from TOPIC
@@ -75,19 +78,26 @@ public class Subscriber {
     private String topicFlag;
 
     private final Gson gson = new Gson();
+    private final RecordMessageParser parser = new RecordMessageParser(gson);
     private static final Logger logger = LoggerFactory.getLogger(Subscriber.class);
-    private DpsHeaders dpsHeaders = null;
+    private static final String LISTENER = "activemq";
     private final static String RETRY_STRING = "retry";
-    private final static String ERROR_CODE = "errorCode";
-    private final static String ERROR_MESSAGE = "errorMessage";
-    private Map<String, String> attributes;
-
-    final String INDEXER_API_KEY_HEADER = "x-api-key";
-
-//    @JmsListener(destination = "${ibm.env.prefix}" + "-" + IMessageFactory.DEFAULT_QUEUE_NAME)
-    public void recievedMessage(String msg) throws Exception {
-
-        logger.info("Recieved Message: " + msg);
+    static final String QUEUE_NAME = "${ibm.env.prefix}" + "-" + IMessageFactory.DEFAULT_QUEUE_NAME;
+    // JMS property names have to be java identifiers
+    static final String RETRY_PROPERTY = "indexerRetryCount";
+    static final String ERROR_CODE_PROPERTY = "indexerErrorCode";
+    static final String ERROR_MESSAGE_PROPERTY = "indexerErrorMessage";
+    // delay property of the ActiveMQ Classic scheduler, which does not honour the JMS delivery delay of every client
+    static final String SCHEDULED_DELAY_PROPERTY = "AMQ_SCHEDULED_DELAY";
+
+    // all state is local to the message, so the container can run several consumers
+    @JmsListener(destination = QUEUE_NAME, containerFactory = MessagingConfiguration.CONTAINER_FACTORY)
+    public void recievedMessage(@Payload String msg,
+                                @Header(name = RETRY_PROPERTY, required = false) Integer retryProperty,
+                                @Header(name = ERROR_CODE_PROPERTY, required = false) String errorCode) throws Exception {
+
+        logger.info("Recieved Message: {}", msg);
+        long start = System.nanoTime();
 
         if (topicFlag.equalsIgnoreCase("true")) {
             logger.info(
@@ -96,82 +106,87 @@ public class Subscriber {
         }
 
         RecordChangedMessages recordMessage;
-        recordMessage = this.gson.fromJson(msg, RecordChangedMessages.class);
-
-
-        logger.info(String.format("message body: %s", this.gson.toJson(recordMessage)));
-
-        if (msg.contains(RETRY_STRING)) {
-            // handle failed records ibm-prefix-record queue
-            dpsHeaders = getThreadDpsHeader(recordMessage);
-            threadDpsHeaders.setThreadContext(dpsHeaders.getHeaders());
-            logger.info(String.format("message headers: %s", dpsHeaders.toString()));
-            if (!recordMessage.getAttributes().get(RETRY_STRING).isEmpty()
-                && Integer.parseInt(recordMessage.getAttributes().get(RETRY_STRING)) >= RETRY_COUNT) {
-                recordMessage.getAttributes().put(RETRY_STRING, "0");
-                msg = gson.toJson(recordMessage);
-                logger.info("sending to dlq. Resetting retry count to 0");
-                mq.sendMessageDLQ(msg);
-                return;
-            }
-        } else {
-            // handles fresh messages from os-storage service - ibm-prefix-record queue
-            recordMessage = this.getTaskQueueMessage(msg);
-            logger.info(String.format("recordMessage: %s", recordMessage.toString()));
-            dpsHeaders = getThreadDpsHeader(recordMessage);
-            threadDpsHeaders.setThreadContext(dpsHeaders.getHeaders());
-            dpsHeaders.getHeaders().put(DpsHeaders.ACCOUNT_ID, recordMessage.getDataPartitionId());
-            if (recordMessage.hasCorrelationId()) {
-                dpsHeaders.getHeaders().put(DpsHeaders.CORRELATION_ID, recordMessage.getCorrelationId());
+        try {
+            recordMessage = parser.parse(msg);
+        } catch (RuntimeException e) {
+            // rolling back would only have the broker redeliver it until its own DLQ, which the replay does not read
+            logger.error("Sending message to DLQ, as it is not a valid record change message: {}", e.getMessage());
+            mq.sendMessageDLQ(msg);
+            metrics.recordDlqSend(SubscriberMetrics.DLQ_INVALID);
+            metrics.recordConsume(LISTENER, SubscriberMetrics.OUTCOME_DLQ, System.nanoTime() - start);
+            return;
+        }
+        DpsHeaders dpsHeaders = getThreadDpsHeader(recordMessage);
+        int retryCount = getRetryCount(recordMessage, retryProperty);
+
+        if (retryCount >= RETRY_COUNT) {
+            logger.info("Retry attempt exhausted, sending message to DLQ");
+            String dlqMessage = msg;
+            if (retryProperty == null && recordMessage.getAttributes().containsKey(RETRY_STRING)) {
+                // a replay of the DLQ would otherwise send the message straight back to it
+                dlqMessage = parser.withAttribute(dlqMessage, RETRY_STRING, "0");
             }
-            logger.info(String.format("message headers: %s", dpsHeaders.toString()));
-            logger.info(String.format("message body: %s", this.gson.toJson(recordMessage)));
+            // the error code is kept with the message, so a replay of the DLQ can be filtered on it
+            mq.sendMessageDLQ(errorCode == null ? dlqMessage
+                : parser.withAttribute(dlqMessage, RecordMessageParser.ERROR_CODE_ATTRIBUTE, errorCode));
+            metrics.recordDlqSend(SubscriberMetrics.DLQ_EXHAUSTED);
+            metrics.recordConsume(LISTENER, SubscriberMetrics.OUTCOME_DLQ, System.nanoTime() - start);
+            return;
+        }
+        dpsHeaders.getHeaders().put(DpsHeaders.ACCOUNT_ID, recordMessage.getDataPartitionId());
+        if (recordMessage.hasCorrelationId()) {
+            dpsHeaders.getHeaders().put(DpsHeaders.CORRELATION_ID, recordMessage.getCorrelationId());
         }
+        logger.info("message headers: {}, retry: {}", dpsHeaders, retryCount);
 
-        String url = StringUtils.join(INDEXER_URL, Constants.WORKER_RELATIVE_URL);
-        HttpClient httpClient = new HttpClient();
-        dpsHeaders.put(INDEXER_API_KEY_HEADER, INDEXER_API_KEY);
-//        dpsHeaders.getHeaders().put(DpsHeaders.DATA_PARTITION_ID, recordMessage.getDataPartitionId());
-        HttpRequest rq = HttpRequest.post(recordMessage).url(url).headers(dpsHeaders.getHeaders()).build();
-        HttpResponse result = httpClient.send(rq);
+        HttpResponse result = indexerClient.send(gson.toJson(recordMessage), dpsHeaders.getHeaders());
+        String outcome = result.hasException() || result.getResponseCode() != 200
+            ? SubscriberMetrics.OUTCOME_RETRIED : SubscriberMetrics.OUTCOME_INDEXED;
         if (result.hasException()) {
-            // extract exception info from result body and add attribute in
-            // recodchangedMessage
             logger.error(result.getException().getLocalizedMessage(), result.getException());
-            int retryCount = getRetryCount(recordMessage);
-            String responseCode = String.valueOf(result.getResponseCode());
-            attributes = recordMessage.getAttributes();
-            attributes.put(ERROR_CODE, responseCode);
-            attributes.put(ERROR_MESSAGE, result.getException().getMessage());
-            attributes.put(RETRY_STRING, String.valueOf(retryCount));
-            recordMessage.setAttributes(attributes);
-            msg = gson.toJson(recordMessage);
-            mq.sendMessage(msg);
-            return;
+            requeue(msg, retryCount + 1, String.valueOf(result.getResponseCode()), result.getException().getMessage());
         } else if (result.getResponseCode() != 200) {
-            // if AppException thrown from os-indexer module then add errorcode and
-            // errormessage into attributes
-            int retryCount = getRetryCount(recordMessage);
+            // if AppException thrown from os-indexer module then keep its message with the retry
             String responseCode = String.valueOf(result.getResponseCode());
-            logger.error(String.format("Error ResponseCode: %s", responseCode));
+            logger.error("Error ResponseCode: {}", responseCode);
             String errMsg = "";
             try {
                 AppError error = gson.fromJson(result.getBody(), AppError.class);
-                logger.error(String.format("Error Response: %s", error.toString()));
+                logger.error("Error Response: {}", error);
                 errMsg = error.getMessage();
             } catch (JsonSyntaxException e) {
-                logger.error(String.format("Failed to parse the error response body: %s encountered %s",
-                    result.getBody(), e.getMessage()));
+                logger.error("Failed to parse the error response body: {} encountered {}", result.getBody(), e.getMessage());
             }
-            attributes = recordMessage.getAttributes();
-            attributes.put(ERROR_MESSAGE, errMsg);
-            attributes.put(ERROR_CODE, responseCode);
-            attributes.put(RETRY_STRING, String.valueOf(retryCount));
-            recordMessage.setAttributes(attributes);
-            msg = gson.toJson(recordMessage);
-            mq.sendMessage(msg);
+            requeue(msg, retryCount + 1, responseCode, errMsg);
         }
+        metrics.recordConsume(LISTENER, outcome, System.nanoTime() - start);
+    }
 
+    /**
+     * Sends the message back to the queue unchanged, the retry count and the error travel as message properties.
+     * The broker holds the message back for the backoff delay, so a failing indexer is not called in a tight loop.
+     * The delay is set both as the JMS delivery delay and as the scheduler property of ActiveMQ Classic. ActiveMQ
+     * Classic only holds messages back when the broker runs with schedulerSupport="true", without it the message is
+     * redelivered right away and the retries are only bounded by RETRY_COUNT.
+     */
+    private void requeue(String msg, int retryCount, String errorCode, String errorMessage) {
+        long delay = retryScheduler.nextDelayMillis(retryCount);
+        logger.info("Retrying to index records in {} ms, attempt {} of {}", delay, retryCount + 1, RETRY_COUNT);
+        jmsTemplate.execute(queueName, (session, producer) -> {
+            TextMessage message = session.createTextMessage(msg);
+            message.setIntProperty(RETRY_PROPERTY, retryCount);
+            message.setStringProperty(ERROR_CODE_PROPERTY, errorCode);
+            message.setStringProperty(ERROR_MESSAGE_PROPERTY, errorMessage);
+            message.setLongProperty(SCHEDULED_DELAY_PROPERTY, delay);
+            try {
+                producer.setDeliveryDelay(delay);
+            } catch (UnsupportedOperationException | JMSException e) {
+                logger.debug("Delivery delay is not supported by the JMS client, relying on the scheduler property", e);
+            }
+            producer.send(message);
+            return null;
+        });
+        metrics.recordRetry(LISTENER);
     }
 
     private DpsHeaders getThreadDpsHeader(RecordChangedMessages recordMessage) {
@@ -181,68 +196,17 @@ public class Subscriber {
     }
 
     /**
-     * @param recordMessage
-     * @return
+     * @param recordMessage message
+     * @param retryProperty retry count property of the message, if any
+     * @return number of failed attempts to index the message
      */
-    private int getRetryCount(RecordChangedMessages recordMessage) {
-        int retryCount = 0;
-        if (recordMessage.getAttributes().containsKey(RETRY_STRING)) {
-            retryCount = Integer.parseInt(recordMessage.getAttributes().get(RETRY_STRING));
-            retryCount++;
-        } else {
-            retryCount = 1;
-        }
-        return retryCount;
-    }
-
-    private RecordChangedMessages getTaskQueueMessage(String msg) {
-        try {
-            JsonParser jsonParser = new JsonParser();
-            JsonElement jsonMessage = jsonParser.parse(msg);
-
-            RecordChangedMessages recordChangedMessages = this.gson.fromJson(jsonMessage.toString(),
-                RecordChangedMessages.class);
-            String payload = recordChangedMessages.getData();
-            if (Strings.isNullOrEmpty(payload)) {
-                logger.error("message data not found");
-                throw new AppException(HttpStatus.SC_BAD_REQUEST, "Invalid record change message",
-                    "message data not found", "'message.data' not found in PubSub message");
-            }
-
-            // TODO alanbraz our messages are not encoded
-            // String decodedPayload = new String(Base64.getDecoder().decode(payload));
-            // recordChangedMessages.setData(decodedPayload);
-
-            Map<String, String> attributes = recordChangedMessages.getAttributes();
-            if (attributes == null || attributes.size() == 0) {
-                // logger.warn("attribute map not found");
-                // throw new AppException(HttpStatus.SC_BAD_REQUEST, "Invalid record change
-                // message", "attribute map not found", String.format("PubSub message: %s",
-                // recordChangedMessages));
-                attributes = new HashMap<String, String>();
-                JsonObject jsonObjectMessage = jsonMessage.getAsJsonObject();
-                attributes.put(DpsHeaders.DATA_PARTITION_ID,
-                    jsonObjectMessage.get(DpsHeaders.DATA_PARTITION_ID).getAsString());
-                attributes.put(DpsHeaders.CORRELATION_ID,
-                    jsonObjectMessage.get(DpsHeaders.CORRELATION_ID).getAsString());
-                recordChangedMessages.setAttributes(attributes);
-            }
-            Map<String, String> lowerCase = new HashMap<>();
-            attributes.forEach((key, value) -> lowerCase.put(key.toLowerCase(), value));
-            recordChangedMessages.setAttributes(lowerCase);
-            if (recordChangedMessages.missingAccountId()) {
-                logger.warn("tenant-id missing");
-                throw new AppException(HttpStatus.SC_BAD_REQUEST, "Invalid tenant", "tenant-id missing",
-                    String.format("PubSub message: %s", recordChangedMessages));
-            }
-
-            return recordChangedMessages;
-
-        } catch (JsonParseException e) {
-            logger.warn("Unable to parse request payload.", e);
-            throw new AppException(HttpStatus.SC_BAD_REQUEST, "Request payload parsing error",
-                "Unable to parse request payload.", e);
+    private int getRetryCount(RecordChangedMessages recordMessage, Integer retryProperty) {
+        if (retryProperty != null) {
+            return retryProperty;
         }
+        // messages requeued before the retry count moved to a property carry it in the attributes
+        String retry = recordMessage.getAttributes().get(RETRY_STRING);
+        return Strings.isNullOrEmpty(retry) ? 0 : Integer.parseInt(retry);
     }
 
     @NotNull
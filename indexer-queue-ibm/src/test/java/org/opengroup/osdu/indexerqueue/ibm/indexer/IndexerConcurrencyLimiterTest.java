@@ -0,0 +1,128 @@
+// Copyright 2020 IBM Corp. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.ibm.indexer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.opengroup.osdu.indexerqueue.ibm.metrics.SubscriberMetrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+public class IndexerConcurrencyLimiterTest {
+
+    // no limit adjustments within a test
+    private static final int SAMPLE_WINDOW = 1000;
+
+    @Mock
+    private SubscriberMetrics metrics;
+
+    @Test
+    public void shouldLetSinglePartitionUseWholeLimit_andSaturateAtIt() throws InterruptedException {
+        IndexerConcurrencyLimiter limiter = limiter(8, 8);
+        IndexerConcurrencyLimiter.SaturationListener listener = mock(IndexerConcurrencyLimiter.SaturationListener.class);
+        limiter.addListener(listener);
+
+        for (int i = 0; i < 7; i++) {
+            assertTrue(limiter.acquire("p1", 0));
+        }
+        assertFalse(limiter.isSaturated());
+
+        assertTrue(limiter.acquire("p1", 0));
+
+        assertTrue(limiter.isSaturated());
+        assertFalse(limiter.acquire("p1", 0));
+        verify(listener).onSaturated();
+    }
+
+    @Test
+    public void shouldResume_onlyBelowResumeThreshold() throws InterruptedException {
+        IndexerConcurrencyLimiter limiter = limiter(8, 8);
+        IndexerConcurrencyLimiter.SaturationListener listener = mock(IndexerConcurrencyLimiter.SaturationListener.class);
+        limiter.addListener(listener);
+        for (int i = 0; i < 8; i++) {
+            limiter.acquire("p1", 0);
+        }
+
+        // resume ratio 0.75 of 8
+        limiter.release("p1", 1, true);
+        limiter.release("p1", 1, true);
+        assertTrue(limiter.isSaturated());
+        verify(listener, never()).onRelieved();
+
+        limiter.release("p1", 1, true);
+
+        assertFalse(limiter.isSaturated());
+        InOrder inOrder = inOrder(listener);
+        inOrder.verify(listener).onSaturated();
+        inOrder.verify(listener).onRelieved();
+    }
+
+    @Test
+    public void shouldApplyPartitionShare_whileAnotherPartitionIsActive() throws InterruptedException {
+        IndexerConcurrencyLimiter limiter = limiter(8, 8);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.acquire("p1", 0));
+        }
+
+        assertTrue(limiter.acquire("p2", 0));
+
+        // p1 is over its share of 4 now that p2 is active
+        assertFalse(limiter.acquire("p1", 0));
+        assertTrue(limiter.isSaturated());
+        assertTrue(limiter.acquire("p2", 0));
+    }
+
+    @Test
+    public void shouldSaturate_whenCallTimesOutWaiting_andRecoverAfterwards() throws InterruptedException {
+        IndexerConcurrencyLimiter limiter = limiter(2, 2);
+        limiter.acquire("p1", 0);
+        limiter.acquire("p1", 0);
+
+        assertFalse(limiter.acquire("p1", 10));
+        assertTrue(limiter.isSaturated());
+
+        limiter.release("p1", 1, true);
+        limiter.release("p1", 1, true);
+
+        assertFalse(limiter.isSaturated());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void shouldHalveLimit_whenCallsFail() throws InterruptedException {
+        IndexerConcurrencyLimiter limiter = new IndexerConcurrencyLimiter(metrics, 1, 10, 0.5, 0.75, 1);
+        int initial = limiter.getLimit();
+
+        limiter.acquire("p1", 0);
+        limiter.release("p1", 1000, false);
+
+        assertTrue(limiter.getLimit() < initial);
+    }
+
+    // the initial limit is half way between minimum and maximum
+    private IndexerConcurrencyLimiter limiter(int min, int max) {
+        return new IndexerConcurrencyLimiter(metrics, min, max, 0.5, 0.75, SAMPLE_WINDOW);
+    }
+}
@@ -0,0 +1,187 @@
+// Copyright 2020 IBM Corp. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.ibm.replay;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.opengroup.osdu.core.ibm.messagebus.IMessageFactory;
+import org.opengroup.osdu.indexerqueue.ibm.indexer.IndexerConcurrencyLimiter;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class DlqReplayServiceTest {
+
+    @Mock
+    private ObjectProvider<DeadLetterQueue> deadLetterQueueProvider;
+    @Mock
+    private IMessageFactory mq;
+    @Mock
+    private IndexerConcurrencyLimiter limiter;
+
+    private final InMemoryDeadLetterQueue dlq = new InMemoryDeadLetterQueue();
+    private final List<String> replayed = new CopyOnWriteArrayList<>();
+    private DlqReplayService service;
+
+    @BeforeEach
+    public void setUp() {
+        lenient().when(deadLetterQueueProvider.getIfAvailable()).thenReturn(dlq);
+        lenient().doAnswer(invocation -> replayed.add(invocation.getArgument(0))).when(mq).sendMessage(anyString());
+        lenient().doAnswer(invocation -> dlq.messages.addLast(invocation.getArgument(0))).when(mq).sendMessageDLQ(anyString());
+        service = new DlqReplayService(deadLetterQueueProvider, mq, limiter, 1000, 1);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        service.destroy();
+    }
+
+    @Test
+    public void shouldReplayMessagesOfPartition_andPutTheOthersBack() throws InterruptedException {
+        dlq.add(message("opendes", "c1", null), message("tenant1", "c2", null), message("opendes", "c3", null));
+
+        ReplayProgress progress = awaitFinished(service.start("opendes", null, null, null));
+
+        assertEquals(ReplayProgress.State.COMPLETED, progress.getState());
+        assertEquals(2, progress.getReplayed());
+        assertEquals(1, progress.getSkipped());
+        assertEquals(2, replayed.size());
+        assertEquals(1, dlq.messages.size());
+        assertTrue(dlq.messages.peekFirst().contains("tenant1"));
+    }
+
+    @Test
+    public void shouldFilterOnErrorCode() throws InterruptedException {
+        dlq.add(message("opendes", "c1", "500"), message("opendes", "c2", "404"));
+
+        ReplayProgress progress = awaitFinished(service.start(null, "500", null, null));
+
+        assertEquals(1, progress.getReplayed());
+        assertTrue(replayed.get(0).contains("c1"));
+        assertTrue(dlq.messages.peekFirst().contains("c2"));
+    }
+
+    @Test
+    public void shouldNotStopEarly_onSkippedMessagesWithSameBody() throws InterruptedException {
+        String skipped = message("tenant1", "c1", null);
+        dlq.add(skipped, skipped, message("opendes", "c2", null));
+
+        ReplayProgress progress = awaitFinished(service.start("opendes", null, null, null));
+
+        assertEquals(1, progress.getReplayed());
+        assertEquals(2, progress.getSkipped());
+        assertEquals(2, dlq.messages.size());
+    }
+
+    @Test
+    public void shouldStopOnUntaggableMessage_comingRoundAgain() throws InterruptedException {
+        dlq.add("not a record changed message", message("opendes", "c1", null));
+
+        ReplayProgress progress = awaitFinished(service.start(null, null, null, null));
+
+        assertEquals(ReplayProgress.State.COMPLETED, progress.getState());
+        assertEquals(1, progress.getReplayed());
+        assertEquals(1, progress.getSkipped());
+        assertEquals(Arrays.asList("not a record changed message"), new ArrayList<>(dlq.messages));
+    }
+
+    @Test
+    public void shouldRemoveReplayTag_whenReplaying() throws InterruptedException {
+        dlq.add("{\"data\":\"[]\",\"attributes\":{\"data-partition-id\":\"opendes\",\"replayId\":\"earlier\"}}");
+
+        awaitFinished(service.start(null, null, null, null));
+
+        assertEquals(1, replayed.size());
+        assertFalse(replayed.get(0).contains("replayId"));
+    }
+
+    @Test
+    public void shouldStopAtLimit() throws InterruptedException {
+        dlq.add(message("opendes", "c1", null), message("opendes", "c2", null), message("opendes", "c3", null));
+
+        ReplayProgress progress = awaitFinished(service.start(null, null, null, 2L));
+
+        assertEquals(2, progress.getReplayed());
+        assertEquals(1, dlq.messages.size());
+    }
+
+    @Test
+    public void shouldWaitWhileIndexerIsSaturated() throws InterruptedException {
+        when(limiter.isSaturated()).thenReturn(true, true, false);
+        dlq.add(message("opendes", "c1", null));
+
+        ReplayProgress progress = awaitFinished(service.start(null, null, null, null));
+
+        assertEquals(1, progress.getReplayed());
+    }
+
+    @Test
+    public void shouldRejectInvalidRate() {
+        assertThrows(IllegalArgumentException.class, () -> service.start(null, null, 0.0, null));
+    }
+
+    private static ReplayProgress awaitFinished(ReplayProgress progress) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (progress.isRunning() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(progress.isRunning(), "replay did not finish");
+        return progress;
+    }
+
+    private static String message(String partition, String correlationId, String errorCode) {
+        return "{\"data\":\"[{\\\"id\\\":\\\"" + partition + ":doc:1\\\",\\\"kind\\\":\\\"" + partition
+            + ":wks:well:1.0.0\\\",\\\"op\\\":\\\"create\\\"}]\",\"attributes\":{\"data-partition-id\":\"" + partition
+            + "\",\"correlation-id\":\"" + correlationId + "\"" + (errorCode == null ? "" : ",\"errorCode\":\"" + errorCode + "\"")
+            + "}}";
+    }
+
+    private static class InMemoryDeadLetterQueue implements DeadLetterQueue {
+
+        private final Deque<String> messages = new ConcurrentLinkedDeque<>();
+
+        void add(String... msgs) {
+            messages.addAll(Arrays.asList(msgs));
+        }
+
+        @Override
+        public void drain(BooleanSupplier proceed, Consumer<String> handler) {
+            while (proceed.getAsBoolean() && !messages.isEmpty()) {
+                handler.accept(messages.pollFirst());
+            }
+        }
+    }
+}
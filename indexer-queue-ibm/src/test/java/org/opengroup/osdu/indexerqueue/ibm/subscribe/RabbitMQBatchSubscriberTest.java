@@ -0,0 +1,148 @@
+// Copyright 2020 IBM Corp. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.ibm.subscribe;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import com.rabbitmq.client.Channel;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.opengroup.osdu.core.common.model.http.DpsHeaders;
+import org.opengroup.osdu.core.common.model.search.RecordChangedMessages;
+import org.opengroup.osdu.indexerqueue.ibm.metrics.SubscriberMetrics;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+public class RabbitMQBatchSubscriberTest {
+
+    @Mock
+    private RabbitMQSubscriber subscriber;
+    @Mock
+    private SubscriberMetrics metrics;
+    @Mock
+    private Channel channel;
+    @InjectMocks
+    private RabbitMQBatchSubscriber batchSubscriber;
+
+    @BeforeEach
+    public void setUp() {
+        ReflectionTestUtils.setField(batchSubscriber, "topicFlag", "false");
+        lenient().when(subscriber.getIndexerHeaders(any(RecordChangedMessages.class))).thenAnswer(invocation -> {
+            RecordChangedMessages recordMessage = invocation.getArgument(0);
+            return DpsHeaders.createFromMap(recordMessage.getAttributes());
+        });
+    }
+
+    @Test
+    public void shouldMergeMessages_withSameHeaders_intoOneCall() throws IOException {
+        batchSubscriber.receivedRabbitMessages(Arrays.asList(
+            message(1, "opendes", "c1", "1"),
+            message(2, "opendes", "c1", "2")), channel);
+
+        ArgumentCaptor<List<String>> msgs = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
+        verify(subscriber).callIndexer(msgs.capture(), body.capture(), any(), eq(1));
+        assertEquals(2, msgs.getValue().size());
+        assertEquals(2, countRecords(body.getValue()));
+        verify(channel).basicAck(2, true);
+    }
+
+    @Test
+    public void shouldNotMerge_messagesWithOtherCorrelationOrPartition() throws IOException {
+        batchSubscriber.receivedRabbitMessages(Arrays.asList(
+            message(1, "opendes", "c1", "1"),
+            message(2, "opendes", "c2", "2"),
+            message(3, "tenant1", "c1", "3")), channel);
+
+        ArgumentCaptor<Map<String, String>> headers = ArgumentCaptor.forClass(Map.class);
+        verify(subscriber, times(3)).callIndexer(anyList(), anyString(), headers.capture(), eq(1));
+        assertEquals("c2", headers.getAllValues().get(1).get(DpsHeaders.CORRELATION_ID));
+        assertEquals("tenant1", headers.getAllValues().get(2).get(DpsHeaders.DATA_PARTITION_ID));
+        verify(channel).basicAck(3, true);
+    }
+
+    @Test
+    public void shouldRequeueFailedGroupOnly_andAcknowledgeTheOthers() throws IOException {
+        // lenient, the calls of the other groups do not match this stubbing
+        lenient().when(subscriber.callIndexer(anyList(), anyString(), argThat(headers -> "c2".equals(headers.get(DpsHeaders.CORRELATION_ID))), eq(1)))
+            .thenThrow(new IllegalStateException("scheduler unavailable"));
+
+        batchSubscriber.receivedRabbitMessages(Arrays.asList(
+            message(1, "opendes", "c1", "1"),
+            message(2, "opendes", "c2", "2"),
+            message(3, "opendes", "c1", "3")), channel);
+
+        verify(channel).basicAck(1, false);
+        verify(channel).basicNack(2, false, true);
+        verify(channel).basicAck(3, false);
+        verify(channel, never()).basicAck(anyLong(), eq(true));
+        verify(channel, never()).basicNack(anyLong(), eq(true), anyBoolean());
+    }
+
+    @Test
+    public void shouldDeadLetterInvalidMessage_andAcknowledgeIt() throws IOException {
+        Message invalid = message(1, "{\"attributes\":{\"data-partition-id\":\"opendes\"}}");
+
+        batchSubscriber.receivedRabbitMessages(Arrays.asList(invalid, message(2, "opendes", "c1", "2")), channel);
+
+        verify(subscriber).sendToDLQ(Collections.singletonList(new String(invalid.getBody(), StandardCharsets.UTF_8)),
+            SubscriberMetrics.DLQ_INVALID);
+        verify(channel).basicAck(2, true);
+    }
+
+    private static int countRecords(String body) {
+        RecordChangedMessages merged = new Gson().fromJson(body, RecordChangedMessages.class);
+        return JsonParser.parseString(merged.getData()).getAsJsonArray().size();
+    }
+
+    private static Message message(long deliveryTag, String partition, String correlationId, String recordId) {
+        return message(deliveryTag, "{\"data\":\"[{\\\"id\\\":\\\"" + partition + ":doc:" + recordId
+            + "\\\",\\\"kind\\\":\\\"" + partition + ":wks:well:1.0.0\\\",\\\"op\\\":\\\"create\\\"}]\","
+            + "\"attributes\":{\"data-partition-id\":\"" + partition + "\",\"correlation-id\":\"" + correlationId + "\"}}");
+    }
+
+    private static Message message(long deliveryTag, String body) {
+        MessageProperties properties = new MessageProperties();
+        properties.setDeliveryTag(deliveryTag);
+        return new Message(body.getBytes(StandardCharsets.UTF_8), properties);
+    }
+}
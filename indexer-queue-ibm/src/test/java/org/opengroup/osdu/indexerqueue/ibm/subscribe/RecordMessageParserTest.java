@@ -0,0 +1,99 @@
+// Copyright 2020 IBM Corp. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.ibm.subscribe;
+
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import org.opengroup.osdu.core.common.model.http.AppException;
+import org.opengroup.osdu.core.common.model.search.RecordChangedMessages;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RecordMessageParserTest {
+
+    private static final String DATA = "[{\\\"id\\\":\\\"opendes:doc:1\\\",\\\"kind\\\":\\\"opendes:wks:well:1.0.0\\\",\\\"op\\\":\\\"create\\\"}]";
+
+    private final RecordMessageParser parser = new RecordMessageParser();
+
+    @Test
+    public void shouldParseAttributesObject_andLowerCaseMixedCaseKeys() {
+        String msg = "{\"data\":\"" + DATA + "\",\"attributes\":{\"Data-Partition-Id\":\"opendes\",\"correlation-id\":\"c1\",\"errorCode\":\"500\"}}";
+
+        RecordChangedMessages recordMessage = parser.parse(msg);
+
+        assertEquals("opendes", recordMessage.getDataPartitionId());
+        assertEquals("c1", recordMessage.getCorrelationId());
+        assertEquals("500", recordMessage.getAttributes().get("errorcode"));
+        assertFalse(recordMessage.getAttributes().containsKey("Data-Partition-Id"));
+        assertTrue(JsonParser.parseString(recordMessage.getData()).isJsonArray());
+    }
+
+    @Test
+    public void shouldParseTopLevelAttributes() {
+        String msg = "{\"data\":\"" + DATA + "\",\"data-partition-id\":\"opendes\",\"correlation-id\":\"c1\"}";
+
+        RecordChangedMessages recordMessage = parser.parse(msg);
+
+        assertEquals("opendes", recordMessage.getDataPartitionId());
+        assertEquals("c1", recordMessage.getCorrelationId());
+    }
+
+    @Test
+    public void shouldRejectAttributesObject_withoutTenant() {
+        String msg = "{\"data\":\"" + DATA + "\",\"attributes\":{\"correlation-id\":\"c1\"}}";
+
+        assertThrows(AppException.class, () -> parser.parse(msg));
+    }
+
+    @Test
+    public void shouldRejectTopLevelAttributes_withoutTenant() {
+        String msg = "{\"data\":\"" + DATA + "\",\"correlation-id\":\"c1\"}";
+
+        assertThrows(AppException.class, () -> parser.parse(msg));
+    }
+
+    @Test
+    public void shouldRejectMessage_withoutData() {
+        assertThrows(AppException.class, () -> parser.parse("{\"attributes\":{\"data-partition-id\":\"opendes\"}}"));
+    }
+
+    @Test
+    public void shouldRejectInvalidJson() {
+        assertThrows(AppException.class, () -> parser.parse("{\"data\":"));
+    }
+
+    @Test
+    public void shouldAddAndRemoveAttribute() {
+        String msg = "{\"data\":\"" + DATA + "\",\"attributes\":{\"data-partition-id\":\"opendes\"}}";
+
+        String tagged = parser.withAttribute(msg, RecordMessageParser.REPLAY_ID_ATTRIBUTE, "r1");
+
+        assertEquals("r1", parser.parse(tagged).getAttributes().get("replayid"));
+        String untagged = parser.withoutAttribute(tagged, RecordMessageParser.REPLAY_ID_ATTRIBUTE);
+        assertFalse(parser.parse(untagged).getAttributes().containsKey("replayid"));
+    }
+
+    @Test
+    public void shouldLeaveMessage_withoutAttributesObject_unchanged() {
+        String msg = "{\"data\":\"" + DATA + "\",\"data-partition-id\":\"opendes\",\"correlation-id\":\"c1\"}";
+
+        assertSame(msg, parser.withAttribute(msg, RecordMessageParser.ERROR_CODE_ATTRIBUTE, "500"));
+        assertSame(msg, parser.withoutAttribute(msg, RecordMessageParser.ERROR_CODE_ATTRIBUTE));
+    }
+}
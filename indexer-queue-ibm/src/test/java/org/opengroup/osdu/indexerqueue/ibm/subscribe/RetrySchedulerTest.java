@@ -0,0 +1,92 @@
+// Copyright 2020 IBM Corp. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.ibm.subscribe;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RetrySchedulerTest {
+
+    private RetryScheduler scheduler;
+
+    @AfterEach
+    public void tearDown() {
+        if (scheduler != null) {
+            scheduler.destroy();
+        }
+    }
+
+    @Test
+    public void shouldBackOffExponentially_withEqualJitter_upToMaximum() {
+        scheduler = new RetryScheduler(1000, 60000, 1, 10);
+
+        for (int i = 0; i < 100; i++) {
+            long first = scheduler.nextDelayMillis(1);
+            long third = scheduler.nextDelayMillis(3);
+            long capped = scheduler.nextDelayMillis(20);
+            assertTrue(first >= 500 && first <= 1000, "first delay " + first);
+            assertTrue(third >= 2000 && third <= 4000, "third delay " + third);
+            assertTrue(capped >= 30000 && capped <= 60000, "capped delay " + capped);
+        }
+    }
+
+    @Test
+    public void shouldRunRetry_afterDelay() throws InterruptedException {
+        scheduler = new RetryScheduler(1, 1, 1, 10);
+        CountDownLatch retried = new CountDownLatch(1);
+        AtomicInteger discarded = new AtomicInteger();
+
+        scheduler.schedule(retried::countDown, discarded::incrementAndGet, 1);
+
+        assertTrue(retried.await(5, TimeUnit.SECONDS));
+        assertEquals(0, discarded.get());
+    }
+
+    @Test
+    public void shouldRefuseRetry_whenTooManyArePending() {
+        scheduler = new RetryScheduler(60000, 60000, 1, 1);
+        AtomicInteger actions = new AtomicInteger();
+
+        long first = scheduler.schedule(actions::incrementAndGet, actions::incrementAndGet, 1);
+        long second = scheduler.schedule(actions::incrementAndGet, actions::incrementAndGet, 1);
+
+        assertTrue(first > 0);
+        assertEquals(RetryScheduler.NOT_SCHEDULED, second);
+        assertEquals(1, scheduler.getPending());
+        assertEquals(0, actions.get());
+    }
+
+    @Test
+    public void shouldRunDiscardActions_ofPendingRetries_onShutdown() {
+        RetryScheduler pending = new RetryScheduler(60000, 60000, 1, 10);
+        AtomicInteger retried = new AtomicInteger();
+        AtomicInteger discarded = new AtomicInteger();
+        pending.schedule(retried::incrementAndGet, discarded::incrementAndGet, 1);
+        pending.schedule(retried::incrementAndGet, discarded::incrementAndGet, 2);
+
+        pending.destroy();
+
+        assertEquals(0, retried.get());
+        assertEquals(2, discarded.get());
+        assertEquals(0, pending.getPending());
+    }
+}
@@ -0,0 +1,122 @@
+// Copyright 2020 IBM Corp. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.opengroup.osdu.indexerqueue.ibm.subscribe;
+
+import com.google.gson.JsonParser;
+import jakarta.jms.MessageProducer;
+import jakarta.jms.Session;
+import jakarta.jms.TextMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.opengroup.osdu.core.common.http.HttpResponse;
+import org.opengroup.osdu.core.ibm.messagebus.IMessageFactory;
+import org.opengroup.osdu.indexerqueue.ibm.indexer.IndexerClient;
+import org.opengroup.osdu.indexerqueue.ibm.metrics.SubscriberMetrics;
+import org.opengroup.osdu.indexerqueue.ibm.scope.ThreadDpsHeaders;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.core.ProducerCallback;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class SubscriberTest {
+
+    private static final String QUEUE = "dev-indexer-queue";
+    private static final String DATA = "[{\\\"id\\\":\\\"opendes:doc:1\\\",\\\"kind\\\":\\\"opendes:wks:well:1.0.0\\\",\\\"op\\\":\\\"create\\\"}]";
+
+    @Mock
+    private IMessageFactory mq;
+    @Mock
+    private ThreadDpsHeaders threadDpsHeaders;
+    @Mock
+    private IndexerClient indexerClient;
+    @Mock
+    private RetryScheduler retryScheduler;
+    @Mock
+    private JmsTemplate jmsTemplate;
+    @Mock
+    private SubscriberMetrics metrics;
+    @InjectMocks
+    private Subscriber subscriber;
+
+    @BeforeEach
+    public void setUp() {
+        ReflectionTestUtils.setField(subscriber, "RETRY_COUNT", 3);
+        ReflectionTestUtils.setField(subscriber, "queueName", QUEUE);
+        ReflectionTestUtils.setField(subscriber, "topicFlag", "false");
+    }
+
+    @Test
+    public void shouldResetLegacyRetryAttribute_whenExhaustedMessageIsDeadLettered() throws Exception {
+        subscriber.recievedMessage(message("\"retry\":\"3\""), null, null);
+
+        ArgumentCaptor<String> dlqMessage = ArgumentCaptor.forClass(String.class);
+        verify(mq).sendMessageDLQ(dlqMessage.capture());
+        assertEquals("0", JsonParser.parseString(dlqMessage.getValue()).getAsJsonObject()
+            .getAsJsonObject("attributes").get("retry").getAsString());
+        verifyNoInteractions(indexerClient, jmsTemplate);
+    }
+
+    @Test
+    public void shouldSendInvalidMessageToDlq_insteadOfRollingBack() throws Exception {
+        String invalid = "{\"data\":\"" + DATA + "\",\"attributes\":{\"correlation-id\":\"c1\"}}";
+
+        subscriber.recievedMessage(invalid, null, null);
+
+        verify(mq).sendMessageDLQ(invalid);
+        verify(metrics).recordDlqSend(SubscriberMetrics.DLQ_INVALID);
+        verifyNoInteractions(indexerClient, jmsTemplate, threadDpsHeaders);
+    }
+
+    @Test
+    public void shouldSetSchedulerDelay_andDeliveryDelay_whenMessageIsRequeued() throws Exception {
+        HttpResponse response = mock(HttpResponse.class);
+        when(response.getResponseCode()).thenReturn(503);
+        when(response.getBody()).thenReturn("{\"code\":503,\"message\":\"indexer unavailable\"}");
+        when(indexerClient.send(anyString(), any())).thenReturn(response);
+        when(retryScheduler.nextDelayMillis(1)).thenReturn(2000L);
+        Session session = mock(Session.class);
+        MessageProducer producer = mock(MessageProducer.class);
+        TextMessage requeued = mock(TextMessage.class);
+        when(session.createTextMessage(anyString())).thenReturn(requeued);
+        when(jmsTemplate.execute(eq(QUEUE), any(ProducerCallback.class)))
+            .thenAnswer(invocation -> invocation.<ProducerCallback<?>>getArgument(1).doInJms(session, producer));
+
+        subscriber.recievedMessage(message(null), null, null);
+
+        verify(requeued).setIntProperty(Subscriber.RETRY_PROPERTY, 1);
+        verify(requeued).setLongProperty(Subscriber.SCHEDULED_DELAY_PROPERTY, 2000L);
+        verify(producer).setDeliveryDelay(2000L);
+        verify(producer).send(requeued);
+    }
+
+    private static String message(String extraAttribute) {
+        return "{\"data\":\"" + DATA + "\",\"attributes\":{\"data-partition-id\":\"opendes\",\"correlation-id\":\"c1\""
+            + (extraAttribute == null ? "" : "," + extraAttribute) + "}}";
+    }
+}